@@ -0,0 +1,334 @@
+package com.ncc.aif;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.sparql.expr.NodeValue;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+import org.topbraid.shacl.engine.Constraint;
+import org.topbraid.shacl.validation.ValidationEngine;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.ncc.aif.AidaAnnotationOntology.*;
+
+/**
+ * Native implementations of the sh:sparql constraints in the AIF SHACL files, registered with
+ * {@link SPARQLExecutorRegistry} by {@link #register()}. Each executor reports exactly the solutions of its query.
+ * Queries that aggregate over the whole graph (e.g., counting hypotheses) are left to SPARQL.
+ *
+ * @author Next Century Corporation
+ */
+public final class AIFSPARQLExecutors {
+    private static final Node RDF_TYPE = RDF.type.asNode();
+
+    // aida_ontology.shacl: EntityShape and EventRelationShape
+    static final String TYPED_OR_NON_PROTOTYPE_MEMBER = "\n" +
+            "            PREFIX rdf:   <http://www.w3.org/1999/02/22-rdf-syntax-ns#>\n" +
+            "            PREFIX aida:  <https://tac.nist.gov/tracks/SM-KBP/2019/ontologies/InterchangeOntology#>\n" +
+            "            SELECT $this\n" +
+            "            WHERE {\n" +
+            "                FILTER ( NOT EXISTS {\n" +
+            "                        $this ^rdf:subject / rdf:predicate rdf:type .\n" +
+            "                    } && ( NOT EXISTS { $this ^aida:clusterMember ?membership . } ||\n" +
+            "                           EXISTS { $this ^aida:prototype ?cluster . } )\n" +
+            "                )\n" +
+            "            }\n" +
+            "        ";
+
+    // aida_ontology.shacl: RestrictNameProperty, RestrictTextProperty and RestrictNumericProperty
+    private static final String HAS_TYPE_SUBCLASS_OF = "\n" +
+            "            PREFIX rdf:   <http://www.w3.org/1999/02/22-rdf-syntax-ns#>\n" +
+            "            PREFIX rdfs:  <http://www.w3.org/2000/01/rdf-schema#>\n" +
+            "            PREFIX aidaDomainCommon: <https://tac.nist.gov/tracks/SM-KBP/2019/ontologies/AidaDomainOntologiesCommon#>\n" +
+            "            SELECT $this\n" +
+            "            WHERE {\n" +
+            "                ?typeAssertion rdf:subject $this .\n" +
+            "                ?typeAssertion rdf:predicate rdf:type .\n" +
+            "                ?typeAssertion rdf:object ?type .\n" +
+            "                FILTER NOT EXISTS {\n" +
+            "                    ?type rdfs:subClassOf+|rdf:type/rdfs:subClassOf* aidaDomainCommon:%s .\n" +
+            "                }\n" +
+            "            }\n" +
+            "        ";
+
+    // restricted_aif.shacl: EntityShape and EventRelationShape
+    static final String CLUSTERED = "\n" +
+            "            PREFIX aida:  <https://tac.nist.gov/tracks/SM-KBP/2019/ontologies/InterchangeOntology#>\n" +
+            "            SELECT $this\n" +
+            "            WHERE {\n" +
+            "                FILTER NOT EXISTS {\n" +
+            "                    ?membership a aida:ClusterMembership .\n" +
+            "                    ?membership aida:clusterMember $this .\n" +
+            "                }\n" +
+            "            }\n" +
+            "        ";
+
+    // restricted_aif.shacl: EdgeJustificationCount
+    static final String EDGE_JUSTIFICATION_COUNT = "\n" +
+            "        PREFIX aida:  <https://tac.nist.gov/tracks/SM-KBP/2019/ontologies/InterchangeOntology#>\n" +
+            "        SELECT $this (COUNT(DISTINCT ?source) AS $value)\n" +
+            "        WHERE {\n" +
+            "            $this aida:justifiedBy ?x .\n" +
+            "            ?x a aida:CompoundJustification .\n" +
+            "            OPTIONAL { ?x aida:containedJustification ?source }\n" +
+            "        }\n" +
+            "        GROUP BY $this ?x\n" +
+            "        HAVING (COUNT(?source) > 2 || COUNT(?source) < 1)\n" +
+            "    ";
+
+    // restricted_aif.shacl: InformativeJustificationMembersUniqueParentDoc
+    static final String INFORMATIVE_JUSTIFICATION_UNIQUE_PARENT_DOC = "\n" +
+            "        PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#>\n" +
+            "        PREFIX aida:  <https://tac.nist.gov/tracks/SM-KBP/2019/ontologies/InterchangeOntology#>\n" +
+            "      \tSELECT $this\n" +
+            "      \tWHERE {\n" +
+            "      \t    $this aida:informativeJustification ?mentions .\n" +
+            "      \t    ?mentions aida:sourceDocument ?parentDoc\n" +
+            "      \t}\n" +
+            "      \tGROUP BY $this\n" +
+            "      \tHAVING (COUNT(DISTINCT ?parentDoc) < COUNT(DISTINCT ?mentions))\n" +
+            "    ";
+
+    // restricted_hypothesis_aif.shacl: HypothesisClusterMembersSameAsBaseClass
+    static final String CLUSTER_MEMBERS_SAME_AS_BASE_CLASS = "\n" +
+            "        PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#>\n" +
+            "        PREFIX aida:  <https://tac.nist.gov/tracks/SM-KBP/2019/ontologies/InterchangeOntology#>\n" +
+            "        SELECT $this (?member AS $value)\n" +
+            "        WHERE {\n" +
+            "      \t    ?membership aida:cluster $this .\n" +
+            "            ?membership aida:clusterMember ?member .\n" +
+            "            ?member rdf:type ?memberType .\n" +
+            "            $this aida:prototype/rdf:type ?prototypeType .\n" +
+            "            FILTER ( ?memberType != ?prototypeType )\n" +
+            "        }\n" +
+            "    ";
+
+    private AIFSPARQLExecutors() {
+    }
+
+    /**
+     * Registers the native executors for the AIF sh:sparql constraints with {@link SPARQLExecutorRegistry}.
+     */
+    public static void register() {
+        SPARQLExecutorRegistry.register(TYPED_OR_NON_PROTOTYPE_MEMBER, TypedOrNonPrototypeMember::new);
+        for (Resource canHave : new Resource[] { AidaDomainOntologiesCommon.CanHaveName,
+                AidaDomainOntologiesCommon.CanHaveTextValue, AidaDomainOntologiesCommon.CanHaveNumericValue }) {
+            SPARQLExecutorRegistry.register(String.format(HAS_TYPE_SUBCLASS_OF, canHave.getLocalName()),
+                    constraint -> new HasTypeSubClassOf(constraint, canHave.asNode()));
+        }
+        SPARQLExecutorRegistry.register(CLUSTERED, Clustered::new);
+        SPARQLExecutorRegistry.register(EDGE_JUSTIFICATION_COUNT, EdgeJustificationCount::new);
+        SPARQLExecutorRegistry.register(INFORMATIVE_JUSTIFICATION_UNIQUE_PARENT_DOC,
+                InformativeJustificationUniqueParentDoc::new);
+        SPARQLExecutorRegistry.register(CLUSTER_MEMBERS_SAME_AS_BASE_CLASS, ClusterMembersSameAsBaseClass::new);
+    }
+
+    private static boolean hasSubjectOf(Graph graph, Node predicate, Node object) {
+        List<Node> indexed = indexedSubjects(graph, predicate, object);
+        if (indexed != null) {
+            return !indexed.isEmpty();
+        }
+        ExtendedIterator<Triple> it = graph.find(Node.ANY, predicate, object);
+        try {
+            return it.hasNext();
+        } finally {
+            it.close();
+        }
+    }
+
+    private static List<Node> objects(Graph graph, Node subject, Node predicate) {
+        return graph.find(subject, predicate, Node.ANY).mapWith(Triple::getObject).toList();
+    }
+
+    private static List<Node> subjects(Graph graph, Node predicate, Node object) {
+        List<Node> indexed = indexedSubjects(graph, predicate, object);
+        return indexed != null ? indexed : graph.find(Node.ANY, predicate, object).mapWith(Triple::getSubject).toList();
+    }
+
+    // The subjects from the graph's inverse index, or null if it has none for predicate
+    private static List<Node> indexedSubjects(Graph graph, Node predicate, Node object) {
+        return graph instanceof InverseIndexedGraph ?
+                ((InverseIndexedGraph) graph).getSubjects(predicate, object) : null;
+    }
+
+    /**
+     * Entity (or event or relation) must have type assertion or be non-prototype member of cluster
+     */
+    static class TypedOrNonPrototypeMember extends NativeSPARQLConstraintExecutor {
+        TypedOrNonPrototypeMember(Constraint constraint) {
+            super(constraint);
+        }
+
+        @Override
+        protected void validate(Constraint constraint, ValidationEngine engine, Graph graph, RDFNode focusNode) {
+            Node node = focusNode.asNode();
+            boolean typed = false;
+            for (Node assertion : subjects(graph, RDF.subject.asNode(), node)) {
+                if (graph.contains(assertion, RDF.predicate.asNode(), RDF_TYPE)) {
+                    typed = true;
+                    break;
+                }
+            }
+            if (!typed && (!hasSubjectOf(graph, CLUSTER_MEMBER.asNode(), node) ||
+                    hasSubjectOf(graph, PROTOTYPE.asNode(), node))) {
+                createResult(constraint, engine, focusNode, null);
+            }
+        }
+    }
+
+    /**
+     * Node must only have asserted types that are (by subclass or by type) subclasses of a class, e.g., CanHaveName
+     */
+    static class HasTypeSubClassOf extends NativeSPARQLConstraintExecutor {
+        private final Node superClass;
+
+        HasTypeSubClassOf(Constraint constraint, Node superClass) {
+            super(constraint);
+            this.superClass = superClass;
+        }
+
+        // Uses the threaded engine's subclass index
+        @Override
+        protected boolean canExecute(ValidationEngine engine) {
+            return engine instanceof ThreadedValidationEngine;
+        }
+
+        @Override
+        protected void validate(Constraint constraint, ValidationEngine engine, Graph graph, RDFNode focusNode) {
+            ClassHierarchyIndex index = ((ThreadedValidationEngine) engine).getClassIndex();
+            for (Node assertion : subjects(graph, RDF.subject.asNode(), focusNode.asNode())) {
+                if (!graph.contains(assertion, RDF.predicate.asNode(), RDF_TYPE)) {
+                    continue;
+                }
+                for (Node type : objects(graph, assertion, RDF.object.asNode())) {
+                    if (!isSubClass(graph, index, type)) {
+                        createResult(constraint, engine, focusNode, null);
+                    }
+                }
+            }
+        }
+
+        // ?type rdfs:subClassOf+|rdf:type/rdfs:subClassOf* superClass
+        private boolean isSubClass(Graph graph, ClassHierarchyIndex index, Node type) {
+            for (Node parent : objects(graph, type, RDFS.subClassOf.asNode())) {
+                if (index.isSubClassOf(parent, superClass)) {
+                    return true;
+                }
+            }
+            for (Node typeOfType : objects(graph, type, RDF_TYPE)) {
+                if (index.isSubClassOf(typeOfType, superClass)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Entities (or events and relations) must be clustered
+     */
+    static class Clustered extends NativeSPARQLConstraintExecutor {
+        Clustered(Constraint constraint) {
+            super(constraint);
+        }
+
+        @Override
+        protected void validate(Constraint constraint, ValidationEngine engine, Graph graph, RDFNode focusNode) {
+            for (Node membership : subjects(graph, CLUSTER_MEMBER.asNode(), focusNode.asNode())) {
+                if (graph.contains(membership, RDF_TYPE, CLUSTER_MEMBERSHIP_CLASS.asNode())) {
+                    return;
+                }
+            }
+            createResult(constraint, engine, focusNode, null);
+        }
+    }
+
+    /**
+     * Exactly 1 or 2 contained justifications required for an edge
+     */
+    static class EdgeJustificationCount extends NativeSPARQLConstraintExecutor {
+        EdgeJustificationCount(Constraint constraint) {
+            super(constraint);
+        }
+
+        @Override
+        protected void validate(Constraint constraint, ValidationEngine engine, Graph graph, RDFNode focusNode) {
+            for (Node justification : objects(graph, focusNode.asNode(), JUSTIFIED_BY.asNode())) {
+                if (!graph.contains(justification, RDF_TYPE, COMPOUND_JUSTIFICATION_CLASS.asNode())) {
+                    continue;
+                }
+                int sources = objects(graph, justification, CONTAINED_JUSTIFICATION.asNode()).size();
+                if (sources > 2 || sources < 1) {
+                    RDFNode value = focusNode.getModel().asRDFNode(NodeValue.makeInteger(sources).asNode());
+                    createResult(constraint, engine, focusNode, value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Each informative mention of a node must point to a different source document
+     */
+    static class InformativeJustificationUniqueParentDoc extends NativeSPARQLConstraintExecutor {
+        InformativeJustificationUniqueParentDoc(Constraint constraint) {
+            super(constraint);
+        }
+
+        @Override
+        protected void validate(Constraint constraint, ValidationEngine engine, Graph graph, RDFNode focusNode) {
+            int mentions = 0;
+            Set<Node> parentDocs = new HashSet<>();
+            for (Node mention : objects(graph, focusNode.asNode(), INFORMATIVE_JUSTIFICATION.asNode())) {
+                List<Node> docs = objects(graph, mention, SOURCE_DOCUMENT.asNode());
+                if (!docs.isEmpty()) {
+                    mentions++;
+                    parentDocs.addAll(docs);
+                }
+            }
+            if (parentDocs.size() < mentions) {
+                createResult(constraint, engine, focusNode, null);
+            }
+        }
+    }
+
+    /**
+     * All clusters must have homogeneous members by base class
+     */
+    static class ClusterMembersSameAsBaseClass extends NativeSPARQLConstraintExecutor {
+        ClusterMembersSameAsBaseClass(Constraint constraint) {
+            super(constraint);
+        }
+
+        @Override
+        protected void validate(Constraint constraint, ValidationEngine engine, Graph graph, RDFNode focusNode) {
+            Node cluster = focusNode.asNode();
+            List<Node> prototypeTypes = new ArrayList<>();
+            for (Node prototype : objects(graph, cluster, PROTOTYPE.asNode())) {
+                prototypeTypes.addAll(objects(graph, prototype, RDF_TYPE));
+            }
+            if (prototypeTypes.isEmpty()) {
+                return;
+            }
+            for (Node membership : subjects(graph, CLUSTER_PROPERTY.asNode(), cluster)) {
+                for (Node member : objects(graph, membership, CLUSTER_MEMBER.asNode())) {
+                    RDFNode value = focusNode.getModel().asRDFNode(member);
+                    for (Node memberType : objects(graph, member, RDF_TYPE)) {
+                        for (Node prototypeType : prototypeTypes) {
+                            if (!memberType.equals(prototypeType)) {
+                                createResult(constraint, engine, focusNode, value);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,413 @@
+package com.ncc.aif;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.query.ARQ;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.QuerySolutionMap;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.sparql.algebra.Algebra;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.algebra.OpVisitorBase;
+import org.apache.jena.sparql.algebra.OpWalker;
+import org.apache.jena.sparql.algebra.Table;
+import org.apache.jena.sparql.algebra.TableFactory;
+import org.apache.jena.sparql.algebra.TransformCopy;
+import org.apache.jena.sparql.algebra.Transformer;
+import org.apache.jena.sparql.algebra.op.OpTable;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.ResultBinding;
+import org.apache.jena.sparql.core.Substitute;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.ExecutionContext;
+import org.apache.jena.sparql.engine.QueryIterator;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.engine.binding.BindingMap;
+import org.apache.jena.sparql.engine.iterator.QueryIterRoot;
+import org.apache.jena.sparql.engine.main.QC;
+import org.apache.jena.sparql.expr.Expr;
+import org.apache.jena.sparql.expr.ExprFunctionOp;
+import org.apache.jena.sparql.expr.ExprVars;
+import org.apache.jena.sparql.syntax.Element;
+import org.apache.jena.sparql.syntax.ElementAssign;
+import org.apache.jena.sparql.syntax.ElementBind;
+import org.apache.jena.sparql.syntax.ElementData;
+import org.apache.jena.sparql.syntax.ElementFilter;
+import org.apache.jena.sparql.syntax.ElementGroup;
+import org.apache.jena.sparql.syntax.ElementNamedGraph;
+import org.apache.jena.sparql.syntax.ElementOptional;
+import org.apache.jena.sparql.syntax.ElementPathBlock;
+import org.apache.jena.sparql.syntax.ElementTriplesBlock;
+import org.apache.jena.sparql.syntax.ElementUnion;
+import org.apache.jena.sparql.util.Context;
+import org.topbraid.jenax.statistics.ExecStatisticsManager;
+import org.topbraid.jenax.util.JenaDatatypes;
+import org.topbraid.jenax.util.JenaUtil;
+import org.topbraid.shacl.arq.SHACLPaths;
+import org.topbraid.shacl.arq.functions.HasShapeFunction;
+import org.topbraid.shacl.engine.Constraint;
+import org.topbraid.shacl.engine.ShapesGraph;
+import org.topbraid.shacl.validation.ValidationEngine;
+import org.topbraid.shacl.validation.sparql.AbstractSPARQLExecutor;
+import org.topbraid.shacl.validation.sparql.SPARQLConstraintExecutor;
+import org.topbraid.shacl.vocabulary.SH;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Executes a sh:sparql constraint set-at-a-time. The constraint's query is compiled once into an optimized ARQ
+ * {@link Op} in which <code>$this</code> is joined against a VALUES table instead of being pre-bound, and that plan is
+ * then evaluated against batches of focus nodes (see {@link ThreadedValidationEngine#setSPARQLBatchSize(int)}). The
+ * rows of a batch are redistributed to their focus nodes, so results are the same as those of TopBraid's
+ * {@link SPARQLConstraintExecutor}, which prepares and runs the query once per focus node.
+ * <p>
+ * Only queries for which joining <code>$this</code> against VALUES is equivalent to pre-binding it are batched, e.g.,
+ * <code>$this</code> may not be used inside a sub-query, MINUS or a nested FILTER. All other queries, focus nodes whose
+ * query reports a failure, and engines that record details or statistics are left to TopBraid.
+ *
+ * @author Next Century Corporation
+ */
+public class BatchedSPARQLConstraintExecutor extends SPARQLConstraintExecutor {
+    private static final Var THIS = SH.thisVar;
+
+    // Stands in for the batch in the compiled plan. Two rows, so that the optimizer cannot treat it as a constant.
+    private final Node placeholder = NodeFactory.createBlankNode();
+    private final Node placeholderSecondRow = NodeFactory.createBlankNode();
+    private final boolean batchable;
+    private volatile Plan plan;
+
+    // The compiled query of a constraint, for the shapes graph that was bound when it was compiled
+    private static final class Plan {
+        private final URI shapesGraphURI;
+        private final Op op;
+
+        private Plan(URI shapesGraphURI, Op op) {
+            this.shapesGraphURI = shapesGraphURI;
+            this.op = op;
+        }
+    }
+
+    public BatchedSPARQLConstraintExecutor(Constraint constraint) {
+        super(constraint);
+        batchable = isBatchable(getQuery());
+    }
+
+    @Override
+    public void executeConstraint(Constraint constraint, ValidationEngine engine, Collection<RDFNode> focusNodes) {
+        int batchSize = engine instanceof ThreadedValidationEngine ?
+                ((ThreadedValidationEngine) engine).getSPARQLBatchSize() : 0;
+        if (!batchable || batchSize <= 0 || engine.getConfiguration().getReportDetails() ||
+                AbstractSPARQLExecutor.createSuccessResults || ExecStatisticsManager.get().isRecording()) {
+            super.executeConstraint(constraint, engine, focusNodes);
+            return;
+        }
+        if (constraint.getParameterValue().asResource().hasProperty(SH.deactivated, JenaDatatypes.TRUE)) {
+            return;
+        }
+        Op op = getPlan(constraint, engine);
+        if (op == null) {
+            super.executeConstraint(constraint, engine, focusNodes);
+            return;
+        }
+
+        URI oldShapesGraphURI = HasShapeFunction.getShapesGraphURI();
+        ShapesGraph oldShapesGraph = HasShapeFunction.getShapesGraph();
+        boolean shapesGraphChanged = !engine.getShapesGraphURI().equals(oldShapesGraphURI);
+        if (shapesGraphChanged) {
+            HasShapeFunction.setShapesGraph(engine.getShapesGraph(), engine.getShapesGraphURI());
+        }
+        Model oldResultsModel = HasShapeFunction.getResultsModel();
+        HasShapeFunction.setResultsModel(JenaUtil.createMemoryModel());
+        try {
+            QuerySolutionMap bindings = getBindings(constraint, engine);
+            List<RDFNode> batch = new ArrayList<>(Math.min(batchSize, focusNodes.size()));
+            for (RDFNode focusNode : focusNodes) {
+                batch.add(focusNode);
+                if (batch.size() == batchSize) {
+                    executeBatch(op, constraint, engine, batch, bindings);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                executeBatch(op, constraint, engine, batch, bindings);
+            }
+        } finally {
+            if (shapesGraphChanged) {
+                HasShapeFunction.setShapesGraph(oldShapesGraph, oldShapesGraphURI);
+            }
+            HasShapeFunction.setResultsModel(oldResultsModel);
+        }
+    }
+
+    // The bindings that TopBraid adds to every execution of the query, except $this
+    private static QuerySolutionMap getBindings(Constraint constraint, ValidationEngine engine) {
+        QuerySolutionMap bindings = new QuerySolutionMap();
+        bindings.add(SH.currentShapeVar.getVarName(), constraint.getShapeResource());
+        bindings.add(SH.shapesGraphVar.getVarName(),
+                ResourceFactory.createResource(engine.getShapesGraphURI().toString()));
+        Resource path = constraint.getShapeResource().getPath();
+        if (path != null && path.isURIResource()) {
+            bindings.add(SH.PATHVar.getName(), path);
+        }
+        return bindings;
+    }
+
+    /**
+     * Returns the compiled plan of the constraint's query for the engine's shapes graph, compiling it if necessary.
+     *
+     * @return the plan, or null if the query cannot be batched
+     */
+    private Op getPlan(Constraint constraint, ValidationEngine engine) {
+        Plan current = plan;
+        if (current == null || !current.shapesGraphURI.equals(engine.getShapesGraphURI())) {
+            current = new Plan(engine.getShapesGraphURI(), compile(constraint, engine));
+            plan = current;
+        }
+        return current.op;
+    }
+
+    private Op compile(Constraint constraint, ValidationEngine engine) {
+        Query query = getQuery().cloneQuery();
+        ElementData values = new ElementData();
+        values.add(THIS);
+        values.add(BindingFactory.binding(THIS, placeholder));
+        values.add(BindingFactory.binding(THIS, placeholderSecondRow));
+        ElementGroup pattern = new ElementGroup();
+        pattern.addElement(values);
+        ((ElementGroup) query.getQueryPattern()).getElements().forEach(pattern::addElement);
+        query.setQueryPattern(pattern);
+
+        BindingMap constants = BindingFactory.create();
+        getBindings(constraint, engine).asMap().forEach((name, node) -> constants.add(Var.alloc(name), node.asNode()));
+        Op op = Algebra.optimize(Substitute.substitute(Algebra.compile(query), constants));
+
+        // The batch is swapped in by identity, so the optimizer must have kept exactly one placeholder
+        int[] placeholders = {0};
+        OpWalker.walk(op, new OpVisitorBase() {
+            @Override
+            public void visit(OpTable opTable) {
+                if (isPlaceholder(opTable)) {
+                    placeholders[0]++;
+                }
+            }
+        });
+        return placeholders[0] == 1 ? op : null;
+    }
+
+    private boolean isPlaceholder(OpTable opTable) {
+        Table table = opTable.getTable();
+        if (table.getVars().size() != 1 || !THIS.equals(table.getVars().get(0))) {
+            return false;
+        }
+        for (Iterator<Binding> it = table.rows(); it.hasNext(); ) {
+            if (placeholder.equals(it.next().get(THIS))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void executeBatch(Op plan, Constraint constraint, ValidationEngine engine, List<RDFNode> batch,
+                              QuerySolutionMap bindings) {
+        Table table = TableFactory.create(Collections.singletonList(THIS));
+        Set<Node> batchNodes = new HashSet<>();
+        for (RDFNode focusNode : batch) {
+            if (batchNodes.add(focusNode.asNode())) {
+                table.addBinding(BindingFactory.binding(THIS, focusNode.asNode()));
+            }
+        }
+        Op op = Transformer.transform(new TransformCopy() {
+            @Override
+            public Op transform(OpTable opTable) {
+                return isPlaceholder(opTable) ? OpTable.create(table) : opTable;
+            }
+        }, plan);
+
+        DatasetGraph dsg = engine.getDataset().asDatasetGraph();
+        Context context = Context.setupContextForDataset(ARQ.getContext(), dsg);
+        Context.setCurrentDateTime(context);
+        // Cancellation is only checked after each batch, so reads of the data stop the query once the task's time
+        // budget expires
+        Graph activeGraph = engine instanceof ThreadedValidationEngine ?
+                ((ThreadedValidationEngine) engine).getTimeBudgetedGraph(dsg.getDefaultGraph()) : dsg.getDefaultGraph();
+        ExecutionContext execCxt = new ExecutionContext(context, activeGraph, dsg, QC.getFactory(context));
+        Model model = engine.getDataset().getDefaultModel();
+
+        // Rows of each focus node, and the focus nodes for which the query reported a failure
+        Map<Node, List<QuerySolution>> solutions = new HashMap<>();
+        Set<Node> failures = new HashSet<>();
+        QueryIterator it = QC.execute(op, QueryIterRoot.create(execCxt), execCxt);
+        try {
+            while (it.hasNext()) {
+                QuerySolution solution = new ResultBinding(model, it.nextBinding());
+                RDFNode thisValue = solution.get(THIS.getVarName());
+                if (thisValue == null) {
+                    continue;
+                }
+                if (JenaDatatypes.TRUE.equals(solution.get(SH.failureVar.getName()))) {
+                    failures.add(thisValue.asNode());
+                }
+                solutions.computeIfAbsent(thisValue.asNode(), node -> new ArrayList<>()).add(solution);
+            }
+        } finally {
+            it.close();
+        }
+
+        for (RDFNode focusNode : batch) {
+            if (failures.contains(focusNode.asNode())) {
+                super.executeConstraint(constraint, engine, Collections.singletonList(focusNode));
+                continue;
+            }
+            List<QuerySolution> rows = solutions.get(focusNode.asNode());
+            if (rows != null) {
+                QuerySolutionMap focusBindings = new QuerySolutionMap();
+                focusBindings.addAll(bindings);
+                focusBindings.add(THIS.getVarName(), focusNode);
+                for (QuerySolution row : rows) {
+                    createResult(constraint, engine, focusNode, row, focusBindings);
+                }
+            }
+        }
+        engine.checkCanceled();
+    }
+
+    // Adds the result for one row, as TopBraid does for rows that are not failures
+    private void createResult(Constraint constraint, ValidationEngine engine, RDFNode focusNode, QuerySolution row,
+                              QuerySolution bindings) {
+        Resource result = engine.createResult(SH.ValidationResult, constraint, row.get(THIS.getVarName()));
+        if (SH.SPARQLConstraintComponent.equals(constraint.getComponent())) {
+            result.addProperty(SH.sourceConstraint, constraint.getParameterValue());
+        }
+
+        RDFNode selectMessage = row.get(SH.message.getLocalName());
+        if (selectMessage != null) {
+            result.addProperty(SH.resultMessage, selectMessage);
+        } else if (constraint.getShapeResource().hasProperty(SH.message)) {
+            for (Statement message : constraint.getShapeResource().listProperties(SH.message).toList()) {
+                result.addProperty(SH.resultMessage, message.getObject());
+            }
+        } else {
+            addDefaultMessages(engine, getSPARQLExecutable(constraint), constraint.getComponent(), result, bindings,
+                    row);
+        }
+
+        RDFNode path = row.get(SH.pathVar.getVarName());
+        if (path != null && path.isURIResource()) {
+            result.addProperty(SH.resultPath, path);
+        } else if (constraint.getShapeResource().isPropertyShape()) {
+            Resource shapePath = constraint.getShapeResource().getPropertyResourceValue(SH.path);
+            result.addProperty(SH.resultPath, SHACLPaths.clonePath(shapePath, result.getModel()));
+        }
+
+        if (!SH.HasValueConstraintComponent.equals(constraint.getComponent())) {
+            RDFNode value = row.get(SH.valueVar.getVarName());
+            if (value != null) {
+                result.addProperty(SH.value, value);
+            } else if (SH.NodeShape.equals(constraint.getContext())) {
+                result.addProperty(SH.value, focusNode);
+            }
+        }
+    }
+
+    private static void addDefaultMessages(ValidationEngine engine, Resource messageHolder, Resource fallback,
+                                           Resource result, QuerySolution bindings, QuerySolution row) {
+        boolean found = false;
+        for (Statement message : messageHolder.listProperties(SH.message).toList()) {
+            if (message.getObject().isLiteral()) {
+                QuerySolutionMap map = new QuerySolutionMap();
+                map.addAll(bindings);
+                map.addAll(row);
+                engine.addResultMessage(result, message.getLiteral(), map);
+                found = true;
+            }
+        }
+        if (!found && fallback != null) {
+            addDefaultMessages(engine, fallback, null, result, bindings, row);
+        }
+    }
+
+    /**
+     * Returns whether joining <code>$this</code> of <code>query</code> against a VALUES table of focus nodes gives the
+     * same rows for each focus node as pre-binding <code>$this</code> to it. That is the case if every use of
+     * <code>$this</code> sees the join, i.e., it is only mentioned in triple patterns, and in filters and binds of the
+     * top-level group, and the query has no solution modifiers that span focus nodes.
+     */
+    static boolean isBatchable(Query query) {
+        if (!query.isSelectType() || query.hasLimit() || query.hasOffset() || query.hasValues() ||
+                !query.getGraphURIs().isEmpty() || !query.getNamedGraphURIs().isEmpty() ||
+                !query.getProjectVars().contains(THIS) || query.getProject().hasExpr(THIS)) {
+            return false;
+        }
+        if ((query.hasGroupBy() || query.hasAggregators()) &&
+                (!query.getGroupBy().contains(THIS) || query.getGroupBy().hasExpr(THIS))) {
+            return false;
+        }
+        if (!(query.getQueryPattern() instanceof ElementGroup)) {
+            return false;
+        }
+        for (Element element : ((ElementGroup) query.getQueryPattern()).getElements()) {
+            if (!isBatchable(element, true)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // topLevel is true for the elements of the query's top-level group
+    private static boolean isBatchable(Element element, boolean topLevel) {
+        if (element instanceof ElementPathBlock || element instanceof ElementTriplesBlock) {
+            return true;
+        } else if (element instanceof ElementGroup) {
+            return ((ElementGroup) element).getElements().stream().allMatch(e -> isBatchable(e, false));
+        } else if (element instanceof ElementOptional) {
+            return isBatchable(((ElementOptional) element).getOptionalElement(), false);
+        } else if (element instanceof ElementUnion) {
+            return ((ElementUnion) element).getElements().stream().allMatch(e -> isBatchable(e, false));
+        } else if (element instanceof ElementNamedGraph) {
+            return isBatchable(((ElementNamedGraph) element).getElement(), false);
+        } else if (element instanceof ElementFilter) {
+            return isBatchable(((ElementFilter) element).getExpr(), topLevel);
+        } else if (element instanceof ElementBind) {
+            ElementBind bind = (ElementBind) element;
+            return !THIS.equals(bind.getVar()) && isBatchable(bind.getExpr(), topLevel);
+        } else if (element instanceof ElementAssign) {
+            ElementAssign assign = (ElementAssign) element;
+            return !THIS.equals(assign.getVar()) && isBatchable(assign.getExpr(), topLevel);
+        }
+        // Sub-queries, MINUS, SERVICE, VALUES, etc.
+        return false;
+    }
+
+    // Expressions of the top-level group see $this from the join. Elsewhere, they must not depend on it.
+    private static boolean isBatchable(Expr expr, boolean topLevel) {
+        if (topLevel) {
+            return true;
+        }
+        return !hasGraphPattern(expr) && !ExprVars.getVarsMentioned(expr).contains(THIS);
+    }
+
+    // Whether expr contains EXISTS or NOT EXISTS, whose patterns may use $this
+    private static boolean hasGraphPattern(Expr expr) {
+        if (expr instanceof ExprFunctionOp) {
+            return true;
+        }
+        return expr.isFunction() && expr.getFunction().getArgs().stream()
+                .anyMatch(BatchedSPARQLConstraintExecutor::hasGraphPattern);
+    }
+}
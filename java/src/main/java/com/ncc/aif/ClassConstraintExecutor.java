@@ -24,10 +24,15 @@ public class ClassConstraintExecutor implements ConstraintExecutor {
     @Override
     public void executeConstraint(Constraint constraint, ValidationEngine engine, Collection<RDFNode> focusNodes) {
         RDFNode classType = constraint.getParameterValue();
+        ClassHierarchyIndex index = engine instanceof ThreadedValidationEngine ?
+                ((ThreadedValidationEngine) engine).getClassIndex() : null;
         for(RDFNode focusNode : focusNodes) {
             engine.checkCanceled();
             for(RDFNode valueNode : engine.getValueNodes(constraint, focusNode)) {
-                if (!valueNode.isResource() || !hasClass(valueNode.asResource().getPropertyResourceValue(RDF.type), classType)) {
+                boolean hasClass = valueNode.isResource() && (index != null ?
+                        index.hasClass(valueNode.getModel().getGraph(), valueNode.asNode(), classType.asNode()) :
+                        hasClass(valueNode.asResource(), classType));
+                if (!hasClass) {
                     Resource result = engine.createResult(SH.ValidationResult, constraint, focusNode);
                     result.addProperty(SH.value, valueNode);
                     Resource path = constraint.getShapeResource().getPath();
@@ -50,7 +55,16 @@ public class ClassConstraintExecutor implements ConstraintExecutor {
         }
     }
 
-    private static boolean hasClass(RDFNode current, RDFNode classType) {
+    private static boolean hasClass(Resource valueNode, RDFNode classType) {
+        for (Statement type : valueNode.listProperties(RDF.type).toList()) {
+            if (isSubClassOf(type.getObject(), classType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isSubClassOf(RDFNode current, RDFNode classType) {
         if (current == null || classType == null) {
             return false;
         } else if (current.equals(classType)) {
@@ -61,7 +75,7 @@ public class ClassConstraintExecutor implements ConstraintExecutor {
                     .mapWith(Statement::getObject)
                     .toList();
             for (RDFNode next : nodes) {
-                if (hasClass(next, classType)) {
+                if (isSubClassOf(next, classType)) {
                     return true;
                 }
             }
@@ -0,0 +1,120 @@
+package com.ncc.aif;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable index of the reflexive, transitive closure of <code>rdfs:subClassOf</code> in a graph, such as the union
+ * of a KB with the domain and interchange ontologies. Each class that appears in a <code>rdfs:subClassOf</code> triple
+ * gets an id and a {@link BitSet} of the ids of its ancestors, so subclass checks are constant time and do not allocate.
+ * It is safe to use from multiple threads.
+ *
+ * @author Next Century Corporation
+ */
+final class ClassHierarchyIndex {
+    private final Map<Node, Integer> classIds;
+    private final BitSet[] ancestors;
+
+    private ClassHierarchyIndex(Map<Node, Integer> classIds, BitSet[] ancestors) {
+        this.classIds = classIds;
+        this.ancestors = ancestors;
+    }
+
+    /**
+     * Builds the subclass closure of <code>graph</code>. Only <code>rdfs:subClassOf</code> triples are read.
+     *
+     * @param graph the graph to index
+     * @return an index of the subclass closure of <code>graph</code>
+     */
+    static ClassHierarchyIndex of(Graph graph) {
+        Map<Node, Integer> classIds = new HashMap<>();
+        List<List<Integer>> superClasses = new ArrayList<>();
+        ExtendedIterator<Triple> it = graph.find(Node.ANY, RDFS.subClassOf.asNode(), Node.ANY);
+        try {
+            while (it.hasNext()) {
+                Triple triple = it.next();
+                if (triple.getObject().isLiteral()) {
+                    continue;
+                }
+                int subClass = classIds.computeIfAbsent(triple.getSubject(), node -> newClass(superClasses));
+                int superClass = classIds.computeIfAbsent(triple.getObject(), node -> newClass(superClasses));
+                superClasses.get(subClass).add(superClass);
+            }
+        } finally {
+            it.close();
+        }
+
+        // Walk up from each class. Hierarchies are shallow, and this tolerates subclass cycles.
+        BitSet[] ancestors = new BitSet[superClasses.size()];
+        Deque<Integer> pending = new ArrayDeque<>();
+        for (int id = 0; id < ancestors.length; id++) {
+            BitSet closure = new BitSet(ancestors.length);
+            closure.set(id);
+            pending.add(id);
+            while (!pending.isEmpty()) {
+                for (int superClass : superClasses.get(pending.remove())) {
+                    if (!closure.get(superClass)) {
+                        closure.set(superClass);
+                        pending.add(superClass);
+                    }
+                }
+            }
+            ancestors[id] = closure;
+        }
+        return new ClassHierarchyIndex(classIds, ancestors);
+    }
+
+    private static int newClass(List<List<Integer>> superClasses) {
+        superClasses.add(new ArrayList<>(1));
+        return superClasses.size() - 1;
+    }
+
+    /**
+     * @return true if <code>type</code> is <code>classType</code> or one of its (transitive) subclasses
+     */
+    boolean isSubClassOf(Node type, Node classType) {
+        if (type.equals(classType)) {
+            return true;
+        }
+        Integer typeId = classIds.get(type);
+        Integer classId = classIds.get(classType);
+        return typeId != null && classId != null && ancestors[typeId].get(classId);
+    }
+
+    /**
+     * @return true if any <code>rdf:type</code> of <code>node</code> in <code>graph</code> is <code>classType</code> or
+     * one of its subclasses
+     */
+    boolean hasClass(Graph graph, Node node, Node classType) {
+        ExtendedIterator<Triple> it = graph.find(node, RDF.type.asNode(), Node.ANY);
+        try {
+            while (it.hasNext()) {
+                if (isSubClassOf(it.next().getObject(), classType)) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            it.close();
+        }
+    }
+
+    /**
+     * @return the number of classes in the index
+     */
+    int size() {
+        return ancestors.length;
+    }
+}
@@ -0,0 +1,260 @@
+package com.ncc.aif;
+
+import org.apache.jena.datatypes.RDFDatatype;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.rdf.model.RDFList;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.sparql.expr.Expr;
+import org.apache.jena.sparql.expr.ExprNotComparableException;
+import org.apache.jena.sparql.expr.NodeValue;
+import org.topbraid.jenax.util.JenaDatatypes;
+import org.topbraid.jenax.util.JenaUtil;
+import org.topbraid.shacl.engine.Constraint;
+import org.topbraid.shacl.validation.ConstraintExecutor;
+import org.topbraid.shacl.validation.ConstraintExecutors;
+import org.topbraid.shacl.validation.ValidationEngine;
+import org.topbraid.shacl.vocabulary.SH;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.IntPredicate;
+
+/**
+ * Implements handling of the core constraint components used on most AIF shapes (sh:minCount, sh:maxCount,
+ * sh:datatype, sh:nodeKind, sh:closed, sh:minInclusive, sh:maxInclusive and sh:maxLength) against a
+ * {@link FocusNodeScan}. {@link ThreadedValidationEngine} checks all such constraints of a shape against a single scan
+ * of each focus node. Results are the same as those of TopBraid's implementations.
+ *
+ * @author Next Century Corporation
+ */
+final class CoreConstraintExecutors {
+    private CoreConstraintExecutors() {
+    }
+
+    /**
+     * Replaces TopBraid's executors for the supported components.
+     */
+    static void register() {
+        ConstraintExecutors executors = ConstraintExecutors.get();
+        executors.addSpecialExecutor(SH.MinCountConstraintComponent, MinCount::new);
+        executors.addSpecialExecutor(SH.MaxCountConstraintComponent, MaxCount::new);
+        executors.addSpecialExecutor(SH.DatatypeConstraintComponent, Datatype::new);
+        executors.addSpecialExecutor(SH.NodeKindConstraintComponent, NodeKind::new);
+        executors.addSpecialExecutor(SH.ClosedConstraintComponent, Closed::new);
+        executors.addSpecialExecutor(SH.MinInclusiveConstraintComponent,
+                constraint -> new Inclusive(constraint, "greater than or equal to", c -> c == Expr.CMP_LESS || c == Expr.CMP_EQUAL));
+        executors.addSpecialExecutor(SH.MaxInclusiveConstraintComponent,
+                constraint -> new Inclusive(constraint, "less than or equal to", c -> c == Expr.CMP_GREATER || c == Expr.CMP_EQUAL));
+        executors.addSpecialExecutor(SH.MaxLengthConstraintComponent, MaxLength::new);
+    }
+
+    /**
+     * Base class for executors that can check a focus node against a {@link FocusNodeScan}
+     */
+    abstract static class ScanConstraintExecutor implements ConstraintExecutor {
+        @Override
+        public void executeConstraint(Constraint constraint, ValidationEngine engine, Collection<RDFNode> focusNodes) {
+            for (RDFNode focusNode : focusNodes) {
+                validate(constraint, engine, new FocusNodeScan(focusNode));
+                engine.checkCanceled();
+            }
+        }
+
+        /**
+         * Validates the focus node of <code>scan</code> against <code>constraint</code>.
+         */
+        abstract void validate(Constraint constraint, ValidationEngine engine, FocusNodeScan scan);
+
+        static Collection<RDFNode> getValueNodes(Constraint constraint, ValidationEngine engine, FocusNodeScan scan) {
+            Collection<RDFNode> valueNodes = scan.getValueNodes(constraint);
+            return valueNodes != null ? valueNodes : engine.getValueNodes(constraint, scan.getFocusNode());
+        }
+    }
+
+    static class MinCount extends ScanConstraintExecutor {
+        private final int minCount;
+
+        MinCount(Constraint constraint) {
+            minCount = constraint.getParameterValue().asLiteral().getInt();
+        }
+
+        @Override
+        void validate(Constraint constraint, ValidationEngine engine, FocusNodeScan scan) {
+            int count = getValueNodes(constraint, engine, scan).size();
+            if (count < minCount) {
+                engine.createValidationResult(constraint, scan.getFocusNode(), null,
+                        () -> "Property needs to have at least " + minCount + " values, but found " + count);
+            }
+        }
+    }
+
+    static class MaxCount extends ScanConstraintExecutor {
+        private final int maxCount;
+
+        MaxCount(Constraint constraint) {
+            maxCount = constraint.getParameterValue().asLiteral().getInt();
+        }
+
+        @Override
+        void validate(Constraint constraint, ValidationEngine engine, FocusNodeScan scan) {
+            int count = getValueNodes(constraint, engine, scan).size();
+            if (count > maxCount) {
+                engine.createValidationResult(constraint, scan.getFocusNode(), null, () -> "Property may only have " +
+                        maxCount + " value" + (maxCount == 1 ? "" : "s") + ", but found " + count);
+            }
+        }
+    }
+
+    static class Datatype extends ScanConstraintExecutor {
+        private final String datatypeURI;
+        private final RDFDatatype datatype;
+        private final String message;
+
+        Datatype(Constraint constraint) {
+            datatypeURI = constraint.getParameterValue().asNode().getURI();
+            datatype = NodeFactory.getType(datatypeURI);
+            message = "Value must be a valid literal of type " +
+                    constraint.getParameterValue().asResource().getLocalName();
+        }
+
+        @Override
+        void validate(Constraint constraint, ValidationEngine engine, FocusNodeScan scan) {
+            for (RDFNode valueNode : getValueNodes(constraint, engine, scan)) {
+                Node node = valueNode.asNode();
+                if (!node.isLiteral() || !datatypeURI.equals(node.getLiteralDatatypeURI()) ||
+                        !datatype.isValid(node.getLiteralLexicalForm())) {
+                    engine.createValidationResult(constraint, scan.getFocusNode(), valueNode, () -> message);
+                }
+            }
+        }
+    }
+
+    static class NodeKind extends ScanConstraintExecutor {
+        private final boolean blankNode;
+        private final boolean iri;
+        private final boolean literal;
+        private final String message;
+
+        NodeKind(Constraint constraint) {
+            RDFNode kind = constraint.getParameterValue();
+            if (SH.BlankNode.equals(kind) || SH.BlankNodeOrIRI.equals(kind) || SH.BlankNodeOrLiteral.equals(kind) ||
+                    SH.IRI.equals(kind) || SH.IRIOrLiteral.equals(kind) || SH.Literal.equals(kind)) {
+                blankNode = SH.BlankNode.equals(kind) || SH.BlankNodeOrIRI.equals(kind) ||
+                        SH.BlankNodeOrLiteral.equals(kind);
+                iri = SH.IRI.equals(kind) || SH.BlankNodeOrIRI.equals(kind) || SH.IRIOrLiteral.equals(kind);
+                literal = SH.Literal.equals(kind) || SH.BlankNodeOrLiteral.equals(kind) ||
+                        SH.IRIOrLiteral.equals(kind);
+            } else {
+                throw new IllegalArgumentException("Unsupported sh:nodeKind " + kind);
+            }
+            message = "Value does not have node kind " + kind.asResource().getLocalName();
+        }
+
+        @Override
+        void validate(Constraint constraint, ValidationEngine engine, FocusNodeScan scan) {
+            for (RDFNode valueNode : getValueNodes(constraint, engine, scan)) {
+                if (!(blankNode && valueNode.isAnon() || iri && valueNode.isURIResource() ||
+                        literal && valueNode.isLiteral())) {
+                    engine.createValidationResult(constraint, scan.getFocusNode(), valueNode, () -> message);
+                }
+            }
+        }
+    }
+
+    static class Closed extends ScanConstraintExecutor {
+        private final boolean closed;
+        private final Set<Node> allowedProperties = new HashSet<>();
+
+        Closed(Constraint constraint) {
+            Resource shape = constraint.getShapeResource();
+            closed = shape.hasProperty(SH.closed, JenaDatatypes.TRUE);
+            RDFList ignored = JenaUtil.getListProperty(shape, SH.ignoredProperties);
+            if (ignored != null) {
+                ignored.iterator().forEachRemaining(property -> allowedProperties.add(property.asNode()));
+            }
+            for (Resource property : JenaUtil.getResourceProperties(shape, SH.property)) {
+                Resource path = property.getPropertyResourceValue(SH.path);
+                if (path != null && path.isURIResource()) {
+                    allowedProperties.add(path.asNode());
+                }
+            }
+        }
+
+        @Override
+        void validate(Constraint constraint, ValidationEngine engine, FocusNodeScan scan) {
+            if (!closed) {
+                return;
+            }
+            for (Node predicate : scan.getPredicates()) {
+                if (allowedProperties.contains(predicate)) {
+                    continue;
+                }
+                RDFNode property = scan.getFocusNode().getModel().asRDFNode(predicate);
+                for (RDFNode value : scan.getValues(predicate)) {
+                    Resource result = engine.createValidationResult(constraint, scan.getFocusNode(), value, () ->
+                            "Predicate " + engine.getLabelFunction().apply(property) + " is not allowed (closed shape)");
+                    result.removeAll(SH.resultPath);
+                    result.addProperty(SH.resultPath, property);
+                }
+            }
+        }
+    }
+
+    static class Inclusive extends ScanConstraintExecutor {
+        private final NodeValue bound;
+        private final String operator;
+        private final IntPredicate condition;
+
+        /**
+         * @param condition whether the result of comparing the bound to a value node is allowed
+         */
+        Inclusive(Constraint constraint, String operator, IntPredicate condition) {
+            bound = NodeValue.makeNode(constraint.getParameterValue().asNode());
+            this.operator = operator;
+            this.condition = condition;
+        }
+
+        @Override
+        void validate(Constraint constraint, ValidationEngine engine, FocusNodeScan scan) {
+            for (RDFNode valueNode : getValueNodes(constraint, engine, scan)) {
+                try {
+                    int comparison = NodeValue.compare(bound, NodeValue.makeNode(valueNode.asNode()));
+                    if (comparison == Expr.CMP_INDETERMINATE) {
+                        engine.createValidationResult(constraint, scan.getFocusNode(), valueNode, () ->
+                                "Indeterminant comparison with " + engine.getLabelFunction().apply(constraint.getParameterValue()));
+                    } else if (!condition.test(comparison)) {
+                        engine.createValidationResult(constraint, scan.getFocusNode(), valueNode, () ->
+                                "Value is not " + operator + " " + engine.getLabelFunction().apply(constraint.getParameterValue()));
+                    }
+                } catch (ExprNotComparableException e) {
+                    engine.createValidationResult(constraint, scan.getFocusNode(), valueNode, () ->
+                            "Cannot compare with " + engine.getLabelFunction().apply(constraint.getParameterValue()));
+                }
+            }
+        }
+    }
+
+    static class MaxLength extends ScanConstraintExecutor {
+        private final int maxLength;
+        private final String message;
+
+        MaxLength(Constraint constraint) {
+            maxLength = constraint.getParameterValue().asLiteral().getInt();
+            message = "Value has more than " + maxLength + " characters";
+        }
+
+        @Override
+        void validate(Constraint constraint, ValidationEngine engine, FocusNodeScan scan) {
+            for (RDFNode valueNode : getValueNodes(constraint, engine, scan)) {
+                if (valueNode.isAnon() ||
+                        valueNode.isURIResource() && valueNode.asNode().getURI().length() > maxLength ||
+                        valueNode.isLiteral() && valueNode.asNode().getLiteralLexicalForm().length() > maxLength) {
+                    engine.createValidationResult(constraint, scan.getFocusNode(), valueNode, () -> message);
+                }
+            }
+        }
+    }
+}
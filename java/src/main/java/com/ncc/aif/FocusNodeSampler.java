@@ -0,0 +1,436 @@
+package com.ncc.aif;
+
+import com.google.common.hash.Hashing;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.vocabulary.RDF;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Selects a reproducible, stratified sample of the focus nodes of each shape for shallow validation, and estimates the
+ * rate of violating focus nodes from the validation results of the sample.
+ * <p>
+ * Focus nodes are stratified by their type (the object of an AIF type assertion, or else their <code>rdf:type</code>),
+ * their system (<code>aida:system</code>), and their source document (<code>aida:sourceDocument</code> or
+ * <code>aida:source</code>, of the node itself or of its justification). If there are more strata than the sample size,
+ * source documents and then systems are dropped from the strata until every stratum can be sampled. Each stratum gets
+ * at least one node, and the rest of the sample is allocated in proportion to the size of the strata. Within a stratum,
+ * nodes are ranked by a seeded hash of their URI (or, for blank nodes, of their neighborhood), so the same KB and seed
+ * always yield the same sample regardless of the order in which the graph returns the nodes.
+ *
+ * @author Next Century Corporation
+ */
+public class FocusNodeSampler {
+    // z-score of the two-sided 95% confidence interval
+    private static final double Z = 1.959964;
+    // Separates the parts of a stratum key
+    private static final String KEY_SEPARATOR = " | ";
+    // Levels of neighboring blank nodes that are described to rank a blank node
+    private static final int BLANK_NODE_DEPTH = 2;
+
+    private final long seed;
+
+    /**
+     * Creates a sampler that selects focus nodes with the specified seed.
+     *
+     * @param seed seed of the sample; the same KB and seed always yield the same sample
+     */
+    public FocusNodeSampler(long seed) {
+        this.seed = seed;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Returns a stratified sample of at most <code>size</code> of the specified focus nodes. If there are no more than
+     * <code>size</code> focus nodes, all of them are returned in a sample that is exact.
+     *
+     * @param shapeName name of the shape whose focus nodes are sampled
+     * @param nodes     focus nodes of the shape
+     * @param size      maximum number of focus nodes to sample, at least 1
+     * @param model     data model in which to look up the properties of the focus nodes
+     * @return the sample
+     * @throws IllegalArgumentException if <code>size</code> is less than 1, since every sample has a stratum
+     */
+    Sample sample(String shapeName, List<RDFNode> nodes, int size, Model model) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Sample size must be at least 1");
+        }
+        if (nodes.size() <= size) {
+            return new Sample(shapeName, Collections.singletonList(new Stratum("*", nodes.size(), nodes)));
+        }
+
+        // Rank all focus nodes and find the strata at every level of detail
+        List<Ranked> ranked = nodes.stream()
+                .map(node -> new Ranked(model.asRDFNode(node.asNode()), model))
+                .sorted(Comparator.comparingLong(r -> r.rank))
+                .collect(Collectors.toList());
+        Map<String, List<Ranked>> strata = null;
+        for (int level = Ranked.LEVELS; level >= 0; level--) {
+            final int l = level;
+            strata = ranked.stream().collect(Collectors.groupingBy(r -> r.getKey(l), TreeMap::new, Collectors.toList()));
+            if (strata.size() <= size) {
+                break;
+            }
+        }
+
+        // Allocate at least one node to each stratum and the rest in proportion to stratum size
+        Map<String, Integer> allocation = new LinkedHashMap<>();
+        strata.keySet().forEach(key -> allocation.put(key, 1));
+        int allocated = strata.size();
+        while (allocated < size) {
+            String next = null;
+            double largest = Double.NEGATIVE_INFINITY;
+            for (Map.Entry<String, List<Ranked>> stratum : strata.entrySet()) {
+                int count = allocation.get(stratum.getKey());
+                if (count < stratum.getValue().size()) {
+                    double shortfall = (double) stratum.getValue().size() * size / nodes.size() - count;
+                    if (shortfall > largest) {
+                        largest = shortfall;
+                        next = stratum.getKey();
+                    }
+                }
+            }
+            allocation.merge(next, 1, Integer::sum);
+            allocated++;
+        }
+
+        List<Stratum> sampled = new ArrayList<>();
+        for (Map.Entry<String, List<Ranked>> stratum : strata.entrySet()) {
+            sampled.add(new Stratum(stratum.getKey(), stratum.getValue().size(),
+                    stratum.getValue().stream()
+                            .limit(allocation.get(stratum.getKey()))
+                            .map(r -> r.node)
+                            .collect(Collectors.toList())));
+        }
+        return new Sample(shapeName, sampled);
+    }
+
+    /**
+     * Estimates the rate of violating focus nodes over the union of the specified samples, each stratum of each sample
+     * being a stratum of the estimate.
+     *
+     * @param name    name of the estimate
+     * @param samples samples to combine
+     * @return the estimate
+     */
+    public static Estimate estimate(String name, Collection<Sample> samples) {
+        long population = 0;
+        int sampleSize = 0;
+        int violating = 0;
+        int strataCount = 0;
+        for (Sample sample : samples) {
+            for (Stratum stratum : sample.strata) {
+                population += stratum.populationSize;
+                sampleSize += stratum.nodes.size();
+                violating += sample.countViolating(stratum);
+                strataCount++;
+            }
+        }
+        if (population == 0) {
+            return new Estimate(name, 0, 0, strataCount, 0, 0, 0, 0);
+        }
+
+        // Stratified estimate of the proportion and its variance, with finite population correction
+        double rate = 0;
+        double variance = 0;
+        for (Sample sample : samples) {
+            for (Stratum stratum : sample.strata) {
+                int n = stratum.nodes.size();
+                if (n == 0) {
+                    continue;
+                }
+                double weight = (double) stratum.populationSize / population;
+                double p = (double) sample.countViolating(stratum) / n;
+                rate += weight * p;
+                if (n > 1) {
+                    double fpc = 1 - (double) n / stratum.populationSize;
+                    variance += weight * weight * fpc * p * (1 - p) / (n - 1);
+                }
+            }
+        }
+        if (sampleSize == population) {
+            return new Estimate(name, population, sampleSize, strataCount, violating, rate, rate, rate);
+        }
+
+        // Wilson score interval at the effective sample size of the stratified design, which stays informative when
+        // no violations are sampled
+        double effective = variance > 0 ? rate * (1 - rate) / variance : sampleSize;
+        double z2 = Z * Z / effective;
+        double center = (rate + z2 / 2) / (1 + z2);
+        double halfWidth = Z / (1 + z2) * Math.sqrt(rate * (1 - rate) / effective + z2 / (4 * effective));
+        return new Estimate(name, population, sampleSize, strataCount, violating, rate,
+                Math.max(0, center - halfWidth), Math.min(1, center + halfWidth));
+    }
+
+    // A focus node with its rank and stratum
+    private class Ranked {
+        static final int LEVELS = 3;
+        final RDFNode node;
+        final long rank;
+        final String[] parts;
+
+        Ranked(RDFNode node, Model model) {
+            this.node = node;
+            this.rank = Hashing.sha256().newHasher()
+                    .putLong(seed)
+                    .putString(getStableKey(node), StandardCharsets.UTF_8)
+                    .hash().asLong();
+            this.parts = node.isResource() ?
+                    new String[]{getType(node.asResource(), model), getSystem(node.asResource()),
+                            getSourceDocument(node.asResource())} :
+                    new String[]{"", "", ""};
+        }
+
+        // The key of the stratum at the specified level of detail, with level 0 being a single stratum
+        String getKey(int level) {
+            return level == 0 ? "*" : String.join(KEY_SEPARATOR, Arrays.copyOf(parts, level));
+        }
+    }
+
+    // URIs and literals are stable across parses, but blank node labels are not, so blank nodes are described by the
+    // triples they are the subject or object of instead. Blank nodes such as confidences are only distinguished by
+    // the node that refers to them.
+    private static String getStableKey(RDFNode node) {
+        return describe(node, BLANK_NODE_DEPTH);
+    }
+
+    private static String describe(RDFNode node, int depth) {
+        if (!node.isAnon()) {
+            return node.toString();
+        }
+        if (depth == 0) {
+            return "[]";
+        }
+        Resource resource = node.asResource();
+        return Stream.concat(
+                resource.listProperties().toList().stream()
+                        .map(statement -> statement.getPredicate() + " " + describe(statement.getObject(), depth - 1)),
+                resource.getModel().listStatements(null, null, resource).toList().stream()
+                        .map(statement -> "^" + statement.getPredicate() + " " + describe(statement.getSubject(), depth - 1)))
+                .sorted()
+                .collect(Collectors.joining("; ", "[", "]"));
+    }
+
+    // The smallest type asserted for the node by an AIF type assertion, or else its smallest rdf:type
+    private static String getType(Resource node, Model model) {
+        String type = model.listSubjectsWithProperty(RDF.subject, node).toList().stream()
+                .filter(assertion -> assertion.hasProperty(RDF.predicate, RDF.type))
+                .map(assertion -> assertion.getProperty(RDF.object))
+                .filter(statement -> statement != null && statement.getObject().isURIResource())
+                .map(statement -> statement.getObject().asResource().getURI())
+                .min(Comparator.naturalOrder())
+                .orElse(null);
+        if (type != null) {
+            return type;
+        }
+        return node.listProperties(RDF.type).toList().stream()
+                .filter(statement -> statement.getObject().isURIResource())
+                .map(statement -> statement.getObject().asResource().getURI())
+                .min(Comparator.naturalOrder())
+                .orElse("");
+    }
+
+    private static String getSystem(Resource node) {
+        Statement system = node.getProperty(AidaAnnotationOntology.SYSTEM_PROPERTY);
+        return system == null ? "" : system.getObject().toString();
+    }
+
+    // The node's own source document, or else that of its (informative) justification
+    private static String getSourceDocument(Resource node) {
+        String document = getOwnSourceDocument(node);
+        if (document != null) {
+            return document;
+        }
+        for (Resource justification : new Resource[]{
+                node.getPropertyResourceValue(AidaAnnotationOntology.JUSTIFIED_BY),
+                node.getPropertyResourceValue(AidaAnnotationOntology.INFORMATIVE_JUSTIFICATION)}) {
+            if (justification != null) {
+                document = getOwnSourceDocument(justification);
+                if (document != null) {
+                    return document;
+                }
+            }
+        }
+        return "";
+    }
+
+    private static String getOwnSourceDocument(Resource node) {
+        Statement document = node.getProperty(AidaAnnotationOntology.SOURCE_DOCUMENT);
+        if (document == null) {
+            document = node.getProperty(AidaAnnotationOntology.SOURCE);
+        }
+        return document == null ? null : document.getObject().toString();
+    }
+
+    // A stratum of the focus nodes of a shape and the nodes sampled from it
+    private static class Stratum {
+        final String key;
+        final int populationSize;
+        final List<RDFNode> nodes;
+
+        Stratum(String key, int populationSize, List<RDFNode> nodes) {
+            this.key = key;
+            this.populationSize = populationSize;
+            this.nodes = nodes;
+        }
+    }
+
+    /**
+     * A stratified sample of the focus nodes of a shape, which records the sampled focus nodes that violate the shape.
+     */
+    public static class Sample {
+        private final String shapeName;
+        private final List<Stratum> strata;
+        private final Set<RDFNode> violating = ConcurrentHashMap.newKeySet();
+
+        private Sample(String shapeName, List<Stratum> strata) {
+            this.shapeName = shapeName;
+            this.strata = strata;
+        }
+
+        /**
+         * @return the sampled focus nodes, interleaved across strata
+         */
+        List<RDFNode> getNodes() {
+            if (strata.size() == 1) {
+                return strata.get(0).nodes;
+            }
+            List<RDFNode> nodes = new ArrayList<>();
+            // interleave the strata so that every prefix of the sample (e.g., the conformance probe) spans them
+            int longest = strata.stream().mapToInt(stratum -> stratum.nodes.size()).max().orElse(0);
+            for (int i = 0; i < longest; i++) {
+                for (Stratum stratum : strata) {
+                    if (i < stratum.nodes.size()) {
+                        nodes.add(stratum.nodes.get(i));
+                    }
+                }
+            }
+            return nodes;
+        }
+
+        /**
+         * Records that the specified sampled focus node violates the shape.
+         */
+        void addViolation(RDFNode focusNode) {
+            violating.add(focusNode);
+        }
+
+        private int countViolating(Stratum stratum) {
+            return (int) stratum.nodes.stream().filter(violating::contains).count();
+        }
+
+        /**
+         * @return the estimated rate of focus nodes that violate the shape
+         */
+        public Estimate estimate() {
+            return FocusNodeSampler.estimate(shapeName, Collections.singletonList(this));
+        }
+    }
+
+    /**
+     * The estimated rate of violating focus nodes, with its 95% confidence interval.
+     */
+    public static class Estimate {
+        private final String name;
+        private final long populationSize;
+        private final int sampleSize;
+        private final int strataCount;
+        private final int violatingCount;
+        private final double rate;
+        private final double lowerBound;
+        private final double upperBound;
+
+        private Estimate(String name, long populationSize, int sampleSize, int strataCount, int violatingCount,
+                         double rate, double lowerBound, double upperBound) {
+            this.name = name;
+            this.populationSize = populationSize;
+            this.sampleSize = sampleSize;
+            this.strataCount = strataCount;
+            this.violatingCount = violatingCount;
+            this.rate = rate;
+            this.lowerBound = lowerBound;
+            this.upperBound = upperBound;
+        }
+
+        /**
+         * @return the name of the shape, or of the combination of shapes, that was sampled
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the number of focus nodes that were sampled from
+         */
+        public long getPopulationSize() {
+            return populationSize;
+        }
+
+        /**
+         * @return the number of focus nodes that were sampled and validated
+         */
+        public int getSampleSize() {
+            return sampleSize;
+        }
+
+        /**
+         * @return the number of strata of the sample
+         */
+        public int getStrataCount() {
+            return strataCount;
+        }
+
+        /**
+         * @return the number of sampled focus nodes that violate their shape
+         */
+        public int getViolatingCount() {
+            return violatingCount;
+        }
+
+        /**
+         * @return the estimated rate of focus nodes that violate their shape
+         */
+        public double getRate() {
+            return rate;
+        }
+
+        /**
+         * @return the lower bound of the 95% confidence interval of the rate
+         */
+        public double getLowerBound() {
+            return lowerBound;
+        }
+
+        /**
+         * @return the upper bound of the 95% confidence interval of the rate
+         */
+        public double getUpperBound() {
+            return upperBound;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %.2f%% (95%% CI %.2f%%-%.2f%%) v=%d n=%d/%d strata=%d", name, rate * 100,
+                    lowerBound * 100, upperBound * 100, violatingCount, sampleSize, populationSize, strataCount);
+        }
+    }
+}
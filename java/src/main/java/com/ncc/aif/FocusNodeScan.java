@@ -0,0 +1,104 @@
+package com.ncc.aif;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.topbraid.shacl.engine.Constraint;
+import org.topbraid.shacl.engine.Shape;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The outgoing triples of one focus node, grouped by predicate. The node's triples are read in a single pass the first
+ * time they are needed, so all constraints of a shape that only look at a node's direct values (e.g., sh:minCount,
+ * sh:datatype, sh:closed) can be checked against one scan instead of each querying the graph. Not thread-safe; a scan
+ * is used by the thread that created it.
+ *
+ * @author Next Century Corporation
+ */
+final class FocusNodeScan {
+    private final RDFNode focusNode;
+    private Map<Node, List<RDFNode>> values;
+
+    FocusNodeScan(RDFNode focusNode) {
+        this.focusNode = focusNode;
+    }
+
+    RDFNode getFocusNode() {
+        return focusNode;
+    }
+
+    /**
+     * @return true if {@link #getValueNodes(Constraint)} can answer for <code>constraint</code>, i.e., its shape is a
+     * node shape or has a single predicate as its path
+     */
+    static boolean canScan(Constraint constraint) {
+        Shape shape = constraint.getShape();
+        return shape.isNodeShape() || shape.getPredicate() != null;
+    }
+
+    /**
+     * Returns the value nodes of <code>constraint</code> for the focus node, as
+     * {@link org.topbraid.shacl.validation.ValidationEngine#getValueNodes(Constraint, RDFNode)} would.
+     *
+     * @return the value nodes, or null if the constraint's path is not a single predicate
+     */
+    Collection<RDFNode> getValueNodes(Constraint constraint) {
+        Shape shape = constraint.getShape();
+        if (shape.isNodeShape()) {
+            return Collections.singletonList(focusNode);
+        }
+        Property predicate = shape.getPredicate();
+        if (predicate == null) {
+            return null;
+        }
+        List<RDFNode> nodes = getValues().get(predicate.asNode());
+        return nodes != null ? nodes : Collections.emptyList();
+    }
+
+    /**
+     * @return the predicates of the focus node's outgoing triples
+     */
+    Set<Node> getPredicates() {
+        return getValues().keySet();
+    }
+
+    /**
+     * @return the objects of the focus node's outgoing triples with <code>predicate</code>
+     */
+    List<RDFNode> getValues(Node predicate) {
+        List<RDFNode> nodes = getValues().get(predicate);
+        return nodes != null ? nodes : Collections.emptyList();
+    }
+
+    private Map<Node, List<RDFNode>> getValues() {
+        if (values == null) {
+            if (!focusNode.isResource()) {
+                values = Collections.emptyMap();
+            } else {
+                values = new HashMap<>();
+                Model model = focusNode.getModel();
+                ExtendedIterator<Triple> it = model.getGraph().find(focusNode.asNode(), Node.ANY, Node.ANY);
+                try {
+                    while (it.hasNext()) {
+                        Triple triple = it.next();
+                        values.computeIfAbsent(triple.getPredicate(), predicate -> new ArrayList<>(2))
+                                .add(model.asRDFNode(triple.getObject()));
+                    }
+                } finally {
+                    it.close();
+                }
+            }
+        }
+        return values;
+    }
+}
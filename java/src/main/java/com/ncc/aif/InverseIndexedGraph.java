@@ -0,0 +1,79 @@
+package com.ncc.aif;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.sparql.graph.GraphWrapper;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.jena.util.iterator.WrappedIterator;
+
+import java.util.List;
+
+/**
+ * A data graph that answers inverse lookups (a property and object, but any subject) from an
+ * {@link InversePropertyIndex} while one is installed. Everything else, including all updates, goes to the wrapped
+ * graph. {@link ThreadedValidationEngine} installs an index of {@link InversePropertyIndex#AIF_PROPERTIES} for the
+ * duration of each validation run, so both native executors and SPARQL queries (e.g.,
+ * <code>$this ^aida:clusterMember ?membership</code>) use it. The graph must not be changed while an index is
+ * installed.
+ *
+ * @author Next Century Corporation
+ */
+class InverseIndexedGraph extends GraphWrapper {
+    private volatile InversePropertyIndex index;
+
+    InverseIndexedGraph(Graph graph) {
+        super(graph);
+    }
+
+    /**
+     * @param index the index of the wrapped graph to answer inverse lookups from, or null to query the wrapped graph
+     */
+    void setIndex(InversePropertyIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Returns the subjects of the triples with <code>property</code> and <code>object</code> from the installed index.
+     *
+     * @return the subjects, or null if no index is installed or it does not cover <code>property</code>
+     */
+    List<Node> getSubjects(Node property, Node object) {
+        InversePropertyIndex current = index;
+        // Literal objects are matched by value in the wrapped graph, so they are not answered from the index
+        return current != null && (object.isURI() || object.isBlank()) ? current.getSubjects(property, object) : null;
+    }
+
+    @Override
+    public ExtendedIterator<Triple> find(Node s, Node p, Node o) {
+        if (s == null || s == Node.ANY) {
+            List<Node> subjects = p != null ? getSubjects(p, o != null ? o : Node.ANY) : null;
+            if (subjects != null) {
+                return WrappedIterator.createNoRemove(subjects.iterator())
+                        .mapWith(subject -> Triple.create(subject, p, o));
+            }
+        }
+        return super.find(s, p, o);
+    }
+
+    @Override
+    public ExtendedIterator<Triple> find(Triple triple) {
+        return find(triple.getMatchSubject(), triple.getMatchPredicate(), triple.getMatchObject());
+    }
+
+    @Override
+    public boolean contains(Node s, Node p, Node o) {
+        if (s == null || s == Node.ANY) {
+            List<Node> subjects = p != null ? getSubjects(p, o != null ? o : Node.ANY) : null;
+            if (subjects != null) {
+                return !subjects.isEmpty();
+            }
+        }
+        return super.contains(s, p, o);
+    }
+
+    @Override
+    public boolean contains(Triple triple) {
+        return contains(triple.getMatchSubject(), triple.getMatchPredicate(), triple.getMatchObject());
+    }
+}
@@ -0,0 +1,100 @@
+package com.ncc.aif;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.jena.vocabulary.RDF;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.ncc.aif.AidaAnnotationOntology.*;
+
+/**
+ * An immutable index from object to subjects for a few properties of a graph. AIF constraints follow
+ * <code>rdf:subject</code>, <code>aida:clusterMember</code>, etc. backwards (e.g.,
+ * <code>$this ^rdf:subject / rdf:predicate rdf:type</code>), and on the union of a KB with the domain ontology such
+ * lookups search every member graph and then remove duplicates. The index answers them with a single map lookup. It is
+ * safe to use from multiple threads.
+ *
+ * @author Next Century Corporation
+ * @see InverseIndexedGraph
+ */
+final class InversePropertyIndex {
+    /**
+     * The properties that AIF constraints use inversely
+     */
+    static final List<Node> AIF_PROPERTIES = Collections.unmodifiableList(Arrays.asList(RDF.subject.asNode(),
+            CLUSTER_MEMBER.asNode(), PROTOTYPE.asNode(), CLUSTER_PROPERTY.asNode(), GRAPH_CONTAINS.asNode()));
+
+    private final Map<Node, Map<Node, List<Node>>> subjects;
+    private final int size;
+
+    private InversePropertyIndex(Map<Node, Map<Node, List<Node>>> subjects, int size) {
+        this.subjects = subjects;
+        this.size = size;
+    }
+
+    /**
+     * Indexes the subjects of each object of <code>properties</code> in <code>graph</code>. Each property's triples
+     * are read once.
+     *
+     * @param graph      the graph to index
+     * @param properties the properties to index
+     * @return an index of the subjects of each object of <code>properties</code>
+     */
+    static InversePropertyIndex of(Graph graph, Collection<Node> properties) {
+        Map<Node, Map<Node, List<Node>>> subjects = new HashMap<>();
+        int size = 0;
+        for (Node property : properties) {
+            Map<Node, List<Node>> objects = new HashMap<>();
+            ExtendedIterator<Triple> it = graph.find(Node.ANY, property, Node.ANY);
+            try {
+                while (it.hasNext()) {
+                    Triple triple = it.next();
+                    objects.computeIfAbsent(triple.getObject(), node -> new ArrayList<>(1)).add(triple.getSubject());
+                    size++;
+                }
+            } finally {
+                it.close();
+            }
+            subjects.put(property, objects);
+        }
+        return new InversePropertyIndex(subjects, size);
+    }
+
+    /**
+     * @return true if the triples of <code>property</code> are indexed
+     */
+    boolean isIndexed(Node property) {
+        return subjects.containsKey(property);
+    }
+
+    /**
+     * Returns the subjects of the triples with <code>property</code> and <code>object</code>, in the order in which the
+     * graph listed them.
+     *
+     * @return an unmodifiable list of the subjects, or null if <code>property</code> is not indexed
+     */
+    List<Node> getSubjects(Node property, Node object) {
+        Map<Node, List<Node>> objects = subjects.get(property);
+        if (objects == null) {
+            return null;
+        }
+        List<Node> nodes = objects.get(object);
+        return nodes != null ? Collections.unmodifiableList(nodes) : Collections.emptyList();
+    }
+
+    /**
+     * @return the number of indexed triples
+     */
+    int size() {
+        return size;
+    }
+}
@@ -0,0 +1,126 @@
+package com.ncc.aif;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.query.QuerySolutionMap;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.Statement;
+import org.topbraid.shacl.arq.SHACLPaths;
+import org.topbraid.shacl.engine.Constraint;
+import org.topbraid.shacl.validation.ConstraintExecutor;
+import org.topbraid.shacl.validation.ValidationEngine;
+import org.topbraid.shacl.validation.sparql.AbstractSPARQLExecutor;
+import org.topbraid.shacl.validation.sparql.SPARQLConstraintExecutor;
+import org.topbraid.shacl.vocabulary.SH;
+
+import java.util.Collection;
+
+/**
+ * Base class for hand-written implementations of specific sh:sparql constraints. Subclasses evaluate the constraint's
+ * SELECT query directly against the data graph, and report each solution with {@link #createResult}, which produces
+ * the same validation result as TopBraid's {@link SPARQLConstraintExecutor}.
+ *
+ * If the engine needs anything a native executor does not produce (result details, success results), or
+ * {@link #canExecute(ValidationEngine)} is false, the constraint is executed with SPARQL instead.
+ *
+ * @author Next Century Corporation
+ * @see SPARQLExecutorRegistry
+ */
+public abstract class NativeSPARQLConstraintExecutor implements ConstraintExecutor {
+    private final Constraint constraint;
+    private volatile ConstraintExecutor fallback;
+
+    protected NativeSPARQLConstraintExecutor(Constraint constraint) {
+        this.constraint = constraint;
+    }
+
+    @Override
+    public void executeConstraint(Constraint constraint, ValidationEngine engine, Collection<RDFNode> focusNodes) {
+        if (engine.getConfiguration().getReportDetails() || AbstractSPARQLExecutor.createSuccessResults ||
+                !canExecute(engine)) {
+            getFallback().executeConstraint(constraint, engine, focusNodes);
+            return;
+        }
+        Graph graph = engine.getDataset().getDefaultModel().getGraph();
+        for (RDFNode focusNode : focusNodes) {
+            engine.checkCanceled();
+            validate(constraint, engine, graph, focusNode);
+        }
+    }
+
+    /**
+     * @return true if this executor can validate with <code>engine</code>, otherwise SPARQL is used
+     */
+    protected boolean canExecute(ValidationEngine engine) {
+        return true;
+    }
+
+    /**
+     * Validates <code>focusNode</code>, calling {@link #createResult} once for each solution the constraint's query
+     * would return for it.
+     */
+    protected abstract void validate(Constraint constraint, ValidationEngine engine, Graph graph, RDFNode focusNode);
+
+    /**
+     * Creates the validation result for a solution of the constraint's query, just as
+     * {@link SPARQLConstraintExecutor} does.
+     *
+     * @param value the binding of <code>$value</code>, or null if the query does not bind it
+     */
+    protected Resource createResult(Constraint constraint, ValidationEngine engine, RDFNode focusNode, RDFNode value) {
+        Resource result = engine.createResult(SH.ValidationResult, constraint, focusNode);
+        result.addProperty(SH.sourceConstraint, constraint.getParameterValue());
+
+        Resource shape = constraint.getShapeResource();
+        if (shape.hasProperty(SH.message)) {
+            for (Statement s : shape.listProperties(SH.message).toList()) {
+                result.addProperty(SH.resultMessage, s.getObject());
+            }
+        } else {
+            QuerySolutionMap bindings = new QuerySolutionMap();
+            bindings.add(SH.thisVar.getVarName(), focusNode);
+            if (value != null) {
+                bindings.add(SH.valueVar.getVarName(), value);
+            }
+            if (!addMessages(engine, constraint.getParameterValue().asResource(), result, bindings)) {
+                addMessages(engine, constraint.getComponent(), result, bindings);
+            }
+        }
+
+        if (constraint.getShapeResource().isPropertyShape()) {
+            Resource path = shape.getPropertyResourceValue(SH.path);
+            result.addProperty(SH.resultPath, SHACLPaths.clonePath(path, result.getModel()));
+        }
+        if (value != null) {
+            result.addProperty(SH.value, value);
+        } else if (SH.NodeShape.equals(constraint.getContext())) {
+            result.addProperty(SH.value, focusNode);
+        }
+        return result;
+    }
+
+    private static boolean addMessages(ValidationEngine engine, Resource holder, Resource result,
+                                       QuerySolutionMap bindings) {
+        boolean found = false;
+        for (Statement s : holder.listProperties(SH.message).toList()) {
+            if (s.getObject().isLiteral()) {
+                engine.addResultMessage(result, s.getLiteral(), bindings);
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    private ConstraintExecutor getFallback() {
+        ConstraintExecutor current = fallback;
+        if (current == null) {
+            synchronized (this) {
+                current = fallback;
+                if (current == null) {
+                    current = fallback = new SPARQLConstraintExecutor(constraint);
+                }
+            }
+        }
+        return current;
+    }
+}
@@ -0,0 +1,376 @@
+package com.ncc.aif;
+
+import ch.qos.logback.classic.Logger;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.RiotException;
+import org.apache.jena.riot.lang.LabelToNode;
+import org.apache.jena.riot.system.ErrorHandler;
+import org.apache.jena.riot.system.MapWithScope;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.shared.PrefixMapping;
+import org.apache.jena.sparql.core.Quad;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+/**
+ * Loads a Turtle file on multiple threads. The file is split into chunks at statement boundaries after its prefix
+ * header, and each chunk is parsed on its own thread with the header prepended, so all chunks share the same prefixes.
+ * Blank node labels (e.g., <code>_:b0</code>) are scoped to the whole file, so a label used in several chunks is the
+ * same blank node. The triples of each chunk are added to the model in chunk order as soon as it has been parsed, and
+ * only a few chunks per thread are parsed ahead of the one being added, so the parsed triples are not all held twice.
+ * <p>
+ * Statement boundaries are recognized the way Jena writes Turtle: a statement ends with a line that ends with
+ * <code>.</code>, followed by a blank line and a line that does not start with whitespace. Files that are written
+ * differently are still loaded correctly, because a chunk that does not start and end at a statement boundary cannot be
+ * parsed: if any chunk fails to parse, or declares prefixes (or a base) after the header, the triples added so far are
+ * removed and the whole file is parsed again on a single thread, as {@link ValidateAIF#loadModel} does.
+ *
+ * @author Next Century Corporation
+ */
+public class ParallelTurtleLoader {
+    private static final Logger logger = (Logger) (org.slf4j.LoggerFactory.getLogger(ParallelTurtleLoader.class));
+    // Same base URI as ValidateAIF.loadModel
+    private static final String BASE = "urn:x-base";
+    // Files are split into about this many chunks per thread, so that threads that finish early take more chunks
+    private static final int CHUNKS_PER_THREAD = 4;
+    // Chunks that may be parsed ahead of the one being added to the model, per thread
+    private static final int CHUNKS_AHEAD_PER_THREAD = 2;
+    private static final long MINIMUM_CHUNK_SIZE = 1 << 20;
+    private static final long MAXIMUM_CHUNK_SIZE = 1 << 28;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final Pattern DIRECTIVE = Pattern.compile("(@prefix|@base|prefix|base)\\s",
+            Pattern.CASE_INSENSITIVE);
+
+    private final int threadCount;
+    private final long minimumChunkSize;
+
+    /**
+     * Creates a loader that parses on the specified number of threads.
+     *
+     * @param threadCount number of threads to parse with; files are parsed on a single thread if it is 1
+     */
+    public ParallelTurtleLoader(int threadCount) {
+        this(threadCount, MINIMUM_CHUNK_SIZE);
+    }
+
+    // Splits files into chunks of at least minimumChunkSize bytes, so that tests can split small files
+    ParallelTurtleLoader(int threadCount, long minimumChunkSize) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Thread count must be at least 1");
+        }
+        this.threadCount = threadCount;
+        this.minimumChunkSize = minimumChunkSize;
+    }
+
+    /**
+     * Loads the Turtle in <code>file</code> into <code>model</code>, along with its prefixes.
+     *
+     * @param model the model to add the triples of <code>file</code> to
+     * @param file  a Turtle file
+     * @return whether <code>file</code> was parsed on multiple threads, rather than on a single thread
+     * @throws RuntimeException if <code>file</code> cannot be read or parsed
+     */
+    public boolean load(Model model, File file) {
+        if (!model.getGraph().isEmpty()) {
+            // A failed parallel parse is undone by clearing the graph, so it must hold nothing but the file's triples
+            Model fileModel = ModelFactory.createDefaultModel();
+            boolean parallel = load(fileModel, file);
+            model.add(fileModel);
+            model.setNsPrefixes(fileModel);
+            return parallel;
+        }
+
+        Graph graph = model.getGraph();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long chunkSize = Math.min(MAXIMUM_CHUNK_SIZE,
+                    Math.max(minimumChunkSize, size / ((long) threadCount * CHUNKS_PER_THREAD)));
+            if (threadCount > 1 && size > chunkSize) {
+                byte[] header = read(channel, 0, getHeaderEnd(channel));
+                PrefixMapping prefixes = parseHeader(header, file);
+                if (prefixes != null) {
+                    long start = System.currentTimeMillis();
+                    List<Long> boundaries = getBoundaries(channel, header.length, chunkSize);
+                    if (parseChunks(graph, file, channel, header, boundaries, prefixes.numPrefixes())) {
+                        logger.debug("Parsed {} in {} chunk(s), d={}", file, boundaries.size() - 1,
+                                System.currentTimeMillis() - start);
+                        model.setNsPrefixes(prefixes);
+                        return true;
+                    }
+                    graph.clear();
+                }
+            }
+        } catch (IOException e) {
+            graph.clear();
+            throw new RuntimeException("While parsing " + file, e);
+        }
+
+        ValidateAIF.loadModel(model, Files.asCharSource(file, Charsets.UTF_8));
+        return false;
+    }
+
+    // Parses the chunks between the boundaries and adds their triples to graph in chunk order, or returns false if any
+    // of them cannot be parsed on its own
+    private boolean parseChunks(Graph graph, File file, FileChannel channel, byte[] header, List<Long> boundaries,
+                                int headerPrefixCount) throws IOException {
+        // All chunks map the same blank node label to the same blank node
+        Map<String, Node> labels = new ConcurrentHashMap<>();
+        LabelToNode labelToNode = new LabelToNode(new FileScope(), new FileAllocator(labels));
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threadCount, boundaries.size() - 1));
+        int ahead = threadCount * CHUNKS_AHEAD_PER_THREAD;
+        try {
+            Deque<Future<List<Triple>>> futures = new ArrayDeque<>();
+            int next = 1;
+            for (int added = 1; added < boundaries.size(); added++) {
+                for (; next < boundaries.size() && next - added < ahead; next++) {
+                    long start = boundaries.get(next - 1);
+                    long end = boundaries.get(next);
+                    futures.add(executor.submit(() -> {
+                        InputStream in = new SequenceInputStream(new ByteArrayInputStream(header),
+                                new ByteArrayInputStream(read(channel, start, end)));
+                        ChunkStream chunk = new ChunkStream();
+                        RDFParser.create().source(in).lang(Lang.TURTLE).base(BASE).labelToNode(labelToNode)
+                                .errorHandler(new ChunkErrorHandler(file, start)).parse(chunk);
+                        return chunk.declarations == headerPrefixCount ? chunk.triples : null;
+                    }));
+                }
+                List<Triple> chunk = futures.remove().get();
+                if (chunk == null) {
+                    logger.debug("Prefixes are declared after the header; parsing on a single thread");
+                    return false;
+                }
+                chunk.forEach(graph::add);
+            }
+            return true;
+        } catch (ExecutionException e) {
+            logger.debug("Chunk could not be parsed on its own; parsing on a single thread: {}",
+                    e.getCause().getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while parsing", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // Returns the prefixes of the header, or null if it is not only prefix declarations
+    private static PrefixMapping parseHeader(byte[] header, File file) {
+        ChunkStream stream = new ChunkStream();
+        try {
+            RDFParser.create().source(new ByteArrayInputStream(header)).lang(Lang.TURTLE).base(BASE)
+                    .errorHandler(new ChunkErrorHandler(file, 0)).parse(stream);
+        } catch (RiotException e) {
+            return null;
+        }
+        return stream.declarations == stream.prefixes.numPrefixes() && stream.triples.isEmpty() ?
+                stream.prefixes : null;
+    }
+
+    // Offset of the first line that is not blank, a comment or a prefix or base declaration
+    private static long getHeaderEnd(FileChannel channel) throws IOException {
+        InputStream in = new BufferedInputStream(Channels.newInputStream(channel.position(0)), BUFFER_SIZE);
+        long offset = 0;
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b != '\n') {
+                line.append((char) b);
+                continue;
+            }
+            String text = line.toString().trim();
+            if (!text.isEmpty() && !text.startsWith("#") && !DIRECTIVE.matcher(text).lookingAt()) {
+                return offset;
+            }
+            offset += line.length() + 1;
+            line.setLength(0);
+        }
+        return offset;
+    }
+
+    // Offsets at which the chunks start, and the size of the file
+    private static List<Long> getBoundaries(FileChannel channel, long headerEnd, long chunkSize) throws IOException {
+        long size = channel.size();
+        List<Long> boundaries = new ArrayList<>(Arrays.asList(headerEnd));
+        long boundary = headerEnd;
+        while (boundary + chunkSize < size) {
+            boundary = findStatementStart(channel, boundary + chunkSize);
+            if (boundary < 0) {
+                break;
+            }
+            boundaries.add(boundary);
+        }
+        boundaries.add(size);
+        return boundaries;
+    }
+
+    // Offset of the start of the first statement that starts on a later line than the one at from, or -1 if none does
+    private static long findStatementStart(FileChannel channel, long from) throws IOException {
+        InputStream in = new BufferedInputStream(Channels.newInputStream(channel.position(from)), BUFFER_SIZE);
+        long offset = from - 1;
+        boolean firstLine = true; // the line at from is only partially read
+        boolean lineStart = false;
+        boolean blank = true;
+        int last = -1; // last non-whitespace byte of the current line
+        boolean statementEnded = false; // the last non-blank line ended with '.'
+        boolean blankSince = false; // a blank line followed it
+        int b;
+        while ((b = in.read()) != -1) {
+            offset++;
+            if (lineStart) {
+                lineStart = false;
+                if (statementEnded && blankSince && !Character.isWhitespace(b) && b != '#') {
+                    return offset;
+                }
+            }
+            if (b == '\n') {
+                if (!firstLine) {
+                    if (blank) {
+                        blankSince = true;
+                    } else {
+                        statementEnded = last == '.';
+                        blankSince = false;
+                    }
+                }
+                firstLine = false;
+                lineStart = true;
+                blank = true;
+                last = -1;
+            } else if (!Character.isWhitespace(b)) {
+                blank = false;
+                last = b;
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] read(FileChannel channel, long start, long end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(end - start));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        return buffer.array();
+    }
+
+    // Collects the triples and prefix and base declarations of a chunk
+    private static class ChunkStream extends StreamRDFBase {
+        private final List<Triple> triples = new ArrayList<>();
+        private final PrefixMapping prefixes = PrefixMapping.Factory.create();
+        private int declarations;
+
+        @Override
+        public void triple(Triple triple) {
+            triples.add(triple);
+        }
+
+        @Override
+        public void quad(Quad quad) {
+            triples.add(quad.asTriple());
+        }
+
+        @Override
+        public void base(String base) {
+            declarations++;
+        }
+
+        @Override
+        public void prefix(String prefix, String iri) {
+            prefixes.setNsPrefix(prefix, iri);
+            declarations++;
+        }
+    }
+
+    // Reports warnings without positions, which would be relative to the chunk, and fails on errors without logging,
+    // since the file is then parsed again on a single thread
+    private static class ChunkErrorHandler implements ErrorHandler {
+        private final File file;
+        private final long start;
+
+        ChunkErrorHandler(File file, long start) {
+            this.file = file;
+            this.start = start;
+        }
+
+        @Override
+        public void warning(String message, long line, long col) {
+            logger.warn("{} (in the chunk of {} at byte {})", message, file, start);
+        }
+
+        @Override
+        public void error(String message, long line, long col) {
+            throw new RiotException(message);
+        }
+
+        @Override
+        public void fatal(String message, long line, long col) {
+            throw new RiotException(message);
+        }
+    }
+
+    // Blank node labels are not cached per parser, so that the allocator can map them for the whole file
+    private static class FileScope implements MapWithScope.ScopePolicy<String, Node, Node> {
+        @Override
+        public Map<String, Node> getScope(Node scope) {
+            return null;
+        }
+
+        @Override
+        public void clear() {
+        }
+    }
+
+    // Allocates one blank node per label for the whole file, and a new blank node for each anonymous blank node
+    private static class FileAllocator implements MapWithScope.Allocator<String, Node, Node> {
+        private final Map<String, Node> labels;
+
+        FileAllocator(Map<String, Node> labels) {
+            this.labels = labels;
+        }
+
+        @Override
+        public Node alloc(Node scope, String label) {
+            return labels.computeIfAbsent(label, key -> NodeFactory.createBlankNode());
+        }
+
+        @Override
+        public Node create() {
+            return NodeFactory.createBlankNode();
+        }
+
+        @Override
+        public void reset() {
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.ncc.aif;
+
+import org.apache.jena.query.Dataset;
+import org.apache.jena.rdf.model.Model;
+import org.topbraid.jenax.util.ARQFactory;
+import org.topbraid.shacl.arq.SHACLFunctions;
+import org.topbraid.shacl.engine.ShapesGraph;
+import org.topbraid.shacl.util.SHACLUtil;
+import org.topbraid.shacl.validation.ValidationUtil;
+
+import java.net.URI;
+
+/**
+ * A shapes graph that is set up once and reused to validate any number of KBs against the same SHACL. Setting it up
+ * adds the TOSH triples to the shapes, registers their <code>sh:Function</code>s, creates the {@link ShapesGraph} and
+ * resolves all of its shapes into a {@link ShapesSnapshot}. Each KB is then validated in its own {@link Dataset}, which
+ * names the shapes graph with the same URI.
+ * <p>
+ * {@link ShapesGraph} resolves shapes lazily and is not safe for concurrent use until all of them have been resolved,
+ * so they are resolved before the prepared shapes graph is returned. From then on it is only read, and any number of
+ * engines (multi-threaded or TopBraid's) can use it to validate at the same time.
+ *
+ * @author Next Century Corporation
+ */
+final class PreparedShapesGraph {
+    private final Model shapesModel;
+    private final URI shapesGraphURI;
+    private final ShapesGraph shapesGraph;
+    private final ShapesSnapshot snapshot;
+
+    private PreparedShapesGraph(Model shapesModel, URI shapesGraphURI, ShapesGraph shapesGraph) {
+        this.shapesModel = shapesModel;
+        this.shapesGraphURI = shapesGraphURI;
+        this.shapesGraph = shapesGraph;
+        this.snapshot = ShapesSnapshot.of(shapesGraph);
+    }
+
+    /**
+     * Sets up <code>shapesModel</code> for validation, as {@link ValidationUtil#createValidationEngine} does for each
+     * validation.
+     *
+     * @param shapesModel the SHACL to validate against
+     * @return a resolved shapes graph of <code>shapesModel</code> that can be reused for every KB, concurrently
+     */
+    static PreparedShapesGraph of(Model shapesModel) {
+        Model model = ValidationUtil.ensureToshTriplesExist(shapesModel);
+        // Executors are chosen once per constraint, when the shapes are resolved below
+        ThreadedValidationEngine.initializeSHComponents();
+
+        // Make sure all sh:Functions are registered
+        SHACLFunctions.registerFunctions(model);
+        return new PreparedShapesGraph(model, SHACLUtil.createRandomShapesGraphURI(), new ShapesGraph(model));
+    }
+
+    /**
+     * @param dataModel the data to be validated
+     * @return a new {@link Dataset} whose default model is <code>dataModel</code>, and that contains the shapes model
+     * as the named model {@link #getShapesGraphURI()}
+     */
+    Dataset createDataset(Model dataModel) {
+        Dataset dataset = ARQFactory.get().getDataset(dataModel);
+        dataset.addNamedModel(shapesGraphURI.toString(), shapesModel);
+        return dataset;
+    }
+
+    URI getShapesGraphURI() {
+        return shapesGraphURI;
+    }
+
+    ShapesGraph getShapesGraph() {
+        return shapesGraph;
+    }
+
+    /**
+     * @return the resolved shapes of the shapes graph
+     */
+    ShapesSnapshot getSnapshot() {
+        return snapshot;
+    }
+}
@@ -0,0 +1,73 @@
+package com.ncc.aif;
+
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Statement;
+import org.topbraid.shacl.engine.Constraint;
+import org.topbraid.shacl.validation.ConstraintExecutor;
+import org.topbraid.shacl.vocabulary.SH;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Maps known sh:sparql constraints to hand-written executors that do not need to run their query through ARQ. A
+ * constraint is recognized by the text of its <code>sh:select</code> query, ignoring differences in whitespace, so a
+ * constraint whose query is changed in any other way is executed with SPARQL again. Constraints with unknown queries
+ * are always executed with SPARQL, by a {@link BatchedSPARQLConstraintExecutor}.
+ *
+ * @author Next Century Corporation
+ * @see NativeSPARQLConstraintExecutor
+ */
+public class SPARQLExecutorRegistry {
+    private static final Map<String, Function<Constraint, ConstraintExecutor>> executors = new ConcurrentHashMap<>();
+
+    private SPARQLExecutorRegistry() {
+    }
+
+    /**
+     * Registers <code>factory</code> to create the executor for sh:sparql constraints with the specified query.
+     *
+     * @param select  the <code>sh:select</code> query of the constraint
+     * @param factory creates an executor for a constraint with that query
+     */
+    public static void register(String select, Function<Constraint, ConstraintExecutor> factory) {
+        executors.put(normalize(select), factory);
+    }
+
+    /**
+     * Removes the executor registered for the specified query, if any, so it is executed with SPARQL.
+     *
+     * @param select the <code>sh:select</code> query of the constraint
+     */
+    public static void unregister(String select) {
+        executors.remove(normalize(select));
+    }
+
+    /**
+     * Returns the registered executor for the sh:sparql <code>constraint</code>, or a
+     * {@link BatchedSPARQLConstraintExecutor} if its query is not known. Install with
+     * {@link org.topbraid.shacl.validation.ConstraintExecutors#addSpecialExecutor}.
+     */
+    public static ConstraintExecutor getExecutor(Constraint constraint) {
+        RDFNode sparql = constraint.getParameterValue();
+        Statement select = sparql != null && sparql.isResource() ? sparql.asResource().getProperty(SH.select) : null;
+        Function<Constraint, ConstraintExecutor> factory = select != null && select.getObject().isLiteral() ?
+                executors.get(normalize(select.getString())) : null;
+        return factory != null ? factory.apply(constraint) : new BatchedSPARQLConstraintExecutor(constraint);
+    }
+
+    /**
+     * @return the registered queries, with whitespace normalized as by {@link #normalize(String)}
+     */
+    static Set<String> getRegisteredQueries() {
+        return Collections.unmodifiableSet(executors.keySet());
+    }
+
+    // Runs of whitespace become a single space, so a query is recognized however it is indented
+    static String normalize(String select) {
+        return select.trim().replaceAll("\\s+", " ");
+    }
+}
@@ -0,0 +1,204 @@
+package com.ncc.aif;
+
+import com.google.common.hash.Hashing;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.Statement;
+import org.topbraid.shacl.arq.SHACLPaths;
+import org.topbraid.shacl.engine.Constraint;
+import org.topbraid.shacl.vocabulary.SH;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Historical validation cost of shapes and constraints, normalized by the number of focus nodes they validated.
+ * {@link ThreadedValidationEngine} uses a profile to submit the shapes and constraints that are expected to take the
+ * longest first, which shortens the tail of a multi-threaded validation. Profiles are updated from
+ * {@link ThreadedValidationEngine.ShapeTaskMetadata} after each validation and can be saved to and loaded from a
+ * properties file so that they carry over between runs.
+ *
+ * @author Next Century Corporation
+ */
+public class ShapeCostProfile {
+    private static final String SHAPE_PREFIX = "shape.";
+    private static final String TARGETS_SUFFIX = ".targets";
+    private static final String CONSTRAINT_PREFIX = "constraint.";
+    // Weight of the newest observation when updating a cost, so that recent runs dominate
+    private static final double UPDATE_WEIGHT = 0.5;
+
+    // milliseconds per validated target node, keyed by shape key (see getShapeKey)
+    private final Map<String, Double> shapeCosts = new ConcurrentHashMap<>();
+    // number of target nodes validated in the last run, keyed by shape key
+    private final Map<String, Integer> shapeTargets = new ConcurrentHashMap<>();
+    // milliseconds per focus node, keyed by constraint key (see getConstraintKey)
+    private final Map<String, Double> constraintCosts = new ConcurrentHashMap<>();
+
+    /**
+     * Loads a profile from the specified properties file. If the file does not exist, an empty profile is returned.
+     *
+     * @param file properties file previously written by {@link #save(Path)}
+     * @return the profile stored in {@code file}
+     * @throws IOException if the file exists but cannot be read
+     */
+    public static ShapeCostProfile load(Path file) throws IOException {
+        ShapeCostProfile profile = new ShapeCostProfile();
+        if (!Files.exists(file)) {
+            return profile;
+        }
+        Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            props.load(in);
+        }
+        try {
+            for (String key : props.stringPropertyNames()) {
+                String value = props.getProperty(key);
+                if (key.startsWith(CONSTRAINT_PREFIX)) {
+                    profile.constraintCosts.put(key.substring(CONSTRAINT_PREFIX.length()), Double.parseDouble(value));
+                } else if (key.startsWith(SHAPE_PREFIX) && key.endsWith(TARGETS_SUFFIX)) {
+                    profile.shapeTargets.put(
+                            key.substring(SHAPE_PREFIX.length(), key.length() - TARGETS_SUFFIX.length()),
+                            Integer.parseInt(value));
+                } else if (key.startsWith(SHAPE_PREFIX)) {
+                    profile.shapeCosts.put(key.substring(SHAPE_PREFIX.length()), Double.parseDouble(value));
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed cost profile " + file, e);
+        }
+        return profile;
+    }
+
+    /**
+     * Saves this profile to the specified properties file.
+     *
+     * @param file properties file to write
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void save(Path file) throws IOException {
+        Properties props = new Properties();
+        shapeCosts.forEach((shape, cost) -> props.setProperty(SHAPE_PREFIX + shape, Double.toString(cost)));
+        shapeTargets.forEach((shape, targets) ->
+                props.setProperty(SHAPE_PREFIX + shape + TARGETS_SUFFIX, Integer.toString(targets)));
+        constraintCosts.forEach((key, cost) -> props.setProperty(CONSTRAINT_PREFIX + key, Double.toString(cost)));
+        try (OutputStream out = Files.newOutputStream(file)) {
+            props.store(out, "AIF validation cost profile (ms per focus node)");
+        }
+    }
+
+    /**
+     * Returns the expected cost of validating the specified shape, based on its cost per target node and the number
+     * of target nodes validated in the last run. Unknown shapes are expected to be the most expensive so that they
+     * are never left until last.
+     *
+     * @param shape the root shape
+     * @return the expected cost (ms) of validating the shape
+     */
+    public double estimateShape(Resource shape) {
+        String shapeKey = getShapeKey(shape);
+        Double cost = shapeCosts.get(shapeKey);
+        return cost == null ? Double.POSITIVE_INFINITY : cost * shapeTargets.getOrDefault(shapeKey, 0);
+    }
+
+    /**
+     * Returns the expected cost of validating {@code focusNodeCount} focus nodes against the specified constraint.
+     * Unknown constraints are expected to be the most expensive.
+     *
+     * @param constraintKey  key of the constraint, as returned by {@link #getConstraintKey(Resource, Constraint)}
+     * @param focusNodeCount number of focus nodes to validate
+     * @return the expected cost (ms) of validating the focus nodes against the constraint
+     */
+    public double estimateConstraint(String constraintKey, int focusNodeCount) {
+        Double cost = constraintCosts.get(constraintKey);
+        return cost == null ? Double.POSITIVE_INFINITY : cost * focusNodeCount;
+    }
+
+    /**
+     * Updates the costs of the specified shape and its constraints with the observed durations.
+     *
+     * @param smd            metadata of a completed shape task, including all of its constraint metadata
+     * @param validatedCount number of target nodes that were actually validated against the shape
+     */
+    public synchronized void update(ThreadedValidationEngine.ShapeTaskMetadata smd, int validatedCount) {
+        if (smd.ignored || smd.shapeResource == null || validatedCount <= 0) {
+            return;
+        }
+        String shapeKey = getShapeKey(smd.shapeResource);
+        shapeCosts.merge(shapeKey, (double) smd.totalDuration / validatedCount, ShapeCostProfile::weigh);
+        shapeTargets.put(shapeKey, validatedCount);
+
+        // Chunks of the same constraint are combined before normalizing
+        Map<String, long[]> observed = new HashMap<>();
+        for (ThreadedValidationEngine.ConstraintTaskMetadata cmd : smd.constraintMDs) {
+            if (cmd.costKey != null && cmd.focusNodeCount > 0) {
+                long[] totals = observed.computeIfAbsent(cmd.costKey, key -> new long[2]);
+                totals[0] += cmd.duration;
+                totals[1] += cmd.focusNodeCount;
+            }
+        }
+        observed.forEach((key, totals) ->
+                constraintCosts.merge(key, (double) totals[0] / totals[1], ShapeCostProfile::weigh));
+    }
+
+    private static double weigh(double previous, double latest) {
+        return (1 - UPDATE_WEIGHT) * previous + UPDATE_WEIGHT * latest;
+    }
+
+    /**
+     * Returns a key for the specified shape: its URI, or the label of a blank node shape, which is only stable for
+     * the same shapes graph.
+     *
+     * @param shape the shape
+     * @return a key for the shape
+     */
+    public static String getShapeKey(Resource shape) {
+        return shape.isURIResource() ? shape.getURI() : "_:" + shape.getId().getLabelString();
+    }
+
+    /**
+     * Returns a key for the specified constraint that is stable across runs. A constraint is identified by its root
+     * shape, its component and its parameter. Anonymous parameters, such as property shapes and
+     * <code>sh:sparql</code> constraints, are identified by a hash of their description, after the path of a
+     * property shape.
+     *
+     * @param shape      the root shape that owns the constraint
+     * @param constraint the constraint
+     * @return a key for the constraint
+     */
+    public static String getConstraintKey(Resource shape, Constraint constraint) {
+        String key = getShapeKey(shape) + " " + constraint.getComponent().getURI();
+        RDFNode parameter = constraint.getParameterValue();
+        if (parameter == null) {
+            return key;
+        } else if (parameter.isAnon()) {
+            Resource path = parameter.asResource().getPropertyResourceValue(SH.path);
+            String description = describe(parameter.asResource());
+            return key + " " + (path != null ? SHACLPaths.getPathString(path) + " " : "") +
+                    Hashing.sha256().hashString(description, StandardCharsets.UTF_8).toString().substring(0, 16);
+        } else {
+            return key + " " + parameter.toString();
+        }
+    }
+
+    // Describes the statements of an anonymous node and of the anonymous nodes it refers to, in a stable order
+    private static String describe(Resource node) {
+        List<String> statements = new ArrayList<>();
+        for (Statement statement : node.listProperties().toList()) {
+            RDFNode object = statement.getObject();
+            statements.add(statement.getPredicate().getURI() + " " +
+                    (object.isAnon() ? "[" + describe(object.asResource()) + "]" : object.toString()));
+        }
+        statements.sort(null);
+        return String.join(" ; ", statements);
+    }
+}
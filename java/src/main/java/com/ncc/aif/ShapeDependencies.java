@@ -0,0 +1,679 @@
+package com.ncc.aif;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.Query;
+import org.apache.jena.rdf.model.RDFList;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.sparql.core.TriplePath;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.expr.E_Function;
+import org.apache.jena.sparql.expr.Expr;
+import org.apache.jena.sparql.expr.ExprAggregator;
+import org.apache.jena.sparql.expr.ExprFunction;
+import org.apache.jena.sparql.expr.ExprFunctionOp;
+import org.apache.jena.sparql.path.P_Alt;
+import org.apache.jena.sparql.path.P_Inverse;
+import org.apache.jena.sparql.path.P_Link;
+import org.apache.jena.sparql.path.P_NegPropSet;
+import org.apache.jena.sparql.path.P_OneOrMore1;
+import org.apache.jena.sparql.path.P_OneOrMoreN;
+import org.apache.jena.sparql.path.P_ReverseLink;
+import org.apache.jena.sparql.path.P_Seq;
+import org.apache.jena.sparql.path.P_ZeroOrMore1;
+import org.apache.jena.sparql.path.P_ZeroOrMoreN;
+import org.apache.jena.sparql.path.P_ZeroOrOne;
+import org.apache.jena.sparql.path.Path;
+import org.apache.jena.sparql.syntax.Element;
+import org.apache.jena.sparql.syntax.ElementAssign;
+import org.apache.jena.sparql.syntax.ElementBind;
+import org.apache.jena.sparql.syntax.ElementData;
+import org.apache.jena.sparql.syntax.ElementExists;
+import org.apache.jena.sparql.syntax.ElementFilter;
+import org.apache.jena.sparql.syntax.ElementGroup;
+import org.apache.jena.sparql.syntax.ElementMinus;
+import org.apache.jena.sparql.syntax.ElementNotExists;
+import org.apache.jena.sparql.syntax.ElementOptional;
+import org.apache.jena.sparql.syntax.ElementPathBlock;
+import org.apache.jena.sparql.syntax.ElementTriplesBlock;
+import org.apache.jena.sparql.syntax.ElementUnion;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+import org.apache.jena.vocabulary.XSD;
+import org.topbraid.jenax.util.ARQFactory;
+import org.topbraid.jenax.util.JenaUtil;
+import org.topbraid.shacl.engine.Constraint;
+import org.topbraid.shacl.engine.Shape;
+import org.topbraid.shacl.engine.ShapesGraph;
+import org.topbraid.shacl.validation.sparql.SPARQLSubstitutions;
+import org.topbraid.shacl.vocabulary.SH;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The data that the results of each root shape can depend on, used to re-validate only the focus nodes that a change
+ * to the data may affect. Each shape is analyzed conservatively from its targets, paths, constraint components and
+ * <code>sh:sparql</code> queries into a set of {@link Read reads}: triples with a given predicate at the end of a
+ * sequence of steps from a focus node. A shape whose reads cannot be bounded this way (e.g., it uses an unknown
+ * constraint component, a SPARQL query that is not connected to <code>$this</code>, or a closure over a predicate other
+ * than <code>rdfs:subClassOf</code>) is global, and has to be fully re-validated on any change. Changes to
+ * <code>rdfs:subClassOf</code> triples are not tracked at all, and require a full re-validation. It is immutable once
+ * built, and safe to use from multiple threads.
+ *
+ * @author Next Century Corporation
+ */
+final class ShapeDependencies {
+    // Maximum number of steps from a focus node to a read, and of paths from $this to a query variable
+    private static final int MAX_PATH_LENGTH = 8;
+    private static final int MAX_PATHS_PER_VARIABLE = 32;
+    private static final Var THIS = Var.alloc("this");
+
+    // Constraint components whose results only depend on the value nodes themselves
+    private static final Set<Resource> VALUE_COMPONENTS = new HashSet<>(Arrays.asList(
+            SH.DatatypeConstraintComponent, SH.NodeKindConstraintComponent, SH.MinCountConstraintComponent,
+            SH.MaxCountConstraintComponent, SH.MinInclusiveConstraintComponent, SH.MaxInclusiveConstraintComponent,
+            SH.MinExclusiveConstraintComponent, SH.MaxExclusiveConstraintComponent,
+            SH.MinLengthConstraintComponent, SH.MaxLengthConstraintComponent, SH.PatternConstraintComponent,
+            SH.LanguageInConstraintComponent, SH.UniqueLangConstraintComponent, SH.InConstraintComponent,
+            SH.HasValueConstraintComponent));
+    // Constraint components that compare the value nodes to the values of a property of the focus node
+    private static final Set<Resource> PAIR_COMPONENTS = new HashSet<>(Arrays.asList(
+            SH.EqualsConstraintComponent, SH.DisjointConstraintComponent, SH.LessThanConstraintComponent,
+            SH.LessThanOrEqualsConstraintComponent));
+    // Constraint components whose parameter is a list of shapes that the value nodes are checked against
+    private static final Set<Resource> LIST_COMPONENTS = new HashSet<>(Arrays.asList(
+            SH.AndConstraintComponent, SH.OrConstraintComponent, SH.XoneConstraintComponent));
+
+    // Reads of each bounded root shape
+    private final Map<Node, Set<Read>> reads;
+    // Root shapes that have to be fully re-validated on any change
+    private final Set<Node> globalShapes;
+    // Root shapes that report results with each source shape
+    private final Map<Node, Set<Node>> resultShapeOwners;
+    private final Map<Node, List<Read>> readsByPredicate = new HashMap<>();
+    private final List<Read> anyPredicateReads = new ArrayList<>();
+
+    private ShapeDependencies(Map<Node, Set<Read>> reads, Set<Node> globalShapes,
+                              Map<Node, Set<Node>> resultShapeOwners) {
+        this.reads = reads;
+        this.globalShapes = globalShapes;
+        this.resultShapeOwners = resultShapeOwners;
+        Set<Read> allReads = new HashSet<>();
+        reads.values().forEach(allReads::addAll);
+        for (Read read : allReads) {
+            if (read.step.predicate == null) {
+                anyPredicateReads.add(read);
+            } else {
+                readsByPredicate.computeIfAbsent(read.step.predicate, predicate -> new ArrayList<>()).add(read);
+            }
+        }
+    }
+
+    /**
+     * Analyzes the root shapes of <code>shapesGraph</code>. A root shape is also made global if it reports results
+     * with the same source shape (e.g., a shared property shape) as a global root shape, so that the results of each
+     * source shape are either all re-validated or only re-validated for affected focus nodes.
+     *
+     * @param shapesGraph the shapes graph to analyze
+     * @return the dependencies of the root shapes of <code>shapesGraph</code>
+     */
+    static ShapeDependencies of(ShapesGraph shapesGraph) {
+        Map<Node, Set<Read>> reads = new HashMap<>();
+        Set<Node> globalShapes = new HashSet<>();
+        Map<Node, Set<Node>> resultShapes = new HashMap<>();
+        for (Shape shape : shapesGraph.getRootShapes()) {
+            Node root = shape.getShapeResource().asNode();
+            resultShapes.put(root, getResultShapes(shape));
+            try {
+                Analysis analysis = new Analysis(shapesGraph);
+                analysis.analyzeTargets(shape.getShapeResource());
+                analysis.analyzeShape(shape, Collections.singleton(Collections.emptyList()), true);
+                reads.put(root, analysis.reads);
+            } catch (Unbounded e) {
+                globalShapes.add(root);
+            }
+        }
+
+        Map<Node, Set<Node>> resultShapeOwners = new HashMap<>();
+        resultShapes.forEach((root, shapes) -> shapes.forEach(shape ->
+                resultShapeOwners.computeIfAbsent(shape, node -> new HashSet<>()).add(root)));
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Node root : resultShapes.keySet()) {
+                if (!globalShapes.contains(root) && resultShapes.get(root).stream()
+                        .anyMatch(shape -> resultShapeOwners.get(shape).stream().anyMatch(globalShapes::contains))) {
+                    globalShapes.add(root);
+                    changed = true;
+                }
+            }
+        }
+        reads.keySet().removeAll(globalShapes);
+        return new ShapeDependencies(reads, globalShapes, resultShapeOwners);
+    }
+
+    // The shapes that appear as sh:sourceShape of the results of root
+    private static Set<Node> getResultShapes(Shape root) {
+        Set<Node> shapes = new HashSet<>();
+        shapes.add(root.getShapeResource().asNode());
+        for (Constraint constraint : root.getConstraints()) {
+            if (SH.PropertyConstraintComponent.equals(constraint.getComponent())) {
+                shapes.add(constraint.getParameterValue().asNode());
+            }
+        }
+        return shapes;
+    }
+
+    /**
+     * @return whether all target nodes of root shape <code>shape</code> have to be re-validated on any change
+     */
+    boolean isGlobal(Node shape) {
+        return !reads.containsKey(shape);
+    }
+
+    /**
+     * @return the number of root shapes that have to be fully re-validated on any change
+     */
+    int getGlobalShapeCount() {
+        return globalShapes.size();
+    }
+
+    /**
+     * Returns whether a previous result with source shape <code>sourceShape</code> and focus node
+     * <code>focusNode</code> is replaced by re-validating the <code>affected</code> focus nodes.
+     *
+     * @param affected the focus nodes returned by {@link #getAffectedFocusNodes(Collection, Graph, Graph)}
+     * @return true if the result is to be replaced, false if it is still current
+     */
+    boolean isReplaced(Node sourceShape, Node focusNode, Set<Node> affected) {
+        Set<Node> owners = resultShapeOwners.get(sourceShape);
+        if (owners == null) {
+            return false;
+        }
+        return owners.stream().anyMatch(globalShapes::contains) || affected.contains(focusNode);
+    }
+
+    /**
+     * Returns the nodes whose results for bounded root shapes may be affected by <code>changes</code>. Focus nodes
+     * are found by following the reads matching each changed triple back to the focus node through the data before
+     * and after the changes, so that both lost and new dependencies are found.
+     *
+     * @param changes  triples that were added or removed
+     * @param previous the data before the changes
+     * @param current  the data after the changes
+     * @return the focus nodes to re-validate against the bounded root shapes
+     */
+    Set<Node> getAffectedFocusNodes(Collection<Triple> changes, Graph previous, Graph current) {
+        // Nodes at which a changed triple is read, by the steps from the focus node to them
+        Map<List<Step>, Set<Node>> readNodes = new HashMap<>();
+        for (Triple triple : changes) {
+            List<Read> matches = readsByPredicate.getOrDefault(triple.getPredicate(), Collections.emptyList());
+            for (List<Read> candidates : Arrays.asList(matches, anyPredicateReads)) {
+                for (Read read : candidates) {
+                    readNodes.computeIfAbsent(read.prefix, prefix -> new HashSet<>())
+                            .add(read.step.inverse ? triple.getObject() : triple.getSubject());
+                }
+            }
+        }
+
+        Set<Node> affected = new HashSet<>();
+        readNodes.forEach((prefix, nodes) -> {
+            for (int i = prefix.size() - 1; i >= 0 && !nodes.isEmpty(); i--) {
+                nodes = stepBack(prefix.get(i), nodes, previous, current);
+            }
+            affected.addAll(nodes);
+        });
+        return affected;
+    }
+
+    // The nodes from which step leads to any of nodes in either graph
+    private static Set<Node> stepBack(Step step, Set<Node> nodes, Graph previous, Graph current) {
+        Node predicate = step.predicate == null ? Node.ANY : step.predicate;
+        Set<Node> result = new HashSet<>();
+        for (Graph graph : Arrays.asList(previous, current)) {
+            for (Node node : nodes) {
+                if (step.inverse && node.isLiteral()) {
+                    continue;
+                }
+                ExtendedIterator<Triple> it = step.inverse ?
+                        graph.find(node, predicate, Node.ANY) : graph.find(Node.ANY, predicate, node);
+                try {
+                    while (it.hasNext()) {
+                        Triple triple = it.next();
+                        result.add(step.inverse ? triple.getObject() : triple.getSubject());
+                    }
+                } finally {
+                    it.close();
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Thrown when the reads of a shape cannot be bounded
+     */
+    private static final class Unbounded extends Exception {
+        private static final Unbounded INSTANCE = new Unbounded();
+
+        private Unbounded() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * One step along a path: a triple with <code>predicate</code> (or any predicate if null) from its subject to its
+     * object, or from its object to its subject if <code>inverse</code>.
+     */
+    private static final class Step {
+        private final Node predicate;
+        private final boolean inverse;
+
+        private Step(Node predicate, boolean inverse) {
+            this.predicate = predicate;
+            this.inverse = inverse;
+        }
+
+        private Step invert() {
+            return new Step(predicate, !inverse);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Step)) {
+                return false;
+            }
+            Step step = (Step) o;
+            return inverse == step.inverse && Objects.equals(predicate, step.predicate);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(predicate, inverse);
+        }
+    }
+
+    /**
+     * A dependency of a shape on the triples matching <code>step</code> from any node that is reached from a focus
+     * node by following <code>prefix</code>.
+     */
+    private static final class Read {
+        private final List<Step> prefix;
+        private final Step step;
+
+        private Read(List<Step> prefix, Step step) {
+            this.prefix = prefix;
+            this.step = step;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Read)) {
+                return false;
+            }
+            Read read = (Read) o;
+            return prefix.equals(read.prefix) && step.equals(read.step);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(prefix, step);
+        }
+    }
+
+    /**
+     * One way through a path: its steps, and whether it ends in a closure over <code>rdfs:subClassOf</code>, after
+     * which the node that is reached is not tracked.
+     */
+    private static final class Walk {
+        private static final Walk EMPTY = new Walk(Collections.emptyList(), false);
+        private final List<Step> steps;
+        private final boolean open;
+
+        private Walk(List<Step> steps, boolean open) {
+            this.steps = steps;
+            this.open = open;
+        }
+    }
+
+    /**
+     * Collects the reads of one root shape
+     */
+    private static final class Analysis {
+        private final ShapesGraph shapesGraph;
+        private final Set<Read> reads = new HashSet<>();
+        // Shapes being analyzed, to detect recursion
+        private final Set<Node> active = new HashSet<>();
+
+        private Analysis(ShapesGraph shapesGraph) {
+            this.shapesGraph = shapesGraph;
+        }
+
+        private void analyzeTargets(Resource shape) throws Unbounded {
+            Set<List<Step>> focus = Collections.singleton(Collections.emptyList());
+            if (JenaUtil.hasIndirectType(shape, RDFS.Class) || shape.hasProperty(SH.targetClass)) {
+                addReads(focus, new Walk(Collections.singletonList(new Step(RDF.type.asNode(), false)), true));
+            }
+            for (Resource property : JenaUtil.getResourceProperties(shape, SH.targetSubjectsOf)) {
+                addReads(focus, new Walk(Collections.singletonList(new Step(property.asNode(), false)), false));
+            }
+            for (Resource property : JenaUtil.getResourceProperties(shape, SH.targetObjectsOf)) {
+                addReads(focus, new Walk(Collections.singletonList(new Step(property.asNode(), true)), false));
+            }
+            for (Resource target : JenaUtil.getResourceProperties(shape, SH.target)) {
+                if (!target.hasProperty(SH.select) || target.listProperties().toList().stream()
+                        .anyMatch(s -> !s.getPredicate().equals(SH.select) && !s.getPredicate().equals(RDF.type) &&
+                                !s.getPredicate().equals(SH.prefixes))) {
+                    throw Unbounded.INSTANCE;
+                }
+                analyzeQuery(target, focus);
+            }
+        }
+
+        /**
+         * Adds the reads of <code>shape</code> at any of the <code>focus</code> step sequences
+         *
+         * @param reporting whether the results of <code>shape</code> are reported, rather than only its conformance
+         */
+        private void analyzeShape(Shape shape, Set<List<Step>> focus, boolean reporting) throws Unbounded {
+            if (shape == null || !active.add(shape.getShapeResource().asNode())) {
+                throw Unbounded.INSTANCE;
+            }
+            if (!shape.isDeactivated()) {
+                Set<List<Step>> values = focus;
+                if (!shape.isNodeShape()) {
+                    Path path = shape.getPredicate() != null ?
+                            new P_Link(shape.getPredicate().asNode()) : shape.getJenaPath();
+                    values = new HashSet<>();
+                    for (Walk walk : expand(path)) {
+                        addReads(focus, walk);
+                        for (List<Step> prefix : focus) {
+                            values.add(walk.open ? null : append(prefix, walk.steps));
+                        }
+                    }
+                }
+                for (Constraint constraint : shape.getConstraints()) {
+                    analyzeConstraint(constraint, shape.isNodeShape(), focus, values, reporting);
+                }
+            }
+            active.remove(shape.getShapeResource().asNode());
+        }
+
+        // values contains null if some value nodes are not tracked
+        private void analyzeConstraint(Constraint constraint, boolean nodeShape, Set<List<Step>> focus,
+                                       Set<List<Step>> values, boolean reporting) throws Unbounded {
+            Resource component = constraint.getComponent();
+            RDFNode parameter = constraint.getParameterValue();
+            if (VALUE_COMPONENTS.contains(component)) {
+                return;
+            }
+            if (SH.PropertyConstraintComponent.equals(component)) {
+                // Results of a property shape nested in a property shape have value nodes as focus nodes
+                if (!nodeShape && reporting) {
+                    throw Unbounded.INSTANCE;
+                }
+                analyzeShape(shapesGraph.getShape(parameter.asNode()), tracked(values), reporting && nodeShape);
+            } else if (SH.ClassConstraintComponent.equals(component)) {
+                addReads(tracked(values), new Walk(Collections.singletonList(new Step(RDF.type.asNode(), false)), true));
+            } else if (PAIR_COMPONENTS.contains(component)) {
+                addReads(focus, new Walk(Collections.singletonList(new Step(parameter.asNode(), false)), false));
+            } else if (SH.ClosedConstraintComponent.equals(component)) {
+                Set<List<Step>> nodes = new HashSet<>(focus);
+                nodes.addAll(tracked(values));
+                addReads(nodes, new Walk(Collections.singletonList(new Step(null, false)), false));
+            } else if (SH.NodeConstraintComponent.equals(component) || SH.NotConstraintComponent.equals(component)) {
+                analyzeShape(shapesGraph.getShape(parameter.asNode()), tracked(values), false);
+            } else if (LIST_COMPONENTS.contains(component) && parameter.canAs(RDFList.class)) {
+                for (RDFNode member : parameter.as(RDFList.class).iterator().toList()) {
+                    analyzeShape(shapesGraph.getShape(member.asNode()), tracked(values), false);
+                }
+            } else if (SH.SPARQLConstraintComponent.equals(component) && parameter.isResource()) {
+                analyzeQuery(parameter.asResource(), focus);
+            } else {
+                throw Unbounded.INSTANCE;
+            }
+        }
+
+        private static Set<List<Step>> tracked(Set<List<Step>> values) throws Unbounded {
+            if (values.contains(null)) {
+                throw Unbounded.INSTANCE;
+            }
+            return values;
+        }
+
+        // Adds the reads of following walk from each of prefixes
+        private void addReads(Set<List<Step>> prefixes, Walk walk) throws Unbounded {
+            for (List<Step> prefix : prefixes) {
+                for (int i = 0; i < walk.steps.size(); i++) {
+                    reads.add(new Read(append(prefix, walk.steps.subList(0, i)), walk.steps.get(i)));
+                }
+            }
+        }
+
+        private static List<Step> append(List<Step> prefix, List<Step> steps) throws Unbounded {
+            if (prefix.size() + steps.size() > MAX_PATH_LENGTH) {
+                throw Unbounded.INSTANCE;
+            }
+            List<Step> result = new ArrayList<>(prefix);
+            result.addAll(steps);
+            return Collections.unmodifiableList(result);
+        }
+
+        // All ways through path
+        private static List<Walk> expand(Path path) throws Unbounded {
+            if (path instanceof P_Link) {
+                return Collections.singletonList(
+                        new Walk(Collections.singletonList(new Step(((P_Link) path).getNode(), false)), false));
+            } else if (path instanceof P_ReverseLink) {
+                return Collections.singletonList(
+                        new Walk(Collections.singletonList(new Step(((P_ReverseLink) path).getNode(), true)), false));
+            } else if (path instanceof P_Inverse) {
+                return invert(expand(((P_Inverse) path).getSubPath()));
+            } else if (path instanceof P_Alt) {
+                List<Walk> result = new ArrayList<>(expand(((P_Alt) path).getLeft()));
+                result.addAll(expand(((P_Alt) path).getRight()));
+                return result;
+            } else if (path instanceof P_Seq) {
+                List<Walk> result = new ArrayList<>();
+                for (Walk left : expand(((P_Seq) path).getLeft())) {
+                    for (Walk right : expand(((P_Seq) path).getRight())) {
+                        if (left.open && !right.steps.isEmpty()) {
+                            throw Unbounded.INSTANCE;
+                        }
+                        result.add(new Walk(append(left.steps, right.steps), left.open || right.open));
+                    }
+                }
+                return result;
+            } else if (path instanceof P_ZeroOrOne) {
+                List<Walk> result = new ArrayList<>(expand(((P_ZeroOrOne) path).getSubPath()));
+                result.add(Walk.EMPTY);
+                return result;
+            } else if (path instanceof P_ZeroOrMore1 || path instanceof P_ZeroOrMoreN ||
+                    path instanceof P_OneOrMore1 || path instanceof P_OneOrMoreN) {
+                // Only closures over the class hierarchy, which is not tracked
+                Path subPath = ((org.apache.jena.sparql.path.P_Path1) path).getSubPath();
+                if (subPath instanceof P_Link && RDFS.subClassOf.asNode().equals(((P_Link) subPath).getNode())) {
+                    return Collections.singletonList(new Walk(Collections.emptyList(), true));
+                }
+            } else if (path instanceof P_NegPropSet) {
+                List<Walk> result = new ArrayList<>();
+                if (!((P_NegPropSet) path).getFwdNodes().isEmpty()) {
+                    result.add(new Walk(Collections.singletonList(new Step(null, false)), false));
+                }
+                if (!((P_NegPropSet) path).getBwdNodes().isEmpty()) {
+                    result.add(new Walk(Collections.singletonList(new Step(null, true)), false));
+                }
+                return result;
+            }
+            throw Unbounded.INSTANCE;
+        }
+
+        private static List<Walk> invert(List<Walk> walks) throws Unbounded {
+            List<Walk> result = new ArrayList<>();
+            for (Walk walk : walks) {
+                // The untracked end of an open walk would become its start
+                if (walk.open && !walk.steps.isEmpty()) {
+                    throw Unbounded.INSTANCE;
+                }
+                List<Step> steps = new ArrayList<>();
+                for (int i = walk.steps.size() - 1; i >= 0; i--) {
+                    steps.add(walk.steps.get(i).invert());
+                }
+                result.add(new Walk(steps, walk.open));
+            }
+            return result;
+        }
+
+        /**
+         * Adds the reads of the <code>sh:select</code> query of <code>sparql</code>, with <code>$this</code> at any
+         * of the <code>focus</code> step sequences. All triple patterns must be connected to <code>$this</code>
+         * through variables, and each is read at the end of every path of other patterns from <code>$this</code> that
+         * does not visit a variable twice.
+         */
+        private void analyzeQuery(Resource sparql, Set<List<Step>> focus) throws Unbounded {
+            String select = JenaUtil.getStringProperty(sparql, SH.select);
+            if (select == null) {
+                throw Unbounded.INSTANCE;
+            }
+            Query query;
+            try {
+                query = ARQFactory.get().createQuery(SPARQLSubstitutions.withPrefixes(select, sparql));
+            } catch (RuntimeException e) {
+                throw Unbounded.INSTANCE;
+            }
+            List<TriplePath> patterns = new ArrayList<>();
+            collect(query.getQueryPattern(), patterns);
+            for (Expr expr : query.getHavingExprs()) {
+                collect(expr, patterns);
+            }
+            for (Expr expr : query.getProject().getExprs().values()) {
+                collect(expr, patterns);
+            }
+
+            boolean[] reached = new boolean[patterns.size()];
+            boolean[] onPath = new boolean[patterns.size()];
+            Map<Node, Integer> prefixCounts = new HashMap<>();
+            Set<Node> visited = new HashSet<>();
+            visited.add(THIS);
+            for (List<Step> prefix : focus) {
+                follow(THIS, prefix, visited, patterns, reached, onPath, prefixCounts);
+            }
+            for (boolean patternReached : reached) {
+                if (!patternReached) {
+                    throw Unbounded.INSTANCE;
+                }
+            }
+        }
+
+        // Adds the reads of the patterns at variable that are not on the path to it, and follows them to the
+        // variables not yet visited
+        private void follow(Node variable, List<Step> prefix, Set<Node> visited, List<TriplePath> patterns,
+                            boolean[] reached, boolean[] onPath, Map<Node, Integer> prefixCounts) throws Unbounded {
+            for (int i = 0; i < patterns.size(); i++) {
+                TriplePath pattern = patterns.get(i);
+                boolean subject = variable.equals(pattern.getSubject());
+                boolean object = variable.equals(pattern.getObject());
+                if (onPath[i] || !subject && !object) {
+                    continue;
+                }
+                reached[i] = true;
+                onPath[i] = true;
+                List<Walk> walks = pattern.isTriple() ?
+                        Collections.singletonList(new Walk(Collections.singletonList(new Step(
+                                pattern.getPredicate().isVariable() ? null : pattern.getPredicate(), false)), false)) :
+                        expand(pattern.getPath());
+                if (subject) {
+                    follow(prefix, walks, pattern.getObject(), visited, patterns, reached, onPath, prefixCounts);
+                }
+                if (object) {
+                    follow(prefix, invert(walks), pattern.getSubject(), visited, patterns, reached, onPath,
+                            prefixCounts);
+                }
+                onPath[i] = false;
+            }
+        }
+
+        private void follow(List<Step> prefix, List<Walk> walks, Node to, Set<Node> visited,
+                            List<TriplePath> patterns, boolean[] reached, boolean[] onPath,
+                            Map<Node, Integer> prefixCounts) throws Unbounded {
+            for (Walk walk : walks) {
+                addReads(Collections.singleton(prefix), walk);
+                if (to.isVariable() && !walk.open && !visited.contains(to)) {
+                    if (prefixCounts.merge(to, 1, Integer::sum) > MAX_PATHS_PER_VARIABLE) {
+                        throw Unbounded.INSTANCE;
+                    }
+                    visited.add(to);
+                    follow(to, append(prefix, walk.steps), visited, patterns, reached, onPath, prefixCounts);
+                    visited.remove(to);
+                }
+            }
+        }
+
+        // Collects the triple patterns of element, including those of EXISTS filters
+        private static void collect(Element element, List<TriplePath> patterns) throws Unbounded {
+            if (element instanceof ElementGroup) {
+                for (Element child : ((ElementGroup) element).getElements()) {
+                    collect(child, patterns);
+                }
+            } else if (element instanceof ElementPathBlock) {
+                patterns.addAll(((ElementPathBlock) element).getPattern().getList());
+            } else if (element instanceof ElementTriplesBlock) {
+                ((ElementTriplesBlock) element).getPattern().forEach(triple -> patterns.add(new TriplePath(triple)));
+            } else if (element instanceof ElementFilter) {
+                collect(((ElementFilter) element).getExpr(), patterns);
+            } else if (element instanceof ElementBind) {
+                collect(((ElementBind) element).getExpr(), patterns);
+            } else if (element instanceof ElementAssign) {
+                collect(((ElementAssign) element).getExpr(), patterns);
+            } else if (element instanceof ElementOptional) {
+                collect(((ElementOptional) element).getOptionalElement(), patterns);
+            } else if (element instanceof ElementUnion) {
+                for (Element child : ((ElementUnion) element).getElements()) {
+                    collect(child, patterns);
+                }
+            } else if (element instanceof ElementMinus) {
+                collect(((ElementMinus) element).getMinusElement(), patterns);
+            } else if (element instanceof ElementExists) {
+                collect(((ElementExists) element).getElement(), patterns);
+            } else if (element instanceof ElementNotExists) {
+                collect(((ElementNotExists) element).getElement(), patterns);
+            } else if (!(element instanceof ElementData) && element != null) {
+                // Sub-queries, named graphs, services, etc.
+                throw Unbounded.INSTANCE;
+            }
+        }
+
+        private static void collect(Expr expr, List<TriplePath> patterns) throws Unbounded {
+            if (expr instanceof E_Function && !((E_Function) expr).getFunctionIRI().startsWith(XSD.NS)) {
+                // Functions may read anything, e.g., tosh:hasShape
+                throw Unbounded.INSTANCE;
+            }
+            if (expr instanceof ExprFunctionOp) {
+                collect(((ExprFunctionOp) expr).getElement(), patterns);
+            }
+            if (expr instanceof ExprFunction) {
+                for (Expr arg : ((ExprFunction) expr).getArgs()) {
+                    collect(arg, patterns);
+                }
+            } else if (expr instanceof ExprAggregator) {
+                if (((ExprAggregator) expr).getAggregator().getExprList() != null) {
+                    for (Expr arg : ((ExprAggregator) expr).getAggregator().getExprList()) {
+                        collect(arg, patterns);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.ncc.aif;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFList;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.vocabulary.RDF;
+import org.topbraid.shacl.engine.Constraint;
+import org.topbraid.shacl.engine.Shape;
+import org.topbraid.shacl.engine.ShapesGraph;
+import org.topbraid.shacl.vocabulary.SH;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable, fully-resolved view of the shapes and constraints in a {@link ShapesGraph}. {@link ShapesGraph} and
+ * {@link Shape} resolve shapes and constraints lazily and are not safe for concurrent use, so
+ * {@link ThreadedValidationEngine} resolves every shape once before validation starts and then reads this snapshot
+ * from all threads without locking.
+ *
+ * @author Next Century Corporation
+ */
+final class ShapesSnapshot {
+    // Properties whose values are shapes, in addition to the shape types below
+    private static final List<Property> SHAPE_PROPERTIES = Arrays.asList(SH.property, SH.node, SH.not,
+            SH.qualifiedValueShape);
+    private static final List<Property> SHAPE_LIST_PROPERTIES = Arrays.asList(SH.and, SH.or,
+            ResourceFactory.createProperty(SH.NS, "xone"));
+    private static final List<Resource> SHAPE_TYPES = Arrays.asList(SH.Shape, SH.NodeShape, SH.PropertyShape);
+
+    private final ShapesGraph shapesGraph;
+    private final Map<Node, Shape> shapes;
+    private final Map<Node, List<Constraint>> constraints;
+
+    private ShapesSnapshot(ShapesGraph shapesGraph, Map<Node, Shape> shapes, Map<Node, List<Constraint>> constraints) {
+        this.shapesGraph = shapesGraph;
+        this.shapes = Collections.unmodifiableMap(shapes);
+        this.constraints = Collections.unmodifiableMap(constraints);
+    }
+
+    /**
+     * Resolves all shapes in <code>shapesGraph</code>: its root shapes, every declared shape, and every shape referenced
+     * from another shape, along with their messages, constraints and constraint executors. This must be called before
+     * multiple threads use <code>shapesGraph</code>.
+     *
+     * @param shapesGraph the {@link ShapesGraph} to resolve
+     * @return a snapshot of the shapes and constraints in <code>shapesGraph</code>
+     */
+    static ShapesSnapshot of(ShapesGraph shapesGraph) {
+        Model shapesModel = shapesGraph.getShapesModel();
+        Deque<Node> pending = new ArrayDeque<>();
+        shapesGraph.getRootShapes().forEach(shape -> pending.add(shape.getShapeResource().asNode()));
+        for (Resource type : SHAPE_TYPES) {
+            shapesModel.listSubjectsWithProperty(RDF.type, type).forEachRemaining(shape -> pending.add(shape.asNode()));
+        }
+        for (Property property : SHAPE_PROPERTIES) {
+            shapesModel.listObjectsOfProperty(property).forEachRemaining(shape -> {
+                if (shape.isResource()) {
+                    pending.add(shape.asNode());
+                }
+            });
+        }
+        for (Property property : SHAPE_LIST_PROPERTIES) {
+            shapesModel.listObjectsOfProperty(property).forEachRemaining(list -> {
+                if (list.canAs(RDFList.class)) {
+                    for (RDFNode shape : list.as(RDFList.class).asJavaList()) {
+                        if (shape.isResource()) {
+                            pending.add(shape.asNode());
+                        }
+                    }
+                }
+            });
+        }
+
+        Map<Node, Shape> shapes = new HashMap<>();
+        Map<Node, List<Constraint>> constraints = new HashMap<>();
+        while (!pending.isEmpty()) {
+            Node node = pending.remove();
+            if (shapes.containsKey(node)) {
+                continue;
+            }
+            Shape shape = shapesGraph.getShape(node);
+            shapes.put(node, shape);
+            // Messages and executors are also resolved on first use, so that validation only reads them
+            shape.getMessages();
+            // Ignored and deactivated shapes are never validated, so they have no constraints
+            List<Constraint> shapeConstraints = new ArrayList<>();
+            if (!shapesGraph.isIgnored(node) && !shape.getShapeResource().isDeactivated()) {
+                shape.getConstraints().forEach(shapeConstraints::add);
+                shapeConstraints.forEach(Constraint::getExecutor);
+            }
+            constraints.put(node, Collections.unmodifiableList(shapeConstraints));
+        }
+        return new ShapesSnapshot(shapesGraph, shapes, constraints);
+    }
+
+    /**
+     * @return the {@link ShapesGraph} this snapshot was resolved from
+     */
+    ShapesGraph getShapesGraph() {
+        return shapesGraph;
+    }
+
+    /**
+     * @return the resolved {@link Shape} for <code>shape</code>, or null if it is not part of this snapshot
+     */
+    Shape getShape(Node shape) {
+        return shapes.get(shape);
+    }
+
+    /**
+     * Returns the constraints to validate for <code>shape</code>. Ignored and deactivated shapes have no constraints.
+     *
+     * @return an unmodifiable list of constraints, or null if <code>shape</code> is not part of this snapshot
+     */
+    List<Constraint> getConstraints(Node shape) {
+        return constraints.get(shape);
+    }
+
+    /**
+     * @return the number of shapes in this snapshot
+     */
+    int size() {
+        return shapes.size();
+    }
+}
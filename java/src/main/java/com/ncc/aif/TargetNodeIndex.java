@@ -0,0 +1,135 @@
+package com.ncc.aif;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+import org.topbraid.jenax.util.JenaUtil;
+import org.topbraid.shacl.engine.Shape;
+import org.topbraid.shacl.vocabulary.SH;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The target nodes of all shapes that are only targeted by class (<code>sh:targetClass</code>, or implicitly by being
+ * an <code>rdfs:Class</code>), collected in a single pass over the <code>rdf:type</code> triples of the data instead
+ * of one pass per target class. Each instance is added to every target class that one of its types is (a subclass of),
+ * so the target nodes of a shape are the same as those of
+ * {@link org.topbraid.shacl.util.SHACLUtil#getTargetNodes(Resource, org.apache.jena.query.Dataset)}. It is immutable
+ * once built, and safe to use from multiple threads.
+ *
+ * @author Next Century Corporation
+ */
+final class TargetNodeIndex {
+    private final Map<Node, Set<Node>> shapeClasses;
+    private final Map<Node, List<RDFNode>> instances;
+
+    private TargetNodeIndex(Map<Node, Set<Node>> shapeClasses, Map<Node, List<RDFNode>> instances) {
+        this.shapeClasses = shapeClasses;
+        this.instances = instances;
+    }
+
+    /**
+     * Indexes the instances of the target classes of <code>shapes</code> in <code>model</code>. Shapes with any other
+     * kind of target are not indexed.
+     *
+     * @param model   the data model, whose subclass closure is <code>classes</code>
+     * @param shapes  the shapes whose target nodes to index
+     * @param classes the subclass closure of <code>model</code>
+     * @return an index of the target nodes of the class-targeted <code>shapes</code>
+     */
+    static TargetNodeIndex of(Model model, Collection<Shape> shapes, ClassHierarchyIndex classes) {
+        Map<Node, Set<Node>> shapeClasses = new HashMap<>();
+        Set<Node> targetClasses = new LinkedHashSet<>();
+        for (Shape shape : shapes) {
+            Set<Node> shapeTargets = getTargetClasses(shape.getShapeResource());
+            if (shapeTargets != null) {
+                shapeClasses.put(shape.getShapeResource().asNode(), shapeTargets);
+                targetClasses.addAll(shapeTargets);
+            }
+        }
+
+        Map<Node, List<RDFNode>> instances = new HashMap<>();
+        if (!targetClasses.isEmpty()) {
+            // Target classes of each rdf:type seen so far
+            Map<Node, List<Node>> typeClasses = new HashMap<>();
+            ExtendedIterator<Triple> it = model.getGraph().find(Node.ANY, RDF.type.asNode(), Node.ANY);
+            try {
+                while (it.hasNext()) {
+                    Triple triple = it.next();
+                    List<Node> matches = typeClasses.computeIfAbsent(triple.getObject(), type -> {
+                        List<Node> result = new ArrayList<>(1);
+                        for (Node targetClass : targetClasses) {
+                            if (classes.isSubClassOf(type, targetClass)) {
+                                result.add(targetClass);
+                            }
+                        }
+                        return result;
+                    });
+                    if (!matches.isEmpty()) {
+                        RDFNode instance = model.asRDFNode(triple.getSubject());
+                        for (Node targetClass : matches) {
+                            instances.computeIfAbsent(targetClass, node -> new ArrayList<>()).add(instance);
+                        }
+                    }
+                }
+            } finally {
+                it.close();
+            }
+        }
+        return new TargetNodeIndex(shapeClasses, instances);
+    }
+
+    // The target classes of shape, or null if it has targets other than classes
+    private static Set<Node> getTargetClasses(Resource shape) {
+        if (shape.hasProperty(SH.targetNode) || shape.hasProperty(SH.targetSubjectsOf) ||
+                shape.hasProperty(SH.targetObjectsOf) || shape.hasProperty(SH.target)) {
+            return null;
+        }
+        Set<Node> targetClasses = new HashSet<>();
+        if (JenaUtil.hasIndirectType(shape, RDFS.Class)) {
+            targetClasses.add(shape.asNode());
+        }
+        for (Resource targetClass : JenaUtil.getResourceProperties(shape, SH.targetClass)) {
+            targetClasses.add(targetClass.asNode());
+        }
+        return targetClasses;
+    }
+
+    /**
+     * Returns the target nodes of <code>shape</code>, in the same order as
+     * {@link org.topbraid.shacl.util.SHACLUtil#getTargetNodes(Resource, org.apache.jena.query.Dataset)}.
+     *
+     * @return a new list of the target nodes of <code>shape</code>, or null if it was not indexed
+     */
+    List<RDFNode> getTargetNodes(Resource shape) {
+        Set<Node> targetClasses = shapeClasses.get(shape.asNode());
+        if (targetClasses == null) {
+            return null;
+        }
+        Set<RDFNode> nodes = new HashSet<>();
+        for (Node targetClass : targetClasses) {
+            nodes.addAll(instances.getOrDefault(targetClass, Collections.emptyList()));
+        }
+        return new ArrayList<>(nodes);
+    }
+
+    /**
+     * @return the number of shapes whose target nodes are indexed
+     */
+    int size() {
+        return shapeClasses.size();
+    }
+}
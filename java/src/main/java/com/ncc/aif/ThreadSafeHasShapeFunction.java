@@ -1,5 +1,7 @@
 package com.ncc.aif;
 
+import com.google.common.cache.Cache;
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.jena.graph.Node;
 import org.apache.jena.query.Dataset;
 import org.apache.jena.rdf.model.Model;
@@ -18,6 +20,7 @@ import org.topbraid.shacl.util.FailureLog;
 import org.topbraid.shacl.util.RecursionGuard;
 import org.topbraid.shacl.validation.DefaultShapesGraphProvider;
 import org.topbraid.shacl.validation.ValidationEngine;
+import org.topbraid.shacl.validation.ValidationEngineConfiguration;
 import org.topbraid.shacl.validation.ValidationEngineFactory;
 import org.topbraid.shacl.vocabulary.DASH;
 import org.topbraid.shacl.vocabulary.SH;
@@ -33,6 +36,8 @@ import java.util.Collections;
  */
 public class ThreadSafeHasShapeFunction extends HasShapeFunction {
     private static ThreadLocal<Boolean> recursionIsErrorFlag = new ThreadLocal<>();
+    // Number of recursions this thread has broken, used to detect results that depend on the calling context
+    private static ThreadLocal<Integer> recursionCount = ThreadLocal.withInitial(() -> 0);
 
     @Override
     protected NodeValue exec(Node focusNode, Node shapeNode, Node recursionIsError, FunctionEnv env) {
@@ -43,6 +48,7 @@ public class ThreadSafeHasShapeFunction extends HasShapeFunction {
         try {
             if (RecursionGuard.start(focusNode, shapeNode)) {
                 RecursionGuard.end(focusNode, shapeNode);
+                recursionCount.set(recursionCount.get() + 1);
                 if (JenaDatatypes.TRUE.asNode().equals(recursionIsError) || (oldFlag != null && oldFlag)) {
                     String message = "Unsupported recursion";
                     Model resultsModel = getResultsModel();
@@ -86,16 +92,27 @@ public class ThreadSafeHasShapeFunction extends HasShapeFunction {
         }
         ValidationEngine invokingEngine = ValidationEngine.getCurrent();
         ValidationEngine engine = invokingEngine instanceof ThreadedValidationEngine ?
-                ThreadedValidationEngine.createValidationEngine(dataset, sgURI, sg) :
+                ((ThreadedValidationEngine) invokingEngine).createNestedEngine(dataset, sgURI, sg) :
                 ValidationEngineFactory.get().create(dataset, sgURI, sg, null);
         if (invokingEngine != null) {
-            engine.setConfiguration(invokingEngine.getConfiguration());
+            engine.setConfiguration(getNestedConfiguration(invokingEngine.getConfiguration()));
         }
         return engine.
                 validateNodesAgainstShape(Collections.singletonList(focusNode), shape.asNode()).
                 getModel();
     }
 
+    // Nested results only decide conformance, so they must not count against the invoking engine's abort threshold
+    static ValidationEngineConfiguration getNestedConfiguration(ValidationEngineConfiguration configuration) {
+        if (configuration.getValidationErrorBatch() == -1) {
+            return configuration;
+        }
+        return new ValidationEngineConfiguration()
+                .setReportDetails(configuration.getReportDetails())
+                .setValidateShapes(configuration.getValidateShapes())
+                .setValidationErrorBatch(-1);
+    }
+
     private static boolean hasShapeInternal(RDFNode focusNode, Resource shape, Dataset dataset) {
         Model results = doRun(focusNode, shape, dataset);
         if (getResultsModel() != null) {
@@ -119,12 +136,38 @@ public class ThreadSafeHasShapeFunction extends HasShapeFunction {
         }
     }
 
+    /**
+     * Returns whether <code>focusNode</code> conforms to <code>shape</code>. If <code>engine</code> is a
+     * {@link ThreadedValidationEngine}, the check reuses its child engine for this thread, and conformance is
+     * remembered for the rest of its validation run, unless it was decided by assuming conformance to break a
+     * recursion.
+     */
     static boolean hasShape(RDFNode focusNode, Resource shape, ValidationEngine engine) {
+        Cache<Pair<Node, Node>, Boolean> cache = engine instanceof ThreadedValidationEngine ?
+                ((ThreadedValidationEngine) engine).getHasShapeCache() : null;
+        Pair<Node, Node> key = null;
+        if (cache != null) {
+            key = Pair.of(focusNode.asNode(), shape.asNode());
+            Boolean conforms = cache.getIfPresent(key);
+            if (conforms != null) {
+                return conforms;
+            }
+        }
+
         URI oldShapesGraphURI = HasShapeFunction.getShapesGraphURI();
         ShapesGraph oldShapesGraph = HasShapeFunction.getShapesGraph();
+        int recursions = recursionCount.get();
         try {
             setShapesGraph(engine.getShapesGraph(), engine.getShapesGraphURI());
-            return ThreadSafeHasShapeFunction.hasShapeInternal(focusNode, shape, engine.getDataset());
+            // Without a results model to fill or details to inspect, only conformance matters
+            boolean conforms = engine instanceof ThreadedValidationEngine && getResultsModel() == null &&
+                    !engine.getConfiguration().getReportDetails() ?
+                    ((ThreadedValidationEngine) engine).getNestedEngine().conformsTo(focusNode, shape) :
+                    ThreadSafeHasShapeFunction.hasShapeInternal(focusNode, shape, engine.getDataset());
+            if (cache != null && recursionCount.get() == recursions) {
+                cache.put(key, conforms);
+            }
+            return conforms;
         } finally {
             HasShapeFunction.setShapesGraph(oldShapesGraph, oldShapesGraphURI);
         }
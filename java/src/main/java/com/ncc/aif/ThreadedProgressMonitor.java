@@ -0,0 +1,243 @@
+package com.ncc.aif;
+
+import ch.qos.logback.classic.Logger;
+import org.apache.jena.graph.Node;
+import org.apache.jena.rdf.model.Resource;
+import org.topbraid.jenax.progress.NullProgressMonitor;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe progress monitor for multi-threaded AIF validation with {@link ThreadedValidationEngine}.
+ * Unlike {@link AIFProgressMonitor}, which relies on the order in which the TopBraid validator engine sends updates,
+ * this monitor is driven by the threaded engine as shape and constraint tasks start and complete on any thread.
+ * <p>
+ * Work is measured in focus node evaluations, i.e., one focus node validated against one constraint. The total grows as
+ * shape tasks collect their target nodes, so the ETA is a lower bound (prefixed with <code>&gt;</code>) until every
+ * shape has started.
+ * <p>
+ * If a filename is provided, it writes a tab-delimited file with a row for each completed constraint task, plus a
+ * heartbeat row (with <code>-</code> as shape and constraint) every {@value #HEARTBEAT_SECONDS} seconds:
+ * <code>Time | Shape | Constraint | Nodes | Duration (ms) | Shapes | Constraints | Focus nodes | Nodes/sec | ETA (s) | Active threads</code>
+ * <code>10:15:02.114 | EntityShape | ClassConstraintComponent[2/8] | 500 | 85 | 3/12/41 | 20/96 | 15000/84000 | 17647 | 4 | 8</code>
+ * <p>
+ * Shapes are reported as completed/started/total, and constraints as completed/submitted.
+ * Otherwise, it writes progressive output to StdOut.
+ */
+class ThreadedProgressMonitor extends NullProgressMonitor {
+    private static final long HEARTBEAT_SECONDS = 10;
+    private final SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss.SSS");
+    private final Logger logger = (Logger) (org.slf4j.LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME));
+    private boolean logging = false;
+    private BufferedWriter out;
+    private ScheduledExecutorService heartbeat;
+
+    private volatile long startTime;
+    private volatile int numShapes;
+    private final AtomicInteger shapesStarted = new AtomicInteger();
+    private final AtomicInteger shapesCompleted = new AtomicInteger();
+    private final AtomicInteger tasksSubmitted = new AtomicInteger();
+    private final AtomicInteger tasksCompleted = new AtomicInteger();
+    private final AtomicInteger activeTasks = new AtomicInteger();
+    private final AtomicLong nodesTotal = new AtomicLong();
+    private final AtomicLong nodesProcessed = new AtomicLong();
+    // keyed by root shape, as shapes in different namespaces may have the same local name
+    private final Map<Node, AtomicInteger> remainingTasks = new ConcurrentHashMap<>();
+    // {checked, evaluations} of the constraint task running on this thread
+    private final ThreadLocal<int[]> taskNodes = ThreadLocal.withInitial(() -> new int[2]);
+
+    /**
+     * Create a progress monitor that logs validation progress to StdOut.
+     */
+    ThreadedProgressMonitor() {
+        logging = true;
+        out = null;
+    }
+
+    /**
+     * Create a progress monitor that logs validation progress to the specified filename.
+     * @param filename the filename to output validation progress
+     * @throws IOException if the file cannot be created.
+     */
+    ThreadedProgressMonitor(String filename) throws IOException {
+        out = Files.newBufferedWriter(Paths.get(filename));
+    }
+
+    private void log(String text) {
+        if (logging) {
+            logger.info(text);
+        }
+    }
+
+    @Override
+    public void beginTask(String label, int numShapes) {
+        log("Beginning task " + label + " (" + numShapes + ")");
+        this.numShapes = numShapes;
+        this.startTime = System.currentTimeMillis();
+        shapesStarted.set(0);
+        shapesCompleted.set(0);
+        tasksSubmitted.set(0);
+        tasksCompleted.set(0);
+        activeTasks.set(0);
+        nodesTotal.set(0);
+        nodesProcessed.set(0);
+        remainingTasks.clear();
+        write("Total: " + numShapes + "\n" +
+                "Time\tShape\tConstraint\tNodes\tDuration (ms)\tShapes\tConstraints\tFocus nodes\tNodes/sec\tETA (s)\tActive threads\n");
+
+        heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "progress-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeat.scheduleAtFixedRate(() -> writeRow("-", "-", "-", "-"),
+                HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void done() {
+        if (heartbeat != null) {
+            heartbeat.shutdownNow();
+            heartbeat = null;
+        }
+        writeRow("DONE", "-", "-", "-");
+        log("DONE!");
+        synchronized (this) {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ioe) {
+                    logger.error("Could not close progress monitor.");
+                }
+                out = null;
+            }
+        }
+    }
+
+    /**
+     * Called by the engine once a shape task has collected its focus nodes and created its constraint tasks.
+     *
+     * @param shape the root shape
+     * @param evaluations number of focus node evaluations (focus nodes times constraints) in the shape's tasks
+     * @param constraintTasks number of constraint tasks created for the shape
+     */
+    void shapeStarted(Resource shape, long evaluations, int constraintTasks) {
+        shapesStarted.incrementAndGet();
+        nodesTotal.addAndGet(evaluations);
+        tasksSubmitted.addAndGet(constraintTasks);
+        if (constraintTasks == 0) {
+            shapesCompleted.incrementAndGet();
+        } else {
+            remainingTasks.put(shape.asNode(), new AtomicInteger(constraintTasks));
+        }
+    }
+
+    /**
+     * Called by the engine on the thread that is about to run a constraint task of <code>evaluations</code> focus node
+     * evaluations, i.e., its focus nodes times its constraints (more than one for fused property shapes).
+     */
+    void constraintStarted(int evaluations) {
+        activeTasks.incrementAndGet();
+        int[] nodes = taskNodes.get();
+        nodes[0] = 0;
+        nodes[1] = evaluations;
+    }
+
+    /**
+     * Called by the engine each time a running constraint task checks for cancellation, which executors do once per
+     * focus node. Counts at most the number of evaluations in the task.
+     */
+    void focusNodeChecked() {
+        int[] nodes = taskNodes.get();
+        if (nodes[0] < nodes[1]) {
+            nodes[0]++;
+            nodesProcessed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Called by the engine once a constraint task of the root shape <code>shape</code> has completed (or stopped) on
+     * this thread.
+     */
+    void constraintCompleted(Resource shape, String constraintName, int evaluations, long duration) {
+        String shapeName = ThreadedValidationEngine.ShapeTaskMetadata.getName(shape);
+        int[] nodes = taskNodes.get();
+        nodesProcessed.addAndGet(evaluations - nodes[0]);
+        nodes[0] = nodes[1] = 0;
+        activeTasks.decrementAndGet();
+        tasksCompleted.incrementAndGet();
+
+        AtomicInteger remaining = remainingTasks.get(shape.asNode());
+        if (remaining != null && remaining.decrementAndGet() == 0) {
+            remainingTasks.remove(shape.asNode());
+            int completed = shapesCompleted.incrementAndGet();
+            log("Completed shape " + shapeName + " (" + completed + " / " + numShapes + ")");
+        }
+        if (!logging) {
+            writeRow(shapeName, constraintName, String.valueOf(evaluations), String.valueOf(duration));
+        }
+    }
+
+    private void writeRow(String shapeName, String constraintName, String focusNodes, String duration) {
+        final long now = System.currentTimeMillis();
+        final long processed = nodesProcessed.get();
+        final long total = nodesTotal.get();
+        final double elapsed = Math.max(now - startTime, 1) / 1000.0;
+        final long throughput = Math.round(processed / elapsed);
+        final String eta = processed == 0 ? "-" :
+                (shapesStarted.get() < numShapes ? ">" : "") + Math.round((total - processed) / (processed / elapsed));
+        final String shapes = shapesCompleted.get() + "/" + shapesStarted.get() + "/" + numShapes;
+        final String constraints = tasksCompleted.get() + "/" + tasksSubmitted.get();
+        final String progress = processed + "/" + total;
+
+        if (out == null) {
+            log(String.format("%s %s: shapes %s, constraints %s, focus nodes %s, %d nodes/sec, ETA %ss, %d active",
+                    shapeName, constraintName, shapes, constraints, progress, throughput, eta, activeTasks.get()));
+            return;
+        }
+        synchronized (this) {
+            if (out == null) {
+                return;
+            }
+            try {
+                out.write(format.format(new Date(now)) + "\t" +
+                        shapeName + "\t" +
+                        constraintName + "\t" +
+                        focusNodes + "\t" +
+                        duration + "\t" +
+                        shapes + "\t" +
+                        constraints + "\t" +
+                        progress + "\t" +
+                        throughput + "\t" +
+                        eta + "\t" +
+                        activeTasks.get() + "\n");
+                out.flush();
+            } catch (IOException ioe) {
+                logger.error("Could not write to progress monitor.");
+            }
+        }
+    }
+
+    private synchronized void write(String text) {
+        if (out != null) {
+            try {
+                out.write(text);
+                out.flush();
+            } catch (IOException ioe) {
+                logger.error("Could not write to progress monitor.");
+            }
+        }
+    }
+}
@@ -1,29 +1,50 @@
 package com.ncc.aif;
 
 import ch.qos.logback.classic.Logger;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Lists;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.jena.graph.Graph;
 import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
 import org.apache.jena.query.Dataset;
 import org.apache.jena.rdf.model.*;
+import org.apache.jena.sparql.expr.ExprEvalException;
 import org.apache.jena.sparql.function.FunctionRegistry;
+import org.apache.jena.sparql.graph.GraphWrapper;
+import org.apache.jena.util.iterator.ExtendedIterator;
 import org.apache.jena.vocabulary.RDF;
-import org.topbraid.jenax.util.ARQFactory;
+import org.apache.jena.vocabulary.RDFS;
+import org.topbraid.jenax.util.DatasetWithDifferentDefaultModel;
 import org.topbraid.jenax.util.JenaDatatypes;
-import org.topbraid.shacl.arq.SHACLFunctions;
 import org.topbraid.shacl.engine.Constraint;
 import org.topbraid.shacl.engine.Shape;
 import org.topbraid.shacl.engine.ShapesGraph;
 import org.topbraid.shacl.js.SHACLScriptEngineManager;
+import org.topbraid.shacl.util.SHACLPreferences;
 import org.topbraid.shacl.util.SHACLUtil;
+import org.topbraid.shacl.vocabulary.DASH;
 import org.topbraid.shacl.validation.*;
+import org.topbraid.shacl.validation.sparql.AbstractSPARQLExecutor;
 import org.topbraid.shacl.vocabulary.SH;
 import org.topbraid.shacl.vocabulary.TOSH;
 
 import java.net.URI;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -36,7 +57,8 @@ import java.util.stream.Collectors;
 public class ThreadedValidationEngine extends ValidationEngine {
     private static boolean initialized = false;
     private static final Logger logger = (Logger) (org.slf4j.LoggerFactory.getLogger(ThreadedValidationEngine.class));
-    private static void initializeSHComponents() {
+    // Installs this package's executors and functions, which constraints and shapes graphs pick up when they resolve
+    static synchronized void initializeSHComponents() {
         if (!initialized) {
             FunctionRegistry.get().put(TOSH.hasShape.getURI(), ThreadSafeHasShapeFunction.class);
             ConstraintExecutors.get().addSpecialExecutor(SH.XoneConstraintComponent,
@@ -45,23 +67,89 @@ public class ThreadedValidationEngine extends ValidationEngine {
                     constraint -> new ClassConstraintExecutor());
             ConstraintExecutors.get().addSpecialExecutor(SH.NotConstraintComponent,
                     constraint -> new NotConstraintExecutor());
+            ConstraintExecutors.get().addSpecialExecutor(SH.SPARQLConstraintComponent,
+                    SPARQLExecutorRegistry::getExecutor);
+            AIFSPARQLExecutors.register();
+            CoreConstraintExecutors.register();
             initialized = true;
         }
     }
 
     //TODO: come up with better property (topbraid?)
     public static Property SH_ABORTED = ResourceFactory.createProperty(SH.NS, "aborted");
+    // Links a report to the constraints (sh:sourceShape and sh:sourceConstraintComponent) whose time budget expired
+    public static Property SH_TIMED_OUT = ResourceFactory.createProperty(SH.NS, "timedOut");
+
+    /**
+     * Chunk size that tells the engine to split focus nodes based on the number of available threads
+     */
+    public static final int ADAPTIVE_CHUNK_SIZE = -1;
+    // Adaptive chunking aims for this many chunks per thread, but never creates chunks smaller than the minimum
+    private static final int ADAPTIVE_CHUNKS_PER_THREAD = 4;
+    private static final int ADAPTIVE_MIN_CHUNK_SIZE = 500;
+    // Name of the tasks that validate all property shapes of a node shape (see setFusePropertyShapes)
+    private static final String FUSED_PROPERTY_SHAPES = "PropertyShapes";
+    // When checking conformance, each shape task first validates this many focus nodes itself (see getShapeTask)
+    private static final int CONFORMANCE_PROBE_SIZE = 16;
+
+    /**
+     * Default maximum number of (focus node, shape) conformance results remembered during a validation run
+     */
+    public static final long DEFAULT_HAS_SHAPE_CACHE_SIZE = 500_000;
+
+    /**
+     * Default number of focus nodes that each evaluation of a sh:sparql constraint's query validates
+     */
+    public static final int DEFAULT_SPARQL_BATCH_SIZE = 256;
 
     private List<Future<ShapeTaskMetadata>> validationMetadata = new LinkedList<>();
-    private ThreadLocal<Resource> threadReport = ThreadLocal.withInitial(() -> {
-        Model model = ModelFactory.createDefaultModel();
-        model.setNsPrefixes(dataset.getDefaultModel());
-        return model.createResource(SH.ValidationReport);
-    });
+    private ThreadLocal<Resource> threadReport = ThreadLocal.withInitial(this::createThreadReport);
     private ThreadLocal<Integer> threadViolations = ThreadLocal.withInitial(() -> 0);
+    // Results that are not part of the report are created in a scratch model that is cleared once they are delivered
+    private ThreadLocal<Model> threadScratch = ThreadLocal.withInitial(ModelFactory::createDefaultModel);
+    private ThreadLocal<Resource> pendingResult = new ThreadLocal<>();
+    private ValidationResultListener resultListener;
+    private boolean reportResults = true;
+    private final AtomicInteger unreportedResults = new AtomicInteger();
+    private ThreadedProgressMonitor progressMonitor;
+    private volatile ShapesSnapshot shapes;
+    private volatile ClassHierarchyIndex classIndex;
+    private ClassHierarchyIndex ontologyClassIndex;
+    private Graph ontologyData;
+    private volatile TargetNodeIndex targetIndex;
+    private long hasShapeCacheSize = DEFAULT_HAS_SHAPE_CACHE_SIZE;
+    private Cache<Pair<Node, Node>, Boolean> hasShapeCache;
+    private int sparqlBatchSize = DEFAULT_SPARQL_BATCH_SIZE;
+    private CacheStats hasShapeCacheStats;
+    // Child engines that answer nested shape checks, one per worker thread, for the duration of a validation run
+    private final Map<Thread, ThreadedValidationEngine> nestedEngines = new ConcurrentHashMap<>();
+    // State of a child engine's current conformance check. Child engines are only used by their own thread.
+    private boolean conformanceOnly = false;
+    private int conformanceStart;
+    private boolean conformanceFailure;
+    // Violations across all threads, checked against the abort threshold (validation error batch)
+    private final AtomicInteger violationCount = new AtomicInteger();
     private Predicate<RDFNode> focusNodeFilter;
+    private Function<Resource, Collection<RDFNode>> focusNodeCandidates;
     private int maxDepth = 0;
-    private boolean isStopped = false;
+    private FocusNodeSampler sampler;
+    // Sample of the shape whose constraint this thread is validating, which records the violating focus nodes
+    private ThreadLocal<FocusNodeSampler.Sample> currentSample = new ThreadLocal<>();
+    private int chunkSize = 0;
+    private ShapeCostProfile costProfile;
+    private boolean fusePropertyShapes = false;
+    private volatile boolean isStopped = false;
+    // While checking conformance only (see validateConformance), the first validation result stops all tasks
+    private boolean stopOnFirstResult = false;
+    private volatile boolean nonConforming = false;
+    // Time budgets in milliseconds (0 for none), and the time spent so far per root shape and per constraint key
+    private long constraintTimeout = 0;
+    private long shapeTimeout = 0;
+    private final Map<Node, AtomicLong> shapeElapsedTimes = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> constraintElapsedTimes = new ConcurrentHashMap<>();
+    // Deadline of the task this thread is running, if it has a time budget
+    private final ThreadLocal<Long> taskDeadline = new ThreadLocal<>();
+    private volatile boolean timedOut = false;
     private long lastDuration = 0;
 
     private ThreadedValidationEngine(Dataset dataset, URI shapesGraphURI, ShapesGraph shapesGraph) {
@@ -82,6 +170,9 @@ public class ThreadedValidationEngine extends ValidationEngine {
         public int filteredTargetCount;
         public int violations;
         public boolean ignored;
+        public boolean timedOut;
+        public FocusNodeSampler.Sample sample;
+        Resource shapeResource;
         List<Future<ConstraintTaskMetadata>> constraintFutures;
         SortedSet<ConstraintTaskMetadata> constraintMDs;
         Set<Resource> reports;
@@ -95,14 +186,19 @@ public class ThreadedValidationEngine extends ValidationEngine {
             this.violations = 0;
             this.ignored = false;
             constraintFutures = new LinkedList<>();
-            constraintMDs = new TreeSet<>(Collections.reverseOrder(Comparator.comparing(md -> md.duration)));
+            constraintMDs = new TreeSet<>(Collections.reverseOrder(
+                    Comparator.<ConstraintTaskMetadata>comparingLong(md -> md.duration)
+                            .thenComparing(md -> md.constraintName)
+                            .thenComparingInt(System::identityHashCode)));
             reports = new HashSet<>();
         }
 
         public void add(ConstraintTaskMetadata cmd) {
             totalDuration += cmd.duration;
             violations += cmd.violations;
-            reports.add(cmd.report);
+            if (cmd.report != null) {
+                reports.add(cmd.report);
+            }
             constraintMDs.add(cmd);
         }
 
@@ -110,7 +206,15 @@ public class ThreadedValidationEngine extends ValidationEngine {
         public String toString() {
             return String.join(" ", shapeName, threadName + "(" + targetDuration + "ms)",
                     totalDuration + "ms", "n=" + filteredTargetCount + "/" + targetCount, "v=" + violations,
-                    ignored ? "ignored" : "");
+                    ignored ? "ignored" : "", timedOut ? "timed out" : "");
+        }
+
+        /**
+         * @param shape a root shape
+         * @return the local name of <code>shape</code>, or the label of a blank node shape, for display
+         */
+        public static String getName(Resource shape) {
+            return shape.isURIResource() ? shape.getLocalName() : shape.getId().getLabelString();
         }
     }
 
@@ -121,6 +225,13 @@ public class ThreadedValidationEngine extends ValidationEngine {
         public long duration;
         public Resource report;
         public int violations;
+        public int focusNodeCount;
+        public boolean timedOut;
+        String costKey;
+        Resource sourceShape;
+        Resource sourceConstraintComponent;
+        // the constraints (e.g., property shapes) of the task, in the order validated, if it timed out
+        List<Resource> sourceConstraints = Collections.emptyList();
 
         public ConstraintTaskMetadata(String threadName, String constraintName, long duration, Resource report, int violations) {
             this.threadName = threadName;
@@ -132,7 +243,8 @@ public class ThreadedValidationEngine extends ValidationEngine {
 
         @Override
         public String toString() {
-            return String.join(" ", constraintName, threadName + "(" + duration + "ms)", "v=" + violations);
+            return String.join(" ", constraintName, threadName + "(" + duration + "ms)", "v=" + violations,
+                    timedOut ? "timed out" : "");
         }
 
         public static String getName(Constraint constraint) {
@@ -149,9 +261,39 @@ public class ThreadedValidationEngine extends ValidationEngine {
 
     @Override
     public Resource createResult(Resource type, Constraint constraint, RDFNode focusNode) {
-        Resource report = threadReport.get();
-        Resource result = report.getModel().createResource(type);
-        report.addProperty(SH.result, result);
+        // The executor is done with the previous result of this thread
+        flushPendingResult();
+
+        // Any validation result decides non-conformance, so it is not built and all tasks are stopped
+        if (stopOnFirstResult && SH.ValidationResult.equals(type)) {
+            nonConforming = true;
+            isStopped = true;
+            throw new MaximumNumberViolations(violationCount.get());
+        }
+
+        // Reserve a slot in the violation budget shared by all threads. Once the budget is spent, stop all tasks
+        // without recording any more violations.
+        boolean isViolation = constraint.getShapeResource().getSeverity() == SH.Violation;
+        int violations = isViolation ? violationCount.incrementAndGet() : 0;
+        if (isViolation && exceedsMaximumNumberViolations(violations - 1)) {
+            isStopped = true;
+            throw new MaximumNumberViolations(violations - 1);
+        }
+
+        if (DASH.FailureResult.equals(type)) {
+            conformanceFailure = true;
+        }
+        Resource result;
+        if (reportResults) {
+            Resource report = threadReport.get();
+            result = report.getModel().createResource(type);
+            report.addProperty(SH.result, result);
+        } else {
+            result = threadScratch.get().createResource(type);
+            if (SH.ValidationResult.equals(type)) {
+                unreportedResults.incrementAndGet();
+            }
+        }
         result.addProperty(SH.resultSeverity, constraint.getShapeResource().getSeverity());
         result.addProperty(SH.sourceConstraintComponent, constraint.getComponent());
         result.addProperty(SH.sourceShape, constraint.getShapeResource());
@@ -159,29 +301,285 @@ public class ThreadedValidationEngine extends ValidationEngine {
             result.addProperty(SH.focusNode, focusNode);
         }
 
-        // check whether this thread has enough violations to trigger exception
-        if (constraint.getShapeResource().getSeverity() == SH.Violation) {
-            int violations = threadViolations.get() + 1;
-            threadViolations.set(violations);
+        // count this violation for the current task. If it exhausts the budget, let the caller finish the result and
+        // stop all tasks at their next call to createResult or checkCanceled.
+        if (isViolation) {
+            threadViolations.set(threadViolations.get() + 1);
+            FocusNodeSampler.Sample sample = currentSample.get();
+            if (sample != null && focusNode != null) {
+                sample.addViolation(focusNode);
+            }
             if (exceedsMaximumNumberViolations(violations)) {
-                throw new MaximumNumberViolations(violations);
+                isStopped = true;
             }
         }
 
+        if (resultListener != null || !reportResults) {
+            pendingResult.set(result);
+        }
         return result;
     }
 
+    // Delivers this thread's last result to the listener, and discards it if it is not part of the report
+    private void flushPendingResult() {
+        Resource result = pendingResult.get();
+        if (result == null) {
+            return;
+        }
+        pendingResult.remove();
+        if (resultListener != null) {
+            Statement focusNode = result.getProperty(SH.focusNode);
+            Statement message = result.getProperty(SH.resultMessage);
+            Statement value = result.getProperty(SH.value);
+            resultListener.onResult(
+                    focusNode == null ? null : focusNode.getObject(),
+                    result.getPropertyResourceValue(SH.sourceShape),
+                    result.getPropertyResourceValue(SH.sourceConstraintComponent),
+                    result.getPropertyResourceValue(SH.resultSeverity),
+                    message == null ? null : message.getObject().isLiteral() ?
+                            message.getLiteral().getLexicalForm() : message.getObject().toString(),
+                    value == null ? null : value.getObject());
+        }
+        if (!reportResults) {
+            result.getModel().removeAll();
+        }
+    }
+
     public void setMaxDepth(int value) {
         if (value >= 0)
             maxDepth = value;
     }
 
+    /**
+     * Makes {@link #setMaxDepth(int) shallow validation} validate a stratified sample of the focus nodes of each shape,
+     * selected by the specified sampler, instead of the first focus nodes. The sample of each shape is available from
+     * its {@link ShapeTaskMetadata} after validation, to estimate the rate of violating focus nodes. Use
+     * <code>null</code> to validate the first focus nodes.
+     *
+     * @param value sampler of focus nodes, or null
+     */
+    public void setFocusNodeSampler(FocusNodeSampler value) {
+        sampler = value;
+    }
+
+    /**
+     * Splits the focus nodes of each constraint into chunks of at most {@code value} nodes, each of which is validated
+     * as a separate task. Use 0 to disable chunking or {@link #ADAPTIVE_CHUNK_SIZE} to size chunks based on the number
+     * of threads available to the executor.
+     *
+     * @param value maximum number of focus nodes per constraint task
+     */
+    public void setChunkSize(int value) {
+        if (value >= 0 || value == ADAPTIVE_CHUNK_SIZE)
+            chunkSize = value;
+    }
+
+    /**
+     * Sends every validation result to {@code listener} as soon as it has been produced. Use
+     * {@link #setReportResults(boolean)} to avoid also building the results into the validation report.
+     *
+     * @param listener {@link ValidationResultListener} to receive results, or null for none
+     */
+    public void setValidationResultListener(ValidationResultListener listener) {
+        resultListener = listener;
+    }
+
+    /**
+     * Determines whether validation results are added to the validation report (the default). When false, reports
+     * returned by {@link #validateAll(ExecutorService)} only state whether the data conforms, and results can only be
+     * observed through a {@link ValidationResultListener}. This keeps memory bounded when there are many results.
+     *
+     * @param value true to build validation results into the report, false o/w
+     */
+    public void setReportResults(boolean value) {
+        reportResults = value;
+    }
+
+    /**
+     * Uses {@code profile} to submit the shapes and constraints with the highest expected cost first, and updates it
+     * with the observed costs once validation completes without being stopped.
+     *
+     * @param profile {@link ShapeCostProfile} to schedule with, or null to submit shapes in shapes graph order
+     */
+    public void setCostProfile(ShapeCostProfile profile) {
+        costProfile = profile;
+    }
+
+    /**
+     * Validates the focus nodes of each node shape against all of its property shapes in one task per chunk, instead
+     * of one task per property shape. Each focus node's outgoing triples are then read once for the sh:minCount,
+     * sh:datatype, etc. constraints of all property shapes, rather than once per property shape.
+     *
+     * @param value true to fuse the property shapes of each node shape, false o/w
+     */
+    public void setFusePropertyShapes(boolean value) {
+        fusePropertyShapes = value;
+    }
+
+    /**
+     * Limits the time spent validating each constraint (all chunks of its focus nodes) to {@code millis}
+     * milliseconds. Once a constraint's budget expires, its running tasks stop at their next
+     * {@link #checkCanceled() check} and its remaining tasks are skipped, while all other constraints are still
+     * validated. Time that tasks wait in the executor's queue does not count against the budget. The constraint is
+     * then listed as {@link #SH_TIMED_OUT timed out} in the validation report, whose results are partial.
+     *
+     * @param millis time budget per constraint in milliseconds, or 0 for none
+     */
+    public void setConstraintTimeout(long millis) {
+        if (millis >= 0)
+            constraintTimeout = millis;
+    }
+
+    /**
+     * Limits the time spent validating each shape (collecting its target nodes and validating them against all of its
+     * constraints) to {@code millis} milliseconds, in the same way as {@link #setConstraintTimeout(long)}.
+     *
+     * @param millis time budget per shape in milliseconds, or 0 for none
+     */
+    public void setShapeTimeout(long millis) {
+        if (millis >= 0)
+            shapeTimeout = millis;
+    }
+
+    /**
+     * @return whether the time budget of any shape or constraint expired during the last validation run, in which
+     * case its results are partial
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+
+    /**
+     * Sets the maximum number of (focus node, shape) conformance results that nested shape checks (e.g., sh:not and
+     * sh:xone) remember during each call to {@link #validateAll(ExecutorService)}. Set to 0 to disable the cache.
+     * Defaults to {@value #DEFAULT_HAS_SHAPE_CACHE_SIZE}.
+     */
+    public void setHasShapeCacheSize(long value) {
+        hasShapeCacheSize = value;
+    }
+
+    /**
+     * @return statistics (e.g., hit rate) of the nested shape check cache of the last validation run, or null if the
+     * cache was disabled
+     */
+    public CacheStats getHasShapeCacheStats() {
+        return hasShapeCacheStats;
+    }
+
+    /**
+     * Sets the maximum number of focus nodes that are validated against a sh:sparql constraint with one evaluation of
+     * its compiled query (see {@link BatchedSPARQLConstraintExecutor}). Set to 0 to run the query once per focus node,
+     * as TopBraid does. Defaults to {@value #DEFAULT_SPARQL_BATCH_SIZE}.
+     */
+    public void setSPARQLBatchSize(int value) {
+        sparqlBatchSize = value;
+    }
+
+    /**
+     * @return the maximum number of focus nodes validated by one evaluation of a sh:sparql constraint's query
+     */
+    public int getSPARQLBatchSize() {
+        return sparqlBatchSize;
+    }
+
+    /**
+     * @return the nested shape check cache of the current validation run, or null if there is none
+     */
+    Cache<Pair<Node, Node>, Boolean> getHasShapeCache() {
+        return hasShapeCache;
+    }
+
     @Override
     public void setFocusNodeFilter(Predicate<RDFNode> value) {
         super.setFocusNodeFilter(value);
         focusNodeFilter = value;
     }
 
+    /**
+     * Narrows down the focus nodes of each root shape separately, in addition to any
+     * {@link #setFocusNodeFilter(Predicate) focus node filter}. {@code value} is called once per shape and validation
+     * run, and returns the candidate focus nodes of that shape, or null to validate all of its target nodes. Only the
+     * candidates that are target nodes of the shape are validated, so its target nodes need not be collected.
+     *
+     * @param value function from a root shape to its candidate focus nodes, or null to validate all target nodes
+     */
+    public void setFocusNodeCandidates(Function<Resource, Collection<RDFNode>> value) {
+        focusNodeCandidates = value;
+    }
+
+    /**
+     * Supplies the subclass closure of the ontologies that the data graph is a union of <code>data</code> with, so that
+     * it is not indexed again for each validation run. The closure of the data graph is only built when
+     * <code>data</code> itself has <code>rdfs:subClassOf</code> triples.
+     *
+     * @param index the subclass closure of the ontologies, or null to index the data graph on every run
+     * @param data  the graph that was unioned with the ontologies to form the data graph
+     */
+    void setOntologyClassIndex(ClassHierarchyIndex index, Graph data) {
+        ontologyClassIndex = index;
+        ontologyData = data;
+    }
+
+    /**
+     * In addition to the progress monitor, cancels validation once the violation budget has been exhausted by any
+     * thread. Executors call this for each focus node, so running tasks stop promptly.
+     */
+    @Override
+    public void checkCanceled() {
+        flushPendingResult();
+        super.checkCanceled();
+        // In failure mode, TopBraid would turn the exception into a failure
+        if (conformanceOnly && unreportedResults.get() != conformanceStart && !SHACLPreferences.isProduceFailuresMode()) {
+            throw NonConformance.INSTANCE;
+        }
+        if (progressMonitor != null) {
+            progressMonitor.focusNodeChecked();
+        }
+        if (isStopped) {
+            throw new MaximumNumberViolations(violationCount.get());
+        }
+        checkTimeBudget();
+    }
+
+    /**
+     * Stops the task of this thread if its time budget has expired. See {@link #setConstraintTimeout(long)}.
+     */
+    void checkTimeBudget() {
+        Long deadline = taskDeadline.get();
+        if (deadline != null && System.currentTimeMillis() > deadline) {
+            throw TimeBudgetExpired.INSTANCE;
+        }
+    }
+
+    /**
+     * Returns a view of {@code graph} whose reads stop the task of this thread once its time budget has expired, so
+     * that long-running queries (e.g., of sh:sparql constraints) are stopped even between focus nodes.
+     */
+    Graph getTimeBudgetedGraph(Graph graph) {
+        return taskDeadline.get() == null ? graph : new StoppableGraph(graph, this::checkTimeBudget);
+    }
+
+    // The deadline of a task that starts now, given the time already spent on its budgets
+    private Long getDeadline(long now, Resource shape, String costKey) {
+        long remaining = Long.MAX_VALUE;
+        if (shapeTimeout > 0) {
+            remaining = shapeTimeout - getElapsedTime(shape).get();
+        }
+        if (constraintTimeout > 0 && costKey != null) {
+            remaining = Math.min(remaining, constraintTimeout - getElapsedTime(costKey).get());
+        }
+        return remaining == Long.MAX_VALUE ? null : now + remaining;
+    }
+
+    private AtomicLong getElapsedTime(Resource shape) {
+        return shapeElapsedTimes.computeIfAbsent(shape.asNode(), k -> new AtomicLong());
+    }
+
+    private AtomicLong getElapsedTime(String costKey) {
+        return constraintElapsedTimes.computeIfAbsent(costKey, k -> new AtomicLong());
+    }
+
     private boolean exceedsMaximumNumberViolations(int violations) {
         int errorBatch = getConfiguration().getValidationErrorBatch();
         return errorBatch != -1 && violations >= errorBatch;
@@ -190,8 +588,11 @@ public class ThreadedValidationEngine extends ValidationEngine {
     /**
      * Validates all target nodes against all of their shapes. The provided {@code executor} is used to provide
      * processing for each shape. This allows the user some control over the environment in which each shape is processed.
+     * If {@code executor} is a {@link ForkJoinPool}, each shape task forks its constraint tasks and joins them
+     * cooperatively, allowing idle workers to steal work from shapes with many constraints or chunks.
      *
-     * To further narrow down which nodes to validate, use {@link #setFocusNodeFilter(Predicate)}.
+     * To further narrow down which nodes to validate, use {@link #setFocusNodeFilter(Predicate)} or
+     * {@link #setFocusNodeCandidates(Function)}.
      *
      * @param executor {@link ExecutorService} to send jobs to
      * @return an instance of sh:ValidationReport in the results Model
@@ -200,117 +601,580 @@ public class ThreadedValidationEngine extends ValidationEngine {
      */
     public Set<Resource> validateAll(ExecutorService executor) throws InterruptedException, ExecutionException {
         long start = System.currentTimeMillis();
-        boolean nested = SHACLScriptEngineManager.begin();
+        Set<Resource> reports = new HashSet<>();
+        List<ShapeTaskMetadata> shapeMDs = validateShapes(executor);
+        for (ShapeTaskMetadata smd : shapeMDs) {
+            reports.addAll(smd.reports);
+        }
 
+        Set<Resource> valid = new HashSet<>();
         Set<Resource> invalid = new HashSet<>();
+        for (Resource report : reports) {
+            boolean conforms = unreportedResults.get() == 0;
+            StmtIterator it = report.listProperties(SH.result);
+            while(it.hasNext()) {
+                Statement s = it.next();
+                if(s.getResource().hasProperty(RDF.type, SH.ValidationResult)) {
+                    conforms = false;
+                    it.close();
+                    break;
+                }
+            }
+            report.removeAll(SH.conforms);
+            report.addProperty(SH.conforms, conforms ? JenaDatatypes.TRUE : JenaDatatypes.FALSE);
+            (conforms ? valid : invalid).add(report);
+        }
+        lastDuration = System.currentTimeMillis() - start;
+
+        if (invalid.isEmpty()) {
+            Set<Resource> result = valid.size() > 1 ? Collections.singleton(valid.iterator().next()) : valid;
+            if (!result.isEmpty()) {
+                addTimedOut(result.iterator().next(), shapeMDs);
+            }
+            return result;
+        }
+
+        boolean exceededViolations = exceedsMaximumNumberViolations(violationCount.get());
+        for (Resource report : invalid) {
+            if (exceededViolations) {
+                report.addProperty(SH_ABORTED, JenaDatatypes.TRUE);
+            }
+        }
+        addTimedOut(invalid.iterator().next(), shapeMDs);
+        return invalid;
+    }
+
+    // Lists each shape and constraint whose time budget expired in the report, once (rather than once per chunk)
+    private void addTimedOut(Resource report, List<ShapeTaskMetadata> shapeMDs) {
+        // shape, constraint component and constraint, the latter two being null if the shape's target nodes timed out
+        Set<List<Resource>> timedOutConstraints = new LinkedHashSet<>();
+        for (ShapeTaskMetadata smd : shapeMDs) {
+            if (smd.timedOut) {
+                timedOutConstraints.add(Arrays.asList(smd.shapeResource, null, null));
+            }
+            for (ConstraintTaskMetadata cmd : smd.constraintMDs) {
+                if (cmd.timedOut && cmd.sourceConstraints.isEmpty()) {
+                    timedOutConstraints.add(Arrays.asList(cmd.sourceShape, cmd.sourceConstraintComponent, null));
+                } else if (cmd.timedOut) {
+                    // each property shape of a fused task is partial
+                    for (Resource sourceConstraint : cmd.sourceConstraints) {
+                        timedOutConstraints.add(
+                                Arrays.asList(cmd.sourceShape, cmd.sourceConstraintComponent, sourceConstraint));
+                    }
+                }
+            }
+        }
+        for (List<Resource> constraint : timedOutConstraints) {
+            Resource marker = report.getModel().createResource();
+            marker.addProperty(SH.sourceShape, constraint.get(0));
+            if (constraint.get(1) != null) {
+                marker.addProperty(SH.sourceConstraintComponent, constraint.get(1));
+            }
+            if (constraint.get(2) != null) {
+                marker.addProperty(SH.sourceConstraint, constraint.get(2));
+            }
+            report.addProperty(SH_TIMED_OUT, marker);
+        }
+    }
+
+    /**
+     * Returns whether all target nodes conform to all of their shapes, without building any validation results.
+     * Validation stops as soon as any validation result is found, and all outstanding tasks (including the
+     * collection of target nodes by SPARQL targets) are skipped. To find such a result early, each shape task first
+     * validates a few of its target nodes against all constraints itself, before any constraint task is queued, and
+     * shapes and constraints are validated in order of increasing expected cost: cheapest first according to the
+     * {@link #setCostProfile(ShapeCostProfile) cost profile}, if any, and otherwise constraints that are checked by
+     * a single scan of each focus node before nested shapes and SPARQL constraints.
+     * {@link #setMaxDepth(int) Shallow validation} and focus node filters are honored.
+     *
+     * @param executor {@link ExecutorService} to send jobs to
+     * @return true if the data conforms, false o/w
+     * @throws InterruptedException when {@link Future#get()} experiences {@link InterruptedException}
+     * @throws ExecutionException when {@link Future#get()} experiences {@link ExecutionException}
+     */
+    public boolean validateConformance(ExecutorService executor) throws InterruptedException, ExecutionException {
+        boolean oldReportResults = reportResults;
+        stopOnFirstResult = true;
+        reportResults = false;
         try {
+            validateShapes(executor);
+        } finally {
+            stopOnFirstResult = false;
+            reportResults = oldReportResults;
+        }
+        return !nonConforming;
+    }
+
+    // Validates all root shapes and waits for all of their tasks
+    private List<ShapeTaskMetadata> validateShapes(ExecutorService executor)
+            throws InterruptedException, ExecutionException {
+        long start = System.currentTimeMillis();
+        boolean nested = SHACLScriptEngineManager.begin();
+
+        try {
+            resetRunState();
             List<Shape> rootShapes = shapesGraph.getRootShapes();
-            //TODO: Add monitor support for threaded validator. Experience NPE with AIFProgressMonitor
-//        if (monitor != null) {
-//            monitor.beginTask("Validating " + rootShapes.size() + " shapes", rootShapes.size());
-//        }
+            // Resolve all shapes before any worker reads them
+            ShapesSnapshot snapshot = getShapes();
+            // Data may change between runs, so the class hierarchy is indexed and conformance is remembered per run
+            classIndex = buildClassIndex();
+            targetIndex = buildTargetIndex(rootShapes);
+            installInverseIndex();
+            shapeElapsedTimes.clear();
+            constraintElapsedTimes.clear();
+            timedOut = false;
+            hasShapeCache = hasShapeCacheSize > 0 ?
+                    CacheBuilder.newBuilder().maximumSize(hasShapeCacheSize).recordStats().build() : null;
+            // Other monitors depend on the order in which the single-threaded engine reports shapes
+            progressMonitor = monitor instanceof ThreadedProgressMonitor ? (ThreadedProgressMonitor) monitor : null;
+            if (progressMonitor != null) {
+                progressMonitor.beginTask("Validating " + rootShapes.size() + " shapes", rootShapes.size());
+            }
             logger.debug("Validating {} shapes.", rootShapes.size());
+            if (costProfile != null) {
+                // Longest expected shapes first, so they do not form the tail of the validation. When checking
+                // conformance, cheapest first, so that a violation is likely found before the expensive ones start.
+                Comparator<Shape> byCost = Comparator.comparingDouble(
+                        shape -> costProfile.estimateShape(shape.getShapeResource()));
+                rootShapes = new ArrayList<>(rootShapes);
+                rootShapes.sort(stopOnFirstResult ? byCost : Collections.reverseOrder(byCost));
+            }
             int i = 0;
             for (Shape shape : rootShapes) {
-                validationMetadata.add(executor.submit(getShapeTask(shape, i++, executor)));
+                validationMetadata.add(executor.submit(getShapeTask(shape, i++, executor, snapshot)));
             }
 
             // Go through all futures and get validation metadata for those that have completed
-            Set<Resource> reports = new HashSet<>();
-            int violations = 0;
+            List<ShapeTaskMetadata> shapeMDs = new ArrayList<>();
             for (Future<ShapeTaskMetadata> shapeFuture : validationMetadata) {
                 ShapeTaskMetadata smd = shapeFuture.get();
                 for (Future<ConstraintTaskMetadata> constraintFuture : smd.constraintFutures) {
                     smd.add(constraintFuture.get());
-                    if (exceedsMaximumNumberViolations(smd.violations)) {
-                        isStopped = true;
-                    }
-                }
-                reports.addAll(smd.reports);
-                violations += smd.violations;
-                if (exceedsMaximumNumberViolations(violations)) {
-                    isStopped = true;
                 }
+                shapeMDs.add(smd);
             }
 
-            Set<Resource> valid = new HashSet<>();
-            for (Resource report : reports) {
-                boolean conforms = true;
-                StmtIterator it = report.listProperties(SH.result);
-                while(it.hasNext()) {
-                    Statement s = it.next();
-                    if(s.getResource().hasProperty(RDF.type, SH.ValidationResult)) {
-                        conforms = false;
-                        it.close();
-                        break;
-                    }
+            // Costs of stopped or timed out validations are not representative
+            if (costProfile != null && !isStopped && !timedOut) {
+                for (ShapeTaskMetadata smd : shapeMDs) {
+                    costProfile.update(smd, maxDepth > 0 ?
+                            Math.min(maxDepth, smd.filteredTargetCount) : smd.filteredTargetCount);
                 }
-                report.removeAll(SH.conforms);
-                report.addProperty(SH.conforms, conforms ? JenaDatatypes.TRUE : JenaDatatypes.FALSE);
-                (conforms ? valid : invalid).add(report);
-            }
-
-            if (invalid.isEmpty()) {
-                lastDuration = System.currentTimeMillis() - start;
-                return valid.size() > 1 ? Collections.singleton(valid.iterator().next()) : valid;
             }
 
-            boolean exceededViolations = exceedsMaximumNumberViolations(violations);
-            for (Resource report : invalid) {
-                if (exceededViolations) {
-                    report.addProperty(SH_ABORTED, JenaDatatypes.TRUE);
-                }
-            }
+            return shapeMDs;
         } finally {
             SHACLScriptEngineManager.end(nested);
             lastDuration = System.currentTimeMillis() - start;
+            if (progressMonitor != null) {
+                progressMonitor.done();
+            }
+            nestedEngines.clear();
+            targetIndex = null;
+            uninstallInverseIndex();
+            if (hasShapeCache != null) {
+                hasShapeCacheStats = hasShapeCache.stats();
+                logger.debug("Nested shape check cache: {}", hasShapeCacheStats);
+                hasShapeCache = null;
+            } else {
+                hasShapeCacheStats = null;
+            }
         }
-        return invalid;
+    }
+
+    // Nothing of a previous run carries over: reports, results not yet delivered, and the violation budget are
+    // replaced, and a previous stop no longer applies. Threads keep their values of the previous ThreadLocals, so
+    // those are replaced rather than cleared.
+    private void resetRunState() {
+        validationMetadata = new LinkedList<>();
+        threadReport = ThreadLocal.withInitial(this::createThreadReport);
+        pendingResult = new ThreadLocal<>();
+        violationCount.set(0);
+        unreportedResults.set(0);
+        isStopped = false;
+        nonConforming = false;
+    }
+
+    private Resource createThreadReport() {
+        Model model = ModelFactory.createDefaultModel();
+        model.setNsPrefixes(dataset.getDefaultModel());
+        return model.createResource(SH.ValidationReport);
     }
 
     @Override
     public Resource validateNodesAgainstShape(List<RDFNode> focusNodes, Node shape) {
-        if(!shapesGraph.isIgnored(shape)) {
-            Shape vs;
+        List<Constraint> constraints = getShapes().getConstraints(shape);
+        if (constraints == null) {
+            // Shapes outside of the snapshot (e.g., only referenced from SPARQL) are resolved under lock
+            constraints = new ArrayList<>();
             synchronized (shapesGraph) {
-                vs = shapesGraph.getShape(shape);
+                Shape vs = shapesGraph.getShape(shape);
+                if (!shapesGraph.isIgnored(shape) && !vs.getShapeResource().isDeactivated()) {
+                    vs.getConstraints().forEach(constraints::add);
+                }
             }
-            if(!vs.getShapeResource().isDeactivated()) {
-                boolean nested = SHACLScriptEngineManager.begin();
-                ValidationEngine oldEngine = getCurrent();
-                setCurrent(this);
-                try {
-                    // Make getting constraints thread-safe
-                    Iterable<Constraint> constraints;
-                    synchronized (vs) {
-                        constraints = vs.getConstraints();
-                    }
-                    for(Constraint constraint : constraints) {
+        }
+        if (!constraints.isEmpty()) {
+            boolean nested = SHACLScriptEngineManager.begin();
+            ValidationEngine oldEngine = getCurrent();
+            setCurrent(this);
+            try {
+                List<Constraint> scanConstraints = new ArrayList<>();
+                for(Constraint constraint : constraints) {
+                    if (canScan(constraint)) {
+                        scanConstraints.add(constraint);
+                    } else {
                         validateNodesAgainstConstraint(focusNodes, constraint);
                     }
                 }
-                finally {
-                    setCurrent(oldEngine);
-                    SHACLScriptEngineManager.end(nested);
+                if (scanConstraints.size() == 1) {
+                    validateNodesAgainstConstraint(focusNodes, scanConstraints.get(0));
+                } else if (!scanConstraints.isEmpty()) {
+                    validateNodesAgainstScanConstraints(focusNodes, scanConstraints);
                 }
             }
+            finally {
+                setCurrent(oldEngine);
+                SHACLScriptEngineManager.end(nested);
+            }
         }
         return getReport();
     }
 
+    // Whether the constraint can be checked as part of a single scan of each focus node
+    private boolean canScan(Constraint constraint) {
+        return constraint.getExecutor() instanceof CoreConstraintExecutors.ScanConstraintExecutor &&
+                FocusNodeScan.canScan(constraint) && !SHACLPreferences.isProduceFailuresMode() &&
+                !getConfiguration().isSkippedConstraintComponent(constraint.getComponent());
+    }
+
+    /**
+     * Checks each focus node against all <code>constraints</code> before moving on to the next node, so the node's
+     * outgoing triples are read only once.
+     */
+    private void validateNodesAgainstScanConstraints(List<RDFNode> focusNodes, List<Constraint> constraints) {
+        for (RDFNode focusNode : focusNodes) {
+            FocusNodeScan scan = new FocusNodeScan(focusNode);
+            for (Constraint constraint : constraints) {
+                ((CoreConstraintExecutors.ScanConstraintExecutor) constraint.getExecutor())
+                        .validate(constraint, this, scan);
+            }
+            checkCanceled();
+        }
+    }
+
+    // The sh:property constraints of a node shape to validate together, if there are at least two
+    private List<Constraint> getFusedPropertyConstraints(Shape shape, List<Constraint> constraints) {
+        if (!fusePropertyShapes || !shape.isNodeShape() ||
+                getConfiguration().isSkippedConstraintComponent(SH.PropertyConstraintComponent)) {
+            return Collections.emptyList();
+        }
+        List<Constraint> propertyConstraints = constraints.stream()
+                .filter(constraint -> SH.PropertyConstraintComponent.equals(constraint.getComponent()))
+                .collect(Collectors.toList());
+        return propertyConstraints.size() > 1 ? propertyConstraints : Collections.emptyList();
+    }
+
+    /**
+     * Validates <code>focusNodes</code> against the property shapes of <code>propertyConstraints</code> (sh:property
+     * constraints of a node shape), as if each were validated separately. Constraints of all property shapes that
+     * can be checked against a {@link FocusNodeScan} are checked against a single scan of each focus node.
+     */
+    private void validateNodesAgainstPropertyShapes(List<RDFNode> focusNodes, List<Constraint> propertyConstraints) {
+        List<Constraint> scanConstraints = new ArrayList<>();
+        List<Constraint> otherConstraints = new ArrayList<>();
+        for (Constraint propertyConstraint : propertyConstraints) {
+            List<Constraint> constraints = getShapes().getConstraints(propertyConstraint.getParameterValue().asNode());
+            if (constraints == null) {
+                otherConstraints.add(propertyConstraint);
+                continue;
+            }
+            for (Constraint constraint : constraints) {
+                (canScan(constraint) ? scanConstraints : otherConstraints).add(constraint);
+            }
+        }
+
+        boolean nested = SHACLScriptEngineManager.begin();
+        ValidationEngine oldEngine = getCurrent();
+        setCurrent(this);
+        try {
+            if (!scanConstraints.isEmpty()) {
+                validateNodesAgainstScanConstraints(focusNodes, scanConstraints);
+            }
+            for (Constraint constraint : otherConstraints) {
+                validateNodesAgainstConstraint(focusNodes, constraint);
+            }
+        } finally {
+            setCurrent(oldEngine);
+            SHACLScriptEngineManager.end(nested);
+        }
+    }
+
+    /**
+     * Returns the immutable snapshot of this engine's shapes, resolving it first if necessary. Engines created for
+     * nested shape checks share the snapshot of the engine that created them, and engines created from a
+     * {@link PreparedShapesGraph} share its snapshot.
+     */
+    ShapesSnapshot getShapes() {
+        ShapesSnapshot current = shapes;
+        if (current == null || current.getShapesGraph() != shapesGraph) {
+            synchronized (this) {
+                current = shapes;
+                if (current == null || current.getShapesGraph() != shapesGraph) {
+                    long start = System.currentTimeMillis();
+                    synchronized (shapesGraph) {
+                        current = ShapesSnapshot.of(shapesGraph);
+                    }
+                    logger.debug("Resolved {} shape(s), d={}", current.size(), System.currentTimeMillis() - start);
+                    shapes = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Returns the index of the subclass closure of the data (including any ontologies in it), used to check sh:class.
+     * It is rebuilt at the start of each call to {@link #validateAll(ExecutorService)}.
+     */
+    ClassHierarchyIndex getClassIndex() {
+        ClassHierarchyIndex current = classIndex;
+        if (current == null) {
+            synchronized (this) {
+                current = classIndex;
+                if (current == null) {
+                    current = classIndex = buildClassIndex();
+                }
+            }
+        }
+        return current;
+    }
+
+    private ClassHierarchyIndex buildClassIndex() {
+        if (ontologyClassIndex != null &&
+                !ontologyData.contains(Node.ANY, RDFS.subClassOf.asNode(), Node.ANY)) {
+            return ontologyClassIndex;
+        }
+        long start = System.currentTimeMillis();
+        ClassHierarchyIndex index = ClassHierarchyIndex.of(dataset.getDefaultModel().getGraph());
+        logger.debug("Indexed subclass closure of {} class(es), d={}", index.size(), System.currentTimeMillis() - start);
+        return index;
+    }
+
+    private TargetNodeIndex buildTargetIndex(List<Shape> rootShapes) {
+        long start = System.currentTimeMillis();
+        TargetNodeIndex index = TargetNodeIndex.of(dataset.getDefaultModel(), rootShapes, classIndex);
+        logger.debug("Indexed target nodes of {} shape(s), d={}", index.size(), System.currentTimeMillis() - start);
+        return index;
+    }
+
+    // Answers inverse lookups of the AIF properties from an index, if the data graph supports it
+    private void installInverseIndex() {
+        Graph graph = dataset.getDefaultModel().getGraph();
+        if (graph instanceof InverseIndexedGraph) {
+            long start = System.currentTimeMillis();
+            InversePropertyIndex index = InversePropertyIndex.of(((InverseIndexedGraph) graph).get(),
+                    InversePropertyIndex.AIF_PROPERTIES);
+            ((InverseIndexedGraph) graph).setIndex(index);
+            logger.debug("Indexed {} triple(s) of inversely used properties, d={}", index.size(),
+                    System.currentTimeMillis() - start);
+        }
+    }
+
+    private void uninstallInverseIndex() {
+        Graph graph = dataset.getDefaultModel().getGraph();
+        if (graph instanceof InverseIndexedGraph) {
+            ((InverseIndexedGraph) graph).setIndex(null);
+        }
+    }
+
+    // Target nodes of a root shape, from the target index if the shape is only targeted by class
+    private List<RDFNode> getTargetNodes(Resource shape) {
+        TargetNodeIndex index = targetIndex;
+        List<RDFNode> nodes = index != null ? index.getTargetNodes(shape) : null;
+        if (nodes != null) {
+            return nodes;
+        }
+        if (!stopOnFirstResult && getConfiguration().getValidationErrorBatch() == -1 && taskDeadline.get() == null) {
+            return SHACLUtil.getTargetNodes(shape, dataset);
+        }
+        // Target queries (e.g., of SPARQL targets) can take long and do not call checkCanceled, so their reads of
+        // the data stop them instead once validation has been stopped or the shape's time budget has expired
+        Model stoppable = ModelFactory.createModelForGraph(
+                new StoppableGraph(dataset.getDefaultModel().getGraph(), () -> {
+                    if (isStopped) {
+                        throw StoppedRead.INSTANCE;
+                    }
+                    checkTimeBudget();
+                }));
+        List<RDFNode> stoppableNodes;
+        try {
+            stoppableNodes = SHACLUtil.getTargetNodes(shape, new DatasetWithDifferentDefaultModel(stoppable, dataset));
+        } catch (StoppedRead e) {
+            return Collections.emptyList();
+        }
+        // Executors read the data through the focus nodes' model, and those reads must not be stopped
+        Model dataModel = dataset.getDefaultModel();
+        return stoppableNodes.stream().map(node -> dataModel.asRDFNode(node.asNode())).collect(Collectors.toList());
+    }
+
+    // The candidates that are target nodes of a root shape, checked one by one
+    private List<RDFNode> getTargetNodes(Shape shape, Collection<RDFNode> candidates) {
+        Model dataModel = dataset.getDefaultModel();
+        List<RDFNode> nodes = new ArrayList<>();
+        for (RDFNode candidate : candidates) {
+            RDFNode node = dataModel.asRDFNode(candidate.asNode());
+            if (shape.getTargets().stream().anyMatch(target -> target.contains(dataset, node))) {
+                nodes.add(node);
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Returns this thread's child engine for nested shape checks, creating it if necessary. Unlike
+     * {@link #createNestedEngine}, the child is reused for every nested check of this thread during the current
+     * validation run, and does not record its results in a report.
+     */
+    ThreadedValidationEngine getNestedEngine() {
+        ThreadedValidationEngine engine = nestedEngines.computeIfAbsent(Thread.currentThread(), thread -> {
+            ThreadedValidationEngine child = createValidationEngine(dataset, getShapesGraphURI(), shapesGraph);
+            child.setConfiguration(ThreadSafeHasShapeFunction.getNestedConfiguration(getConfiguration()));
+            child.reportResults = false;
+            child.conformanceOnly = true;
+            child.sparqlBatchSize = sparqlBatchSize;
+            return child;
+        });
+        engine.shapes = getShapes();
+        engine.classIndex = getClassIndex();
+        engine.hasShapeCache = hasShapeCache;
+        return engine;
+    }
+
+    /**
+     * Returns whether <code>focusNode</code> conforms to <code>shape</code> without building a results model. Only
+     * called on child engines (see {@link #getNestedEngine()}). Validation of <code>shape</code> stops at the first
+     * violation, which already decides conformance.
+     *
+     * @throws ExprEvalException if nested validation produced a failure
+     */
+    boolean conformsTo(RDFNode focusNode, Resource shape) {
+        conformanceStart = unreportedResults.get();
+        conformanceFailure = false;
+        try {
+            validateNodesAgainstShape(Collections.singletonList(focusNode), shape.asNode());
+        } catch (NonConformance e) {
+            // a violation was found
+        } finally {
+            flushPendingResult();
+        }
+        if (conformanceFailure) {
+            throw new ExprEvalException("Propagating failure from nested shapes");
+        }
+        return unreportedResults.get() == conformanceStart;
+    }
+
+    // Stops a conformance check once it has found a violation. Without a stack trace, since it is not an error.
+    private static class NonConformance extends RuntimeException {
+        private static final NonConformance INSTANCE = new NonConformance();
+
+        private NonConformance() {
+            super("Focus node does not conform", null, false, false);
+        }
+    }
+
+    // A data graph whose reads run a check first, which throws to stop the reader (e.g., once validation has been
+    // stopped)
+    private static class StoppableGraph extends GraphWrapper {
+        private final Runnable check;
+
+        StoppableGraph(Graph graph, Runnable check) {
+            super(graph);
+            this.check = check;
+        }
+
+        @Override
+        public ExtendedIterator<Triple> find(Node s, Node p, Node o) {
+            check.run();
+            return super.find(s, p, o);
+        }
+
+        @Override
+        public ExtendedIterator<Triple> find(Triple triple) {
+            return find(triple.getMatchSubject(), triple.getMatchPredicate(), triple.getMatchObject());
+        }
+    }
+
+    // Stops a read of a StoppableGraph. Without a stack trace, since it is not an error.
+    private static class StoppedRead extends RuntimeException {
+        private static final StoppedRead INSTANCE = new StoppedRead();
+
+        private StoppedRead() {
+            super("Validation has been stopped", null, false, false);
+        }
+    }
+
+    // Stops the task of a thread whose time budget has expired. Without a stack trace, since it is not an error.
+    private static class TimeBudgetExpired extends RuntimeException {
+        private static final TimeBudgetExpired INSTANCE = new TimeBudgetExpired();
+
+        private TimeBudgetExpired() {
+            super("Time budget has expired", null, false, false);
+        }
+    }
+
+    /**
+     * Creates an engine for nested shape checks (e.g., sh:not and sh:xone) that shares this engine's shapes snapshot
+     * and nested shape check cache when it validates against the same shapes graph.
+     */
+    ThreadedValidationEngine createNestedEngine(Dataset dataset, URI sgURI, ShapesGraph sg) {
+        ThreadedValidationEngine engine = createValidationEngine(dataset, sgURI, sg);
+        engine.sparqlBatchSize = sparqlBatchSize;
+        if (sg == shapesGraph) {
+            engine.shapes = shapes;
+            engine.classIndex = classIndex;
+            engine.hasShapeCache = hasShapeCache;
+        }
+        return engine;
+    }
+
     @Override
     public Resource getReport() {
         return threadReport.get();
     }
 
-    private Callable<ShapeTaskMetadata> getShapeTask(Shape shape, int id, ExecutorService executor) {
+    private Callable<ShapeTaskMetadata> getShapeTask(Shape shape, int id, ExecutorService executor,
+                                                     ShapesSnapshot snapshot) {
         return () -> {
             long start = System.currentTimeMillis();
-            ShapeTaskMetadata smd =
-                    new ShapeTaskMetadata(shape.getShapeResource().getLocalName(), Thread.currentThread().getName());
-            boolean ignored = isStopped || shapesGraph.isIgnored(shape.getShapeResource().asNode());
+            Resource shapeResource = shape.getShapeResource();
+            String shapeName = ShapeTaskMetadata.getName(shapeResource);
+            ShapeTaskMetadata smd = new ShapeTaskMetadata(shapeName, Thread.currentThread().getName());
+            smd.shapeResource = shapeResource;
+            List<Constraint> shapeConstraints = snapshot.getConstraints(shapeResource.asNode());
+            boolean ignored = isStopped || shapeConstraints.isEmpty();
+            List<Callable<ConstraintTaskMetadata>> constraintTasks = new ArrayList<>();
+            List<Callable<ConstraintTaskMetadata>> probeTasks = new ArrayList<>();
+            long evaluations = 0;
             if (!ignored) {
-                List<RDFNode> focusNodes = SHACLUtil.getTargetNodes(shape.getShapeResource(), dataset);
+                Collection<RDFNode> candidates = focusNodeCandidates != null ?
+                        focusNodeCandidates.apply(shape.getShapeResource()) : null;
+                List<RDFNode> focusNodes;
+                Long previousDeadline = taskDeadline.get();
+                taskDeadline.set(getDeadline(start, shapeResource, null));
+                try {
+                    focusNodes = candidates != null ?
+                            getTargetNodes(shape, candidates) : getTargetNodes(shape.getShapeResource());
+                } catch (TimeBudgetExpired e) {
+                    logger.debug("--> Time budget of {} expired while collecting target nodes.", shapeName);
+                    smd.timedOut = timedOut = true;
+                    focusNodes = Collections.emptyList();
+                } finally {
+                    taskDeadline.set(previousDeadline);
+                    if (shapeTimeout > 0) {
+                        getElapsedTime(shapeResource).addAndGet(System.currentTimeMillis() - start);
+                    }
+                }
                 smd.targetCount = focusNodes.size();
 
                 List<RDFNode> filtered = focusNodeFilter != null ?
@@ -321,51 +1185,225 @@ public class ThreadedValidationEngine extends ValidationEngine {
                 if (smd.targetCount > 0) {
                     logger.debug("Collected {} target node(s) ({} after filter) for {}, d={}",
                             smd.targetCount, smd.filteredTargetCount,
-                            shape.getShapeResource().getLocalName(), (System.currentTimeMillis() - start));
+                            shapeName, (System.currentTimeMillis() - start));
                 }
 
-                if (maxDepth > 0 && smd.filteredTargetCount > maxDepth) {
+                if (maxDepth > 0 && sampler != null && !filtered.isEmpty()) {
+                    smd.sample = sampler.sample(shapeName, filtered, maxDepth, dataset.getDefaultModel());
+                    filtered = smd.sample.getNodes();
+                    if (smd.filteredTargetCount > maxDepth) {
+                        logger.debug("--> Shallow validation sampling {} nodes.", maxDepth);
+                    }
+                } else if (maxDepth > 0 && smd.filteredTargetCount > maxDepth) {
                     filtered = filtered.subList(0, maxDepth);
                     logger.debug("--> Shallow validation truncating to {} nodes.", maxDepth);
                 }
 
                 if (!filtered.isEmpty()) {
-                    for (Constraint constraint : shape.getConstraints()) {
-                        smd.constraintFutures.add(executor.submit(getConstraintTask(filtered, constraint)));
+                    // When checking conformance, a few focus nodes are probed against all constraints before any
+                    // constraint task is queued, so that violations of most focus nodes are found early
+                    List<RDFNode> probe = stopOnFirstResult ?
+                            filtered.subList(0, Math.min(CONFORMANCE_PROBE_SIZE, filtered.size())) :
+                            Collections.emptyList();
+                    List<RDFNode> rest = filtered.subList(probe.size(), filtered.size());
+                    int size = getChunkSize(rest.size(), executor);
+                    List<List<RDFNode>> chunks = rest.isEmpty() ? Collections.emptyList() :
+                            size > 0 && size < rest.size() ?
+                                    Lists.partition(rest, size) :
+                                    Collections.singletonList(rest);
+                    if (chunks.size() > 1) {
+                        logger.debug("--> Splitting {} nodes into {} chunk(s) of at most {} nodes.",
+                                rest.size(), chunks.size(), size);
+                    }
+                    List<Constraint> constraints = new ArrayList<>(shapeConstraints);
+                    List<Constraint> propertyConstraints = getFusedPropertyConstraints(shape, constraints);
+                    constraints.removeAll(propertyConstraints);
+                    if (costProfile != null) {
+                        int count = filtered.size();
+                        Comparator<Constraint> byCost = Comparator.comparingDouble(constraint -> costProfile
+                                .estimateConstraint(ShapeCostProfile.getConstraintKey(smd.shapeResource, constraint),
+                                        count));
+                        constraints.sort(stopOnFirstResult ? byCost : Collections.reverseOrder(byCost));
+                    } else if (stopOnFirstResult) {
+                        constraints.sort(Comparator.comparingInt(this::getConstraintRank));
+                    }
+                    evaluations = (long) filtered.size() * shapeConstraints.size();
+                    if (!propertyConstraints.isEmpty()) {
+                        // Usually the bulk of a node shape's work, so it is submitted first
+                        String costKey = ShapeCostProfile.getShapeKey(smd.shapeResource) + " " +
+                                FUSED_PROPERTY_SHAPES;
+                        if (!probe.isEmpty()) {
+                            probeTasks.add(getPropertyShapesTask(probe, propertyConstraints, shapeResource, "[probe]",
+                                    costKey));
+                        }
+                        for (int c = 0; c < chunks.size(); c++) {
+                            String label = chunks.size() > 1 ? "[" + (c + 1) + "/" + chunks.size() + "]" : "";
+                            constraintTasks.add(getPropertyShapesTask(chunks.get(c), propertyConstraints, shapeResource,
+                                    label, costKey));
+                        }
+                    }
+                    for (Constraint constraint : constraints) {
+                        String costKey = ShapeCostProfile.getConstraintKey(smd.shapeResource, constraint);
+                        if (!probe.isEmpty()) {
+                            probeTasks.add(getConstraintTask(probe, constraint, shapeResource, "[probe]", costKey));
+                        }
+                        for (int c = 0; c < chunks.size(); c++) {
+                            String label = chunks.size() > 1 ? "[" + (c + 1) + "/" + chunks.size() + "]" : "";
+                            constraintTasks.add(getConstraintTask(chunks.get(c), constraint, shapeResource, label,
+                                    costKey));
+                        }
                     }
                 }
             }
+            if (smd.sample != null) {
+                FocusNodeSampler.Sample sample = smd.sample;
+                probeTasks.replaceAll(task -> withSample(task, sample));
+                constraintTasks.replaceAll(task -> withSample(task, sample));
+            }
             smd.totalDuration = smd.targetDuration = System.currentTimeMillis() - start;
+            if (progressMonitor != null) {
+                progressMonitor.shapeStarted(shapeResource, evaluations, probeTasks.size() + constraintTasks.size());
+            }
+            for (Callable<ConstraintTaskMetadata> probeTask : probeTasks) {
+                smd.constraintFutures.add(CompletableFuture.completedFuture(probeTask.call()));
+            }
+
+            if (ForkJoinTask.getPool() == executor) {
+                // Fork constraint tasks onto this worker's queue and help run them while idle workers steal the rest
+                List<ForkJoinTask<ConstraintTaskMetadata>> forked = constraintTasks.stream()
+                        .map(ForkJoinTask::adapt)
+                        .collect(Collectors.toList());
+                smd.constraintFutures.addAll(ForkJoinTask.invokeAll(forked));
+            } else {
+                for (Callable<ConstraintTaskMetadata> constraintTask : constraintTasks) {
+                    smd.constraintFutures.add(executor.submit(constraintTask));
+                }
+            }
             return smd;
         };
     }
 
-    private Callable<ConstraintTaskMetadata> getConstraintTask(List<RDFNode> focusNodes, Constraint constraint) {
+    // Records the violating focus nodes of the task in the specified sample
+    private <T> Callable<T> withSample(Callable<T> task, FocusNodeSampler.Sample sample) {
+        return () -> {
+            FocusNodeSampler.Sample previous = currentSample.get();
+            currentSample.set(sample);
+            try {
+                return task.call();
+            } finally {
+                currentSample.set(previous);
+            }
+        };
+    }
+
+    // Expected relative cost of a constraint without a cost profile: scanned, other core and nested, then SPARQL
+    private int getConstraintRank(Constraint constraint) {
+        if (canScan(constraint)) {
+            return 0;
+        }
+        return constraint.getExecutor() instanceof AbstractSPARQLExecutor ? 2 : 1;
+    }
+
+    private int getChunkSize(int focusNodeCount, ExecutorService executor) {
+        if (chunkSize != ADAPTIVE_CHUNK_SIZE) {
+            return chunkSize;
+        }
+        int threads = executor instanceof ThreadPoolExecutor ?
+                ((ThreadPoolExecutor) executor).getMaximumPoolSize() :
+                executor instanceof ForkJoinPool ?
+                        ((ForkJoinPool) executor).getParallelism() :
+                        Runtime.getRuntime().availableProcessors();
+        int size = (int) Math.ceil((double) focusNodeCount / (threads * ADAPTIVE_CHUNKS_PER_THREAD));
+        return Math.max(size, ADAPTIVE_MIN_CHUNK_SIZE);
+    }
+
+    private Callable<ConstraintTaskMetadata> getConstraintTask(List<RDFNode> focusNodes, Constraint constraint,
+                                                               Resource shape, String chunkLabel, String costKey) {
+        String description = constraint.toString() + ", r=" +
+                (constraint.getParameterValue() != null && constraint.getParameterValue().isResource() ?
+                        constraint.getParameterValue().asResource().getLocalName() : "");
+        return getTask(focusNodes, focusNodes.size(), () -> validateNodesAgainstConstraint(focusNodes, constraint),
+                ConstraintTaskMetadata.getName(constraint), description, shape, chunkLabel, costKey,
+                constraint.getShapeResource(), constraint.getComponent(),
+                Collections.singletonList(constraint.getParameterValue()));
+    }
+
+    private Callable<ConstraintTaskMetadata> getPropertyShapesTask(List<RDFNode> focusNodes,
+                                                                   List<Constraint> propertyConstraints,
+                                                                   Resource shape, String chunkLabel,
+                                                                   String costKey) {
+        String name = FUSED_PROPERTY_SHAPES + "(" + propertyConstraints.size() + ")";
+        // Each focus node is evaluated against each property shape, as counted by the shape task
+        int evaluations = focusNodes.size() * propertyConstraints.size();
+        return getTask(focusNodes, evaluations,
+                () -> validateNodesAgainstPropertyShapes(focusNodes, propertyConstraints),
+                name, ShapeTaskMetadata.getName(shape) + " " + name, shape, chunkLabel, costKey,
+                propertyConstraints.get(0).getShapeResource(), SH.PropertyConstraintComponent,
+                propertyConstraints.stream().map(Constraint::getParameterValue).collect(Collectors.toList()));
+    }
+
+    // The source shape, constraint component and constraints (the property shapes of a fused task) identify the task
+    // in the report if it times out.
+    // Progress is measured in evaluations, i.e., focus nodes times constraints.
+    private Callable<ConstraintTaskMetadata> getTask(List<RDFNode> focusNodes, int evaluations, Runnable validation,
+                                                     String name, String description, Resource shape,
+                                                     String chunkLabel, String costKey, Resource sourceShape,
+                                                     Resource component, List<RDFNode> sourceConstraints) {
         return () -> {
             long start = System.currentTimeMillis();
             threadViolations.set(0);
+            if (progressMonitor != null) {
+                progressMonitor.constraintStarted(evaluations);
+            }
+            Long deadline = getDeadline(start, shape, costKey);
+            Long previousDeadline = taskDeadline.get();
+            boolean taskTimedOut = false;
             try {
-                if (!isStopped) {
-                    logger.debug("Validating {} node(s) against {}, r={}", focusNodes.size(), constraint.toString(),
-                            constraint.getParameterValue() != null && constraint.getParameterValue().isResource() ?
-                                    constraint.getParameterValue().asResource().getLocalName() : "");
-                    validateNodesAgainstConstraint(focusNodes, constraint);
+                if (deadline != null && deadline <= start) {
+                    taskTimedOut = true;
+                } else if (!isStopped) {
+                    logger.debug("Validating {} node(s) against {}", focusNodes.size(), description);
+                    taskDeadline.set(deadline);
+                    validation.run();
                 }
             } catch (MaximumNumberViolations e) {
                 isStopped = true;
+            } catch (TimeBudgetExpired e) {
+                taskTimedOut = true;
+            } finally {
+                taskDeadline.set(previousDeadline);
+                flushPendingResult();
             }
 
             final long duration = System.currentTimeMillis() - start;
-            logger.debug("Completed {}, r={}, d={}", constraint.toString(),
-                    constraint.getParameterValue() != null && constraint.getParameterValue().isResource() ?
-                            constraint.getParameterValue().asResource().getLocalName() : "", duration);
+            logger.debug("{} {}, d={}", taskTimedOut ? "Timed out" : "Completed", description, duration);
+            if (shapeTimeout > 0) {
+                getElapsedTime(shape).addAndGet(duration);
+            }
+            if (constraintTimeout > 0) {
+                getElapsedTime(costKey).addAndGet(duration);
+            }
 
-            return new ConstraintTaskMetadata(
+            ConstraintTaskMetadata cmd = new ConstraintTaskMetadata(
                     Thread.currentThread().getName(),
-                    ConstraintTaskMetadata.getName(constraint),
+                    name + chunkLabel,
                     duration,
-                    threadReport.get(),
+                    stopOnFirstResult ? null : threadReport.get(),
                     threadViolations.get());
+            cmd.focusNodeCount = focusNodes.size();
+            cmd.costKey = costKey;
+            if (taskTimedOut) {
+                cmd.timedOut = timedOut = true;
+                cmd.sourceShape = sourceShape;
+                cmd.sourceConstraintComponent = component;
+                cmd.sourceConstraints = sourceConstraints.stream()
+                        .filter(constraint -> constraint != null && constraint.isResource())
+                        .map(RDFNode::asResource).collect(Collectors.toList());
+            }
+            if (progressMonitor != null) {
+                progressMonitor.constraintCompleted(shape, cmd.constraintName, evaluations, duration);
+            }
+            return cmd;
         };
     }
 
@@ -382,22 +1420,22 @@ public class ThreadedValidationEngine extends ValidationEngine {
      */
     public static ThreadedValidationEngine createValidationEngine(Model dataModel, Model shapesModel,
                                                                   ValidationEngineConfiguration configuration) {
+        return createValidationEngine(dataModel, PreparedShapesGraph.of(shapesModel), configuration);
+    }
 
-        shapesModel = ValidationUtil.ensureToshTriplesExist(shapesModel);
-
-        // Make sure all sh:Functions are registered
-        SHACLFunctions.registerFunctions(shapesModel);
-
-        // Create Dataset that contains both the data model and the shapes model
-        // (here, using a temporary URI for the shapes graph)
-        URI shapesGraphURI = URI.create("urn:x-shacl-shapes-graph:" + UUID.randomUUID().toString());
-        Dataset dataset = ARQFactory.get().getDataset(dataModel);
-        dataset.addNamedModel(shapesGraphURI.toString(), shapesModel);
-
-        ShapesGraph shapesGraph = new ShapesGraph(shapesModel);
-
-        ThreadedValidationEngine engine = new ThreadedValidationEngine(dataset, shapesGraphURI, shapesGraph);
+    /**
+     * Creates an engine that validates <code>dataModel</code> against a shapes graph that was set up beforehand, so
+     * that validating many KBs against the same SHACL only sets up and resolves its shapes once.
+     */
+    static ThreadedValidationEngine createValidationEngine(Model dataModel, PreparedShapesGraph shapes,
+                                                           ValidationEngineConfiguration configuration) {
+        // Inverse lookups in the data are indexed during validation
+        Dataset dataset = shapes.createDataset(
+                ModelFactory.createModelForGraph(new InverseIndexedGraph(dataModel.getGraph())));
+        ThreadedValidationEngine engine = new ThreadedValidationEngine(dataset, shapes.getShapesGraphURI(),
+                shapes.getShapesGraph());
         engine.setConfiguration(configuration);
+        engine.shapes = shapes.getSnapshot();
         return engine;
     }
 
@@ -3,25 +3,37 @@ package com.ncc.aif;
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
 import com.google.common.base.Charsets;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.io.CharSource;
 import com.google.common.io.Resources;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
 import org.apache.jena.rdf.model.*;
 import org.apache.jena.util.FileUtils;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+import org.topbraid.jenax.util.JenaDatatypes;
 import org.topbraid.jenax.progress.ProgressMonitor;
 import org.topbraid.shacl.validation.ValidationEngine;
 import org.topbraid.shacl.validation.ValidationEngineConfiguration;
-import org.topbraid.shacl.validation.ValidationUtil;
+import org.topbraid.shacl.validation.ValidationEngineFactory;
 import org.topbraid.shacl.vocabulary.SH;
 
 import java.io.PrintStream;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
 
 /**
  * An AIF Validator.  These are not instantiated directly; instead invoke {@link #createForDomainOntologySource} statically,
  * specifying a domain ontology, and make calls to the returned validator.
+ * <p>
+ * The SHACL of a validator is set up and resolved once, when it is created, and only read afterwards, so a validator
+ * may validate several KBs at the same time from different threads.  Its settings should not be changed meanwhile,
+ * and the metrics of the last validation (e.g., {@link #isTimedOut()}) are those of whichever validation ended last.
  *
  * @author Ryan Gabbard (USC ISI)
  * @author Converted to Java developed further by Next Century Corporation
@@ -33,6 +45,7 @@ public final class ValidateAIF {
         NONE, NIST, NIST_TA3
     }
 
+    private static final Logger logger = (Logger) (org.slf4j.LoggerFactory.getLogger(ValidateAIF.class));
     private static final String AIF_ROOT = "com/ncc/aif/";
     private static final String AIDA_SHACL_RESNAME = AIF_ROOT + "aida_ontology.shacl";
     private static final String NIST_SHACL_RESNAME = AIF_ROOT + "restricted_aif.shacl";
@@ -72,18 +85,37 @@ public final class ValidateAIF {
 
     private Model domainModel;
     private Restriction restriction;
+    private final ClassHierarchyIndex ontologyClassIndex;
+    private final boolean hasEntailments;
+    private final PreparedShapesGraph shapes;
     private int abortThreshold = -1; // by default, do not abort on SHACL violation
     private boolean debugging = false;
     private int depth = 0; // by default, do not perform shallow validation
+    private FocusNodeSampler sampler = null; // by default, shallow validation validates the first target nodes
+    private int chunkSize = 0; // by default, do not split focus nodes into chunks
+    private long constraintTimeout = 0; // by default, do not limit the time spent on each constraint
+    private long shapeTimeout = 0; // by default, do not limit the time spent on each shape
     private ProgressMonitor progressMonitor = null; // by default, do not monitor progress
-    private ThreadPoolExecutor executor;
+    private ValidationResultListener resultListener = null; // by default, do not stream validation results
+    private boolean reportResults = true; // by default, build validation results into the report
+    private ShapeCostProfile costProfile = null; // by default, validate shapes in shapes graph order
+    private boolean fusePropertyShapes = false; // by default, validate each property shape in its own task
+    private ExecutorService executor;
+    private int threadCount = 1;
+    private boolean workStealing = false; // by default, use a fixed thread pool for multi-threaded validation
     private List<Future<ThreadedValidationEngine.ShapeTaskMetadata>> validationMetadata;
     private long lastDuration;
+    private boolean timedOut;
+    private CacheStats hasShapeCacheStats;
 
     private ValidateAIF(Model domainModel, Restriction restriction) {
         initializeSHACLModels();
         this.domainModel = domainModel;
         this.restriction = restriction;
+        // The ontologies and SHACL are the same for every KB, so what follows from them alone is only inferred once
+        this.ontologyClassIndex = ClassHierarchyIndex.of(domainModel.getGraph());
+        this.hasEntailments = getShapesModel().contains(null, SH.entailment);
+        this.shapes = PreparedShapesGraph.of(getShapesModel());
     }
 
     @Override
@@ -176,6 +208,55 @@ public final class ValidateAIF {
         this.progressMonitor = monitor;
     }
 
+    /**
+     * Sends each validation result to <code>listener</code> as soon as it is produced.  If null, no listener will be used.
+     *
+     * Note that result listeners are only supported for multi-threaded validations.  See {@link #setThreadCount}.
+     *
+     * @param listener a {@link ValidationResultListener} to receive validation results
+     */
+    public void setValidationResultListener(ValidationResultListener listener) {
+        this.resultListener = listener;
+    }
+
+    /**
+     * Tells the validator whether or not to build validation results into the returned validation report(s).  When
+     * <code>false</code>, the reports only indicate whether the KB is valid, and results are only available through a
+     * {@link ValidationResultListener}.  This bounds memory use for KBs with very many violations.
+     *
+     * Note that this is only supported for multi-threaded validations.  See {@link #setThreadCount}.
+     *
+     * @param reportResults whether or not to build validation results into the report
+     */
+    public void setReportResults(boolean reportResults) {
+        this.reportResults = reportResults;
+    }
+
+    /**
+     * Tells the validator to schedule the rules (shapes) with the highest expected cost first, based on the costs
+     * recorded in <code>profile</code>.  The profile is updated after every completed validation, so that it can be
+     * saved and reused by later runs.  If null, shapes are validated in the order they appear in the SHACL.
+     *
+     * Note that cost-based scheduling is only supported for multi-threaded validations.  See {@link #setThreadCount}.
+     *
+     * @param profile a {@link ShapeCostProfile} to schedule with and update
+     */
+    public void setCostProfile(ShapeCostProfile profile) {
+        this.costProfile = profile;
+    }
+
+    /**
+     * Tells the validator to validate the focus nodes of each node shape against all of its property shapes together,
+     * rather than in a separate task per property shape, so that each focus node's triples are read once.
+     *
+     * Note that fusing property shapes is only supported for multi-threaded validations.  See {@link #setThreadCount}.
+     *
+     * @param fusePropertyShapes whether or not to validate the property shapes of each node shape together
+     */
+    public void setFusePropertyShapes(boolean fusePropertyShapes) {
+        this.fusePropertyShapes = fusePropertyShapes;
+    }
+
     /**
      * Tells the validator to "fail fast" if SHACL violations are detected.  Validation will terminate after
      * <code>abortThreshold</code> SHACL violations are detected.  Use zero to disable failing fast.
@@ -214,10 +295,104 @@ public final class ValidateAIF {
         this.depth = depth;
     }
 
+    /**
+     * Tells the validator to perform shallow validation on a stratified sample of the nodes/targets of each rule
+     * (shape) instead of the first ones.  The sample is stratified by type, system, and source document, and is the
+     * same for the same KB and seed.  After validation, {@link #getSamples()} returns the samples, from which the rate
+     * of violating nodes can be estimated.
+     *
+     * Note that sampling only applies to shallow validation.  See {@link #setDepth}.
+     *
+     * @param seed the seed of the sample
+     */
+    public void setSampleSeed(long seed) {
+        this.sampler = new FocusNodeSampler(seed);
+    }
+
+    /**
+     * Returns the samples of the last sampled shallow validation, one per rule (shape) with target nodes.  See
+     * {@link #setSampleSeed}.
+     *
+     * @return the samples of the last validation, or an empty list if it was not sampled
+     */
+    public List<FocusNodeSampler.Sample> getSamples() {
+        List<FocusNodeSampler.Sample> samples = new ArrayList<>();
+        if (validationMetadata != null) {
+            for (Future<ThreadedValidationEngine.ShapeTaskMetadata> future : validationMetadata) {
+                try {
+                    if (future.get().sample != null) {
+                        samples.add(future.get().sample);
+                    }
+                } catch (InterruptedException | ExecutionException e) {
+                    // do nothing
+                }
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Tells the validator to split the target nodes of each rule (shape) into chunks of at most <code>chunkSize</code>
+     * nodes, each of which is validated as a separate task.  This lets large shapes spread across all threads.  Use
+     * zero to disable chunking, or {@link ThreadedValidationEngine#ADAPTIVE_CHUNK_SIZE} to size chunks based on the
+     * number of threads.
+     *
+     * Note that chunking is only supported for multi-threaded validations.  See {@link #setThreadCount}.
+     *
+     * @param chunkSize the maximum number of nodes/targets per validation task
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 0 && chunkSize != ThreadedValidationEngine.ADAPTIVE_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Chunk size must be greater than 0, or 0 to disable chunking.");
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Tells the validator to stop validating a constraint once it has taken <code>millis</code> milliseconds, while
+     * still validating all other constraints.  Constraints whose time budget expired are listed in the validation report
+     * with {@link ThreadedValidationEngine#SH_TIMED_OUT}, and their results are partial.  Use zero for no limit.
+     *
+     * Note that time budgets are only supported for multi-threaded validations.  See {@link #setThreadCount}.
+     *
+     * @param millis the time budget of each constraint in milliseconds
+     */
+    public void setConstraintTimeout(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Timeout must be greater than 0, or 0 for no limit.");
+        }
+        this.constraintTimeout = millis;
+    }
+
+    /**
+     * Tells the validator to stop validating a rule (shape) once it has taken <code>millis</code> milliseconds, in the
+     * same way as {@link #setConstraintTimeout}.  Use zero for no limit.
+     *
+     * Note that time budgets are only supported for multi-threaded validations.  See {@link #setThreadCount}.
+     *
+     * @param millis the time budget of each shape in milliseconds
+     */
+    public void setShapeTimeout(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Timeout must be greater than 0, or 0 for no limit.");
+        }
+        this.shapeTimeout = millis;
+    }
+
+    /**
+     * Returns whether the time budget of any constraint or rule (shape) expired during the last multi-threaded
+     * validation, in which case its results are partial.  See {@link #setConstraintTimeout}.
+     *
+     * @return true if the last validation timed out on any constraint or shape
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
     /**
      * Tells the validator to use the specified number of threads during validation.
-     * Currently, {@link ThreadedValidationEngine} does not support a {@link ProgressMonitor}. Setting this to
-     * anything other than 1 will disable progress monitoring.
+     * Multi-threaded validation only reports progress to a {@link ThreadedProgressMonitor}; other
+     * {@link ProgressMonitor}s are only used to check whether validation has been canceled.
      *
      * @param threadCount number of threads to use during validation
      */
@@ -225,13 +400,49 @@ public final class ValidateAIF {
         if (threadCount < 1) {
             throw new IllegalArgumentException("Number of threads must be greater than or equal to 1.");
         }
-        if (threadCount > 1 && (executor == null || executor.getPoolSize() != threadCount)) {
-            executor = new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS,
-                    new LinkedBlockingQueue<>());
-        } else if (threadCount == 1 && executor != null) {
+        this.threadCount = threadCount;
+        updateExecutor();
+    }
+
+    /**
+     * Tells the validator to schedule multi-threaded validation on a work-stealing {@link ForkJoinPool} instead of a
+     * fixed thread pool.  Shape tasks then fork their constraint tasks and join them cooperatively, which keeps
+     * threads busy when shapes are very uneven in size.
+     *
+     * Note that work-stealing is only supported for multi-threaded validations.  See {@link #setThreadCount}.
+     *
+     * @param workStealing whether or not to use a work-stealing scheduler
+     */
+    public void setWorkStealing(boolean workStealing) {
+        this.workStealing = workStealing;
+        updateExecutor();
+    }
+
+    // Replace the executor if the requested number of threads or scheduling mode has changed
+    private void updateExecutor() {
+        if (threadCount == 1) {
+            if (executor != null) {
+                executor.shutdown();
+                executor = null;
+            }
+            return;
+        }
+
+        if (executor instanceof ForkJoinPool) {
+            if (workStealing && ((ForkJoinPool) executor).getParallelism() == threadCount) {
+                return;
+            }
+        } else if (executor instanceof ThreadPoolExecutor) {
+            if (!workStealing && ((ThreadPoolExecutor) executor).getMaximumPoolSize() == threadCount) {
+                return;
+            }
+        }
+
+        if (executor != null) {
             executor.shutdown();
-            executor = null;
         }
+        executor = workStealing ? new ForkJoinPool(threadCount) :
+                new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
     }
 
     /**
@@ -243,7 +454,12 @@ public final class ValidateAIF {
         return executor;
     }
 
-    //TODO: remove when ProgressMonitor is added to threaded validator
+    /**
+     * Prints a post-validation summary of the last multi-threaded validation, with shapes and constraints sorted by
+     * duration and the total time spent by each thread. For ongoing progress, see {@link ThreadedProgressMonitor}.
+     *
+     * @param ps the {@link PrintStream} to print metrics to
+     */
     public void printMetrics(PrintStream ps) {
 
         // sort shapes by duration
@@ -286,6 +502,13 @@ public final class ValidateAIF {
         // print out thread duration
         ps.println("\nThreads\n" + separator);
         threadDuration.forEach((threadName, duration) -> ps.println(threadName + ": " + duration + "ms "));
+
+        // print nested shape check cache effectiveness
+        if (hasShapeCacheStats != null) {
+            ps.println(String.format("\nNested shape checks\n%s\n%d of %d cached (%.1f%%), %d evicted",
+                    separator, hasShapeCacheStats.hitCount(), hasShapeCacheStats.requestCount(),
+                    100 * hasShapeCacheStats.hitRate(), hasShapeCacheStats.evictionCount()));
+        }
     }
 
     /**
@@ -303,12 +526,42 @@ public final class ValidateAIF {
      * Returns whether or not the KB is valid.
      * If you want any information about why the KB was invalid, use {@link #validateKBAndReturnReport(Model, Model)}
      *
+     * Validation stops at the first violation.  For multi-threaded validations, no validation results are built (see
+     * {@link ThreadedValidationEngine#validateConformance(ExecutorService)}), unless a
+     * {@link ValidationResultListener} is set, in which case the KB is fully validated so that the listener receives
+     * all results.  If a time budget expires (see {@link #setConstraintTimeout}), the KB is valid as far as it was
+     * validated; use {@link #isTimedOut()} to check.
+     *
      * @param dataToBeValidated KB to be validated
      * @param union             unified KB if not null
      * @return True if the KB is valid
      */
     public boolean validateKB(Model dataToBeValidated, Model union) {
-        return isValidReport(validateKBAndReturnReport(dataToBeValidated, union));
+        if (executor == null) {
+            ValidationEngine engine = createValidationEngine(createUnionModel(dataToBeValidated, union),
+                    createConfiguration().setValidationErrorBatch(1));
+            try {
+                applyEntailments(engine);
+                return isValidReport(engine.validateAll());
+            } catch (InterruptedException e) {
+                throw new IllegalStateException("Validation did not complete", e);
+            }
+        } else if (resultListener != null) {
+            return isValidReport(validateKBAndReturnReport(dataToBeValidated, union));
+        }
+
+        ThreadedValidationEngine engine = createThreadedValidationEngine(createUnionModel(dataToBeValidated, union),
+                union == null ? dataToBeValidated : null);
+        try {
+            applyEntailments(engine);
+            boolean conforms = engine.validateConformance(executor);
+            updateMetrics(engine);
+            return conforms;
+        } catch (InterruptedException | ExecutionException e) {
+            System.err.println("Unable to validate due to exception");
+            e.printStackTrace();
+            throw new IllegalStateException("Validation did not complete", e);
+        }
     }
 
     /**
@@ -346,6 +599,9 @@ public final class ValidateAIF {
                     while(it.hasNext()) {
                         masterReport.addProperty(SH.result, it.next().getObject());
                     }
+                    for (Statement timedOut : report.listProperties(ThreadedValidationEngine.SH_TIMED_OUT).toList()) {
+                        masterReport.addProperty(ThreadedValidationEngine.SH_TIMED_OUT, timedOut.getObject());
+                    }
                     masterModel.removeAll(report, null, null);
                 }
             }
@@ -365,59 +621,23 @@ public final class ValidateAIF {
      */
     public Set<Resource> validateKBAndReturnMultipleReports(Model dataToBeValidated, Model union) {
         Set<Resource> reports = new HashSet<>();
-
-        // We unify the given KB with the background and domain KBs before validation.
-        // This is required so that constraints like "the object of a type must be an
-        // entity type" will know what types are in fact entity types.
-        final Model unionModel = (union == null) ? ModelFactory.createUnion(dataToBeValidated, domainModel) : union;
-        unionModel.setNsPrefix("sh", "http://www.w3.org/ns/shacl#");
-        unionModel.setNsPrefix("aida", AidaAnnotationOntology.NAMESPACE);
-        unionModel.setNsPrefix("aidaDomainCommon", AidaDomainOntologiesCommon.CanHaveName.getNameSpace());
-
-        // Apply appropriate SHACL restrictions
-        Model shacl;
-        switch (restriction) {
-            case NIST:
-                shacl = nistModel;
-                break;
-            case NIST_TA3:
-                shacl = nistHypoModel;
-                break;
-            case NONE: // fall-through on purpose
-            default:
-                shacl = shaclModel;
-        }
-
-        // Validates against the SHACL file to ensure that resources have the required properties
-        // (and in some cases, only the required properties) of the proper types.
-        ValidationEngineConfiguration config = new ValidationEngineConfiguration()
-                .setValidateShapes(true)
-                .setValidationErrorBatch(abortThreshold);
+        final Model unionModel = createUnionModel(dataToBeValidated, union);
         if (executor != null) {
-            if (debugging) {
-                ((Logger) (org.slf4j.LoggerFactory.getLogger(ThreadedValidationEngine.class))).setLevel(Level.DEBUG);
-            }
-            ThreadedValidationEngine engine = ThreadedValidationEngine.createValidationEngine(unionModel, shacl, config);
-            engine.setProgressMonitor(progressMonitor);
-            engine.setMaxDepth(depth);
+            ThreadedValidationEngine engine = createThreadedValidationEngine(unionModel,
+                    union == null ? dataToBeValidated : null);
             try {
-                engine.applyEntailments();
+                applyEntailments(engine);
                 reports.addAll(engine.validateAll(executor));
-                validationMetadata = engine.getValidationMetadata();
-                lastDuration = engine.getLastDuration();
+                updateMetrics(engine);
             } catch (InterruptedException | ExecutionException e) {
                 System.err.println("Unable to validate due to exception");
                 e.printStackTrace();
                 return null;
             }
         } else {
-            if (debugging) {
-                ((Logger) (org.slf4j.LoggerFactory.getLogger(ValidationEngine.class))).setLevel(Level.DEBUG);
-            }
-            ValidationEngine engine = ValidationUtil.createValidationEngine(unionModel, shacl, config);
-            engine.setProgressMonitor(progressMonitor);
+            ValidationEngine engine = createValidationEngine(unionModel, createConfiguration());
             try {
-                engine.applyEntailments();
+                applyEntailments(engine);
                 reports.add(engine.validateAll());
             } catch (InterruptedException ex) {
                 return null;
@@ -426,6 +646,202 @@ public final class ValidateAIF {
         return reports;
     }
 
+    /**
+     * Re-validate a changed KB, given a validation report of its previous version, and return an updated validation
+     * report. Only the focus nodes whose results may have been affected by the triples that were added or removed
+     * are validated again, along with all focus nodes of shapes whose dependencies on the data cannot be bounded
+     * (see {@link ShapeDependencies}). The results of the previous report that are still current are kept. Blank
+     * nodes are compared by identity, so triples with blank nodes that were parsed again count as changed.
+     * If the previous validation was aborted or timed out, or the class hierarchy (<code>rdfs:subClassOf</code>) has
+     * changed, the KB is fully validated instead. Validation is always multi-threaded (using a single thread if the
+     * thread count is 1).
+     *
+     * @param previousData   the previous version of the KB
+     * @param previousReport a validation report of <code>previousData</code> that includes its results (see
+     *                       {@link #setReportResults(boolean)}), such as returned by
+     *                       {@link #validateKBAndReturnReport(Model)}; it is not modified
+     * @param currentData    the KB to be validated
+     * @return a validation report of <code>currentData</code>, or null if validation didn't complete
+     */
+    public Resource revalidateKBAndReturnReport(Model previousData, Resource previousReport, Model currentData) {
+        List<Triple> changes = difference(previousData.getGraph(), currentData.getGraph());
+        changes.addAll(difference(currentData.getGraph(), previousData.getGraph()));
+        if (previousReport.hasProperty(ThreadedValidationEngine.SH_ABORTED) ||
+                previousReport.hasProperty(ThreadedValidationEngine.SH_TIMED_OUT) ||
+                changes.stream().anyMatch(triple -> RDFS.subClassOf.asNode().equals(triple.getPredicate()))) {
+            return validateKBAndReturnReport(currentData);
+        }
+
+        final Model unionModel = createUnionModel(currentData, null);
+        ThreadedValidationEngine engine = createThreadedValidationEngine(unionModel, currentData);
+        ShapeDependencies dependencies = ShapeDependencies.of(engine.getShapesGraph());
+        Set<Node> affected = dependencies.getAffectedFocusNodes(changes,
+                ModelFactory.createUnion(previousData, domainModel).getGraph(), unionModel.getGraph());
+        List<RDFNode> candidates = affected.stream().map(unionModel::asRDFNode).collect(Collectors.toList());
+        engine.setFocusNodeCandidates(shape -> dependencies.isGlobal(shape.asNode()) ? null : candidates);
+        if (debugging) {
+            logger.setLevel(Level.DEBUG);
+        }
+        logger.debug("Re-validating {} affected focus nodes after {} changed triples; {} shapes are fully re-validated",
+                affected.size(), changes.size(), dependencies.getGlobalShapeCount());
+
+        ExecutorService service = executor != null ? executor : Executors.newSingleThreadExecutor();
+        Set<Resource> reports;
+        try {
+            applyEntailments(engine);
+            reports = engine.validateAll(service);
+            updateMetrics(engine);
+        } catch (InterruptedException | ExecutionException e) {
+            System.err.println("Unable to validate due to exception");
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (service != executor) {
+                service.shutdown();
+            }
+        }
+
+        // Keep the previous results that are still current, and add the new ones
+        Model reportModel = ModelFactory.createDefaultModel();
+        reportModel.setNsPrefixes(previousReport.getModel());
+        reportModel.add(previousReport.getModel());
+        Resource report = reportModel.wrapAsResource(previousReport.asNode());
+        for (RDFNode result : reportModel.listObjectsOfProperty(report, SH.result).toList()) {
+            Resource sourceShape = result.asResource().getPropertyResourceValue(SH.sourceShape);
+            Statement focusNode = result.asResource().getProperty(SH.focusNode);
+            if (sourceShape != null && focusNode != null &&
+                    dependencies.isReplaced(sourceShape.asNode(), focusNode.getObject().asNode(), affected)) {
+                reportModel.remove(report, SH.result, result);
+                removeTree(result.asResource());
+            }
+        }
+        boolean conforms = true;
+        for (Resource newReport : reports) {
+            conforms &= isValidReport(newReport) || newReport.hasProperty(SH.result);
+            if (newReport.hasProperty(ThreadedValidationEngine.SH_ABORTED)) {
+                report.addProperty(ThreadedValidationEngine.SH_ABORTED, JenaDatatypes.TRUE);
+            }
+            for (Statement timedOut : newReport.listProperties(ThreadedValidationEngine.SH_TIMED_OUT).toList()) {
+                report.addProperty(ThreadedValidationEngine.SH_TIMED_OUT, timedOut.getObject());
+            }
+            reportModel.add(newReport.getModel());
+            for (RDFNode result : newReport.getModel().listObjectsOfProperty(newReport, SH.result).toList()) {
+                report.addProperty(SH.result, result);
+            }
+            if (!newReport.asNode().equals(report.asNode())) {
+                reportModel.removeAll(reportModel.wrapAsResource(newReport.asNode()), null, null);
+            }
+        }
+        conforms &= reportModel.listObjectsOfProperty(report, SH.result).toList().stream()
+                .noneMatch(result -> result.asResource().hasProperty(RDF.type, SH.ValidationResult));
+        report.removeAll(SH.conforms);
+        report.addProperty(SH.conforms, conforms ? JenaDatatypes.TRUE : JenaDatatypes.FALSE);
+        return report;
+    }
+
+    // Triples of graph that are not in other
+    private static List<Triple> difference(Graph graph, Graph other) {
+        List<Triple> result = new ArrayList<>();
+        graph.find().forEachRemaining(triple -> {
+            if (!other.contains(triple)) {
+                result.add(triple);
+            }
+        });
+        return result;
+    }
+
+    // Removes node and the blank nodes it describes, such as result paths, but not the focus nodes and values
+    private static void removeTree(Resource node) {
+        for (Statement statement : node.listProperties().toList()) {
+            if (statement.getObject().isAnon() && !statement.getPredicate().equals(SH.focusNode) &&
+                    !statement.getPredicate().equals(SH.value)) {
+                removeTree(statement.getResource());
+            }
+        }
+        node.removeProperties();
+    }
+
+    // We unify the given KB with the background and domain KBs before validation.
+    // This is required so that constraints like "the object of a type must be an
+    // entity type" will know what types are in fact entity types.
+    private Model createUnionModel(Model dataToBeValidated, Model union) {
+        Model unionModel = (union == null) ? ModelFactory.createUnion(dataToBeValidated, domainModel) : union;
+        unionModel.setNsPrefix("sh", "http://www.w3.org/ns/shacl#");
+        unionModel.setNsPrefix("aida", AidaAnnotationOntology.NAMESPACE);
+        unionModel.setNsPrefix("aidaDomainCommon", AidaDomainOntologiesCommon.CanHaveName.getNameSpace());
+        return unionModel;
+    }
+
+    // Apply appropriate SHACL restrictions
+    private Model getShapesModel() {
+        switch (restriction) {
+            case NIST:
+                return nistModel;
+            case NIST_TA3:
+                return nistHypoModel;
+            case NONE: // fall-through on purpose
+            default:
+                return shaclModel;
+        }
+    }
+
+    // Validates against the SHACL file to ensure that resources have the required properties
+    // (and in some cases, only the required properties) of the proper types.
+    private ValidationEngineConfiguration createConfiguration() {
+        return new ValidationEngineConfiguration()
+                .setValidateShapes(true)
+                .setValidationErrorBatch(abortThreshold);
+    }
+
+    // Entailments (sh:entailment) are declared by the SHACL, so there are none to apply unless it declares some
+    private void applyEntailments(ValidationEngine engine) throws InterruptedException {
+        if (hasEntailments) {
+            engine.applyEntailments();
+        }
+    }
+
+    // Creates TopBraid's single-threaded validation engine
+    private ValidationEngine createValidationEngine(Model unionModel, ValidationEngineConfiguration configuration) {
+        if (debugging) {
+            ((Logger) (org.slf4j.LoggerFactory.getLogger(ValidationEngine.class))).setLevel(Level.DEBUG);
+        }
+        ValidationEngine engine = ValidationEngineFactory.get().create(shapes.createDataset(unionModel),
+                shapes.getShapesGraphURI(), shapes.getShapesGraph(), null);
+        engine.setConfiguration(configuration);
+        engine.setProgressMonitor(progressMonitor);
+        return engine;
+    }
+
+    // data is the KB that was unioned with the domain model to form unionModel, or null if it is not known
+    private ThreadedValidationEngine createThreadedValidationEngine(Model unionModel, Model data) {
+        if (debugging) {
+            ((Logger) (org.slf4j.LoggerFactory.getLogger(ThreadedValidationEngine.class))).setLevel(Level.DEBUG);
+        }
+        ThreadedValidationEngine engine = ThreadedValidationEngine.createValidationEngine(unionModel, shapes,
+                createConfiguration());
+        engine.setProgressMonitor(progressMonitor);
+        engine.setMaxDepth(depth);
+        engine.setFocusNodeSampler(sampler);
+        engine.setChunkSize(chunkSize);
+        engine.setValidationResultListener(resultListener);
+        engine.setReportResults(reportResults);
+        engine.setCostProfile(costProfile);
+        engine.setFusePropertyShapes(fusePropertyShapes);
+        engine.setConstraintTimeout(constraintTimeout);
+        engine.setShapeTimeout(shapeTimeout);
+        if (data != null) {
+            engine.setOntologyClassIndex(ontologyClassIndex, data.getGraph());
+        }
+        return engine;
+    }
+
+    private void updateMetrics(ThreadedValidationEngine engine) {
+        validationMetadata = engine.getValidationMetadata();
+        lastDuration = engine.getLastDuration();
+        timedOut = engine.isTimedOut();
+        hasShapeCacheStats = engine.getHasShapeCacheStats();
+    }
+
     /**
      * Returns whether or not <code>validationReport</code> is that of a valid KB.
      *
@@ -9,7 +9,9 @@ import com.google.common.io.Resources;
 import org.apache.jena.query.Dataset;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.RDFNode;
 import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.Statement;
 import org.apache.jena.rdf.model.StmtIterator;
 import org.apache.jena.riot.RDFDataMgr;
 import org.apache.jena.riot.RDFFormat;
@@ -63,6 +65,15 @@ public class ValidateAIFCli implements Callable<Integer> {
     static final String ERR_SMALLER_THAN_MIN = "%s must be at least %d";
     static final String ERR_BAD_ARGTYPE = "%s is not a(n) %s";
     static final String ERR_DEPTH_REQUIRES_T = "--depth requires -t with at least 2 threads";
+    static final String ERR_SAMPLE_REQUIRES_DEPTH = "--sample requires --depth";
+    static final String ERR_CHUNK_REQUIRES_T = "--chunk requires -t with at least 2 threads";
+    static final String ERR_WORK_STEALING_REQUIRES_T = "--work-stealing requires -t with at least 2 threads";
+    static final String ERR_STREAM_REQUIRES_T = "--stream requires -t with at least 2 threads";
+    static final String ERR_COST_PROFILE_REQUIRES_T = "--cost-profile requires -t with at least 2 threads";
+    static final String ERR_FUSE_PROPERTIES_REQUIRES_T = "--fuse-properties requires -t with at least 2 threads";
+    static final String ERR_CONSTRAINT_TIMEOUT_REQUIRES_T = "--constraint-timeout requires -t with at least 2 threads";
+    static final String ERR_SHAPE_TIMEOUT_REQUIRES_T = "--shape-timeout requires -t with at least 2 threads";
+    static final String ERR_TOO_MANY_RESULT_FLAGS = "Can only use one of these flags: --cache | --stream";
     // Logging strings
     static final String START_MSG = "AIF Validator";
     // Version
@@ -82,6 +93,14 @@ public class ValidateAIFCli implements Callable<Integer> {
     private static final String DEPTH_PARAMETER_STRING = "Depth parameter";
     private static final int DEFAULT_DEPTH = 50;
     private static final int MINIMUM_DEPTH = 1;
+    // Sample
+    private static final long DEFAULT_SAMPLE_SEED = 0;
+    // Chunk
+    private static final String CHUNK_PARAMETER_STRING = "Chunk parameter";
+    private static final int MINIMUM_CHUNK = 1;
+    // Timeouts
+    private static final String TIMEOUT_PARAMETER_STRING = "Timeout parameter";
+    private static final int MINIMUM_TIMEOUT = 1;
 
     //Hypothesis
     private static final String DEFAULT_HYPOTHESIS_SIZE = "5"; //MB
@@ -168,8 +187,65 @@ public class ValidateAIFCli implements Callable<Integer> {
         }
     }
 
+    @Option(names = "--sample", description =
+            "Perform shallow validation on a stratified sample of target nodes (by type, system, and source document) chosen with seed [seed], or seed " + DEFAULT_SAMPLE_SEED + " if [seed] is omitted, and estimate the rate of violating target nodes (requires --depth).",
+            paramLabel = "seed", arity = "0..1", converter = SampleConverter.class)
+    private Long sampleSeed; // Validate the first target nodes by default
+
+    private static class SampleConverter implements CommandLine.ITypeConverter<Long> {
+        @Override
+        public Long convert(String value) {
+            try {
+                return "".equals(value) ? DEFAULT_SAMPLE_SEED : Long.parseLong(value);
+            } catch (Exception ex) {
+                throw new CommandLine.TypeConversionException(String.format(ERR_BAD_ARGTYPE, value, Long.TYPE.getSimpleName()));
+            }
+        }
+    }
+
+    @Option(names = "--chunk", description =
+            "Split the target nodes of each SHACL rule (shape) into chunks of [num] nodes that are validated in parallel, or size chunks based on the thread count if [num] is omitted (requires -t).",
+            paramLabel = "num", arity = "0..1", converter = ChunkConverter.class)
+    private int chunk = Integer.MIN_VALUE; // Don't split target nodes by default
+
+    private static class ChunkConverter implements CommandLine.ITypeConverter<Integer> {
+        @Override
+        public Integer convert(String value) {
+            try {
+                return "".equals(value) ? ThreadedValidationEngine.ADAPTIVE_CHUNK_SIZE : Integer.parseInt(value);
+            } catch (Exception ex) {
+                throw new CommandLine.TypeConversionException(String.format(ERR_BAD_ARGTYPE, value, Integer.TYPE.getSimpleName()));
+            }
+        }
+    }
+
+    @Option(names = "--work-stealing", description = "Schedule multi-threaded validation on a work-stealing (fork/join) thread pool (requires -t).")
+    private boolean useWorkStealing;
+
+    @Option(names = "--stream", description = "Stream validation results to <kbname>-results.tab as they are found instead of building a validation report (requires -t).")
+    private boolean streamResults;
+
+    @Option(names = "--cost-profile", description = "Validate the most expensive SHACL rules (shapes) first, using and updating the cost profile in the specified file (requires -t).",
+            paramLabel = "FILE")
+    private File costProfileFile;
+
+    @Option(names = "--fuse-properties", description = "Validate all property shapes of each node shape together, reading each focus node's triples once (requires -t).")
+    private boolean fuseProperties;
+
+    @Option(names = "--constraint-timeout", description = "Stop validating a SHACL constraint after [sec] seconds, and"
+            + " report it as timed out while still validating all other constraints (requires -t).", paramLabel = "sec")
+    private int constraintTimeout = Integer.MIN_VALUE; // Don't limit the time spent on each constraint by default
+
+    @Option(names = "--shape-timeout", description = "Stop validating a SHACL rule (shape) after [sec] seconds, and"
+            + " report it as timed out while still validating all other rules (requires -t).", paramLabel = "sec")
+    private int shapeTimeout = Integer.MIN_VALUE; // Don't limit the time spent on each shape by default
+
+    @Option(names = "--cache", description = "Cache validation results in the specified directory, and replay the cached"
+            + " result instead of re-validating a KB that was validated before with the same settings.", paramLabel = "DIRNAME")
+    private File cacheDirectory;
+
     @Option(names = "--pm", description = "Enable progress monitor that shows ongoing validation progress. If -t is"
-            + " specified, then thread metrics are provided post-validation instead.")
+            + " specified, thread metrics are also provided post-validation.")
     private boolean useProgressMonitor;
 
     @Option(names = "--disk", description = "Use disk-based model for validating very large files")
@@ -188,7 +264,7 @@ public class ValidateAIFCli implements Callable<Integer> {
     private boolean outputToFile;
 
     @Option(names = "-t", description = "Specify the number of threads to use during validation. If the --pm option" +
-            " is specified, thread metrics are provided post-validation instead.", paramLabel = "num")
+            " is specified, thread metrics are also provided post-validation.", paramLabel = "num")
     private int threads = MINIMUM_THREAD_COUNT;
 
     //TODO: When picocli 4.0 is stable, make this an ArgGroup to enforce mutual exclusivity
@@ -250,6 +326,54 @@ public class ValidateAIFCli implements Callable<Integer> {
                 throw new CommandLine.ParameterException(spec.commandLine(), ERR_DEPTH_REQUIRES_T);
         }
 
+        if (sampleSeed != null && !depthSet) {
+            throw new CommandLine.ParameterException(spec.commandLine(), ERR_SAMPLE_REQUIRES_DEPTH);
+        }
+
+        boolean chunkSet = chunk != Integer.MIN_VALUE;
+        if (chunkSet) {
+            if (!threadSet)
+                throw new CommandLine.ParameterException(spec.commandLine(), ERR_CHUNK_REQUIRES_T);
+            else if (chunk != ThreadedValidationEngine.ADAPTIVE_CHUNK_SIZE)
+                checkMinimum(chunk, CHUNK_PARAMETER_STRING, MINIMUM_CHUNK);
+        }
+
+        if (useWorkStealing && !threadSet) {
+            throw new CommandLine.ParameterException(spec.commandLine(), ERR_WORK_STEALING_REQUIRES_T);
+        }
+
+        if (streamResults && !threadSet) {
+            throw new CommandLine.ParameterException(spec.commandLine(), ERR_STREAM_REQUIRES_T);
+        }
+
+        if (costProfileFile != null && !threadSet) {
+            throw new CommandLine.ParameterException(spec.commandLine(), ERR_COST_PROFILE_REQUIRES_T);
+        }
+
+        if (fuseProperties && !threadSet) {
+            throw new CommandLine.ParameterException(spec.commandLine(), ERR_FUSE_PROPERTIES_REQUIRES_T);
+        }
+
+        boolean constraintTimeoutSet = constraintTimeout != Integer.MIN_VALUE;
+        if (constraintTimeoutSet) {
+            if (threadSet)
+                checkMinimum(constraintTimeout, TIMEOUT_PARAMETER_STRING, MINIMUM_TIMEOUT);
+            else
+                throw new CommandLine.ParameterException(spec.commandLine(), ERR_CONSTRAINT_TIMEOUT_REQUIRES_T);
+        }
+
+        boolean shapeTimeoutSet = shapeTimeout != Integer.MIN_VALUE;
+        if (shapeTimeoutSet) {
+            if (threadSet)
+                checkMinimum(shapeTimeout, TIMEOUT_PARAMETER_STRING, MINIMUM_TIMEOUT);
+            else
+                throw new CommandLine.ParameterException(spec.commandLine(), ERR_SHAPE_TIMEOUT_REQUIRES_T);
+        }
+
+        if (cacheDirectory != null && streamResults) {
+            throw new CommandLine.ParameterException(spec.commandLine(), ERR_TOO_MANY_RESULT_FLAGS);
+        }
+
         // Prevent too much logging from obscuring the actual problems.
         logger.setLevel(Level.INFO);
         logger.info(START_MSG);
@@ -294,13 +418,16 @@ public class ValidateAIFCli implements Callable<Integer> {
         // Finally, try to create the validator, but fail if required elements can't be loaded/parsed.
         ValidateAIF validator;
         final String ontologyStr;
+        final List<String> cacheSettings = new ArrayList<>();
         try {
             if (useLDCOntology) {
                 validator = ValidateAIF.createForLDCOntology(restriction);
                 ontologyStr = "LDC (LO)";
+                cacheSettings.add("ontology=LDC");
             } else if (useProgramOntology) {
                 validator = ValidateAIF.createForProgramOntology(restriction);
                 ontologyStr = "Program (AO)";
+                cacheSettings.add("ontology=AO");
             } else {
                 StringBuilder builder = new StringBuilder();
                 // Convert the specified domain ontologies to CharSources.
@@ -319,6 +446,27 @@ public class ValidateAIFCli implements Callable<Integer> {
             return ReturnCode.FILE_ERROR.ordinal();
         }
 
+        // Set up the result cache, keyed on everything that affects the validation results besides the KB itself.
+        ValidationResultCache cache = null;
+        if (cacheDirectory != null) {
+            try {
+                if (customOntologies != null) {
+                    for (File file : customOntologies) {
+                        cacheSettings.add("ontology=" + ValidationResultCache.hash(file));
+                    }
+                }
+                cacheSettings.add("restriction=" + restriction);
+                cacheSettings.add("abort=" + maxValidationErrors);
+                cacheSettings.add("depth=" + depth);
+                cacheSettings.add("sample=" + sampleSeed);
+                cache = new ValidationResultCache(cacheDirectory.toPath(), new PropertyVersionProvider().getVersion()[0]);
+            } catch (Exception e) {
+                logger.error("Could not create result cache in " + cacheDirectory + "...exiting.");
+                logger.error("--> " + e.getLocalizedMessage());
+                return ReturnCode.FILE_ERROR.ordinal();
+            }
+        }
+
         // Display a summary of what we're going to do.
         if (hasFiles) {
             logger.info("-> Validating KB(s): " +
@@ -349,10 +497,53 @@ public class ValidateAIFCli implements Callable<Integer> {
             logger.info("-> Performing shallow validation on " + depth + " target node(s) per rule.");
             validator.setDepth(depth);
         }
+        if (sampleSeed != null) {
+            logger.info("-> Sampling target nodes by type, system, and source document with seed " + sampleSeed + ".");
+            validator.setSampleSeed(sampleSeed);
+        }
+        if (chunkSet) {
+            logger.info("-> Splitting target nodes per rule into " +
+                    (chunk == ThreadedValidationEngine.ADAPTIVE_CHUNK_SIZE ? "thread-sized chunks." : "chunks of " + chunk + " node(s)."));
+            validator.setChunkSize(chunk);
+        }
+        if (useWorkStealing) {
+            logger.info("-> Scheduling validation on a work-stealing thread pool.");
+            validator.setWorkStealing(true);
+        }
+        ShapeCostProfile costProfile = null;
+        if (costProfileFile != null) {
+            try {
+                costProfile = ShapeCostProfile.load(costProfileFile.toPath());
+            } catch (IOException ioe) {
+                logger.error("Could not read cost profile " + costProfileFile + "...exiting.");
+                logger.error("--> " + ioe.getLocalizedMessage());
+                return ReturnCode.FILE_ERROR.ordinal();
+            }
+            logger.info("-> Scheduling the most expensive rules first using cost profile " + costProfileFile + ".");
+            validator.setCostProfile(costProfile);
+        }
+        if (fuseProperties) {
+            logger.info("-> Validating the property shapes of each node shape together.");
+            validator.setFusePropertyShapes(true);
+        }
+        if (constraintTimeoutSet) {
+            logger.info("-> Validation of each constraint will time out after " + constraintTimeout + " second(s).");
+            validator.setConstraintTimeout(constraintTimeout * 1000L);
+        }
+        if (shapeTimeoutSet) {
+            logger.info("-> Validation of each rule will time out after " + shapeTimeout + " second(s).");
+            validator.setShapeTimeout(shapeTimeout * 1000L);
+        }
         if (useDiskModel) {
             logger.info("-> Using disk-based model for validation.");
         }
-        if (outputToFile) {
+        if (cache != null) {
+            logger.info("-> Validation results will be cached in " + cacheDirectory + ".");
+        }
+        if (streamResults) {
+            logger.info("-> Validation results will be streamed to <kbname>-results.tab.");
+            validator.setReportResults(false);
+        } else if (outputToFile) {
             logger.info("-> Validation report for invalid KBs will be saved to <kbname>-report*.txt., up to 1 report per thread");
         } else {
             logger.info("-> Validation report for invalid KBs will be printed to stderr.");
@@ -361,12 +552,10 @@ public class ValidateAIFCli implements Callable<Integer> {
             logger.info("-> Saving slow queries (> " + LONG_QUERY_THRESH + " ms) to <kbname>-stats.txt.");
         }
         if (useProgressMonitor) {
+            logger.info("-> Saving ongoing validation progress to <kbname>-progress.tab.");
             if (threadSet) {
                 logger.info("-> Saving thread metrics to <kbname>-performance.txt.");
             }
-            else {
-                logger.info("-> Saving ongoing validation progress to <kbname>-progress.tab.");
-            }
         }
         logger.info("*** Beginning validation of " + filesToValidate.size() + " file(s). ***");
 
@@ -375,6 +564,7 @@ public class ValidateAIFCli implements Callable<Integer> {
         int invalidCount = 0;
         int skipCount = 0;
         int abortCount = 0;
+        int timeoutCount = 0;
         int fileNum = 0;
         Path dataModelDir;
         final StatsCollector stats = useProgressiveProfiling ?
@@ -400,34 +590,98 @@ public class ValidateAIFCli implements Callable<Integer> {
             } else {
                 dataToBeValidated = ModelFactory.createDefaultModel();
             }
-            boolean notSkipped = ((restriction != ValidateAIF.Restriction.NIST_TA3) || checkHypothesisSize(fileToValidate, hypothesisMaxSize))
-                    && loadFile(dataToBeValidated, fileToValidate);
-            if (notSkipped) {
-                if (profiling) {
-                    stats.startCollection();
+            boolean notSkipped = (restriction != ValidateAIF.Restriction.NIST_TA3) || checkHypothesisSize(fileToValidate, hypothesisMaxSize);
+            String cacheKey = null;
+            ValidationResultCache.Entry cachedResult = null;
+            if (notSkipped && cache != null) {
+                try {
+                    cacheKey = cache.createKey(fileToValidate, cacheSettings);
+                    cachedResult = cache.get(cacheKey);
+                } catch (IOException ioe) {
+                    logger.warn("---> Could not read cached result for " + fileToValidate + ".");
+                    logger.warn("--> " + ioe.getLocalizedMessage());
                 }
-                if (useProgressMonitor && !threadSet) {
-                    String filename = fileToValidate.getName().replace(".ttl", "") + "-progress.tab";
-                    ProgressMonitor pm;
-                    try {
-                        pm = new AIFProgressMonitor(filename);
-                    } catch (IOException e) {
-                        pm = new AIFProgressMonitor();
-                        logger.warn("Could not open progress monitor filename {}.  Writing progress to StdOut.", filename);
+            }
+            notSkipped = notSkipped && (cachedResult != null || loadFile(dataToBeValidated, fileToValidate, threads));
+            if (notSkipped) {
+                final Set<Resource> reports;
+                ResultStreamWriter resultWriter = null;
+                if (cachedResult != null) {
+                    logger.info("---> Replaying cached result (" + (cachedResult.isValid() ? "valid" :
+                            cachedResult.getViolationCount() + " SHACL violation(s)") + ").");
+                    reports = cachedResult.getReports();
+                } else {
+                    if (profiling) {
+                        stats.startCollection();
+                    }
+                    if (useProgressMonitor) {
+                        String filename = fileToValidate.getName().replace(".ttl", "") + "-progress.tab";
+                        ProgressMonitor pm;
+                        try {
+                            pm = threadSet ? new ThreadedProgressMonitor(filename) : new AIFProgressMonitor(filename);
+                        } catch (IOException e) {
+                            pm = threadSet ? new ThreadedProgressMonitor() : new AIFProgressMonitor();
+                            logger.warn("Could not open progress monitor filename {}.  Writing progress to StdOut.", filename);
+                        }
+                        validator.setProgressMonitor(pm);
                     }
-                    validator.setProgressMonitor(pm);
+                    if (streamResults) {
+                        String filename = fileToValidate.toString().replace(".ttl", "-results.tab");
+                        try {
+                            resultWriter = new ResultStreamWriter(filename);
+                        } catch (IOException e) {
+                            logger.error("---> Could not open results file {}.", filename);
+                            return ReturnCode.FILE_ERROR.ordinal();
+                        }
+                        validator.setValidationResultListener(resultWriter);
+                    }
+                    reports = validator.validateKBAndReturnMultipleReports(dataToBeValidated, null);
+                    if (resultWriter != null) {
+                        resultWriter.close();
+                    }
+                    if (profiling) {
+                        stats.endCollection();
+                        stats.dump(fileToValidate.toString());
+                    }
+                    if (costProfile != null) {
+                        try {
+                            costProfile.save(costProfileFile.toPath());
+                        } catch (IOException ioe) {
+                            logger.warn("---> Could not save cost profile to " + costProfileFile + ".");
+                        }
+                    }
+                    // Partial results of timed out validations are not cached
+                    if (cacheKey != null && reports != null) {
+                        try {
+                            cache.put(cacheKey, reports);
+                        } catch (IOException ioe) {
+                            logger.warn("---> Could not cache validation result for " + fileToValidate + ".");
+                        }
+                    }
+                }
+                List<Statement> timedOut = new ArrayList<>();
+                if (reports != null) {
+                    reports.forEach(report -> timedOut.addAll(
+                            report.listProperties(ThreadedValidationEngine.SH_TIMED_OUT).toList()));
                 }
-                final Set<Resource> reports = validator.validateKBAndReturnMultipleReports(dataToBeValidated, null);
-                if (profiling) {
-                    stats.endCollection();
-                    stats.dump(fileToValidate.toString());
+                if (!timedOut.isEmpty()) {
+                    logger.warn("---> Validation of " + fileToValidate + " timed out on " + timedOut.size() +
+                            " constraint(s) or rule(s); its results are partial.");
+                    timedOut.forEach(statement -> logger.warn("----> " + describeTimedOut(statement.getResource())));
+                    timeoutCount++;
                 }
                 if (reports == null) {
                     logger.warn("---> Could not validate " + fileToValidate + " (engine error).  Skipping.");
                     skipCount++;
                 } else if (!ValidateAIF.isValidSetOfReports(reports)) {
                     invalidCount++;
-                    final int numViolations = processReports(reports, fileToValidate, outputToFile);
+                    final int numViolations;
+                    if (resultWriter != null) {
+                        numViolations = resultWriter.getViolations();
+                        logger.info("--> Saved validation results to " + resultWriter.filename);
+                    } else {
+                        numViolations = processReports(reports, fileToValidate, outputToFile);
+                    }
                     boolean hasAbort = reports.stream().anyMatch(report -> report.hasProperty(ThreadedValidationEngine.SH_ABORTED));
                     if (numViolations == maxValidationErrors || hasAbort) {
                         logger.warn("---> Validation of " + fileToValidate +
@@ -437,11 +691,13 @@ public class ValidateAIFCli implements Callable<Integer> {
                         logger.warn("---> Validation of " + fileToValidate + " failed.");
                     }
                 }
+                if (sampleSeed != null && cachedResult == null) {
+                    logSampleEstimates(validator.getSamples());
+                }
                 date = Calendar.getInstance().getTime();
                 logger.info("---> completed " + format.format(date) + ".");
 
-                // TODO: replace this when multi-threaded progress monitor exists
-                if (useProgressMonitor && threadSet) {
+                if (useProgressMonitor && threadSet && cachedResult == null) {
                     String outputFilename = fileToValidate.toString().replace(".ttl", "-performance.txt");
                     try (PrintStream ps = new PrintStream(Files.newOutputStream(Paths.get(outputFilename)))) {
                         validator.printMetrics(ps);
@@ -460,7 +716,8 @@ public class ValidateAIFCli implements Callable<Integer> {
             }
         }
 
-        final ReturnCode returnCode = displaySummary(fileNum + nonTTLcount, invalidCount, skipCount + nonTTLcount, abortCount);
+        final ReturnCode returnCode = displaySummary(fileNum + nonTTLcount, invalidCount, skipCount + nonTTLcount, abortCount,
+                timeoutCount);
         if (useDiskModel) {
             deleteDir(Paths.get(DATA_MODEL_PATH)); // Try to clean up after ourselves
         }
@@ -519,9 +776,9 @@ public class ValidateAIFCli implements Callable<Integer> {
     }
 
     // Load the model, or fail trying.  Returns true if it's loaded, otherwise false.
-    private static boolean loadFile(Model dataToBeValidated, File fileToValidate) {
+    private static boolean loadFile(Model dataToBeValidated, File fileToValidate, int threads) {
         try {
-            ValidateAIF.loadModel(dataToBeValidated, com.google.common.io.Files.asCharSource(fileToValidate, Charsets.UTF_8));
+            new ParallelTurtleLoader(threads).load(dataToBeValidated, fileToValidate);
         } catch (RuntimeException rte) {
             logger.warn("---> Could not read " + fileToValidate + "; skipping.");
             return false;
@@ -561,6 +818,27 @@ public class ValidateAIFCli implements Callable<Integer> {
                 .reduce(0, Integer::sum);
     }
 
+    // Log the estimated rate of violating target nodes overall and for each rule with violating sampled nodes
+    private static void logSampleEstimates(List<FocusNodeSampler.Sample> samples) {
+        FocusNodeSampler.Estimate overall = FocusNodeSampler.estimate("All rules", samples);
+        logger.info(String.format("---> Estimated violating target nodes: %.2f%% (95%% CI %.2f%%-%.2f%%) from %d of %d target node(s) in %d strata.",
+                overall.getRate() * 100, overall.getLowerBound() * 100, overall.getUpperBound() * 100,
+                overall.getSampleSize(), overall.getPopulationSize(), overall.getStrataCount()));
+        samples.stream()
+                .map(FocusNodeSampler.Sample::estimate)
+                .filter(estimate -> estimate.getViolatingCount() > 0)
+                .sorted(Comparator.comparing(FocusNodeSampler.Estimate::getName))
+                .forEach(estimate -> logger.info("----> " + estimate));
+    }
+
+    // Describe a timed out constraint by its shape and constraint component
+    private static String describeTimedOut(Resource timedOut) {
+        Resource shape = timedOut.getPropertyResourceValue(SH.sourceShape);
+        String name = shape.isURIResource() ? shape.getLocalName() : "property shape";
+        Resource component = timedOut.getPropertyResourceValue(SH.sourceConstraintComponent);
+        return component == null ? name + " (target nodes)" : name + " " + component.getLocalName();
+    }
+
     // Return false if file is > 5MB or size couldn't be determined, otherwise true
     private static boolean checkHypothesisSize(File fileToValidate, int maxHypothesisSize) {
         try {
@@ -579,7 +857,8 @@ public class ValidateAIFCli implements Callable<Integer> {
     }
 
     // Display a summary to the user
-    private static ReturnCode displaySummary(int fileCount, int invalidCount, int skipCount, int abortCount) {
+    private static ReturnCode displaySummary(int fileCount, int invalidCount, int skipCount, int abortCount,
+                                             int timeoutCount) {
         final int validCount = fileCount - invalidCount - skipCount;
         logger.info("Summary:");
         logger.info("\tFiles submitted: " + fileCount);
@@ -590,7 +869,12 @@ public class ValidateAIFCli implements Callable<Integer> {
         if (abortCount > 0) {
             logger.info("\t  Aborted validations: " + abortCount);
         }
-        if (fileCount == validCount) {
+        if (timeoutCount > 0) {
+            logger.info("\tTimed out validations (partial results): " + timeoutCount);
+        }
+        if (fileCount == validCount && timeoutCount > 0) {
+            logger.info("*** No SHACL violations were found, but some validations timed out. ***");
+        } else if (fileCount == validCount) {
             logger.info("*** All submitted KBs were valid. ***");
         } else if (fileCount == skipCount) {
             logger.info("*** No validation was performed. ***");
@@ -603,6 +887,48 @@ public class ValidateAIFCli implements Callable<Integer> {
         }
     }
 
+    /**
+     * A {@link ValidationResultListener} that writes each validation result as a row of a tab-delimited file:
+     * <code>Focus Node | Shape | Component | Severity | Value | Message</code>
+     */
+    private static class ResultStreamWriter implements ValidationResultListener {
+
+        final String filename;
+        private final PrintStream out;
+        private int violations = 0;
+
+        /**
+         * Creates a result writer that writes validation results to the specified file.
+         *
+         * @param filename the filename to stream validation results to
+         * @throws IOException if the file cannot be created
+         */
+        ResultStreamWriter(String filename) throws IOException {
+            this.filename = filename;
+            out = new PrintStream(Files.newOutputStream(Paths.get(filename)));
+            out.println("Focus Node\tShape\tComponent\tSeverity\tValue\tMessage");
+        }
+
+        @Override
+        public synchronized void onResult(RDFNode focusNode, Resource sourceShape, Resource sourceConstraintComponent,
+                                          Resource severity, String message, RDFNode value) {
+            if (SH.Violation.equals(severity)) {
+                violations++;
+            }
+            out.println(String.join("\t", String.valueOf(focusNode), String.valueOf(sourceShape),
+                    String.valueOf(sourceConstraintComponent), String.valueOf(severity), String.valueOf(value),
+                    message == null ? "" : message.replaceAll("\\s+", " ")));
+        }
+
+        synchronized int getViolations() {
+            return violations;
+        }
+
+        synchronized void close() {
+            out.close();
+        }
+    }
+
     public static class PropertyVersionProvider implements CommandLine.IVersionProvider {
         @Override
         public String[] getVersion() throws Exception {
@@ -0,0 +1,203 @@
+package com.ncc.aif;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.ResIterator;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFFormat;
+import org.apache.jena.riot.RiotException;
+import org.apache.jena.vocabulary.RDF;
+import org.topbraid.shacl.vocabulary.SH;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * An on-disk cache of validation results, keyed by a hash of everything that determines the result of validating a
+ * KB: the KB's content, the domain ontologies, the restriction level, the validator version, and any settings that
+ * change which results are reported. Each entry stores the verdict, the number of SHACL violations, and the
+ * validation report(s), so that re-validating an unchanged KB can replay the cached result instead. Partial results
+ * of validations that timed out are not cached.
+ * <p>
+ * An entry consists of a <code>&lt;key&gt;.properties</code> file and one <code>&lt;key&gt;-report-N.ttl</code>
+ * file per validation report. The properties file is written last, so an interrupted write never leaves behind an
+ * entry that appears complete.
+ *
+ * @author Next Century Corporation
+ */
+public class ValidationResultCache {
+    private static final String ENTRY_SUFFIX = ".properties";
+    private static final String REPORT_SUFFIX = "-report-%d.ttl";
+    private static final String VALID_PROPERTY = "valid";
+    private static final String VIOLATIONS_PROPERTY = "violations";
+    private static final String REPORTS_PROPERTY = "reports";
+
+    private final Path directory;
+    private final String version;
+
+    /**
+     * Creates a cache that stores its entries in the specified directory, creating the directory if necessary.
+     *
+     * @param directory directory in which to store cache entries
+     * @param version   validator version; entries created by other versions are never returned
+     * @throws IOException if the directory cannot be created
+     */
+    public ValidationResultCache(Path directory, String version) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.version = version;
+    }
+
+    /**
+     * Returns the hash of the specified file's content, for use as a setting in {@link #createKey(File, Collection)}.
+     *
+     * @param file file to hash
+     * @return hex-encoded SHA-256 hash of the file's content
+     * @throws IOException if the file cannot be read
+     */
+    public static String hash(File file) throws IOException {
+        return com.google.common.io.Files.asByteSource(file).hash(Hashing.sha256()).toString();
+    }
+
+    /**
+     * Returns the cache key for validating the specified KB with the specified settings. The settings must describe
+     * everything other than the KB that affects its validation results (e.g., domain ontology hashes, restriction
+     * level, abort threshold); their order does not matter.
+     *
+     * @param kb       KB file to be validated
+     * @param settings settings that affect the validation results
+     * @return hex-encoded cache key
+     * @throws IOException if the KB cannot be read
+     */
+    public String createKey(File kb, Collection<String> settings) throws IOException {
+        final Hasher hasher = Hashing.sha256().newHasher()
+                .putString(version, StandardCharsets.UTF_8)
+                .putString(hash(kb), StandardCharsets.UTF_8);
+        // Combine the settings order-independently, as for a set of domain ontologies
+        settings.stream()
+                .map(setting -> Hashing.sha256().hashString(setting, StandardCharsets.UTF_8).toString())
+                .sorted()
+                .forEach(settingHash -> hasher.putString(settingHash, StandardCharsets.UTF_8));
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Returns the cached result for the specified key, or <code>null</code> if there is none.
+     *
+     * @param key cache key returned by {@link #createKey(File, Collection)}
+     * @return the cached result, or <code>null</code> if there is none
+     * @throws IOException if the entry exists but cannot be read
+     */
+    public Entry get(String key) throws IOException {
+        final Path entryFile = directory.resolve(key + ENTRY_SUFFIX);
+        if (!Files.exists(entryFile)) {
+            return null;
+        }
+        final Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(entryFile)) {
+            props.load(in);
+        }
+        try {
+            final boolean valid = Boolean.parseBoolean(props.getProperty(VALID_PROPERTY));
+            final int violations = Integer.parseInt(props.getProperty(VIOLATIONS_PROPERTY));
+            final int reportCount = Integer.parseInt(props.getProperty(REPORTS_PROPERTY));
+            final Set<Resource> reports = new HashSet<>();
+            for (int i = 1; i <= reportCount; i++) {
+                final Model model = ModelFactory.createDefaultModel();
+                RDFDataMgr.read(model, directory.resolve(String.format(key + REPORT_SUFFIX, i)).toString());
+                final ResIterator it = model.listSubjectsWithProperty(RDF.type, SH.ValidationReport);
+                if (!it.hasNext()) {
+                    throw new IOException("Missing validation report in cache entry " + key);
+                }
+                reports.add(it.next());
+            }
+            return new Entry(valid, violations, reports);
+        } catch (NumberFormatException | RiotException e) {
+            throw new IOException("Malformed cache entry " + key, e);
+        }
+    }
+
+    /**
+     * Stores the specified validation reports under the specified key, replacing any existing entry. Reports of a
+     * validation that timed out (see {@link ThreadedValidationEngine#SH_TIMED_OUT}) are not stored.
+     *
+     * @param key     cache key returned by {@link #createKey(File, Collection)}
+     * @param reports validation reports returned by {@link ValidateAIF#validateKBAndReturnMultipleReports}
+     * @return the stored entry, or <code>null</code> if the validation timed out
+     * @throws IOException if the entry cannot be written
+     */
+    public Entry put(String key, Set<Resource> reports) throws IOException {
+        if (reports.stream().anyMatch(report -> report.hasProperty(ThreadedValidationEngine.SH_TIMED_OUT))) {
+            return null;
+        }
+        final Entry entry = new Entry(ValidateAIF.isValidSetOfReports(reports),
+                reports.stream()
+                        .mapToInt(report -> report.getModel().listStatements(null, SH.resultSeverity, SH.Violation).toList().size())
+                        .sum(),
+                reports);
+        int i = 1;
+        for (Resource report : reports) {
+            try (OutputStream out = Files.newOutputStream(directory.resolve(String.format(key + REPORT_SUFFIX, i++)))) {
+                RDFDataMgr.write(out, report.getModel(), RDFFormat.TURTLE_BLOCKS);
+            }
+        }
+        final Properties props = new Properties();
+        props.setProperty(VALID_PROPERTY, Boolean.toString(entry.isValid()));
+        props.setProperty(VIOLATIONS_PROPERTY, Integer.toString(entry.getViolationCount()));
+        props.setProperty(REPORTS_PROPERTY, Integer.toString(reports.size()));
+        final Path tempFile = Files.createTempFile(directory, key, ENTRY_SUFFIX);
+        try (OutputStream out = Files.newOutputStream(tempFile)) {
+            props.store(out, "AIF validation result");
+        }
+        Files.move(tempFile, directory.resolve(key + ENTRY_SUFFIX), StandardCopyOption.REPLACE_EXISTING);
+        return entry;
+    }
+
+    /**
+     * A cached validation result.
+     */
+    public static class Entry {
+        private final boolean valid;
+        private final int violationCount;
+        private final Set<Resource> reports;
+
+        private Entry(boolean valid, int violationCount, Set<Resource> reports) {
+            this.valid = valid;
+            this.violationCount = violationCount;
+            this.reports = reports;
+        }
+
+        /**
+         * @return whether the KB was valid
+         */
+        public boolean isValid() {
+            return valid;
+        }
+
+        /**
+         * @return the number of SHACL violations found in the KB
+         */
+        public int getViolationCount() {
+            return violationCount;
+        }
+
+        /**
+         * @return the validation report(s) of the KB
+         */
+        public Set<Resource> getReports() {
+            return reports;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.ncc.aif;
+
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+
+/**
+ * Receives validation results from a {@link ThreadedValidationEngine} as they are produced, which allows results to be
+ * consumed (e.g., streamed to disk) without building the RDF validation report. Results are delivered on the thread
+ * that produced them, so implementations must be thread-safe.
+ *
+ * @see ThreadedValidationEngine#setValidationResultListener(ValidationResultListener)
+ */
+@FunctionalInterface
+public interface ValidationResultListener {
+
+    /**
+     * Called once for each validation result, after the constraint executor has finished describing it. When the
+     * engine is not building a report, the result is discarded as soon as this method returns.
+     *
+     * @param focusNode                 the focus node of the result, or null if there is none
+     * @param sourceShape               the shape that produced the result
+     * @param sourceConstraintComponent the constraint component that produced the result
+     * @param severity                  the severity of the result, e.g. sh:Violation
+     * @param message                   the (first) result message, or null if there is none
+     * @param value                     the value node that caused the result, or null if there is none
+     */
+    void onResult(RDFNode focusNode, Resource sourceShape, Resource sourceConstraintComponent, Resource severity,
+                  String message, RDFNode value);
+}
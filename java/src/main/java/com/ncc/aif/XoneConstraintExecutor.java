@@ -10,28 +10,48 @@ import org.topbraid.shacl.validation.ConstraintExecutor;
 import org.topbraid.shacl.validation.ValidationEngine;
 import org.topbraid.shacl.vocabulary.SH;
 
-import java.util.HashSet;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
- * Implements handling of sh:xone without SPARQL
+ * Implements handling of sh:xone without SPARQL.
+ *
+ * An executor is created for each sh:xone constraint, so it resolves the member shapes of the constraint's list once.
+ * A value node violates the constraint as soon as it has two of the shapes. Unless the result message reports how
+ * many of the shapes it has (i.e., neither the list nor the constraint's shape has an sh:message, and there are more
+ * than two shapes), each check stops at the second match, and the shapes that have matched most often so far are checked first. This only
+ * saves checks of violating value nodes, since a conforming value node is checked against every shape.
  *
  * @author Edward Curley
  */
 public class XoneConstraintExecutor implements ConstraintExecutor {
+    private volatile List<Resource> shapes;
+    // Number of checks and matches of each member shape, indexed like shapes
+    private volatile AtomicLongArray checks;
+    private volatile AtomicLongArray matches;
 
     @Override
     public void executeConstraint(Constraint constraint, ValidationEngine engine, Collection<RDFNode> focusNodes) {
         RDFNode shapeList = constraint.getParameterValue();
         Resource path = constraint.getShapeResource().getPath();
-        Set<Resource> shapes = getMembersOfResourceList(shapeList);
+        List<Resource> members = getShapes(shapeList);
+        List<RDFNode> messages = getMessages(constraint);
+        boolean stopAtSecondMatch = !messages.isEmpty() || members.size() <= 2;
+        int[] order = getSelectivityOrder(members.size());
         for(RDFNode focusNode : focusNodes) {
             engine.checkCanceled();
             for(RDFNode valueNode : engine.getValueNodes(constraint, focusNode)) {
                 int count = 0;
-                for (Resource shape : shapes) {
-                    if (ThreadSafeHasShapeFunction.hasShape(valueNode, shape, engine)) {
+                for (int i = 0; i < order.length && (count < 2 || !stopAtSecondMatch); i++) {
+                    checks.incrementAndGet(order[i]);
+                    if (ThreadSafeHasShapeFunction.hasShape(valueNode, members.get(order[i]), engine)) {
+                        matches.incrementAndGet(order[i]);
                         count++;
                     }
                 }
@@ -41,32 +61,69 @@ public class XoneConstraintExecutor implements ConstraintExecutor {
                     if (path != null) {
                         result.addProperty(SH.resultPath, SHACLPaths.clonePath(path, result.getModel()));
                     }
-                    if (shapeList instanceof Resource && ((Resource) shapeList).hasProperty(SH.message)) {
-                        for (Statement s : ((Resource) shapeList).listProperties(SH.message).toList()) {
-                            result.addProperty(SH.resultMessage, s.getObject());
-                        }
-                    } else if (constraint.getShapeResource().hasProperty(SH.message)) {
-                        for (Statement s : constraint.getShapeResource().listProperties(SH.message).toList()) {
-                            result.addProperty(SH.resultMessage, s.getObject());
-                        }
-                    } else {
+                    if (messages.isEmpty()) {
                         String nodeType = path == null ? "Focus" : "Value";
-                        result.addProperty(SH.resultMessage, nodeType + " node has " + count + " of the shapes from the 'exactly one' list");
+                        result.addProperty(SH.resultMessage, nodeType + " node has " + count +
+                                " of the shapes from the 'exactly one' list");
+                    } else {
+                        messages.forEach(message -> result.addProperty(SH.resultMessage, message));
                     }
                 }
             }
         }
     }
 
-    private static Set<Resource> getMembersOfResourceList(RDFNode list) {
-        if (list == null || !list.isResource()) {
-            return new HashSet<>();
+    // Messages of the sh:xone list, or else of the constraint's shape
+    private static List<RDFNode> getMessages(Constraint constraint) {
+        RDFNode shapeList = constraint.getParameterValue();
+        Resource source = shapeList instanceof Resource && ((Resource) shapeList).hasProperty(SH.message) ?
+                (Resource) shapeList : constraint.getShapeResource();
+        List<RDFNode> messages = new ArrayList<>();
+        for (Statement s : source.listProperties(SH.message).toList()) {
+            messages.add(s.getObject());
         }
-        Resource listResource = list.asResource();
-        Set<Resource> nodeList = getMembersOfResourceList(listResource.getPropertyResourceValue(RDF.rest));
-        Resource first = listResource.getPropertyResourceValue(RDF.first);
-        if (first != null) {
-            nodeList.add(first);
+        return messages;
+    }
+
+    // Member shapes of the sh:xone list, resolved on first use
+    private List<Resource> getShapes(RDFNode shapeList) {
+        List<Resource> current = shapes;
+        if (current == null) {
+            synchronized (this) {
+                current = shapes;
+                if (current == null) {
+                    current = Collections.unmodifiableList(new ArrayList<>(getMembersOfResourceList(shapeList)));
+                    checks = new AtomicLongArray(current.size());
+                    matches = new AtomicLongArray(current.size());
+                    shapes = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    // Indexes of the member shapes, ordered by how often they have matched so far
+    private int[] getSelectivityOrder(int size) {
+        List<Integer> order = new ArrayList<>(size);
+        double[] matchRate = new double[size];
+        for (int i = 0; i < size; i++) {
+            order.add(i);
+            // Laplace smoothing, so shapes that have not been checked yet are neither first nor last
+            matchRate[i] = (matches.get(i) + 1.0) / (checks.get(i) + 2.0);
+        }
+        order.sort(Collections.reverseOrder(Comparator.comparingDouble(i -> matchRate[i])));
+        return order.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static Set<Resource> getMembersOfResourceList(RDFNode list) {
+        Set<Resource> nodeList = new LinkedHashSet<>();
+        while (list != null && list.isResource() && !RDF.nil.equals(list)) {
+            Resource listResource = list.asResource();
+            Resource first = listResource.getPropertyResourceValue(RDF.first);
+            if (first != null) {
+                nodeList.add(first);
+            }
+            list = listResource.getPropertyResourceValue(RDF.rest);
         }
         return nodeList;
     }
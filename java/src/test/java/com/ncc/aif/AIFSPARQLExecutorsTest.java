@@ -0,0 +1,217 @@
+package com.ncc.aif;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.topbraid.shacl.validation.ValidationEngineConfiguration;
+import org.topbraid.shacl.vocabulary.SH;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.ncc.aif.AIFUtils.*;
+import static com.ncc.aif.AidaAnnotationOntology.*;
+import static com.ncc.aif.ValidationReports.describeResults;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares the results of each of the {@link AIFSPARQLExecutors} with those of TopBraid's
+ * {@link org.topbraid.shacl.validation.sparql.SPARQLConstraintExecutor}, which runs the constraint's query, on KBs
+ * crafted to violate the constraint, single-threaded and multi-threaded.
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class AIFSPARQLExecutorsTest {
+    private static final String NS = "https://tac.nist.gov/tracks/SM-KBP/2019/LdcAnnotations#";
+    private static final List<String> SHACL_RESNAMES = Arrays.asList("com/ncc/aif/aida_ontology.shacl",
+            "com/ncc/aif/restricted_aif.shacl", "com/ncc/aif/restricted_hypothesis_aif.shacl");
+
+    @BeforeAll
+    static void initTest() {
+        // prevent too much logging from obscuring the Turtle examples which will be printed
+        ((Logger) org.slf4j.LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.INFO);
+    }
+
+    /**
+     * Validates <code>kb</code> with TopBraid's sh:sparql executor, then single- and multi-threaded with the native
+     * executors, and asserts that the reports have the same results, of which <code>expectedCount</code> have a
+     * message containing <code>message</code>.
+     */
+    private void assertSameResults(ValidateAIF.Restriction restriction, Model kb, String message, int expectedCount)
+            throws Exception {
+        Resource expected = TopBraidExecutors.call(Collections.singleton(SH.SPARQLConstraintComponent),
+                () -> ValidateAIF.createForLDCOntology(restriction).validateKBAndReturnReport(kb));
+        assertEquals(expectedCount, describeResults(expected).stream().filter(result -> result.contains(message))
+                .count(), "results of the constraint");
+
+        ValidateAIF validator = ValidateAIF.createForLDCOntology(restriction);
+        for (int threads : new int[] { 1, 4 }) {
+            validator.setThreadCount(threads);
+            ValidationReports.assertSameResults(expected, validator.validateKBAndReturnReport(kb),
+                    threads + " threads");
+        }
+        validator.setThreadCount(1);
+    }
+
+    private static Model createModel() {
+        Model model = ModelFactory.createDefaultModel();
+        addStandardNamespaces(model);
+        return model;
+    }
+
+    private static Resource makeTypedEntity(Model model, String name, Resource system) {
+        Resource entity = makeEntity(model, NS + name, system);
+        markType(model, NS + name + "-type", entity, LDCOntology.PER, system, 1.0);
+        return entity;
+    }
+
+    @Test
+    void typedOrNonPrototypeMember() throws Exception {
+        Model model = createModel();
+        Resource system = makeSystemWithURI(model, NS + "system");
+        Resource typed = makeTypedEntity(model, "typed", system);
+        // neither typed nor clustered
+        makeEntity(model, NS + "untyped", system);
+        makeEvent(model, NS + "untyped-event", system);
+        // a non-prototype member need not be typed, but a prototype must be
+        Resource cluster = makeClusterWithPrototype(model, NS + "cluster", typed, system);
+        markAsPossibleClusterMember(model, makeEntity(model, NS + "member", system), cluster, 1.0, system);
+        makeClusterWithPrototype(model, NS + "untyped-cluster", makeEntity(model, NS + "prototype", system), system);
+
+        assertSameResults(ValidateAIF.Restriction.NONE, model,
+                "must have type assertion or be non-prototype member of cluster", 3);
+    }
+
+    @Test
+    void hasTypeSubClassOf() throws Exception {
+        Model model = createModel();
+        Resource system = makeSystemWithURI(model, NS + "system");
+        // one result for each type assertion whose type cannot have a name, even for the same type
+        Resource named = makeTypedEntity(model, "named", system);
+        markName(named, "Name");
+        markType(model, NS + "named-type-2", named, LDCOntology.Conflict_Attack, system, 1.0);
+        markType(model, NS + "named-type-3", named, LDCOntology.Conflict_Attack, system, 1.0);
+        markType(model, NS + "named-type-4", named, model.createResource(NS + "UnknownType"), system, 1.0);
+        markTextValue(makeTypedEntity(model, "text", system), "text");
+        // no LDC type can have a numeric value
+        Resource numeric = makeEntity(model, NS + "numeric", system);
+        markType(model, NS + "numeric-type", numeric, LDCOntology.VAL, system, 1.0);
+        markType(model, NS + "numeric-type-2", numeric, LDCOntology.Life_Die, system, 1.0);
+        markNumericValueAsDouble(numeric, 1.0);
+
+        assertSameResults(ValidateAIF.Restriction.NONE, model, "Node has name but no type", 3);
+        assertSameResults(ValidateAIF.Restriction.NONE, model, "Node has text value but no type", 1);
+        assertSameResults(ValidateAIF.Restriction.NONE, model, "Node has numeric value, but no type", 2);
+    }
+
+    @Test
+    void clustered() throws Exception {
+        Model model = createModel();
+        Resource system = makeSystemWithURI(model, NS + "system");
+        makeClusterWithPrototype(model, NS + "cluster", makeTypedEntity(model, "clustered", system), system);
+        makeTypedEntity(model, "unclustered", system);
+        Resource event = makeEvent(model, NS + "event", system);
+        markType(model, NS + "event-type", event, LDCOntology.Conflict_Attack, system, 1.0);
+
+        assertSameResults(ValidateAIF.Restriction.NIST, model, "must be clustered", 2);
+    }
+
+    @Test
+    void edgeJustificationCount() throws Exception {
+        Model model = createModel();
+        Resource system = makeSystemWithURI(model, NS + "system");
+        Resource attacker = makeTypedEntity(model, "attacker", system);
+        Resource event = makeEvent(model, NS + "event", system);
+        markType(model, NS + "event-type", event, LDCOntology.Conflict_Attack, system, 1.0);
+        Resource[] spans = new Resource[3];
+        for (int i = 0; i < spans.length; i++) {
+            spans[i] = makeTextJustification(model, "doc", i * 10, i * 10 + 5, system, 1.0);
+        }
+        // 1 and 2 contained justifications are allowed, 0 and 3 are not, and each is a separate result
+        Resource valid = markAsArgument(model, event, LDCOntology.Conflict_Attack_Attacker, attacker, system, 1.0);
+        markCompoundJustification(model, Collections.singleton(valid), Arrays.asList(spans[0], spans[1]), system, 1.0);
+        Resource invalid = markAsArgument(model, event, LDCOntology.Conflict_Attack_Attacker, attacker, system, 0.5,
+                NS + "invalid-argument");
+        markCompoundJustification(model, Collections.singleton(invalid), Collections.emptyList(), system, 1.0);
+        markCompoundJustification(model, Collections.singleton(invalid), Arrays.asList(spans), system, 1.0);
+
+        assertSameResults(ValidateAIF.Restriction.NIST, model, "Exactly 1 or 2 contained justifications", 2);
+        // the counts are xsd:integer values
+        List<String> results = describeResults(ValidateAIF.createForLDCOntology(ValidateAIF.Restriction.NIST)
+                .validateKBAndReturnReport(model));
+        assertTrue(results.stream().anyMatch(result ->
+                result.contains("| 3^^http://www.w3.org/2001/XMLSchema#integer |")), results::toString);
+        assertTrue(results.stream().anyMatch(result ->
+                result.contains("| 0^^http://www.w3.org/2001/XMLSchema#integer |")), results::toString);
+    }
+
+    @Test
+    void informativeJustificationUniqueParentDoc() throws Exception {
+        Model model = createModel();
+        Resource system = makeSystemWithURI(model, NS + "system");
+        Resource same = makeTypedEntity(model, "same-doc", system);
+        Resource different = makeTypedEntity(model, "different-docs", system);
+        for (int i = 0; i < 2; i++) {
+            Resource mention = makeTextJustification(model, "doc", i * 10, i * 10 + 5, system, 1.0);
+            addSourceDocumentToJustification(mention, "parent");
+            markInformativeJustification(same, mention);
+            mention = makeTextJustification(model, "doc" + i, i * 10, i * 10 + 5, system, 1.0);
+            addSourceDocumentToJustification(mention, "parent" + i);
+            markInformativeJustification(different, mention);
+        }
+
+        assertSameResults(ValidateAIF.Restriction.NIST, model, "informative mention per document", 1);
+    }
+
+    @Test
+    void clusterMembersSameAsBaseClass() throws Exception {
+        Model model = createModel();
+        Resource system = makeSystemWithURI(model, NS + "system");
+        Resource cluster = makeClusterWithPrototype(model, NS + "cluster", makeTypedEntity(model, "prototype", system),
+                system);
+        markAsPossibleClusterMember(model, makeTypedEntity(model, "entity", system), cluster, 1.0, system);
+        for (String name : new String[] { "event", "other-event" }) {
+            Resource event = makeEvent(model, NS + name, system);
+            markType(model, NS + name + "-type", event, LDCOntology.Conflict_Attack, system, 1.0);
+            markAsPossibleClusterMember(model, event, cluster, 0.5, system);
+        }
+
+        assertSameResults(ValidateAIF.Restriction.NIST_TA3, model, "homogeneous members by base class", 2);
+    }
+
+    @Test
+    void registeredQueriesAreInSHACL() throws Exception {
+        // make sure that the executors have been registered
+        ThreadedValidationEngine.createValidationEngine(ModelFactory.createDefaultModel(),
+                ModelFactory.createDefaultModel(), new ValidationEngineConfiguration());
+        Set<String> selects = new HashSet<>();
+        for (String resource : SHACL_RESNAMES) {
+            Model shapes = ModelFactory.createDefaultModel();
+            RDFDataMgr.read(shapes, new StringReader(Resources.toString(Resources.getResource(resource),
+                    Charsets.UTF_8)), null, Lang.TURTLE);
+            shapes.listObjectsOfProperty(SH.select).forEachRemaining(select ->
+                    selects.add(SPARQLExecutorRegistry.normalize(select.asLiteral().getString())));
+        }
+
+        Set<String> registered = SPARQLExecutorRegistry.getRegisteredQueries();
+        assertEquals(8, registered.size());
+        List<String> missing = registered.stream().filter(query -> !selects.contains(query))
+                .collect(Collectors.toList());
+        assertTrue(missing.isEmpty(), () -> "Registered queries not in the SHACL: " + missing);
+    }
+}
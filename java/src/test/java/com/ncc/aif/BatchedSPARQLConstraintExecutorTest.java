@@ -0,0 +1,211 @@
+package com.ncc.aif;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.topbraid.shacl.vocabulary.SH;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.ncc.aif.AIFUtils.*;
+import static com.ncc.aif.BatchedSPARQLConstraintExecutor.isBatchable;
+import static com.ncc.aif.ValidationReports.describeResults;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests which sh:sparql queries {@link BatchedSPARQLConstraintExecutor} batches, and that batches of any size give the
+ * same results as TopBraid's per-focus node execution.
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class BatchedSPARQLConstraintExecutorTest {
+    private static final String PREFIXES = "PREFIX ex: <http://example.org/test#>\n";
+    private static final String LDC_NS = "https://tac.nist.gov/tracks/SM-KBP/2019/LdcAnnotations#";
+    private static final String ONT_ROOT = "com/ncc/aif/ontologies/";
+    private static final String AIF_ROOT = "com/ncc/aif/";
+    private ExecutorService executor;
+
+    @BeforeAll
+    void initTest() {
+        // prevent too much logging from obscuring the Turtle examples which will be printed
+        ((Logger) org.slf4j.LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.INFO);
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterAll
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    private static boolean isBatchableQuery(String query) {
+        return isBatchable(QueryFactory.create(PREFIXES + query));
+    }
+
+    @Nested
+    class IsBatchable {
+        @Test
+        void triplePatterns() {
+            assertTrue(isBatchableQuery("SELECT $this ?value WHERE { $this ex:p ?value . ?value ex:q ?other }"));
+            assertTrue(isBatchableQuery("SELECT $this WHERE { $this ex:p ?value . OPTIONAL { ?value ex:q $this } }"));
+        }
+
+        @Test
+        void subSelect() {
+            assertFalse(isBatchableQuery("SELECT $this WHERE { $this ex:p ?value . " +
+                    "{ SELECT $this (COUNT(?other) AS ?count) WHERE { $this ex:q ?other } GROUP BY $this } }"));
+        }
+
+        @Test
+        void minus() {
+            assertFalse(isBatchableQuery("SELECT $this WHERE { $this ex:p ?value . MINUS { $this ex:q ?value } }"));
+        }
+
+        @Test
+        void nestedFilterOnThis() {
+            assertFalse(isBatchableQuery("SELECT $this WHERE { $this ex:p ?value . " +
+                    "OPTIONAL { ?value ex:q ?other . FILTER (?other != $this) } }"));
+            // nested filters that do not mention $this see the same bindings either way
+            assertTrue(isBatchableQuery("SELECT $this WHERE { $this ex:p ?value . " +
+                    "OPTIONAL { ?value ex:q ?other . FILTER (?other != ?value) } }"));
+        }
+
+        @Test
+        void groupBy() {
+            assertFalse(isBatchableQuery("SELECT ?value (COUNT($this) AS ?count) WHERE { $this ex:p ?value } " +
+                    "GROUP BY ?value"));
+            assertTrue(isBatchableQuery("SELECT $this (COUNT(?value) AS ?count) WHERE { $this ex:p ?value } " +
+                    "GROUP BY $this HAVING (COUNT(?value) > 2)"));
+        }
+
+        @Test
+        void notExists() {
+            // at the top level, the pattern is evaluated for each row of the join, so it sees $this
+            assertTrue(isBatchableQuery("SELECT $this WHERE { FILTER NOT EXISTS { $this ex:p ?value } }"));
+            assertTrue(isBatchableQuery("SELECT $this WHERE { $this ex:p ?value . " +
+                    "FILTER NOT EXISTS { ?value ex:q $this } }"));
+            // in a nested group, it may not
+            assertFalse(isBatchableQuery("SELECT $this WHERE { $this ex:p ?value . " +
+                    "OPTIONAL { ?value ex:q ?other . FILTER NOT EXISTS { ?other ex:r $this } } }"));
+        }
+
+        @Test
+        void limitAndValues() {
+            assertFalse(isBatchableQuery("SELECT $this WHERE { $this ex:p ?value } LIMIT 1"));
+            assertFalse(isBatchableQuery("SELECT $this WHERE { VALUES ?value { ex:a } $this ex:p ?value }"));
+        }
+    }
+
+    // Validates data with each SPARQL batch size, 0 being TopBraid's execution for each focus node
+    private List<List<String>> validateWithBatchSizes(Model data, Model shapes, int... batchSizes)
+            throws InterruptedException, ExecutionException {
+        List<List<String>> results = new ArrayList<>();
+        for (int batchSize : batchSizes) {
+            ThreadedValidationEngine engine = ThreadedValidationEngineTest.createEngine(data, shapes, -1);
+            engine.setSPARQLBatchSize(batchSize);
+            results.add(describeResults(engine.validateAll(executor)));
+        }
+        return results;
+    }
+
+    private static Model loadResources(String... resourceNames) {
+        Model model = ModelFactory.createDefaultModel();
+        for (String resourceName : resourceNames) {
+            ValidateAIF.loadModel(model, Resources.asCharSource(Resources.getResource(resourceName), Charsets.UTF_8));
+        }
+        return model;
+    }
+
+    // Violates each of the AIF sh:sparql constraints that the generated KBs do not
+    private static Model createViolations() {
+        Model model = ModelFactory.createDefaultModel();
+        addStandardNamespaces(model);
+        Resource system = makeSystemWithURI(model, LDC_NS + "system");
+        Resource entity = makeEntity(model, LDC_NS + "entity", system);
+        markType(model, LDC_NS + "entity-type", entity, LDCOntology.PER, system, 1.0);
+        markType(model, LDC_NS + "entity-type-2", entity, LDCOntology.Conflict_Attack, system, 1.0);
+        markName(entity, "Name");
+        markTextValue(entity, "Text");
+        makeEntity(model, LDC_NS + "untyped", system);
+        Resource event = makeEvent(model, LDC_NS + "event", system);
+        markType(model, LDC_NS + "event-type", event, LDCOntology.Conflict_Attack, system, 1.0);
+        Resource cluster = makeClusterWithPrototype(model, LDC_NS + "cluster", entity, system);
+        markAsPossibleClusterMember(model, event, cluster, 0.5, system);
+        for (int i = 0; i < 2; i++) {
+            Resource mention = makeTextJustification(model, "doc", i * 10, i * 10 + 5, system, 1.0);
+            addSourceDocumentToJustification(mention, "parent");
+            markInformativeJustification(entity, mention);
+        }
+        Resource argument = markAsArgument(model, event, LDCOntology.Conflict_Attack_Attacker, entity, system, 1.0);
+        markCompoundJustification(model, Collections.singleton(argument), Collections.emptyList(), system, 1.0);
+        return model;
+    }
+
+    @Test
+    void aifConstraints() throws Exception {
+        Model shapes = loadResources(AIF_ROOT + "aida_ontology.shacl", AIF_ROOT + "restricted_aif.shacl",
+                AIF_ROOT + "restricted_hypothesis_aif.shacl");
+        Model domain = loadResources(ONT_ROOT + "InterchangeOntology", ONT_ROOT + "AidaDomainOntologiesCommon",
+                ONT_ROOT + "LDCOntology");
+        List<Model> kbs = Arrays.asList(createViolations(), ScalingTest.generateModel(40, 15, false, 2),
+                ScalingTest.generateModel(60, 20, false, 3));
+
+        // Run every sh:sparql constraint through SPARQL, including those with native executors
+        List<String> registered = new ArrayList<>(SPARQLExecutorRegistry.getRegisteredQueries());
+        registered.forEach(SPARQLExecutorRegistry::unregister);
+        try {
+            for (int i = 0; i < kbs.size(); i++) {
+                Model data = ModelFactory.createUnion(kbs.get(i), domain);
+                List<List<String>> results = validateWithBatchSizes(data, shapes, 0, 1, 7, 256);
+                long sparqlResults = results.get(0).stream()
+                        .filter(result -> result.contains(SH.SPARQLConstraintComponent.getURI())).count();
+                assertTrue(sparqlResults > 5, "SPARQL results of KB " + i);
+                for (int j = 1; j < results.size(); j++) {
+                    assertEquals(results.get(0), results.get(j), "KB " + i + ", batch size index " + j);
+                }
+            }
+        } finally {
+            AIFSPARQLExecutors.register();
+        }
+        assertEquals(registered.size(), SPARQLExecutorRegistry.getRegisteredQueries().size());
+    }
+
+    @Test
+    void failingFocusNode() throws Exception {
+        Model shapes = ThreadedValidationEngineTest.parse(
+                "@prefix sh: <http://www.w3.org/ns/shacl#> .\n" +
+                "@prefix ex: <http://example.org/test#> .\n" +
+                "ex:ThingShape a sh:NodeShape ; sh:targetClass ex:Thing ;\n" +
+                "    sh:sparql [ sh:message \"Thing has a name\" ; sh:select \"\"\"\n" +
+                "        PREFIX ex: <http://example.org/test#>\n" +
+                "        SELECT $this ?value ?failure WHERE {\n" +
+                "            $this ex:name ?value .\n" +
+                "            BIND (($this = ex:thing-7) AS ?failure)\n" +
+                "        }\"\"\" ] .\n");
+        Model data = ThreadedValidationEngineTest.createThings(20, 0);
+        List<List<String>> results = validateWithBatchSizes(data, shapes, 0, 1, 8, 256);
+        // the failing focus node is validated on its own, as TopBraid would, and the others of its batch are not lost
+        assertEquals(20, results.get(0).size());
+        assertEquals(1, results.get(0).stream().filter(result -> result.contains("thing-7")).count());
+        for (int j = 1; j < results.size(); j++) {
+            assertEquals(results.get(0), results.get(j), "batch size index " + j);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.ncc.aif;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the subclass closure of {@link ClassHierarchyIndex}, and that {@link ThreadedValidationEngine} only indexes the
+ * data again when it adds <code>rdfs:subClassOf</code> triples to the ontologies.
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class ClassHierarchyIndexTest {
+    private static final String NS = "http://example.org/test#";
+    // Each friend of an ex:Thing must be an ex:Agent
+    private static final String SHAPES = "@prefix sh: <http://www.w3.org/ns/shacl#> .\n" +
+            "@prefix ex: <" + NS + "> .\n" +
+            "ex:ThingShape a sh:NodeShape ; sh:targetClass ex:Thing ;\n" +
+            "    sh:property [ sh:path ex:friend ; sh:class ex:Agent ] .\n";
+
+    private static Node node(String localName) {
+        return NodeFactory.createURI(NS + localName);
+    }
+
+    // A graph of the specified subclass pairs
+    private static Graph createHierarchy(String... subClassPairs) {
+        Model model = ModelFactory.createDefaultModel();
+        for (int i = 0; i < subClassPairs.length; i += 2) {
+            model.add(model.createResource(NS + subClassPairs[i]), RDFS.subClassOf,
+                    model.createResource(NS + subClassPairs[i + 1]));
+        }
+        return model.getGraph();
+    }
+
+    @Nested
+    class Closure {
+        @Test
+        void reflexive() {
+            ClassHierarchyIndex index = ClassHierarchyIndex.of(createHierarchy("A", "B"));
+            assertTrue(index.isSubClassOf(node("A"), node("A")));
+            assertTrue(index.isSubClassOf(node("B"), node("B")));
+            // even of classes that are not in the index
+            assertTrue(index.isSubClassOf(node("C"), node("C")));
+            assertFalse(index.isSubClassOf(node("C"), node("A")));
+            assertFalse(index.isSubClassOf(node("A"), node("C")));
+        }
+
+        @Test
+        void transitive() {
+            ClassHierarchyIndex index = ClassHierarchyIndex.of(createHierarchy("A", "B", "B", "C", "C", "D", "E", "C"));
+            assertEquals(5, index.size());
+            assertTrue(index.isSubClassOf(node("A"), node("B")));
+            assertTrue(index.isSubClassOf(node("A"), node("C")));
+            assertTrue(index.isSubClassOf(node("A"), node("D")));
+            assertTrue(index.isSubClassOf(node("E"), node("D")));
+            assertFalse(index.isSubClassOf(node("D"), node("A")));
+            assertFalse(index.isSubClassOf(node("B"), node("A")));
+            assertFalse(index.isSubClassOf(node("A"), node("E")));
+            assertFalse(index.isSubClassOf(node("E"), node("B")));
+        }
+
+        @Test
+        void cycles() {
+            ClassHierarchyIndex index = ClassHierarchyIndex.of(createHierarchy("A", "B", "B", "C", "C", "A", "D", "A",
+                    "E", "E"));
+            for (String subClass : new String[] { "A", "B", "C", "D" }) {
+                for (String superClass : new String[] { "A", "B", "C" }) {
+                    assertTrue(index.isSubClassOf(node(subClass), node(superClass)), subClass + " " + superClass);
+                }
+            }
+            assertFalse(index.isSubClassOf(node("A"), node("D")));
+            assertTrue(index.isSubClassOf(node("E"), node("E")));
+            assertFalse(index.isSubClassOf(node("E"), node("A")));
+        }
+
+        @Test
+        void literalSuperClasses() {
+            Model model = ModelFactory.createDefaultModel();
+            model.add(model.createResource(NS + "A"), RDFS.subClassOf, "B");
+            ClassHierarchyIndex index = ClassHierarchyIndex.of(model.getGraph());
+            assertEquals(0, index.size());
+            assertFalse(index.isSubClassOf(node("A"), NodeFactory.createLiteral("B")));
+        }
+
+        @Test
+        void hasClass() {
+            Model model = ModelFactory.createDefaultModel().add(ModelFactory.createModelForGraph(
+                    createHierarchy("A", "B", "B", "C")));
+            Resource thing = model.createResource(NS + "thing", model.createResource(NS + "Other"))
+                    .addProperty(RDF.type, model.createResource(NS + "B"));
+            Resource untyped = model.createResource(NS + "untyped");
+            ClassHierarchyIndex index = ClassHierarchyIndex.of(model.getGraph());
+            Graph graph = model.getGraph();
+
+            // any of the types
+            assertTrue(index.hasClass(graph, thing.asNode(), node("Other")));
+            assertTrue(index.hasClass(graph, thing.asNode(), node("B")));
+            assertTrue(index.hasClass(graph, thing.asNode(), node("C")));
+            assertFalse(index.hasClass(graph, thing.asNode(), node("A")));
+            assertFalse(index.hasClass(graph, untyped.asNode(), node("C")));
+        }
+    }
+
+    @Nested
+    class OntologyIndex {
+        private final Model ontology = ModelFactory.createModelForGraph(createHierarchy("Person", "Agent"));
+
+        // Things with a person, and another thing, as friends
+        private Model createData() {
+            Model data = ModelFactory.createDefaultModel();
+            Resource person = data.createResource(NS + "person", data.createResource(NS + "Person"));
+            Resource thing = data.createResource(NS + "thing", data.createResource(NS + "Thing"));
+            data.createResource(NS + "other", data.createResource(NS + "Thing"))
+                    .addProperty(data.createProperty(NS + "friend"), person)
+                    .addProperty(data.createProperty(NS + "friend"), thing);
+            return data;
+        }
+
+        private ThreadedValidationEngine createEngine(Model data, ClassHierarchyIndex ontologyIndex) {
+            ThreadedValidationEngine engine = ThreadedValidationEngineTest.createEngine(
+                    ModelFactory.createUnion(data, ontology), SHAPES, -1);
+            engine.setOntologyClassIndex(ontologyIndex, data.getGraph());
+            return engine;
+        }
+
+        private int validate(ThreadedValidationEngine engine) throws InterruptedException, ExecutionException {
+            ExecutorService executor = Executors.newFixedThreadPool(2);
+            try {
+                Set<Resource> reports = engine.validateAll(executor);
+                return ThreadedValidationEngineTest.countResults(reports);
+            } finally {
+                executor.shutdown();
+            }
+        }
+
+        @Test
+        void reusedWithoutSubClasses() throws InterruptedException, ExecutionException {
+            ClassHierarchyIndex ontologyIndex = ClassHierarchyIndex.of(ontology.getGraph());
+            ThreadedValidationEngine engine = createEngine(createData(), ontologyIndex);
+            assertSame(ontologyIndex, engine.getClassIndex());
+            // only the thing is not an agent
+            assertEquals(1, validate(engine));
+            assertSame(ontologyIndex, engine.getClassIndex());
+        }
+
+        @Test
+        void rebuiltWithSubClasses() throws InterruptedException, ExecutionException {
+            ClassHierarchyIndex ontologyIndex = ClassHierarchyIndex.of(ontology.getGraph());
+            Model data = createData();
+            data.add(data.createResource(NS + "Thing"), RDFS.subClassOf, data.createResource(NS + "Agent"));
+            ThreadedValidationEngine engine = createEngine(data, ontologyIndex);
+            ClassHierarchyIndex index = engine.getClassIndex();
+            assertNotSame(ontologyIndex, index);
+            // the closure of both the data and the ontology
+            assertTrue(index.isSubClassOf(node("Thing"), node("Agent")));
+            assertTrue(index.isSubClassOf(node("Person"), node("Agent")));
+            assertEquals(0, validate(engine));
+        }
+
+        @Test
+        void withoutOntologyIndex() throws InterruptedException, ExecutionException {
+            ThreadedValidationEngine engine = createEngine(createData(), null);
+            assertTrue(engine.getClassIndex().isSubClassOf(node("Person"), node("Agent")));
+            assertEquals(1, validate(engine));
+        }
+    }
+}
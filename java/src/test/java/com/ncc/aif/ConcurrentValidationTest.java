@@ -0,0 +1,82 @@
+package com.ncc.aif;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import org.apache.jena.rdf.model.Model;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.ncc.aif.ValidationReports.describeResults;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Tests that a {@link ValidateAIF} validates several KBs at the same time from different threads with the same
+ * results as one after the other, starting right after it was created, when its shapes have not been used yet.
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class ConcurrentValidationTest {
+    private static final int CALLERS = 4;
+    private final List<Model> kbs = new ArrayList<>();
+    private final List<List<String>> expected = new ArrayList<>();
+    private ExecutorService callers;
+
+    @BeforeAll
+    void initTest() {
+        // prevent too much logging from obscuring the Turtle examples which will be printed
+        ((Logger) org.slf4j.LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.INFO);
+        ValidateAIF validator = ValidateAIF.createForLDCOntology(ValidateAIF.Restriction.NIST);
+        for (int seed = 1; seed <= CALLERS; seed++) {
+            Model kb = ScalingTest.generateModel(30, 10, seed == 1, seed);
+            kbs.add(kb);
+            expected.add(describeResults(validator.validateKBAndReturnReport(kb)));
+        }
+        callers = Executors.newFixedThreadPool(CALLERS);
+    }
+
+    @AfterAll
+    void shutdown() {
+        callers.shutdown();
+    }
+
+    // Validates each KB twice, all at the same time, with a new validator
+    private void assertSameResults(int threads) throws Exception {
+        ValidateAIF validator = ValidateAIF.createForLDCOntology(ValidateAIF.Restriction.NIST);
+        validator.setThreadCount(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<List<String>>> results = new ArrayList<>();
+        for (int i = 0; i < 2 * kbs.size(); i++) {
+            Model kb = kbs.get(i % kbs.size());
+            results.add(callers.submit(() -> {
+                start.await();
+                return describeResults(validator.validateKBAndReturnReport(kb));
+            }));
+        }
+        start.countDown();
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(expected.get(i % kbs.size()), results.get(i).get(),
+                    "KB " + i % kbs.size() + " with " + threads + " threads");
+        }
+    }
+
+    @Test
+    void singleThreaded() throws Exception {
+        assertFalse(expected.get(1).isEmpty());
+        assertSameResults(1);
+    }
+
+    @Test
+    void multiThreaded() throws Exception {
+        assertSameResults(4);
+    }
+}
@@ -0,0 +1,195 @@
+package com.ncc.aif;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.google.common.base.Strings;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.topbraid.shacl.validation.ValidationUtil;
+import org.topbraid.shacl.vocabulary.SH;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.ncc.aif.AIFUtils.*;
+import static com.ncc.aif.AidaAnnotationOntology.*;
+import static com.ncc.aif.ValidationReports.describeResults;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares the results of {@link CoreConstraintExecutors} with those of TopBraid's executors for the same components,
+ * on generated and crafted KBs, single-threaded and multi-threaded (where each focus node is scanned once for all
+ * supported constraints of a shape).
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class CoreConstraintExecutorsTest {
+    private static final String NS = "https://tac.nist.gov/tracks/SM-KBP/2019/LdcAnnotations#";
+    private static final List<Resource> COMPONENTS = Arrays.asList(SH.MinCountConstraintComponent,
+            SH.MaxCountConstraintComponent, SH.DatatypeConstraintComponent, SH.NodeKindConstraintComponent,
+            SH.ClosedConstraintComponent, SH.MinInclusiveConstraintComponent, SH.MaxInclusiveConstraintComponent,
+            SH.MaxLengthConstraintComponent);
+
+    @BeforeAll
+    static void initTest() {
+        // prevent too much logging from obscuring the Turtle examples which will be printed
+        ((Logger) org.slf4j.LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.INFO);
+    }
+
+    // Validates each KB with TopBraid's executors, then single- and multi-threaded with this package's executors
+    private void assertSameResults(ValidateAIF.Restriction restriction, List<Model> kbs) throws Exception {
+        List<Resource> expected = TopBraidExecutors.call(COMPONENTS, () -> {
+            ValidateAIF validator = ValidateAIF.createForLDCOntology(restriction);
+            List<Resource> reports = new ArrayList<>();
+            for (Model kb : kbs) {
+                reports.add(validator.validateKBAndReturnReport(kb));
+            }
+            return reports;
+        });
+
+        ValidateAIF validator = ValidateAIF.createForLDCOntology(restriction);
+        for (int threads : new int[] { 1, 4 }) {
+            validator.setThreadCount(threads);
+            for (int i = 0; i < kbs.size(); i++) {
+                ValidationReports.assertSameResults(expected.get(i), validator.validateKBAndReturnReport(kbs.get(i)),
+                        "KB " + i + " with " + threads + " threads");
+            }
+        }
+        validator.setThreadCount(1);
+    }
+
+    private static Model createModel() {
+        Model model = ModelFactory.createDefaultModel();
+        addStandardNamespaces(model);
+        return model;
+    }
+
+    // An entity that is valid in all respects (unless the restriction requires clusters)
+    private static Resource makeTypedEntity(Model model, String name, Resource system) {
+        Resource entity = makeEntity(model, NS + name, system);
+        markType(model, NS + name + "-type", entity, LDCOntology.PER, system, 1.0);
+        return entity;
+    }
+
+    @Test
+    void generatedKBs() throws Exception {
+        List<Model> kbs = Arrays.asList(
+                ScalingTest.generateModel(40, 15, true, 1),
+                ScalingTest.generateModel(40, 15, false, 2),
+                ScalingTest.generateModel(60, 20, false, 3));
+        assertSameResults(ValidateAIF.Restriction.NONE, kbs);
+        assertSameResults(ValidateAIF.Restriction.NIST, kbs);
+    }
+
+    @Test
+    void datatype() throws Exception {
+        Model model = createModel();
+        Resource system = makeSystemWithURI(model, NS + "system");
+        Resource entity = makeTypedEntity(model, "entity", system);
+        Resource[] confidences = new Resource[5];
+        for (int i = 0; i < confidences.length; i++) {
+            confidences[i] = model.createResource(CONFIDENCE_CLASS);
+            confidences[i].addProperty(SYSTEM_PROPERTY, system);
+            model.createResource(NS + "entity-link-" + i).addProperty(CONFIDENCE, confidences[i]);
+        }
+        // a valid double
+        confidences[0].addProperty(CONFIDENCE_VALUE, "0.5", XSDDatatype.XSDdouble);
+        // a valid lexical form, but the wrong datatype IRI
+        confidences[1].addProperty(CONFIDENCE_VALUE, "0.5", XSDDatatype.XSDfloat);
+        confidences[2].addProperty(CONFIDENCE_VALUE, "0.5", XSDDatatype.XSDdecimal);
+        // the right datatype IRI, but an invalid lexical form
+        confidences[3].addProperty(CONFIDENCE_VALUE, "high", XSDDatatype.XSDdouble);
+        // not a literal
+        confidences[4].addProperty(CONFIDENCE_VALUE, entity);
+
+        List<String> results = describeResults(ValidateAIF.createForLDCOntology(ValidateAIF.Restriction.NONE)
+                .validateKBAndReturnReport(model));
+        assertEquals(4, results.stream().filter(result -> result.contains("DatatypeConstraintComponent")).count());
+        assertSameResults(ValidateAIF.Restriction.NONE, Collections.singletonList(model));
+    }
+
+    @Test
+    void closedWithIgnoredProperties() throws Exception {
+        Model model = createModel();
+        Resource system = makeSystemWithURI(model, NS + "system");
+        // rdf:type is ignored, and sh:property paths are allowed
+        Resource entity = makeTypedEntity(model, "entity", system);
+        entity.addProperty(RDF.type, LDCOntology.PER);
+        markName(entity, "Name");
+        // other properties are not, once for each value
+        entity.addProperty(RDFS.label, "label");
+        entity.addProperty(RDFS.label, "other label");
+        entity.addProperty(RDFS.comment, model.createResource(NS + "comment"));
+        Resource relation = makeRelation(model, NS + "relation", system);
+        markType(model, NS + "relation-type", relation, LDCOntology.Evaluate_Sentiment_Positive, system, 1.0);
+        relation.addProperty(RDF.type, LDCOntology.Evaluate_Sentiment_Positive);
+        relation.addProperty(RDFS.seeAlso, entity);
+
+        List<String> results = describeResults(ValidateAIF.createForLDCOntology(ValidateAIF.Restriction.NONE)
+                .validateKBAndReturnReport(model));
+        assertEquals(4, results.stream().filter(result -> result.contains("ClosedConstraintComponent")).count());
+        assertSameResults(ValidateAIF.Restriction.NONE, Collections.singletonList(model));
+    }
+
+    @Test
+    void countsAndNodeKinds() throws Exception {
+        Model model = createModel();
+        Resource system = makeSystemWithURI(model, NS + "system");
+        makeTypedEntity(model, "entity", system);
+        // not an IRI
+        Resource blankEntity = model.createResource(ENTITY_CLASS);
+        blankEntity.addProperty(SYSTEM_PROPERTY, system);
+        markType(model, NS + "blank-type", blankEntity, LDCOntology.PER, system, 1.0);
+        // too few and too many confidence values
+        Resource noValue = model.createResource(CONFIDENCE_CLASS);
+        model.createResource(NS + "entity-link").addProperty(CONFIDENCE, noValue);
+        Resource twoValues = model.createResource(CONFIDENCE_CLASS);
+        twoValues.addLiteral(CONFIDENCE_VALUE, 0.5);
+        twoValues.addLiteral(CONFIDENCE_VALUE, 0.7);
+        model.createResource(NS + "entity-link-2").addProperty(CONFIDENCE, twoValues);
+        // a long name
+        markName(makeTypedEntity(model, "named", system), Strings.repeat("x", 300));
+
+        assertSameResults(ValidateAIF.Restriction.NONE, Collections.singletonList(model));
+        assertSameResults(ValidateAIF.Restriction.NIST, Collections.singletonList(model));
+    }
+
+    @Test
+    void rangesAndLengths() throws Exception {
+        // No AIF shape uses these components
+        Model shapes = ThreadedValidationEngineTest.parse("@prefix sh: <http://www.w3.org/ns/shacl#> .\n" +
+                "@prefix xsd: <http://www.w3.org/2001/XMLSchema#> .\n" +
+                "@prefix ex: <http://example.org/test#> .\n" +
+                "ex:ThingShape a sh:NodeShape ; sh:targetClass ex:Thing ;\n" +
+                "    sh:property [ sh:path ex:score ; sh:minInclusive 0 ; sh:maxInclusive 1.0 ] ;\n" +
+                "    sh:property [ sh:path ex:name ; sh:maxLength 5 ] .\n");
+        Model data = ThreadedValidationEngineTest.parse("@prefix xsd: <http://www.w3.org/2001/XMLSchema#> .\n" +
+                "@prefix ex: <http://example.org/test#> .\n" +
+                "ex:a a ex:Thing ; ex:score 0, 1.0, 0.5e0, \"0.5\"^^xsd:float ; ex:name \"short\", ex:a .\n" +
+                "ex:b a ex:Thing ; ex:score -1, 1.5, \"1\", ex:b, \"NaN\"^^xsd:double ; ex:name \"too long\", [] .\n" +
+                "ex:c a ex:Thing ; ex:score \"2019-01-01\"^^xsd:date ; ex:name 123456, \"ok\"@en, ex:c .\n");
+        List<String> expected = TopBraidExecutors.call(COMPONENTS, () ->
+                describeResults(ValidationUtil.validateModel(data, shapes, true)));
+        assertTrue(expected.size() > 5);
+        assertEquals(expected, describeResults(ValidationUtil.validateModel(data, shapes, true)));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            ThreadedValidationEngine engine = ThreadedValidationEngineTest.createEngine(data, shapes, -1);
+            assertEquals(expected, describeResults(engine.validateAll(executor)));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
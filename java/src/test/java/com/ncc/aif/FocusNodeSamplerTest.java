@@ -0,0 +1,156 @@
+package com.ncc.aif;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.vocabulary.RDF;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static com.ncc.aif.AidaAnnotationOntology.SOURCE_DOCUMENT;
+import static com.ncc.aif.AidaAnnotationOntology.SYSTEM_PROPERTY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the samples of {@link FocusNodeSampler} and the confidence intervals of their estimates.
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class FocusNodeSamplerTest {
+    private static final String NS = "http://example.org/test#";
+    private static final double Z = 1.959964;
+    private static final double DELTA = 1e-9;
+    // 3 types, 2 systems and 5 source documents, so 3, 6 and 30 strata at each level of detail
+    private static final int TYPES = 3;
+    private static final int SYSTEMS = 2;
+    private static final int DOCUMENTS = 5;
+    private static final int NODES = 300;
+
+    private final Model model = ModelFactory.createDefaultModel();
+    private final List<RDFNode> nodes = new ArrayList<>();
+
+    FocusNodeSamplerTest() {
+        for (int i = 0; i < NODES; i++) {
+            // independent of system and document, and the first type is as common as the others together
+            int type = i / (SYSTEMS * DOCUMENTS) % (TYPES + 1) % TYPES;
+            Resource node = model.createResource(NS + "node-" + i, model.createResource(NS + "Type-" + type));
+            node.addProperty(SYSTEM_PROPERTY, model.createResource(NS + "system-" + i % SYSTEMS));
+            node.addProperty(SOURCE_DOCUMENT, "document-" + i % DOCUMENTS);
+            nodes.add(node);
+        }
+    }
+
+    private FocusNodeSampler.Sample sample(long seed, List<RDFNode> focusNodes, int size) {
+        return new FocusNodeSampler(seed).sample("ThingShape", focusNodes, size, model);
+    }
+
+    @Nested
+    class Sampling {
+        @Test
+        void sameSeedSameSample() {
+            List<RDFNode> shuffled = new ArrayList<>(nodes);
+            Collections.shuffle(shuffled, new Random(1));
+            // regardless of the order of the focus nodes
+            assertEquals(sample(7, nodes, 40).getNodes(), sample(7, shuffled, 40).getNodes());
+            assertNotEquals(new HashSet<>(sample(7, nodes, 40).getNodes()),
+                    new HashSet<>(sample(8, nodes, 40).getNodes()));
+        }
+
+        @Test
+        void allocationSumsToSize() {
+            for (int size : new int[] { 1, 2, 3, 5, 6, 7, 29, 30, 31, 100, NODES - 1 }) {
+                FocusNodeSampler.Sample sample = sample(1, nodes, size);
+                List<RDFNode> sampled = sample.getNodes();
+                assertEquals(size, sampled.size(), "size " + size);
+                assertEquals(size, new HashSet<>(sampled).size(), "distinct nodes of size " + size);
+                FocusNodeSampler.Estimate estimate = sample.estimate();
+                assertEquals(size, estimate.getSampleSize());
+                assertEquals(NODES, estimate.getPopulationSize());
+                // the most detailed strata that can each be sampled
+                int strata = size >= TYPES * SYSTEMS * DOCUMENTS ? TYPES * SYSTEMS * DOCUMENTS :
+                        size >= TYPES * SYSTEMS ? TYPES * SYSTEMS : size >= TYPES ? TYPES : 1;
+                assertEquals(strata, estimate.getStrataCount(), "strata of size " + size);
+            }
+        }
+
+        @Test
+        void allocationIsProportional() {
+            // half of the nodes are of the first type, so they get half of the sample once each stratum has one node
+            long first = sample(1, nodes, 60).getNodes().stream()
+                    .filter(node -> node.asResource().hasProperty(RDF.type, model.createResource(NS + "Type-0")))
+                    .count();
+            assertEquals(30, first);
+        }
+
+        @Test
+        void exactSample() {
+            List<RDFNode> few = nodes.subList(0, 10);
+            assertEquals(few, sample(1, few, 10).getNodes());
+            assertEquals(1, sample(1, few, 20).estimate().getStrataCount());
+        }
+
+        @Test
+        void sizeLessThanOne() {
+            assertThrows(IllegalArgumentException.class, () -> sample(1, nodes, 0));
+            assertThrows(IllegalArgumentException.class, () -> sample(1, nodes.subList(0, 0), 0));
+        }
+    }
+
+    @Nested
+    class WilsonBounds {
+        // Samples n of the focus nodes, and marks the first violating ones of the sample as violating
+        private FocusNodeSampler.Estimate estimate(List<RDFNode> focusNodes, int n, int violating) {
+            FocusNodeSampler.Sample sample = sample(1, focusNodes, n);
+            sample.getNodes().stream().limit(violating).forEach(sample::addViolation);
+            FocusNodeSampler.Estimate estimate = sample.estimate();
+            assertEquals(violating, estimate.getViolatingCount());
+            return estimate;
+        }
+
+        @Test
+        void noViolations() {
+            FocusNodeSampler.Estimate estimate = estimate(nodes, 2, 0);
+            assertEquals(1, estimate.getStrataCount());
+            assertEquals(0, estimate.getRate(), DELTA);
+            assertEquals(0, estimate.getLowerBound(), DELTA);
+            // Z^2 / (n + Z^2), rather than a zero width interval
+            assertEquals(Z * Z / (2 + Z * Z), estimate.getUpperBound(), DELTA);
+        }
+
+        @Test
+        void allViolating() {
+            FocusNodeSampler.Estimate estimate = estimate(nodes, 2, 2);
+            assertEquals(1, estimate.getRate(), DELTA);
+            assertEquals(2 / (2 + Z * Z), estimate.getLowerBound(), DELTA);
+            assertEquals(1, estimate.getUpperBound(), DELTA);
+        }
+
+        @Test
+        void someViolating() {
+            FocusNodeSampler.Estimate estimate = estimate(nodes, 60, 15);
+            assertTrue(estimate.getLowerBound() > 0 && estimate.getLowerBound() < estimate.getRate());
+            assertTrue(estimate.getUpperBound() < 1 && estimate.getUpperBound() > estimate.getRate());
+        }
+
+        @Test
+        void exactSample() {
+            for (int violating : new int[] { 0, 4, 10 }) {
+                FocusNodeSampler.Estimate estimate = estimate(nodes.subList(0, 10), 10, violating);
+                assertEquals(violating / 10.0, estimate.getRate(), DELTA);
+                assertEquals(estimate.getRate(), estimate.getLowerBound(), DELTA);
+                assertEquals(estimate.getRate(), estimate.getUpperBound(), DELTA);
+            }
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.ncc.aif;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.vocabulary.RDF;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.topbraid.shacl.validation.ValidationEngineConfiguration;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that {@link InverseIndexedGraph} answers inverse lookups from its {@link InversePropertyIndex} as the wrapped
+ * graph does, and that {@link ThreadedValidationEngine} only installs the index for the duration of a run.
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class InverseIndexedGraphTest {
+    private static final String NS = "http://example.org/test#";
+    private static final Node UNKNOWN = NodeFactory.createURI(NS + "unknown");
+
+    @BeforeAll
+    void initTest() {
+        // prevent too much logging from the validations
+        ((Logger) org.slf4j.LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.INFO);
+    }
+
+    // A KB with literal objects of an indexed property, some of which are equal by value but not by term
+    private static Model createModel() {
+        Model model = ModelFactory.createDefaultModel().add(ScalingTest.generateModel(20, 8, false, 2));
+        Resource statement = model.createResource(NS + "statement");
+        model.add(statement, RDF.subject, model.createTypedLiteral("1", XSDDatatype.XSDinteger));
+        model.add(model.createResource(NS + "other"), RDF.subject, model.createTypedLiteral("01",
+                XSDDatatype.XSDinteger));
+        model.add(statement, RDF.subject, "name");
+        return model;
+    }
+
+    private static Set<Triple> find(Graph graph, Node s, Node p, Node o) {
+        return new HashSet<>(graph.find(s, p, o).toList());
+    }
+
+    // The objects of property in graph, and a few that are not, including literals equal by value to some that are
+    private static Set<Node> getObjects(Graph graph, Node property) {
+        Set<Node> objects = new LinkedHashSet<>();
+        graph.find(Node.ANY, property, Node.ANY).forEachRemaining(triple -> objects.add(triple.getObject()));
+        objects.add(UNKNOWN);
+        objects.add(NodeFactory.createLiteral("1", XSDDatatype.XSDint));
+        objects.add(NodeFactory.createLiteral("unknown"));
+        return objects;
+    }
+
+    @Nested
+    class Index {
+        @Test
+        void subjects() {
+            Model model = createModel();
+            InversePropertyIndex index = InversePropertyIndex.of(model.getGraph(),
+                    InversePropertyIndex.AIF_PROPERTIES);
+            int size = 0;
+            for (Node property : InversePropertyIndex.AIF_PROPERTIES) {
+                assertTrue(index.isIndexed(property));
+                for (Node object : getObjects(model.getGraph(), property)) {
+                    // in the order in which the triples of the property are listed
+                    List<Node> expected = new ArrayList<>();
+                    model.getGraph().find(Node.ANY, property, Node.ANY).forEachRemaining(triple -> {
+                        if (triple.getObject().equals(object)) {
+                            expected.add(triple.getSubject());
+                        }
+                    });
+                    assertEquals(expected, index.getSubjects(property, object), property + " " + object);
+                }
+                size += model.getGraph().find(Node.ANY, property, Node.ANY).toList().size();
+            }
+            assertTrue(size > 0);
+            assertEquals(size, index.size());
+            assertFalse(index.isIndexed(RDF.type.asNode()));
+            assertNull(index.getSubjects(RDF.type.asNode(), UNKNOWN));
+        }
+    }
+
+    @Nested
+    class Lookups {
+        // Asserts that every lookup of each property gives the same triples whether or not the index is installed
+        private void assertSameLookups(Model model, List<Node> properties) {
+            InverseIndexedGraph graph = new InverseIndexedGraph(model.getGraph());
+            graph.setIndex(InversePropertyIndex.of(model.getGraph(), InversePropertyIndex.AIF_PROPERTIES));
+            for (Node property : properties) {
+                for (Node object : getObjects(model.getGraph(), property)) {
+                    String description = property + " " + object;
+                    assertEquals(find(model.getGraph(), Node.ANY, property, object),
+                            find(graph, Node.ANY, property, object), description);
+                    assertEquals(find(model.getGraph(), null, property, object), find(graph, null, property, object),
+                            description);
+                    assertEquals(model.getGraph().contains(Node.ANY, property, object),
+                            graph.contains(Node.ANY, property, object), description);
+                    assertEquals(model.getGraph().contains(Triple.createMatch(null, property, object)),
+                            graph.contains(Triple.createMatch(null, property, object)), description);
+                }
+                assertEquals(find(model.getGraph(), Node.ANY, property, Node.ANY),
+                        find(graph, Node.ANY, property, Node.ANY), property.toString());
+            }
+        }
+
+        @Test
+        void indexedProperties() {
+            Model model = createModel();
+            assertSameLookups(model, InversePropertyIndex.AIF_PROPERTIES);
+            // the literals are only found by the wrapped graph
+            InverseIndexedGraph graph = new InverseIndexedGraph(model.getGraph());
+            graph.setIndex(InversePropertyIndex.of(model.getGraph(), InversePropertyIndex.AIF_PROPERTIES));
+            assertNull(graph.getSubjects(RDF.subject.asNode(), NodeFactory.createLiteral("name")));
+            assertEquals(new ArrayList<>(), graph.getSubjects(RDF.subject.asNode(), UNKNOWN));
+        }
+
+        @Test
+        void otherProperties() {
+            Model model = createModel();
+            List<Node> properties = new ArrayList<>();
+            model.listStatements().forEachRemaining(statement -> {
+                if (!properties.contains(statement.getPredicate().asNode())) {
+                    properties.add(statement.getPredicate().asNode());
+                }
+            });
+            assertSameLookups(model, properties);
+        }
+
+        @Test
+        void unionGraph() {
+            // as when a KB is validated with its ontologies
+            Model ontology = ModelFactory.createDefaultModel();
+            Model model = createModel();
+            Resource cluster = model.listSubjectsWithProperty(AidaAnnotationOntology.PROTOTYPE).next();
+            ontology.add(ontology.createResource(NS + "member"), AidaAnnotationOntology.CLUSTER_PROPERTY, cluster);
+            assertSameLookups(ModelFactory.createUnion(model, ontology), InversePropertyIndex.AIF_PROPERTIES);
+        }
+    }
+
+    @Nested
+    class Engine {
+        // Counts the shapes started while the index was installed
+        private class IndexedCounter extends ThreadedProgressMonitor {
+            private final InverseIndexedGraph graph;
+            private final AtomicInteger indexed = new AtomicInteger();
+
+            IndexedCounter(InverseIndexedGraph graph) {
+                this.graph = graph;
+            }
+
+            @Override
+            void shapeStarted(Resource shape, long evaluations, int constraintTasks) {
+                super.shapeStarted(shape, evaluations, constraintTasks);
+                if (graph.getSubjects(RDF.subject.asNode(), UNKNOWN) != null) {
+                    indexed.incrementAndGet();
+                }
+            }
+        }
+
+        private ThreadedValidationEngine createEngine(int abortThreshold) {
+            Model shapes = ModelFactory.createDefaultModel();
+            for (String resourceName : new String[] { "aida_ontology.shacl", "restricted_aif.shacl" }) {
+                ValidateAIF.loadModel(shapes, Resources.asCharSource(Resources.getResource("com/ncc/aif/" +
+                        resourceName), Charsets.UTF_8));
+            }
+            return ThreadedValidationEngine.createValidationEngine(ScalingTest.generateModel(20, 8, false, 2), shapes,
+                    new ValidationEngineConfiguration().setValidationErrorBatch(abortThreshold));
+        }
+
+        @Test
+        void uninstalledAfterRun() throws InterruptedException, ExecutionException {
+            ExecutorService executor = Executors.newFixedThreadPool(2);
+            try {
+                for (int abortThreshold : new int[] { -1, 1 }) {
+                    ThreadedValidationEngine engine = createEngine(abortThreshold);
+                    InverseIndexedGraph graph = (InverseIndexedGraph) engine.getDataset().getDefaultModel()
+                            .getGraph();
+                    IndexedCounter counter = new IndexedCounter(graph);
+                    engine.setProgressMonitor(counter);
+                    assertNull(graph.getSubjects(RDF.subject.asNode(), UNKNOWN));
+
+                    engine.validateAll(executor);
+                    assertTrue(counter.indexed.get() > 0, "abort threshold " + abortThreshold);
+                    assertNull(graph.getSubjects(RDF.subject.asNode(), UNKNOWN), "abort threshold " + abortThreshold);
+                    assertFalse(engine.validateConformance(executor));
+                    assertNull(graph.getSubjects(RDF.subject.asNode(), UNKNOWN), "abort threshold " + abortThreshold);
+                }
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.ncc.aif;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that {@link ParallelTurtleLoader} loads the same triples as {@link RDFDataMgr#read} does on a single thread,
+ * whether a file can be split at its statement boundaries or has to be parsed again on a single thread.
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class ParallelTurtleLoaderTest {
+    private static final String BASE = "urn:x-base";
+    private static final String HEADER = "@prefix ex: <http://example.org/test#> .\n" +
+            "@prefix xsd: <http://www.w3.org/2001/XMLSchema#> .\n\n";
+    private static final int STATEMENTS = 200;
+    // Small files are split into many chunks
+    private static final long CHUNK_SIZE = 256;
+
+    @TempDir
+    File directory;
+
+    @BeforeAll
+    void initTest() {
+        // prevent too much logging from obscuring the Turtle examples which will be printed
+        ((Logger) org.slf4j.LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.INFO);
+    }
+
+    /**
+     * Writes a file of the header and STATEMENTS statements, separated by blank lines as Jena writes them. The first
+     * half are plain statements with an anonymous blank node, which would be duplicated if their chunks were added
+     * again, and the second half are created by <code>statement</code>.
+     */
+    private File write(String name, IntFunction<String> statement) throws IOException {
+        StringBuilder turtle = new StringBuilder(HEADER);
+        for (int i = 0; i < STATEMENTS; i++) {
+            turtle.append(i < STATEMENTS / 2 ?
+                    "ex:thing-" + i + " a ex:Thing ;\n    ex:friend [ ex:index " + i + " ] ." :
+                    statement.apply(i)).append("\n\n");
+        }
+        File file = new File(directory, name);
+        Files.asCharSink(file, Charsets.UTF_8).write(turtle);
+        return file;
+    }
+
+    /**
+     * Loads <code>file</code> with <code>threads</code> threads, asserts that its triples are isomorphic to those read
+     * by {@link RDFDataMgr} and that it has the same prefixes, and returns whether it was parsed on multiple threads.
+     */
+    private boolean assertSameTriples(File file, int threads) throws IOException {
+        Model expected = ModelFactory.createDefaultModel();
+        try (InputStream in = new FileInputStream(file)) {
+            RDFDataMgr.read(expected, in, BASE, Lang.TURTLE);
+        }
+        Model model = ModelFactory.createDefaultModel();
+        boolean parallel = new ParallelTurtleLoader(threads, CHUNK_SIZE).load(model, file);
+        assertEquals(expected.size(), model.size());
+        assertTrue(expected.isIsomorphicWith(model));
+        assertEquals(expected.getNsPrefixMap(), model.getNsPrefixMap());
+        return parallel;
+    }
+
+    @Test
+    void statementBoundaries() throws IOException {
+        // blank node labels are shared by all chunks
+        File file = write("boundaries.ttl", i -> "ex:thing-" + i + " a ex:Thing ;\n" +
+                "    ex:name \"Thing " + i + "\" ;\n" +
+                "    ex:score \"" + i + "\"^^xsd:integer ;\n" +
+                "    ex:friend _:b" + (i * 7 % STATEMENTS) + " , [ ex:name \"anonymous\" ] .\n\n" +
+                "_:b" + i + " ex:index " + i + " .");
+        assertTrue(assertSameTriples(file, 4));
+    }
+
+    @Test
+    void prefixAfterHeader() throws IOException {
+        File file = write("prefix.ttl", i -> (i == STATEMENTS / 2 ? "@prefix ex2: <http://example.org/other#> .\n\n" :
+                "") + "ex:thing-" + i + " a ex:Thing ;\n    ex2:alias ex2:alias-" + i + " ;\n" +
+                "    ex:friend [ ex:index " + i + " ] .");
+        assertFalse(assertSameTriples(file, 4));
+    }
+
+    @Test
+    void baseAfterHeader() throws IOException {
+        File file = write("base.ttl", i -> (i == STATEMENTS / 2 ? "@base <http://example.org/base/> .\n\n" : "") +
+                "<thing-" + i + "> a ex:Thing ;\n    ex:friend [ ex:index " + i + " ] .");
+        assertFalse(assertSameTriples(file, 4));
+    }
+
+    @Test
+    void multiLineLiterals() throws IOException {
+        // each literal looks like the end of a statement followed by the start of another
+        File file = write("literals.ttl", i -> "ex:thing-" + i + " a ex:Thing ;\n" +
+                "    ex:description \"\"\"Thing " + i + " ends here .\n\n" +
+                "ex:not-a-thing-" + i + " a ex:Thing .\n\n" +
+                "and goes on\"\"\" .");
+        assertFalse(assertSameTriples(file, 4));
+    }
+
+    @Test
+    void blankNodePropertyLists() throws IOException {
+        // each property list contains what looks like the end of a statement followed by the start of another
+        File file = write("lists.ttl", i -> "ex:thing-" + i + " a ex:Thing ;\n" +
+                "    ex:friend [\n" +
+                "        ex:name \"Friend " + i + "\" ; # a friend .\n\n" +
+                "ex:index " + i + " ] .");
+        assertFalse(assertSameTriples(file, 4));
+    }
+
+    @Test
+    void singleThreaded() throws IOException {
+        File file = write("single.ttl", i -> "ex:thing-" + i + " a ex:Thing ;\n" +
+                "    ex:friend [ ex:name \"Friend " + i + "\" ] .");
+        assertFalse(assertSameTriples(file, 1));
+        // the same file is split with more threads
+        assertTrue(assertSameTriples(file, 4));
+    }
+
+    @Test
+    void modelWithTriples() throws IOException {
+        File file = write("existing.ttl", i -> "ex:thing-" + i + " ex:friend [ ex:name \"Friend " + i + "\" ] .");
+        // which is parsed again on a single thread
+        File broken = write("existing-broken.ttl", i -> (i == STATEMENTS / 2 ?
+                "@prefix ex2: <http://example.org/other#> .\n\n" : "") + "ex2:thing-" + i + " ex:index " + i + " .");
+        for (File loaded : new File[] { file, broken }) {
+            Model model = ModelFactory.createDefaultModel();
+            model.createResource("http://example.org/test#existing").addProperty(model.createProperty(
+                    "http://example.org/test#name"), "Existing");
+            Model expected = ModelFactory.createDefaultModel().add(model);
+            try (InputStream in = new FileInputStream(loaded)) {
+                RDFDataMgr.read(expected, in, BASE, Lang.TURTLE);
+            }
+            // the triples of a failed parallel parse are removed, but not those that were there before
+            assertEquals(loaded == file, new ParallelTurtleLoader(4, CHUNK_SIZE).load(model, loaded));
+            assertTrue(expected.isIsomorphicWith(model), loaded.getName());
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.ncc.aif;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static com.ncc.aif.AidaAnnotationOntology.*;
+import static com.ncc.aif.ValidationReports.describeResults;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that {@link ValidateAIF#revalidateKBAndReturnReport(Model, Resource, Model)} gives the same results as a full
+ * validation of the changed KB, for different kinds of changes to generated KBs.
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class RevalidationTest {
+    private ValidateAIF validator;
+    private List<Model> kbs;
+
+    @BeforeAll
+    void initTest() {
+        // prevent too much logging from obscuring the Turtle examples which will be printed
+        ((Logger) org.slf4j.LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.INFO);
+        validator = ValidateAIF.createForLDCOntology(ValidateAIF.Restriction.NIST);
+        kbs = Arrays.asList(ScalingTest.generateModel(30, 10, true, 1), ScalingTest.generateModel(30, 10, false, 2));
+    }
+
+    /**
+     * Applies <code>change</code> to a copy of each KB, and asserts that re-validating the copy gives the same
+     * results as validating it, single- and multi-threaded.
+     *
+     * @param incremental whether only the affected focus nodes should have been re-validated, rather than the KB
+     */
+    private void assertSameResults(Consumer<Model> change, boolean incremental) {
+        for (int i = 0; i < kbs.size(); i++) {
+            Model previous = kbs.get(i);
+            Model current = ModelFactory.createDefaultModel().add(previous);
+            change.accept(current);
+            for (int threads : new int[] { 1, 4 }) {
+                String description = "KB " + i + " with " + threads + " threads";
+                validator.setThreadCount(threads);
+                Resource previousReport = validator.validateKBAndReturnReport(previous);
+                Resource expected = validator.validateKBAndReturnReport(current);
+                assertNotEquals(describeResults(previousReport), describeResults(expected), description);
+                Resource report = validator.revalidateKBAndReturnReport(previous, previousReport, current);
+                ValidationReports.assertSameResults(expected, report, description);
+                // an incremental re-validation updates the previous report
+                assertEquals(incremental, report.asNode().equals(previousReport.asNode()), description);
+            }
+        }
+        validator.setThreadCount(1);
+    }
+
+    // The subjects of type, in a stable order
+    private static List<Resource> listInstances(Model model, Resource type) {
+        return model.listSubjectsWithProperty(RDF.type, type).toList().stream()
+                .sorted(Comparator.comparing(Resource::toString)).collect(Collectors.toList());
+    }
+
+    private static Resource getTypeAssertion(Model model, Resource subject) {
+        return model.listSubjectsWithProperty(RDF.subject, subject).toList().stream()
+                .filter(assertion -> assertion.hasProperty(RDF.predicate, RDF.type))
+                .findFirst().orElseThrow(IllegalStateException::new);
+    }
+
+    @Test
+    void addedType() {
+        // the entity becomes the target of the event and relation shapes, too
+        assertSameResults(model -> listInstances(model, ENTITY_CLASS).get(0).addProperty(RDF.type, RELATION_CLASS),
+                true);
+    }
+
+    @Test
+    void removedClusterMembership() {
+        assertSameResults(model -> {
+            Resource entity = listInstances(model, ENTITY_CLASS).get(0);
+            List<Resource> memberships = model.listSubjectsWithProperty(CLUSTER_MEMBER, entity).toList();
+            assertFalse(memberships.isEmpty());
+            memberships.forEach(membership -> model.removeAll(membership, null, null));
+        }, true);
+    }
+
+    @Test
+    void changedSubject() {
+        // the first entity loses its type, and the second gets another one
+        assertSameResults(model -> {
+            List<Resource> entities = listInstances(model, ENTITY_CLASS);
+            Resource assertion = getTypeAssertion(model, entities.get(0));
+            assertion.removeAll(RDF.subject);
+            assertion.addProperty(RDF.subject, entities.get(1));
+        }, true);
+    }
+
+    @Test
+    void changedLiteral() {
+        // out of range
+        assertSameResults(model -> {
+            Statement value = getTypeAssertion(model, listInstances(model, ENTITY_CLASS).get(0))
+                    .getPropertyResourceValue(CONFIDENCE).getProperty(CONFIDENCE_VALUE);
+            value.changeLiteralObject(1.5);
+        }, true);
+    }
+
+    @Test
+    void changedClassHierarchy() {
+        // The hierarchy is indexed once per validation, so the KB is validated again
+        assertSameResults(model -> {
+            Resource entity = listInstances(model, ENTITY_CLASS).get(0);
+            RDFNode type = getTypeAssertion(model, entity).getProperty(RDF.object).getObject();
+            model.add(type.asResource(), RDFS.subClassOf, LDCOntology.Conflict_Attack);
+            // so that results are different
+            entity.addProperty(RDF.type, RELATION_CLASS);
+        }, false);
+    }
+
+    @Test
+    void abortedPreviousValidation() {
+        ValidateAIF aborting = ValidateAIF.createForLDCOntology(ValidateAIF.Restriction.NIST);
+        aborting.setAbortThreshold(1);
+        // multi-threaded validations mark reports as aborted
+        aborting.setThreadCount(2);
+        Model previous = kbs.get(1);
+        Resource previousReport = aborting.validateKBAndReturnReport(previous);
+        aborting.setThreadCount(1);
+        assertTrue(previousReport.hasProperty(ThreadedValidationEngine.SH_ABORTED));
+
+        Model current = ModelFactory.createDefaultModel().add(previous);
+        listInstances(current, ENTITY_CLASS).get(0).addProperty(RDF.type, RELATION_CLASS);
+        for (int threads : new int[] { 1, 4 }) {
+            validator.setThreadCount(threads);
+            Resource report = validator.revalidateKBAndReturnReport(previous, previousReport, current);
+            ValidationReports.assertSameResults(validator.validateKBAndReturnReport(current), report,
+                    threads + " threads");
+            assertNotEquals(previousReport.asNode(), report.asNode());
+        }
+        validator.setThreadCount(1);
+    }
+}
@@ -252,7 +252,39 @@ public class ScalingTest {
         System.out.println(" Size of output (mb): " + size + "  Time (sec): " + duration);
     }
 
+    /**
+     * Generates a KB with the specified number of entities and events in memory, e.g., for tests that need a KB with
+     * every kind of content that this class generates. The same seed always generates the same KB.
+     *
+     * @param entityCount number of entities
+     * @param eventCount  number of events and relations
+     * @param valid       whether to generate a valid KB, or one that violates the NIST restrictions
+     * @param seed        seed of the random choices
+     * @return the generated KB
+     */
+    static Model generateModel(int entityCount, int eventCount, boolean valid, long seed) {
+        ScalingTest scalingTest = new ScalingTest();
+        scalingTest.entityCount = entityCount;
+        scalingTest.eventCount = eventCount;
+        scalingTest.generateValidModel = valid;
+        scalingTest.r.setSeed(seed);
+        scalingTest.populateModel();
+        return scalingTest.model;
+    }
+
     private void runOneTest() {
+        populateModel();
+
+        int numStatements = 0;
+        StmtIterator statementIterator = model.listStatements();
+        while (statementIterator.hasNext()) {
+            statementIterator.nextStatement();
+            numStatements++;
+        }
+        System.out.print(" NumberStatements: " + numStatements);
+    }
+
+    private void populateModel() {
         createModel();
         system = makeSystemWithURI(model, getTestSystemUri());
 
@@ -263,14 +295,6 @@ public class ScalingTest {
         for (int ii = 0; ii < eventCount; ii++) {
             addEventOrRelation();
         }
-
-        int numStatements = 0;
-        StmtIterator statementIterator = model.listStatements();
-        while (statementIterator.hasNext()) {
-            statementIterator.nextStatement();
-            numStatements++;
-        }
-        System.out.print(" NumberStatements: " + numStatements);
     }
 
     private void addEntity() {
@@ -444,8 +468,6 @@ public class ScalingTest {
         return (generateValidModel || r.nextDouble() > restriction.frequency());
     }
 
-    private final ValidateAIF ldcValidator = ValidateAIF.createForLDCOntology(ValidateAIF.Restriction.NIST);
-
     // we dump the test name and the model in Turtle format so that whenever the user
     // runs the tests, they will also get the examples
     private void dumpAndAssertValid() {
@@ -453,6 +475,7 @@ public class ScalingTest {
             RDFDataMgr.write(Files.newOutputStream(Paths.get(filename)), model, RDFFormat.TURTLE_PRETTY);
             if (performValidation) {
                 System.out.println("\nDoing validation.  Validation errors (if any) follow:");
+                final ValidateAIF ldcValidator = ValidateAIF.createForLDCOntology(ValidateAIF.Restriction.NIST);
                 final Resource report = ldcValidator.validateKBAndReturnReport(model);
                 if (!ValidateAIF.isValidReport(report)) {
                     RDFDataMgr.write(System.err, report.getModel(), RDFFormat.TURTLE_PRETTY);
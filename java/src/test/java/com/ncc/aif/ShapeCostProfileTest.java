@@ -0,0 +1,259 @@
+package com.ncc.aif;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.ResourceFactory;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.junit.jupiter.api.io.TempDir;
+import org.topbraid.shacl.engine.Constraint;
+import org.topbraid.shacl.engine.Shape;
+import org.topbraid.shacl.vocabulary.SH;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the keys of the shapes and constraints in a {@link ShapeCostProfile}, how its estimates are updated, saved and
+ * loaded, and the order in which {@link ThreadedValidationEngine} submits shapes with it.
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class ShapeCostProfileTest {
+    private static final String AIF_ROOT = "com/ncc/aif/";
+    private static final String NS = "http://example.org/test#";
+    // Two shapes that each require an ex:name of each ex:Thing
+    private static final String SHAPES = "@prefix sh: <http://www.w3.org/ns/shacl#> .\n" +
+            "@prefix ex: <" + NS + "> .\n" +
+            "ex:CheapShape a sh:NodeShape ; sh:targetClass ex:Thing ;\n" +
+            "    sh:property [ sh:path ex:name ; sh:minCount 1 ] .\n" +
+            "ex:CostlyShape a sh:NodeShape ; sh:targetClass ex:Thing ;\n" +
+            "    sh:property [ sh:path ex:name ; sh:maxCount 1 ] .\n";
+    private static final Resource CHEAP_SHAPE = ResourceFactory.createResource(NS + "CheapShape");
+    private static final Resource COSTLY_SHAPE = ResourceFactory.createResource(NS + "CostlyShape");
+    private static final double DELTA = 1e-9;
+
+    private static PreparedShapesGraph loadShapes() {
+        Model model = ModelFactory.createDefaultModel();
+        for (String resourceName : new String[] { "aida_ontology.shacl", "restricted_aif.shacl",
+                "restricted_hypothesis_aif.shacl" }) {
+            ValidateAIF.loadModel(model, Resources.asCharSource(Resources.getResource(AIF_ROOT + resourceName),
+                    Charsets.UTF_8));
+        }
+        return PreparedShapesGraph.of(model);
+    }
+
+    // Keys of every constraint of every root shape
+    private static List<String> getConstraintKeys(PreparedShapesGraph shapes) {
+        List<String> keys = new ArrayList<>();
+        for (Shape shape : shapes.getShapesGraph().getRootShapes()) {
+            for (Constraint constraint : shapes.getSnapshot().getConstraints(shape.getShapeResource().asNode())) {
+                keys.add(ShapeCostProfile.getConstraintKey(shape.getShapeResource(), constraint));
+            }
+        }
+        return keys;
+    }
+
+    // Metadata of a shape task with a single constraint task of the specified duration and focus nodes
+    private static ThreadedValidationEngine.ShapeTaskMetadata createMetadata(Resource shape, String costKey,
+                                                                            long duration, int focusNodeCount) {
+        ThreadedValidationEngine.ShapeTaskMetadata smd = new ThreadedValidationEngine.ShapeTaskMetadata(
+                ThreadedValidationEngine.ShapeTaskMetadata.getName(shape), "main");
+        smd.shapeResource = shape;
+        ThreadedValidationEngine.ConstraintTaskMetadata cmd =
+                new ThreadedValidationEngine.ConstraintTaskMetadata("main", costKey, duration, null, 0);
+        cmd.costKey = costKey;
+        cmd.focusNodeCount = focusNodeCount;
+        smd.add(cmd);
+        return smd;
+    }
+
+    @Nested
+    class ConstraintKeys {
+        @Test
+        void distinct() {
+            List<String> keys = getConstraintKeys(loadShapes());
+            Map<String, Long> counts = keys.stream()
+                    .collect(Collectors.groupingBy(key -> key, HashMap::new, Collectors.counting()));
+            counts.values().removeIf(count -> count == 1);
+            assertEquals(new HashMap<>(), counts, "keys shared by several constraints");
+        }
+
+        @Test
+        void anonymousConstraints() {
+            // aida:SystemShape has two anonymous sh:sparql constraints
+            PreparedShapesGraph shapes = loadShapes();
+            Resource systemShape = shapes.getShapesGraph().getShape(ShaclShapes.SystemShape.asNode())
+                    .getShapeResource();
+            List<String> keys = shapes.getSnapshot().getConstraints(systemShape.asNode()).stream()
+                    .filter(constraint -> SH.SPARQLConstraintComponent.equals(constraint.getComponent()))
+                    .map(constraint -> ShapeCostProfile.getConstraintKey(systemShape, constraint))
+                    .distinct()
+                    .collect(Collectors.toList());
+            assertEquals(2, keys.size());
+            keys.forEach(key -> assertTrue(key.startsWith(systemShape.getURI() + " "), key));
+        }
+
+        @Test
+        void stableAcrossRuns() {
+            // blank nodes are parsed again, so only their descriptions are the same
+            List<String> keys = getConstraintKeys(loadShapes());
+            List<String> reloaded = getConstraintKeys(loadShapes());
+            Collections.sort(keys);
+            Collections.sort(reloaded);
+            assertEquals(keys, reloaded);
+        }
+    }
+
+    @Nested
+    class Estimates {
+        @Test
+        void unknown() {
+            ShapeCostProfile profile = new ShapeCostProfile();
+            assertEquals(Double.POSITIVE_INFINITY, profile.estimateShape(CHEAP_SHAPE));
+            assertEquals(Double.POSITIVE_INFINITY, profile.estimateConstraint("constraint", 10));
+        }
+
+        @Test
+        void update() {
+            ShapeCostProfile profile = new ShapeCostProfile();
+            profile.update(createMetadata(CHEAP_SHAPE, "constraint", 100, 10), 10);
+            assertEquals(100, profile.estimateShape(CHEAP_SHAPE), DELTA);
+            assertEquals(10, profile.estimateConstraint("constraint", 1), DELTA);
+
+            // half of the previous cost per node and half of the latest, times the latest number of target nodes
+            profile.update(createMetadata(CHEAP_SHAPE, "constraint", 300, 20), 20);
+            assertEquals((10 + 15) / 2.0 * 20, profile.estimateShape(CHEAP_SHAPE), DELTA);
+            assertEquals((10 + 15) / 2.0 * 3, profile.estimateConstraint("constraint", 3), DELTA);
+
+            // neither ignored shapes nor shapes without validated target nodes
+            ThreadedValidationEngine.ShapeTaskMetadata ignored = createMetadata(COSTLY_SHAPE, "ignored", 100, 10);
+            ignored.ignored = true;
+            profile.update(ignored, 10);
+            profile.update(createMetadata(COSTLY_SHAPE, "empty", 100, 10), 0);
+            assertEquals(Double.POSITIVE_INFINITY, profile.estimateShape(COSTLY_SHAPE));
+            assertEquals(Double.POSITIVE_INFINITY, profile.estimateConstraint("ignored", 1));
+            assertEquals(Double.POSITIVE_INFINITY, profile.estimateConstraint("empty", 1));
+        }
+
+        @Test
+        void saveAndLoad(@TempDir Path directory) throws IOException, InterruptedException, ExecutionException {
+            Path file = directory.resolve("profile.properties");
+            ShapeCostProfile empty = ShapeCostProfile.load(file);
+            assertEquals(Double.POSITIVE_INFINITY, empty.estimateShape(CHEAP_SHAPE));
+
+            // the costs of a validation
+            Model shapesModel = ThreadedValidationEngineTest.parse(SHAPES);
+            ShapeCostProfile profile = new ShapeCostProfile();
+            ThreadedValidationEngine engine = ThreadedValidationEngineTest.createEngine(
+                    ThreadedValidationEngineTest.createThings(50, 25), shapesModel, -1);
+            engine.setCostProfile(profile);
+            ExecutorService executor = Executors.newFixedThreadPool(2);
+            try {
+                engine.validateAll(executor);
+            } finally {
+                executor.shutdown();
+            }
+            profile.update(createMetadata(CHEAP_SHAPE, "constraint", 7, 3), 3);
+            profile.save(file);
+
+            ShapeCostProfile loaded = ShapeCostProfile.load(file);
+            PreparedShapesGraph shapes = PreparedShapesGraph.of(shapesModel);
+            List<String> keys = getConstraintKeys(shapes);
+            keys.add("constraint");
+            for (String key : keys) {
+                assertEquals(profile.estimateConstraint(key, 10), loaded.estimateConstraint(key, 10), key);
+            }
+            for (Shape shape : shapes.getShapesGraph().getRootShapes()) {
+                Resource resource = shape.getShapeResource();
+                assertEquals(profile.estimateShape(resource), loaded.estimateShape(resource), resource.toString());
+            }
+            assertTrue(profile.estimateShape(COSTLY_SHAPE) < Double.POSITIVE_INFINITY);
+        }
+    }
+
+    @Nested
+    class Scheduling {
+        // Records the order in which shapes start, which is the order they are submitted on a single thread
+        private class StartedShapes extends ThreadedProgressMonitor {
+            private final List<Resource> started = Collections.synchronizedList(new ArrayList<>());
+
+            @Override
+            void shapeStarted(Resource shape, long evaluations, int constraintTasks) {
+                super.shapeStarted(shape, evaluations, constraintTasks);
+                started.add(shape);
+            }
+        }
+
+        // Returns the order in which the cheap and costly shapes start
+        private List<Resource> validate(ShapeCostProfile profile, boolean conformance)
+                throws InterruptedException, ExecutionException {
+            ThreadedValidationEngine engine = ThreadedValidationEngineTest.createEngine(
+                    ThreadedValidationEngineTest.createThings(10, 0), SHAPES, -1);
+            engine.setCostProfile(profile);
+            StartedShapes monitor = new StartedShapes();
+            engine.setProgressMonitor(monitor);
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                if (conformance) {
+                    assertTrue(engine.validateConformance(executor));
+                } else {
+                    engine.validateAll(executor);
+                }
+            } finally {
+                executor.shutdown();
+            }
+            return monitor.started.stream()
+                    .filter(shape -> shape.equals(CHEAP_SHAPE) || shape.equals(COSTLY_SHAPE))
+                    .collect(Collectors.toList());
+        }
+
+        private ShapeCostProfile createProfile(Resource cheap, Resource costly) {
+            ShapeCostProfile profile = new ShapeCostProfile();
+            profile.update(createMetadata(cheap, "cheap", 10, 10), 10);
+            profile.update(createMetadata(costly, "costly", 1000, 10), 10);
+            return profile;
+        }
+
+        @Test
+        void costlierShapeFirst() throws InterruptedException, ExecutionException {
+            // regardless of the order of the shapes graph
+            assertEquals(Arrays.asList(COSTLY_SHAPE, CHEAP_SHAPE),
+                    validate(createProfile(CHEAP_SHAPE, COSTLY_SHAPE), false));
+            assertEquals(Arrays.asList(CHEAP_SHAPE, COSTLY_SHAPE),
+                    validate(createProfile(COSTLY_SHAPE, CHEAP_SHAPE), false));
+        }
+
+        @Test
+        void unknownShapeFirst() throws InterruptedException, ExecutionException {
+            ShapeCostProfile profile = new ShapeCostProfile();
+            profile.update(createMetadata(COSTLY_SHAPE, "costly", 1000, 10), 10);
+            assertEquals(Arrays.asList(CHEAP_SHAPE, COSTLY_SHAPE), validate(profile, false));
+        }
+
+        @Test
+        void cheaperShapeFirstForConformance() throws InterruptedException, ExecutionException {
+            assertEquals(Arrays.asList(CHEAP_SHAPE, COSTLY_SHAPE),
+                    validate(createProfile(CHEAP_SHAPE, COSTLY_SHAPE), true));
+            assertEquals(Arrays.asList(COSTLY_SHAPE, CHEAP_SHAPE),
+                    validate(createProfile(COSTLY_SHAPE, CHEAP_SHAPE), true));
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.ncc.aif;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Iterables;
+import com.google.common.io.Resources;
+import org.apache.jena.graph.Node;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFList;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.ResourceFactory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.topbraid.shacl.engine.Constraint;
+import org.topbraid.shacl.engine.Shape;
+import org.topbraid.shacl.engine.ShapesGraph;
+import org.topbraid.shacl.validation.ValidationUtil;
+import org.topbraid.shacl.vocabulary.SH;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that a {@link ShapesSnapshot} resolves every shape reachable from the root shapes, and has no constraints for
+ * ignored and deactivated shapes.
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class ShapesSnapshotTest {
+    private static final String NS = "http://example.org/test#";
+    private static final List<Property> SHAPE_PROPERTIES = Arrays.asList(SH.property, SH.node, SH.not,
+            SH.qualifiedValueShape);
+    private static final List<Property> SHAPE_LIST_PROPERTIES = Arrays.asList(SH.and, SH.or,
+            ResourceFactory.createProperty(SH.NS, "xone"));
+    // Shapes nested in each way, including blank node shapes that are only referenced from other nested shapes
+    private static final String SHAPES = "@prefix sh: <http://www.w3.org/ns/shacl#> .\n" +
+            "@prefix ex: <" + NS + "> .\n" +
+            "ex:ThingShape a sh:NodeShape ; sh:targetClass ex:Thing ;\n" +
+            "    sh:node ex:NamedShape ;\n" +
+            "    sh:not [ sh:or ( [ sh:class ex:Other ] [ sh:node [ sh:datatype ex:Datatype ] ] ) ] ;\n" +
+            "    sh:and ( [ sh:nodeKind sh:IRI ] ) ;\n" +
+            "    sh:xone ( [ sh:property [ sh:path ex:alias ; sh:minCount 1 ] ]\n" +
+            "              [ sh:property [ sh:path ex:name ; sh:minCount 1 ] ] ) ;\n" +
+            "    sh:property [ sh:path ex:friend ;\n" +
+            "        sh:qualifiedValueShape [ sh:not [ sh:class ex:Other ] ] ; sh:qualifiedMinCount 1 ] .\n" +
+            "ex:NamedShape sh:property [ sh:path ex:name ; sh:maxCount 1 ] .\n" +
+            "ex:DeactivatedShape a sh:NodeShape ; sh:targetClass ex:Thing ; sh:deactivated true ;\n" +
+            "    sh:property [ sh:path ex:name ; sh:minCount 1 ] .\n" +
+            "ex:IgnoredShape a sh:NodeShape ; sh:targetClass ex:Thing ;\n" +
+            "    sh:property [ sh:path ex:name ; sh:minCount 1 ] .\n";
+
+    private static Model parse(String... resourceNames) {
+        Model model = ModelFactory.createDefaultModel();
+        for (String resourceName : resourceNames) {
+            ValidateAIF.loadModel(model, Resources.asCharSource(Resources.getResource("com/ncc/aif/" + resourceName),
+                    Charsets.UTF_8));
+        }
+        return model;
+    }
+
+    // Every shape reachable from the root shapes through the shape-valued properties and lists
+    private static Set<Resource> getReachableShapes(ShapesGraph shapesGraph) {
+        Set<Resource> reachable = new HashSet<>();
+        Deque<Resource> pending = new ArrayDeque<>();
+        shapesGraph.getRootShapes().forEach(shape -> pending.add(shape.getShapeResource()));
+        while (!pending.isEmpty()) {
+            Resource shape = pending.remove();
+            if (!reachable.add(shape)) {
+                continue;
+            }
+            List<RDFNode> nested = new ArrayList<>();
+            for (Property property : SHAPE_PROPERTIES) {
+                shape.listProperties(property).forEachRemaining(statement -> nested.add(statement.getObject()));
+            }
+            for (Property property : SHAPE_LIST_PROPERTIES) {
+                shape.listProperties(property).forEachRemaining(statement -> {
+                    if (statement.getObject().canAs(RDFList.class)) {
+                        nested.addAll(statement.getObject().as(RDFList.class).asJavaList());
+                    }
+                });
+            }
+            nested.stream().filter(RDFNode::isResource).forEach(node -> pending.add(node.asResource()));
+        }
+        return reachable;
+    }
+
+    // Asserts that each reachable shape is in the snapshot, with the constraints of its resolved shape
+    private static void assertReachableShapes(ShapesSnapshot snapshot, int minimum) {
+        ShapesGraph shapesGraph = snapshot.getShapesGraph();
+        Set<Resource> reachable = getReachableShapes(shapesGraph);
+        assertTrue(reachable.size() >= minimum, reachable.size() + " reachable shapes");
+        for (Resource shape : reachable) {
+            Node node = shape.asNode();
+            Shape resolved = snapshot.getShape(node);
+            assertNotNull(resolved, shape.toString());
+            assertSame(shapesGraph.getShape(node), resolved, shape.toString());
+            List<Constraint> constraints = snapshot.getConstraints(node);
+            assertNotNull(constraints, shape.toString());
+            if (!shapesGraph.isIgnored(node) && !resolved.getShapeResource().isDeactivated()) {
+                assertEquals(Iterables.size(resolved.getConstraints()), constraints.size(), shape.toString());
+            }
+        }
+        assertTrue(snapshot.size() >= reachable.size());
+    }
+
+    @Test
+    void aifShapes() {
+        Model shapesModel = ValidationUtil.ensureToshTriplesExist(parse("aida_ontology.shacl", "restricted_aif.shacl",
+                "restricted_hypothesis_aif.shacl"));
+        assertReachableShapes(ShapesSnapshot.of(new ShapesGraph(shapesModel)), 100);
+    }
+
+    @Test
+    void nestedShapes() {
+        Model shapesModel = ValidationUtil.ensureToshTriplesExist(ThreadedValidationEngineTest.parse(SHAPES));
+        ShapesSnapshot snapshot = ShapesSnapshot.of(new ShapesGraph(shapesModel));
+        // ex:ThingShape and the 12 blank node shapes nested in it, and ex:NamedShape and its property shape
+        assertReachableShapes(snapshot, 15);
+        Resource thingShape = shapesModel.createResource(NS + "ThingShape");
+        assertTrue(getReachableShapes(snapshot.getShapesGraph()).contains(thingShape));
+        assertFalse(snapshot.getConstraints(thingShape.asNode()).isEmpty());
+        assertNull(snapshot.getShape(shapesModel.createResource(NS + "Thing").asNode()));
+    }
+
+    @Test
+    void ignoredAndDeactivatedShapes() {
+        Model shapesModel = ValidationUtil.ensureToshTriplesExist(ThreadedValidationEngineTest.parse(SHAPES));
+        Resource ignored = shapesModel.createResource(NS + "IgnoredShape");
+        Resource deactivated = shapesModel.createResource(NS + "DeactivatedShape");
+        ShapesGraph shapesGraph = new ShapesGraph(shapesModel);
+        shapesGraph.setShapeFilter(shape -> !shape.equals(ignored));
+        assertTrue(shapesGraph.isIgnored(ignored.asNode()));
+
+        ShapesSnapshot snapshot = ShapesSnapshot.of(shapesGraph);
+        for (Resource shape : new Resource[] { ignored, deactivated }) {
+            assertNotNull(snapshot.getShape(shape.asNode()), shape.toString());
+            assertEquals(new ArrayList<>(), snapshot.getConstraints(shape.asNode()), shape.toString());
+            // only because the shape is not validated
+            assertFalse(Iterables.isEmpty(snapshot.getShape(shape.asNode()).getConstraints()), shape.toString());
+        }
+        assertFalse(snapshot.getConstraints(shapesModel.createResource(NS + "ThingShape").asNode()).isEmpty());
+    }
+}
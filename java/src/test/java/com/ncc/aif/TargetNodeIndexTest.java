@@ -0,0 +1,165 @@
+package com.ncc.aif;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.topbraid.shacl.engine.Shape;
+import org.topbraid.shacl.util.SHACLUtil;
+import org.topbraid.shacl.validation.ValidationUtil;
+import org.topbraid.shacl.vocabulary.SH;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that {@link TargetNodeIndex} has the same target nodes as {@link SHACLUtil#getTargetNodes(Resource, Dataset)}
+ * for the shapes it indexes, and that shapes with other targets are left to it.
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class TargetNodeIndexTest {
+    private static final String AIF_ROOT = "com/ncc/aif/";
+    private static final String NS = "http://example.org/test#";
+    // Shapes with each kind of target, all of which require an ex:name
+    private static final String SHAPES = "@prefix sh: <http://www.w3.org/ns/shacl#> .\n" +
+            "@prefix rdfs: <http://www.w3.org/2000/01/rdf-schema#> .\n" +
+            "@prefix ex: <" + NS + "> .\n" +
+            "ex:ClassShape a sh:NodeShape ; sh:targetClass ex:Thing, ex:Other ;\n" +
+            "    sh:property ex:NameShape .\n" +
+            "ex:Thing a sh:NodeShape, rdfs:Class ;\n" +
+            "    sh:property ex:NameShape .\n" +
+            "ex:NodeShape a sh:NodeShape ; sh:targetNode ex:thing-0, ex:thing-1 ;\n" +
+            "    sh:property ex:NameShape .\n" +
+            "ex:SubjectsOfShape a sh:NodeShape ; sh:targetSubjectsOf ex:friend ;\n" +
+            "    sh:property ex:NameShape .\n" +
+            "ex:ObjectsOfShape a sh:NodeShape ; sh:targetObjectsOf ex:friend ;\n" +
+            "    sh:property ex:NameShape .\n" +
+            "ex:SPARQLTargetShape a sh:NodeShape ;\n" +
+            "    sh:target [ a sh:SPARQLTarget ;\n" +
+            "        sh:select \"SELECT ?this WHERE { ?this a <" + NS + "Other> }\" ] ;\n" +
+            "    sh:property ex:NameShape .\n" +
+            "ex:MixedShape a sh:NodeShape ; sh:targetClass ex:Other ; sh:targetNode ex:thing-2 ;\n" +
+            "    sh:property ex:NameShape .\n" +
+            "ex:NameShape a sh:PropertyShape ; sh:path ex:name ; sh:minCount 1 .\n";
+
+    @BeforeAll
+    void initTest() {
+        // prevent too much logging from the validations
+        ((Logger) org.slf4j.LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.INFO);
+    }
+
+    private static Model load(String... resourceNames) {
+        Model model = ModelFactory.createDefaultModel();
+        for (String resourceName : resourceNames) {
+            ValidateAIF.loadModel(model, Resources.asCharSource(Resources.getResource(AIF_ROOT + resourceName),
+                    Charsets.UTF_8));
+        }
+        return model;
+    }
+
+    // Things, some of which are of a subclass or also of another class, some named and some friends of others
+    private static Model createThings() {
+        Model model = ModelFactory.createDefaultModel();
+        Resource thing = model.createResource(NS + "Thing");
+        Resource subThing = model.createResource(NS + "SubThing").addProperty(RDFS.subClassOf, thing);
+        Resource other = model.createResource(NS + "Other");
+        for (int i = 0; i < 20; i++) {
+            Resource node = model.createResource(NS + "thing-" + i, i % 4 == 0 ? subThing : thing);
+            if (i % 3 == 0) {
+                node.addProperty(RDF.type, other);
+            }
+            if (i % 2 == 0) {
+                node.addProperty(model.createProperty(NS + "name"), "Thing " + i);
+            }
+            node.addProperty(model.createProperty(NS + "friend"), model.createResource(NS + "thing-" + i * 7 % 20));
+        }
+        return model;
+    }
+
+    // Asserts the index has the same target nodes as TopBraid for each shape it indexes, and returns how many it does
+    private static int assertSameTargets(PreparedShapesGraph shapes, Model data) {
+        List<Shape> rootShapes = shapes.getShapesGraph().getRootShapes();
+        TargetNodeIndex index = TargetNodeIndex.of(data, rootShapes, ClassHierarchyIndex.of(data.getGraph()));
+        Dataset dataset = shapes.createDataset(data);
+        int indexed = 0;
+        for (Shape shape : rootShapes) {
+            Resource resource = shape.getShapeResource();
+            List<RDFNode> nodes = index.getTargetNodes(resource);
+            if (nodes != null) {
+                indexed++;
+                List<RDFNode> expected = SHACLUtil.getTargetNodes(resource, dataset);
+                assertEquals(new HashSet<>(expected), new HashSet<>(nodes), resource.toString());
+                assertEquals(expected.size(), nodes.size(), resource.toString());
+            }
+        }
+        assertEquals(indexed, index.size());
+        return indexed;
+    }
+
+    @Test
+    void sameAsTopBraid() {
+        PreparedShapesGraph shapes = PreparedShapesGraph.of(load("aida_ontology.shacl", "restricted_aif.shacl",
+                "restricted_hypothesis_aif.shacl"));
+        Model ontologies = load("ontologies/InterchangeOntology", "ontologies/AidaDomainOntologiesCommon",
+                "ontologies/LDCOntology");
+        for (boolean valid : new boolean[] { true, false }) {
+            Model data = ModelFactory.createUnion(ScalingTest.generateModel(50, 20, valid, 1), ontologies);
+            int indexed = assertSameTargets(shapes, data);
+            assertTrue(indexed > 0);
+            TargetNodeIndex index = TargetNodeIndex.of(data, shapes.getShapesGraph().getRootShapes(),
+                    ClassHierarchyIndex.of(data.getGraph()));
+            assertFalse(index.getTargetNodes(ShaclShapes.EntityShape).isEmpty());
+        }
+    }
+
+    @Test
+    void otherTargets() throws InterruptedException, ExecutionException {
+        Model shapesModel = ThreadedValidationEngineTest.parse(SHAPES);
+        PreparedShapesGraph shapes = PreparedShapesGraph.of(shapesModel);
+        Model data = createThings();
+        assertSameTargets(shapes, data);
+
+        TargetNodeIndex index = TargetNodeIndex.of(data, shapes.getShapesGraph().getRootShapes(),
+                ClassHierarchyIndex.of(data.getGraph()));
+        // instances of the subclass, and of either target class
+        assertEquals(20, index.getTargetNodes(shapesModel.createResource(NS + "Thing")).size());
+        assertEquals(20, index.getTargetNodes(shapesModel.createResource(NS + "ClassShape")).size());
+        for (String shape : new String[] { "NodeShape", "SubjectsOfShape", "ObjectsOfShape", "SPARQLTargetShape",
+                "MixedShape" }) {
+            assertNull(index.getTargetNodes(shapesModel.createResource(NS + shape)), shape);
+        }
+
+        // which the engine validates without the index
+        Resource expected = ValidationUtil.validateModel(data, shapesModel, true);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            ThreadedValidationEngine engine = ThreadedValidationEngineTest.createEngine(data, shapesModel, -1);
+            assertEquals(ThreadedValidationEngineTest.describeResults(Collections.singleton(expected)),
+                    ThreadedValidationEngineTest.describeResults(engine.validateAll(executor)));
+        } finally {
+            executor.shutdown();
+        }
+        assertNotNull(expected.getPropertyResourceValue(SH.result));
+    }
+}
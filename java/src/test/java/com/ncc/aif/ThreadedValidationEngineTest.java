@@ -0,0 +1,863 @@
+package com.ncc.aif;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.vocabulary.RDF;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.junit.jupiter.api.io.TempDir;
+import org.topbraid.jenax.progress.NullProgressMonitor;
+import org.topbraid.shacl.validation.ValidationEngineConfiguration;
+import org.topbraid.shacl.validation.ValidationUtil;
+import org.topbraid.shacl.vocabulary.SH;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of {@link ThreadedValidationEngine} against small SHACL shapes, each of which exercises one feature of the
+ * engine.
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class ThreadedValidationEngineTest {
+    private static final String NS = "http://example.org/test#";
+    private static final String PREFIXES = "@prefix sh: <http://www.w3.org/ns/shacl#> .\n" +
+            "@prefix xsd: <http://www.w3.org/2001/XMLSchema#> .\n" +
+            "@prefix ex: <" + NS + "> .\n";
+    // Each ex:Thing must have an ex:name
+    private static final String NAME_SHAPES = PREFIXES +
+            "ex:ThingShape a sh:NodeShape ; sh:targetClass ex:Thing ;\n" +
+            "    sh:property [ sh:path ex:name ; sh:minCount 1 ] .\n";
+    // Each ex:Thing must have an ex:name that is a string, and at most one ex:alias that is an IRI
+    private static final String THING_SHAPES = PREFIXES +
+            "ex:ThingShape a sh:NodeShape ; sh:targetClass ex:Thing ;\n" +
+            "    sh:property [ sh:path ex:name ; sh:minCount 1 ; sh:datatype xsd:string ] ;\n" +
+            "    sh:property [ sh:path ex:alias ; sh:maxCount 1 ; sh:nodeKind sh:IRI ] .\n";
+    // Each friend of an ex:Thing is checked against nested shapes in every way
+    private static final String NESTED_SHAPES = PREFIXES +
+            "ex:NamedShape a sh:NodeShape ; sh:property [ sh:path ex:name ; sh:minCount 1 ] .\n" +
+            "ex:AliasedShape a sh:NodeShape ; sh:property [ sh:path ex:alias ; sh:minCount 1 ] .\n" +
+            "ex:ThingShape a sh:NodeShape ; sh:targetClass ex:Thing ;\n" +
+            "    sh:property [ sh:path ex:friend ; sh:node ex:NamedShape ] ;\n" +
+            "    sh:property [ sh:path ex:friend ; sh:or ( ex:NamedShape ex:AliasedShape ) ] ;\n" +
+            "    sh:property [ sh:path ex:friend ; sh:not ex:AliasedShape ] ;\n" +
+            "    sh:property [ sh:path ex:friend ; sh:xone ( ex:NamedShape ex:AliasedShape ) ] .\n";
+    // Each friend of an ex:Thing must have exactly one of three shapes, with TopBraid's message or a custom one
+    private static final String XONE_SHAPES = PREFIXES +
+            "ex:NamedShape a sh:NodeShape ; sh:property [ sh:path ex:name ; sh:minCount 1 ] .\n" +
+            "ex:AliasedShape a sh:NodeShape ; sh:property [ sh:path ex:alias ; sh:minCount 1 ] .\n" +
+            "ex:FriendlyShape a sh:NodeShape ; sh:property [ sh:path ex:friend ; sh:minCount 1 ] .\n" +
+            "ex:ThingShape a sh:NodeShape ; sh:targetClass ex:Thing ;\n" +
+            "    sh:property [ sh:path ex:friend ; sh:xone ( ex:NamedShape ex:AliasedShape ex:FriendlyShape ) ] .\n";
+    private static final String XONE_MESSAGE_SHAPES = PREFIXES +
+            "ex:NamedShape a sh:NodeShape ; sh:property [ sh:path ex:name ; sh:minCount 1 ] .\n" +
+            "ex:AliasedShape a sh:NodeShape ; sh:property [ sh:path ex:alias ; sh:minCount 1 ] .\n" +
+            "ex:FriendlyShape a sh:NodeShape ; sh:property [ sh:path ex:friend ; sh:minCount 1 ] .\n" +
+            "ex:ThingShape a sh:NodeShape ; sh:targetClass ex:Thing ;\n" +
+            "    sh:property [ sh:path ex:friend ; sh:xone ( ex:NamedShape ex:AliasedShape ex:FriendlyShape ) ;\n" +
+            "                  sh:message \"Friend is not exactly one kind of thing\" ] .\n";
+    // Shapes with the same local name as ex:ThingShape in another namespace, and without a name (a blank node)
+    private static final String SAME_NAME_SHAPES = "@prefix ex2: <http://example.org/other#> .\n" +
+            "ex2:ThingShape a sh:NodeShape ; sh:targetClass ex:Thing ;\n" +
+            "    sh:property [ sh:path ex:name ; sh:maxCount 1 ] .\n" +
+            "[] a sh:NodeShape ; sh:targetClass ex:Thing ;\n" +
+            "    sh:property [ sh:path ex:alias ; sh:nodeKind sh:IRI ] .\n";
+    private static final Resource THING = ModelFactory.createDefaultModel().createResource(NS + "Thing");
+    private static final Property NAME = ModelFactory.createDefaultModel().createProperty(NS + "name");
+    private static final Property ALIAS = ModelFactory.createDefaultModel().createProperty(NS + "alias");
+    private static final Property FRIEND = ModelFactory.createDefaultModel().createProperty(NS + "friend");
+    private static final int THREADS = 4;
+
+    private ExecutorService executor;
+    private ForkJoinPool pool;
+
+    @BeforeAll
+    void initTest() {
+        ((Logger) org.slf4j.LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.INFO);
+        executor = Executors.newFixedThreadPool(THREADS);
+        pool = new ForkJoinPool(THREADS);
+    }
+
+    @AfterAll
+    void shutdown() {
+        executor.shutdownNow();
+        pool.shutdownNow();
+    }
+
+    static Model parse(String turtle) {
+        Model model = ModelFactory.createDefaultModel();
+        RDFParser.fromString(turtle).lang(Lang.TURTLE).parse(model);
+        return model;
+    }
+
+    // count things, of which the ones from named on have a name
+    static Model createThings(int count, int named) {
+        Model model = ModelFactory.createDefaultModel();
+        for (int i = 0; i < count; i++) {
+            Resource thing = model.createResource(NS + "thing-" + i, THING);
+            if (i >= named) {
+                thing.addProperty(NAME, "Thing " + i);
+            }
+        }
+        return model;
+    }
+
+    // things that violate the constraints of THING_SHAPES in different ways
+    static Model createMixedThings(int count) {
+        Model model = ModelFactory.createDefaultModel();
+        for (int i = 0; i < count; i++) {
+            Resource thing = model.createResource(NS + "thing-" + i, THING);
+            switch (i % 5) {
+                case 0:
+                    break;
+                case 1:
+                    thing.addLiteral(NAME, i);
+                    break;
+                case 2:
+                    thing.addProperty(NAME, "Thing " + i);
+                    thing.addProperty(ALIAS, "thing " + i);
+                    thing.addProperty(ALIAS, model.createResource(NS + "alias-" + i));
+                    break;
+                default:
+                    thing.addProperty(NAME, "Thing " + i);
+                    thing.addProperty(ALIAS, model.createResource(NS + "alias-" + i));
+            }
+        }
+        return model;
+    }
+
+    // things with two friends each, most of which are friends of several things, some named and some aliased
+    static Model createFriends(int count) {
+        Model model = ModelFactory.createDefaultModel();
+        for (int i = 0; i < count; i++) {
+            Resource thing = model.createResource(NS + "thing-" + i, THING);
+            thing.addProperty(FRIEND, model.createResource(NS + "thing-" + i * 7 % count));
+            thing.addProperty(FRIEND, model.createResource(NS + "thing-" + i * 13 % count));
+            if (i % 3 == 0) {
+                thing.addProperty(NAME, "Thing " + i);
+            }
+            if (i % 4 == 0) {
+                thing.addProperty(ALIAS, model.createResource(NS + "alias-" + i));
+            }
+        }
+        return model;
+    }
+
+    static ThreadedValidationEngine createEngine(Model data, String shapes, int abortThreshold) {
+        return createEngine(data, parse(shapes), abortThreshold);
+    }
+
+    static ThreadedValidationEngine createEngine(Model data, Model shapes, int abortThreshold) {
+        return ThreadedValidationEngine.createValidationEngine(data, shapes,
+                new ValidationEngineConfiguration().setValidateShapes(true).setValidationErrorBatch(abortThreshold));
+    }
+
+    static int countResults(Set<Resource> reports) {
+        return reports.stream().mapToInt(report -> report.listProperties(SH.result).toList().size()).sum();
+    }
+
+    // The results of all reports, each described by its focus node, shape, component, severity, message and value
+    static List<String> describeResults(Set<Resource> reports) {
+        List<String> results = new ArrayList<>();
+        for (Resource report : reports) {
+            for (Statement s : report.listProperties(SH.result).toList()) {
+                Resource result = s.getResource();
+                Statement message = result.getProperty(SH.resultMessage);
+                results.add(describeResult(getObject(result, SH.focusNode),
+                        result.getPropertyResourceValue(SH.sourceShape),
+                        result.getPropertyResourceValue(SH.sourceConstraintComponent),
+                        result.getPropertyResourceValue(SH.resultSeverity),
+                        message == null ? null : message.getLiteral().getLexicalForm(), getObject(result, SH.value)));
+            }
+        }
+        Collections.sort(results);
+        return results;
+    }
+
+    private static RDFNode getObject(Resource resource, Property property) {
+        Statement s = resource.getProperty(property);
+        return s == null ? null : s.getObject();
+    }
+
+    static String describeResult(RDFNode focusNode, Resource sourceShape, Resource sourceConstraintComponent,
+                                 Resource severity, String message, RDFNode value) {
+        return focusNode + " " + sourceShape + " " + sourceConstraintComponent + " " + severity + " " + message + " " +
+                value;
+    }
+
+    static boolean isAborted(Set<Resource> reports) {
+        return reports.stream().anyMatch(report -> report.hasProperty(ThreadedValidationEngine.SH_ABORTED));
+    }
+
+    @Nested
+    class RunState {
+        @Test
+        void validateAllTwiceWithAbortThreshold() throws InterruptedException, ExecutionException {
+            ThreadedValidationEngine engine = createEngine(createThings(200, 200), NAME_SHAPES, 10);
+            engine.setChunkSize(10);
+            for (int run = 0; run < 2; run++) {
+                Set<Resource> reports = engine.validateAll(executor);
+                assertEquals(10, countResults(reports), "Results of run " + run);
+                assertTrue(isAborted(reports), "Run " + run + " is aborted");
+            }
+        }
+
+        @Test
+        void validateAllTwiceWithoutAbortThreshold() throws InterruptedException, ExecutionException {
+            ThreadedValidationEngine engine = createEngine(createThings(100, 30), NAME_SHAPES, -1);
+            engine.setChunkSize(7);
+            for (int run = 0; run < 2; run++) {
+                Set<Resource> reports = engine.validateAll(executor);
+                assertEquals(30, countResults(reports), "Results of run " + run);
+                assertFalse(isAborted(reports), "Run " + run + " is aborted");
+            }
+        }
+
+        @Test
+        void validateConformanceAfterDataIsFixed() throws InterruptedException, ExecutionException {
+            Model data = createThings(50, 1);
+            ThreadedValidationEngine engine = createEngine(data, NAME_SHAPES, -1);
+            assertFalse(engine.validateConformance(executor));
+            data.add(data.createResource(NS + "thing-0"), NAME, "Thing 0");
+            assertTrue(engine.validateConformance(executor));
+        }
+
+        @Test
+        void validateAllAfterConformance() throws InterruptedException, ExecutionException {
+            ThreadedValidationEngine engine = createEngine(createThings(40, 40), NAME_SHAPES, -1);
+            assertFalse(engine.validateConformance(executor));
+            Set<Resource> reports = engine.validateAll(executor);
+            assertEquals(40, countResults(reports));
+            assertFalse(isAborted(reports));
+        }
+
+        @Test
+        void abortThresholdAcrossThreads() throws InterruptedException, ExecutionException {
+            // One task per focus node, so that all threads race for the last slots of the budget
+            ThreadedValidationEngine engine = createEngine(createThings(500, 500), NAME_SHAPES, 25);
+            engine.setChunkSize(1);
+            for (int run = 0; run < 10; run++) {
+                Set<Resource> reports = engine.validateAll(executor);
+                assertEquals(25, countResults(reports), "Results of run " + run);
+                assertTrue(isAborted(reports), "Run " + run + " is aborted");
+            }
+        }
+    }
+
+    @Nested
+    class WorkStealing {
+        // Counts the shapes started on a worker of the pool, whose constraint tasks are forked rather than submitted
+        private class ForkCounter extends ThreadedProgressMonitor {
+            private final AtomicInteger forked = new AtomicInteger();
+
+            @Override
+            void shapeStarted(Resource shape, long evaluations, int constraintTasks) {
+                super.shapeStarted(shape, evaluations, constraintTasks);
+                if (ForkJoinTask.getPool() == pool && constraintTasks > 0) {
+                    forked.incrementAndGet();
+                }
+            }
+        }
+
+        @Test
+        void sameResultsAsFixedPool() throws InterruptedException, ExecutionException {
+            Model data = createMixedThings(50);
+            for (int chunkSize : new int[] { 0, 7, ThreadedValidationEngine.ADAPTIVE_CHUNK_SIZE }) {
+                ThreadedValidationEngine engine = createEngine(data, THING_SHAPES, -1);
+                engine.setChunkSize(chunkSize);
+                List<String> expected = describeResults(engine.validateAll(executor));
+                assertFalse(expected.isEmpty());
+                ForkCounter counter = new ForkCounter();
+                engine.setProgressMonitor(counter);
+                for (int run = 0; run < 3; run++) {
+                    assertEquals(expected, describeResults(engine.validateAll(pool)),
+                            "chunk size " + chunkSize + ", run " + run);
+                }
+                assertTrue(counter.forked.get() > 0, "chunk size " + chunkSize);
+            }
+        }
+
+        @Test
+        void conformance() throws InterruptedException, ExecutionException {
+            for (int chunkSize : new int[] { 0, 7 }) {
+                ThreadedValidationEngine engine = createEngine(createThings(100, 1), NAME_SHAPES, -1);
+                engine.setChunkSize(chunkSize);
+                assertFalse(engine.validateConformance(pool), "chunk size " + chunkSize);
+                assertTrue(createEngine(createThings(100, 0), NAME_SHAPES, -1).validateConformance(pool));
+            }
+        }
+
+        @Test
+        void abortThreshold() throws InterruptedException, ExecutionException {
+            ThreadedValidationEngine engine = createEngine(createThings(200, 200), NAME_SHAPES, 10);
+            engine.setChunkSize(1);
+            for (int run = 0; run < 3; run++) {
+                Set<Resource> reports = engine.validateAll(pool);
+                assertEquals(10, countResults(reports), "Results of run " + run);
+                assertTrue(isAborted(reports), "Run " + run + " is aborted");
+            }
+        }
+
+        @Test
+        void validateKB() {
+            ValidateAIF validator = ValidateAIF.createForLDCOntology(ValidateAIF.Restriction.NIST);
+            validator.setThreadCount(THREADS);
+            for (int seed = 1; seed <= 3; seed++) {
+                Model kb = ScalingTest.generateModel(20, 8, seed == 1, seed);
+                validator.setWorkStealing(false);
+                Resource expected = validator.validateKBAndReturnReport(kb);
+                validator.setWorkStealing(true);
+                ValidationReports.assertSameResults(expected, validator.validateKBAndReturnReport(kb),
+                        "KB " + seed);
+                assertEquals(seed == 1, validator.validateKB(kb), "KB " + seed);
+                assertTrue(validator.getExecutor() instanceof ForkJoinPool);
+            }
+            validator.setThreadCount(1);
+        }
+    }
+
+    @Nested
+    class Conformance {
+        // Counts the focus nodes that constraint tasks start to validate
+        private class CheckCounter extends ThreadedProgressMonitor {
+            private final AtomicInteger checked = new AtomicInteger();
+
+            @Override
+            void focusNodeChecked() {
+                super.focusNodeChecked();
+                checked.incrementAndGet();
+            }
+        }
+
+        // Conformance must agree with the full report, whether it stops at the first violation or not
+        private void assertSameConformance(Model data, String shapes, ExecutorService service)
+                throws InterruptedException, ExecutionException {
+            ThreadedValidationEngine engine = createEngine(data, shapes, -1);
+            engine.setChunkSize(3);
+            boolean conforms = ValidateAIF.isValidSetOfReports(engine.validateAll(service));
+            assertEquals(conforms, engine.validateConformance(service));
+        }
+
+        @Test
+        void sameAsReport() throws InterruptedException, ExecutionException {
+            ExecutorService single = Executors.newSingleThreadExecutor();
+            try {
+                for (ExecutorService service : new ExecutorService[] { single, executor }) {
+                    assertSameConformance(createThings(100, 0), NAME_SHAPES, service);
+                    assertSameConformance(createThings(100, 99), NAME_SHAPES, service);
+                    assertSameConformance(createMixedThings(50), THING_SHAPES, service);
+                    assertSameConformance(createFriends(60), NESTED_SHAPES, service);
+                    assertSameConformance(createFriends(60), XONE_SHAPES, service);
+                }
+            } finally {
+                single.shutdown();
+            }
+        }
+
+        @Test
+        void validateKBSameAsReport() {
+            ValidateAIF validator = ValidateAIF.createForLDCOntology(ValidateAIF.Restriction.NIST);
+            List<Model> kbs = new ArrayList<>();
+            for (int seed = 1; seed <= 4; seed++) {
+                kbs.add(ScalingTest.generateModel(20, 8, seed == 1, seed));
+            }
+            // a single violation
+            Model oneViolation = ModelFactory.createDefaultModel().add(kbs.get(0));
+            oneViolation.listSubjectsWithProperty(RDF.type, AidaAnnotationOntology.ENTITY_CLASS).next()
+                    .addProperty(RDF.type, AidaAnnotationOntology.RELATION_CLASS);
+            kbs.add(oneViolation);
+
+            for (int threads : new int[] { 1, THREADS }) {
+                validator.setThreadCount(threads);
+                for (int i = 0; i < kbs.size(); i++) {
+                    boolean conforms = ValidateAIF.isValidReport(validator.validateKBAndReturnReport(kbs.get(i)));
+                    assertEquals(i == 0, conforms, "KB " + i);
+                    // which task finds the first violation, and when the others stop, differs between runs
+                    for (int run = 0; run < 5; run++) {
+                        assertEquals(conforms, validator.validateKB(kbs.get(i)),
+                                "KB " + i + " with " + threads + " threads, run " + run);
+                    }
+                }
+            }
+            validator.setThreadCount(1);
+        }
+
+        @Test
+        void validateKBWithDepthSameAsReport() {
+            ValidateAIF validator = ValidateAIF.createForLDCOntology(ValidateAIF.Restriction.NIST);
+            validator.setDepth(1);
+            // a single violation on one of the first entities, which a shallow validation may not reach
+            Model valid = ScalingTest.generateModel(20, 8, true, 1);
+            List<Model> kbs = new ArrayList<>();
+            for (Resource entity : valid.listSubjectsWithProperty(RDF.type, AidaAnnotationOntology.ENTITY_CLASS)
+                    .toList().subList(0, 5)) {
+                Model kb = ModelFactory.createDefaultModel().add(valid);
+                kb.wrapAsResource(entity.asNode()).addProperty(RDF.type, AidaAnnotationOntology.RELATION_CLASS);
+                kbs.add(kb);
+            }
+            AtomicInteger worked = new AtomicInteger();
+            validator.setProgressMonitor(new NullProgressMonitor() {
+                @Override
+                public void worked(int amount) {
+                    worked.addAndGet(amount);
+                }
+            });
+
+            int shallowValid = 0;
+            for (int threads : new int[] { 1, THREADS }) {
+                validator.setThreadCount(threads);
+                for (int i = 0; i < kbs.size(); i++) {
+                    boolean conforms = ValidateAIF.isValidReport(validator.validateKBAndReturnReport(kbs.get(i)));
+                    worked.set(0);
+                    assertEquals(conforms, validator.validateKB(kbs.get(i)), "KB " + i + " with " + threads +
+                            " threads");
+                    if (threads == 1) {
+                        // shallow validation is only supported for multi-threaded validations
+                        assertFalse(conforms, "KB " + i);
+                        // and single-threaded validations report progress to any progress monitor
+                        assertTrue(worked.get() > 0);
+                    } else if (conforms) {
+                        shallowValid++;
+                    }
+                }
+            }
+            assertTrue(shallowValid > 0, "no violation was missed by shallow validation");
+            validator.setThreadCount(1);
+        }
+
+        @Test
+        void firstViolationStopsOutstandingTasks() throws InterruptedException, ExecutionException {
+            // One task per focus node, each of which violates the shape
+            ThreadedValidationEngine engine = createEngine(createThings(400, 400), NAME_SHAPES, -1);
+            engine.setChunkSize(1);
+            CheckCounter counter = new CheckCounter();
+            engine.setProgressMonitor(counter);
+            engine.validateAll(executor);
+            assertEquals(400, counter.checked.get());
+
+            counter.checked.set(0);
+            assertFalse(engine.validateConformance(executor));
+            // tasks that were running may check their focus node, but all others are skipped
+            assertTrue(counter.checked.get() <= 2 * THREADS, counter.checked.get() + " focus nodes checked");
+        }
+    }
+
+    @Nested
+    class Progress {
+        // Sums the evaluations that shapes announce and that their constraint tasks complete
+        private class EvaluationCounter extends ThreadedProgressMonitor {
+            private final AtomicLong total = new AtomicLong();
+            private final AtomicLong completed = new AtomicLong();
+
+            @Override
+            void shapeStarted(Resource shape, long evaluations, int constraintTasks) {
+                super.shapeStarted(shape, evaluations, constraintTasks);
+                total.addAndGet(evaluations);
+            }
+
+            @Override
+            void constraintCompleted(Resource shape, String constraintName, int evaluations, long duration) {
+                super.constraintCompleted(shape, constraintName, evaluations, duration);
+                completed.addAndGet(evaluations);
+            }
+        }
+
+        private void assertAllEvaluationsCompleted(boolean fusePropertyShapes)
+                throws InterruptedException, ExecutionException {
+            ThreadedValidationEngine engine = createEngine(createMixedThings(50), THING_SHAPES, -1);
+            engine.setChunkSize(7);
+            engine.setFusePropertyShapes(fusePropertyShapes);
+            EvaluationCounter counter = new EvaluationCounter();
+            engine.setProgressMonitor(counter);
+            engine.validateAll(executor);
+            // 50 things times 2 property shapes
+            assertEquals(100, counter.total.get());
+            assertEquals(counter.total.get(), counter.completed.get());
+        }
+
+        @Test
+        void separatePropertyShapes() throws InterruptedException, ExecutionException {
+            assertAllEvaluationsCompleted(false);
+        }
+
+        @Test
+        void fusedPropertyShapes() throws InterruptedException, ExecutionException {
+            assertAllEvaluationsCompleted(true);
+        }
+
+        @Test
+        void shapesWithoutDistinctLocalNames(@TempDir Path directory) throws Exception {
+            // shapes in different namespaces with the same local name, and a blank node shape
+            String shapes = PREFIXES + SAME_NAME_SHAPES +
+                    "ex:ThingShape a sh:NodeShape ; sh:targetClass ex:Thing ;\n" +
+                    "    sh:property [ sh:path ex:name ; sh:minCount 1 ] .\n";
+            ThreadedValidationEngine engine = createEngine(createMixedThings(50), shapes, -1);
+            engine.setChunkSize(7);
+            Path file = directory.resolve("progress.tsv");
+            engine.setProgressMonitor(new ThreadedProgressMonitor(file.toString()));
+            engine.validateAll(executor);
+
+            List<String> rows = Files.readAllLines(file);
+            String[] done = rows.get(rows.size() - 1).split("\t");
+            assertEquals("DONE", done[1]);
+            // completed/started/total, including the shapes that validate the SHACL
+            String[] shapeCounts = done[5].split("/");
+            assertEquals(shapeCounts[2], shapeCounts[0], done[5]);
+            assertEquals(shapeCounts[2], shapeCounts[1], done[5]);
+        }
+    }
+
+    @Nested
+    class Timeouts {
+        // Each ex:Thing must have an ex:name, and a deliberately slow sh:sparql constraint, which finds nothing, joins
+        // the names of all things with each other
+        private final String slowShapes = PREFIXES +
+                "ex:ThingShape a sh:NodeShape ; sh:targetClass ex:Thing ; sh:property ex:NameShape, ex:SlowShape .\n" +
+                "ex:NameShape a sh:PropertyShape ; sh:path ex:name ; sh:minCount 1 .\n" +
+                "ex:SlowShape a sh:PropertyShape ; sh:path ex:name ; sh:sparql [ sh:select \"\"\"\n" +
+                "    PREFIX ex: <" + NS + ">\n" +
+                "    SELECT $this ?value WHERE {\n" +
+                "        $this $PATH ?value . ?a ex:name ?v . ?b ex:name ?w . ?c ex:name ?x . ?d ex:name ?y .\n" +
+                "        FILTER (CONCAT(?v, ?w, ?x, ?y) = \"none\")\n" +
+                "    }\"\"\" ] .\n";
+
+        // Validates with the specified budgets, and returns the shape, component and constraint of each SH_TIMED_OUT
+        private Set<List<String>> validateTimedOut(boolean fusePropertyShapes, long constraintTimeout,
+                                                   long shapeTimeout) throws InterruptedException, ExecutionException {
+            return validateTimedOut(slowShapes, fusePropertyShapes, constraintTimeout, shapeTimeout);
+        }
+
+        private Set<List<String>> validateTimedOut(String shapes, boolean fusePropertyShapes, long constraintTimeout,
+                                                   long shapeTimeout) throws InterruptedException, ExecutionException {
+            ThreadedValidationEngine engine = createEngine(createThings(30, 0), shapes, -1);
+            engine.setChunkSize(10);
+            engine.setFusePropertyShapes(fusePropertyShapes);
+            engine.setConstraintTimeout(constraintTimeout);
+            engine.setShapeTimeout(shapeTimeout);
+            Set<Resource> reports = engine.validateAll(executor);
+            assertTrue(engine.isTimedOut());
+
+            Set<List<String>> timedOut = new HashSet<>();
+            for (Resource report : reports) {
+                for (Statement s : report.listProperties(ThreadedValidationEngine.SH_TIMED_OUT).toList()) {
+                    Resource marker = s.getResource();
+                    timedOut.add(Arrays.asList(String.valueOf(marker.getPropertyResourceValue(SH.sourceShape)),
+                            String.valueOf(marker.getPropertyResourceValue(SH.sourceConstraintComponent)),
+                            String.valueOf(marker.getPropertyResourceValue(SH.sourceConstraint))));
+                }
+            }
+            return timedOut;
+        }
+
+        private List<String> propertyShape(String localName) {
+            return Arrays.asList(NS + "ThingShape", SH.PropertyConstraintComponent.getURI(), NS + localName);
+        }
+
+        @Test
+        void constraintTimeout() throws InterruptedException, ExecutionException {
+            // listed once, rather than once per chunk
+            assertEquals(Collections.singleton(propertyShape("SlowShape")), validateTimedOut(false, 300, 0));
+        }
+
+        @Test
+        void fusedConstraintTimeout() throws InterruptedException, ExecutionException {
+            // each property shape validated by the fused tasks is partial
+            assertEquals(new HashSet<>(Arrays.asList(propertyShape("NameShape"), propertyShape("SlowShape"))),
+                    validateTimedOut(true, 300, 0));
+        }
+
+        @Test
+        void shapeTimeout() throws InterruptedException, ExecutionException {
+            Set<List<String>> timedOut = validateTimedOut(false, 0, 300);
+            assertTrue(timedOut.contains(propertyShape("SlowShape")), timedOut::toString);
+        }
+
+        @Test
+        void fusedShapeTimeout() throws InterruptedException, ExecutionException {
+            assertEquals(new HashSet<>(Arrays.asList(propertyShape("NameShape"), propertyShape("SlowShape"))),
+                    validateTimedOut(true, 0, 300));
+        }
+
+        @Test
+        void shapeTimeoutPerShape() throws InterruptedException, ExecutionException {
+            // the budgets of the other shapes are not spent by ex:ThingShape
+            for (boolean fusePropertyShapes : new boolean[] { false, true }) {
+                Set<List<String>> timedOut = validateTimedOut(slowShapes + SAME_NAME_SHAPES, fusePropertyShapes, 0,
+                        300);
+                assertFalse(timedOut.isEmpty());
+                timedOut.forEach(marker -> assertEquals(NS + "ThingShape", marker.get(0), timedOut::toString));
+            }
+        }
+    }
+
+    @Nested
+    class ResultListener {
+        private final Collection<String> streamed = new ConcurrentLinkedQueue<>();
+
+        private ThreadedValidationEngine createListenedEngine(int abortThreshold) {
+            ThreadedValidationEngine engine = createEngine(createMixedThings(300), THING_SHAPES, abortThreshold);
+            engine.setChunkSize(5);
+            engine.setValidationResultListener((focusNode, shape, component, severity, message, value) ->
+                    streamed.add(describeResult(focusNode, shape, component, severity, message, value)));
+            return engine;
+        }
+
+        private List<String> getStreamed() {
+            List<String> results = new ArrayList<>(streamed);
+            Collections.sort(results);
+            return results;
+        }
+
+        @Test
+        void streamedResultsMatchReport() throws InterruptedException, ExecutionException {
+            Set<Resource> reports = createListenedEngine(-1).validateAll(executor);
+            List<String> reported = describeResults(reports);
+            // 60 without a name, 60 with a name that is not a string, 60 with two aliases, one of which is a literal
+            assertEquals(240, reported.size());
+            assertEquals(reported, getStreamed());
+        }
+
+        @Test
+        void streamedResultsWithoutReport() throws InterruptedException, ExecutionException {
+            // The same engine, so that results name the same (blank node) shapes
+            ThreadedValidationEngine engine = createListenedEngine(-1);
+            List<String> reported = describeResults(engine.validateAll(executor));
+            streamed.clear();
+            engine.setReportResults(false);
+            Set<Resource> reports = engine.validateAll(executor);
+            assertEquals(0, countResults(reports));
+            assertFalse(ValidateAIF.isValidSetOfReports(reports));
+            assertEquals(reported, getStreamed());
+        }
+
+        @Test
+        void abortThresholdStopsStream() throws InterruptedException, ExecutionException {
+            for (boolean reportResults : new boolean[] { true, false }) {
+                streamed.clear();
+                ThreadedValidationEngine engine = createListenedEngine(17);
+                engine.setReportResults(reportResults);
+                Set<Resource> reports = engine.validateAll(executor);
+                assertTrue(isAborted(reports));
+                assertEquals(17, streamed.size());
+                if (reportResults) {
+                    assertEquals(describeResults(reports), getStreamed());
+                }
+            }
+        }
+    }
+
+    @Nested
+    class NestedShapeCache {
+        private final Model shapes = parse(NESTED_SHAPES);
+
+        private List<String> validate(Model data, long cacheSize, ExecutorService service)
+                throws InterruptedException, ExecutionException {
+            ThreadedValidationEngine engine = createEngine(data, shapes, -1);
+            engine.setHasShapeCacheSize(cacheSize);
+            engine.setChunkSize(10);
+            List<String> results = describeResults(engine.validateAll(service));
+            assertNull(engine.getHasShapeCache());
+            if (cacheSize > 0) {
+                assertTrue(engine.getHasShapeCacheStats().hitCount() > 0);
+            } else {
+                assertNull(engine.getHasShapeCacheStats());
+            }
+            return results;
+        }
+
+        // TopBraid's engine checks each nested shape with a new engine and without a cache
+        private List<String> validateWithTopBraid(Model data) {
+            return describeResults(Collections.singleton(ValidationUtil.validateModel(data, shapes, true)));
+        }
+
+        @Test
+        void sameResultsWithAndWithoutCache() throws InterruptedException, ExecutionException {
+            Model data = createFriends(200);
+            List<String> expected = validateWithTopBraid(data);
+            assertFalse(expected.isEmpty());
+            assertEquals(expected, validate(data, ThreadedValidationEngine.DEFAULT_HAS_SHAPE_CACHE_SIZE, executor));
+            assertEquals(expected, validate(data, 0, executor));
+            // evicting most entries must not change results either
+            assertEquals(expected, validate(data, 10, executor));
+        }
+
+        @Test
+        void noEntriesBetweenRuns() throws InterruptedException, ExecutionException {
+            Model data = createFriends(200);
+            ThreadedValidationEngine engine = createEngine(data, shapes, -1);
+            engine.setChunkSize(10);
+            assertEquals(validateWithTopBraid(data), describeResults(engine.validateAll(executor)));
+            assertNull(engine.getHasShapeCache());
+
+            // Every friend now conforms to ex:NamedShape, and none to ex:AliasedShape, which flips most nested checks
+            for (Resource thing : data.listSubjectsWithProperty(RDF.type, THING).toList()) {
+                thing.removeAll(ALIAS);
+                if (!thing.hasProperty(NAME)) {
+                    thing.addProperty(NAME, "Renamed");
+                }
+            }
+            List<String> expected = validateWithTopBraid(data);
+            assertTrue(expected.isEmpty());
+            assertEquals(expected, describeResults(engine.validateAll(executor)));
+        }
+    }
+
+    @Nested
+    class NestedEngine {
+        private final Model shapes = parse(NESTED_SHAPES);
+
+        @Test
+        void singleThreadReusesChildEngine() throws InterruptedException, ExecutionException {
+            // One thread answers all nested checks with one child engine, alternating between conforming and not
+            Model data = createFriends(200);
+            List<String> expected =
+                    describeResults(Collections.singleton(ValidationUtil.validateModel(data, shapes, true)));
+            ExecutorService singleThread = Executors.newSingleThreadExecutor();
+            try {
+                for (long cacheSize : new long[] { ThreadedValidationEngine.DEFAULT_HAS_SHAPE_CACHE_SIZE, 0 }) {
+                    ThreadedValidationEngine engine = createEngine(data, shapes, -1);
+                    engine.setHasShapeCacheSize(cacheSize);
+                    assertEquals(expected, describeResults(engine.validateAll(singleThread)));
+                }
+            } finally {
+                singleThread.shutdown();
+            }
+        }
+
+        @Test
+        void childEngineKeepsNoStateBetweenChecks() {
+            Model data = createFriends(12);
+            // nested violations must not count against the abort threshold of the invoking engine
+            ThreadedValidationEngine engine = createEngine(data, shapes, 1);
+            ThreadedValidationEngine child = engine.getNestedEngine();
+            assertSame(child, engine.getNestedEngine());
+            Resource named = shapes.getResource(NS + "NamedShape");
+            Resource aliased = shapes.getResource(NS + "AliasedShape");
+            for (int round = 0; round < 3; round++) {
+                for (int i = 0; i < 12; i++) {
+                    Resource thing = data.getResource(NS + "thing-" + i);
+                    assertEquals(i % 3 == 0, child.conformsTo(thing, named), thing + " is named");
+                    assertEquals(i % 4 == 0, child.conformsTo(thing, aliased), thing + " is aliased");
+                }
+            }
+        }
+    }
+
+    @Nested
+    class Xone {
+        // Friends of things have the friendly shape, some also have names or aliases, and one has no shape at all
+        private Model createXoneFriends() {
+            Model data = createFriends(60);
+            data.add(data.getResource(NS + "thing-1"), FRIEND, data.createResource(NS + "loner"));
+            return data;
+        }
+
+        private List<String> validateWithTopBraid(Model data, Model shapes) throws Exception {
+            return TopBraidExecutors.call(Collections.singleton(SH.XoneConstraintComponent), () ->
+                    describeResults(Collections.singleton(ValidationUtil.validateModel(data, shapes, true))));
+        }
+
+        // Number of value nodes that the sh:xone constraint checks
+        private int countValueNodes(Model data) {
+            return data.listSubjectsWithProperty(RDF.type, THING).toList().stream()
+                    .mapToInt(thing -> thing.listProperties(FRIEND).toList().size()).sum();
+        }
+
+        @Test
+        void countMessage() throws Exception {
+            Model data = createXoneFriends();
+            ThreadedValidationEngine engine = createEngine(data, XONE_SHAPES, -1);
+            List<String> results = describeResults(engine.validateAll(executor));
+            for (int shapeCount : new int[] { 0, 2, 3 }) {
+                String message = "Value node has " + shapeCount + " of the shapes from the 'exactly one' list";
+                assertTrue(results.stream().anyMatch(result -> result.contains(message)), message);
+            }
+            // the same results as TopBraid's executor, but for the messages
+            assertEquals(validateWithTopBraid(data, parse(XONE_SHAPES)).size(), results.size());
+
+            // Every value node was checked against all shapes, to count them
+            assertEquals(3 * countValueNodes(data), engine.getHasShapeCacheStats().requestCount());
+        }
+
+        @Test
+        void focusNodeCountMessage() throws Exception {
+            // sh:xone of a node shape, which has no path
+            String shapes = PREFIXES +
+                    "ex:NamedShape a sh:NodeShape ; sh:property [ sh:path ex:name ; sh:minCount 1 ] .\n" +
+                    "ex:AliasedShape a sh:NodeShape ; sh:property [ sh:path ex:alias ; sh:minCount 1 ] .\n" +
+                    "ex:FriendlyShape a sh:NodeShape ; sh:property [ sh:path ex:friend ; sh:minCount 1 ] .\n" +
+                    "ex:ThingShape a sh:NodeShape ; sh:targetClass ex:Thing ;\n" +
+                    "    sh:xone ( ex:NamedShape ex:AliasedShape ex:FriendlyShape ) .\n";
+            List<String> results = describeResults(createEngine(createFriends(60), shapes, -1)
+                    .validateAll(executor));
+            assertFalse(results.isEmpty());
+            assertTrue(results.stream().allMatch(result ->
+                    result.matches(".*Focus node has [023] of the shapes from the 'exactly one' list.*")),
+                    results::toString);
+        }
+
+        @Test
+        void listMessage() throws Exception {
+            // a message of the sh:xone list takes precedence over that of the shape
+            String shapes = XONE_MESSAGE_SHAPES.replace("sh:xone ( ex:NamedShape ex:AliasedShape ex:FriendlyShape )",
+                    "sh:xone ex:FriendList") +
+                    "ex:FriendList rdf:first ex:NamedShape ; rdf:rest ( ex:AliasedShape ex:FriendlyShape ) ;\n" +
+                    "    sh:message \"Friend has more than one kind\" .\n";
+            Model data = createXoneFriends();
+            ThreadedValidationEngine engine = createEngine(data, "@prefix rdf: <" + RDF.getURI() + "> .\n" +
+                    shapes, -1);
+            List<String> results = describeResults(engine.validateAll(executor));
+            assertEquals(validateWithTopBraid(data, parse(XONE_SHAPES)).size(), results.size());
+            assertTrue(results.stream().allMatch(result -> result.contains("Friend has more than one kind") &&
+                    !result.contains("Friend is not exactly one kind of thing")), results::toString);
+
+            // the message does not report how many shapes a value node has, so checks stop at the second match
+            assertTrue(engine.getHasShapeCacheStats().requestCount() < 3 * countValueNodes(data));
+        }
+
+        @Test
+        void stopsAtSecondMatch() throws Exception {
+            Model data = createXoneFriends();
+            Model shapes = parse(XONE_MESSAGE_SHAPES);
+            ThreadedValidationEngine engine = createEngine(data, shapes, -1);
+            List<String> results = describeResults(engine.validateAll(executor));
+            assertEquals(validateWithTopBraid(data, shapes), results);
+            assertTrue(results.stream().allMatch(result -> result.contains("Friend is not exactly one kind of thing")));
+
+            // Friends with a name or an alias also have the friendly shape, so some of their checks stop early
+            int valueNodes = countValueNodes(data);
+            long checks = engine.getHasShapeCacheStats().requestCount();
+            assertTrue(checks < 3 * valueNodes, checks + " checks of " + valueNodes + " value nodes");
+            assertTrue(checks >= 2 * valueNodes, checks + " checks of " + valueNodes + " value nodes");
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.ncc.aif;
+
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.topbraid.shacl.engine.Constraint;
+import org.topbraid.shacl.validation.ConstraintExecutor;
+import org.topbraid.shacl.validation.ConstraintExecutors;
+import org.topbraid.shacl.validation.ValidationEngineConfiguration;
+
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.function.Function;
+
+/**
+ * Temporarily replaces the executors that {@link ThreadedValidationEngine} installs for some constraint components
+ * with the ones TopBraid would use, so that tests can compare results against TopBraid's. Executors are chosen when
+ * a shapes graph first resolves a constraint, so validators must be created within {@link #call}.
+ */
+final class TopBraidExecutors {
+    private TopBraidExecutors() {
+    }
+
+    /**
+     * Calls <code>action</code> while TopBraid's executors are used for <code>components</code>.
+     */
+    static <T> T call(Collection<Resource> components, Callable<T> action) throws Exception {
+        // Make sure that this package's executors have been installed, so they are the ones restored below
+        ThreadedValidationEngine.createValidationEngine(ModelFactory.createDefaultModel(),
+                ModelFactory.createDefaultModel(), new ValidationEngineConfiguration());
+        Map<Resource, Function<Constraint, ConstraintExecutor>> installed = getSpecialExecutors();
+        Map<Resource, Function<Constraint, ConstraintExecutor>> replaced = new HashMap<>();
+        ConstraintExecutors topBraid = new ConstraintExecutors();
+        for (Resource component : components) {
+            replaced.put(component, installed.get(component));
+            ConstraintExecutors.get().addSpecialExecutor(component, topBraid::getExecutor);
+        }
+        try {
+            return action.call();
+        } finally {
+            for (Map.Entry<Resource, Function<Constraint, ConstraintExecutor>> entry : replaced.entrySet()) {
+                if (entry.getValue() == null) {
+                    ConstraintExecutors.get().removeSpecialExecutor(entry.getKey());
+                } else {
+                    ConstraintExecutors.get().addSpecialExecutor(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<Resource, Function<Constraint, ConstraintExecutor>> getSpecialExecutors()
+            throws ReflectiveOperationException {
+        Field field = ConstraintExecutors.class.getDeclaredField("specialExecutors");
+        field.setAccessible(true);
+        return (Map<Resource, Function<Constraint, ConstraintExecutor>>) field.get(ConstraintExecutors.get());
+    }
+}
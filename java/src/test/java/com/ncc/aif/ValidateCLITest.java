@@ -1,14 +1,27 @@
 package com.ncc.aif;
 
 import com.google.common.io.Resources;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFFormat;
 import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import org.topbraid.shacl.vocabulary.SH;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
@@ -138,6 +151,216 @@ public class ValidateCLITest {
         }
     }
 
+    @Nested
+    class SampleArgument {
+        @Test
+        void sampleBadType() {
+            expectUsageError(ValidateAIFCli.ERR_BAD_ARGTYPE.replaceAll("%.", ""),
+                    "--ldc", "--depth", "--sample", "foobar", "-t", "2", "-f", "tmp.ttl");
+        }
+        @Test
+        void requiresDepth() {
+            expectUsageError(ValidateAIFCli.ERR_SAMPLE_REQUIRES_DEPTH, "--ldc", "--sample", "-t=2", "-f", "tmp.ttl");
+        }
+        @Test
+        void correctSample() {
+            expectCorrect("--ldc", "--depth", "--sample", "42", "-t=2", "-f", "tmp.ttl");
+        }
+        @Test
+        void correctSampleWithoutValue() {
+            expectCorrect("--ldc", "--depth", "--sample", "-t=2", "-f", "tmp.ttl");
+        }
+    }
+
+    @Nested
+    class ChunkArgument {
+        @Test
+        void chunkBadType() {
+            expectUsageError(ValidateAIFCli.ERR_BAD_ARGTYPE.replaceAll("%.", ""),
+                    "--ldc", "--chunk", "foobar", "-t", "2", "-f", "tmp.ttl");
+        }
+        @Test
+        void chunkTooLow() {
+            expectUsageError(ValidateAIFCli.ERR_SMALLER_THAN_MIN.replaceAll("%.", ""),
+                    "--ldc", "--chunk", "0", "-t=2", "-f", "tmp.ttl");
+        }
+        @Test
+        void correctChunk() {
+            expectCorrect("--ldc", "--chunk", "100", "-t=2", "-f", "tmp.ttl");
+        }
+        @Test
+        void requiresMultithreads() {
+            expectUsageError(ValidateAIFCli.ERR_CHUNK_REQUIRES_T, "--ldc", "--chunk", "-f", "tmp.ttl");
+        }
+        @Test
+        void correctChunkWithoutValue() {
+            expectCorrect("--ldc", "--chunk", "-t=2", "-f", "tmp.ttl");
+        }
+    }
+
+    @Nested
+    class TimeoutArgument {
+        @Test
+        void constraintTimeoutTooLow() {
+            expectUsageError(ValidateAIFCli.ERR_SMALLER_THAN_MIN.replaceAll("%.", ""),
+                    "--ldc", "--constraint-timeout", "0", "-t=2", "-f", "tmp.ttl");
+        }
+        @Test
+        void shapeTimeoutTooLow() {
+            expectUsageError(ValidateAIFCli.ERR_SMALLER_THAN_MIN.replaceAll("%.", ""),
+                    "--ldc", "--shape-timeout", "0", "-t=2", "-f", "tmp.ttl");
+        }
+        @Test
+        void constraintTimeoutRequiresMultithreads() {
+            expectUsageError(ValidateAIFCli.ERR_CONSTRAINT_TIMEOUT_REQUIRES_T,
+                    "--ldc", "--constraint-timeout", "60", "-f", "tmp.ttl");
+        }
+        @Test
+        void shapeTimeoutRequiresMultithreads() {
+            expectUsageError(ValidateAIFCli.ERR_SHAPE_TIMEOUT_REQUIRES_T,
+                    "--ldc", "--shape-timeout", "60", "-f", "tmp.ttl");
+        }
+        @Test
+        void correctTimeouts() {
+            expectCorrect("--ldc", "--constraint-timeout", "60", "--shape-timeout", "300", "-t=2", "-f", "tmp.ttl");
+        }
+    }
+
+    @Nested
+    class WorkStealingArgument {
+        @Test
+        void requiresMultithreads() {
+            expectUsageError(ValidateAIFCli.ERR_WORK_STEALING_REQUIRES_T, "--ldc", "--work-stealing", "-f", "tmp.ttl");
+        }
+        @Test
+        void correctWorkStealing() {
+            expectCorrect("--ldc", "--work-stealing", "-t=2", "-f", "tmp.ttl");
+        }
+    }
+
+    @Nested
+    class StreamArgument {
+        @Test
+        void requiresMultithreads() {
+            expectUsageError(ValidateAIFCli.ERR_STREAM_REQUIRES_T, "--ldc", "--stream", "-f", "tmp.ttl");
+        }
+        @Test
+        void correctStream() {
+            expectCorrect("--ldc", "--stream", "-t=2", "-f", "tmp.ttl");
+        }
+    }
+
+    @Nested
+    class CostProfileArgument {
+        @Test
+        void requiresMultithreads() {
+            expectUsageError(ValidateAIFCli.ERR_COST_PROFILE_REQUIRES_T,
+                    "--ldc", "--cost-profile", "costs.properties", "-f", "tmp.ttl");
+        }
+        @Test
+        void correctCostProfile() {
+            expectCorrect("--ldc", "--cost-profile", "costs.properties", "-t=2", "-f", "tmp.ttl");
+        }
+    }
+
+    @Nested
+    class FusePropertiesArgument {
+        @Test
+        void requiresMultithreads() {
+            expectUsageError(ValidateAIFCli.ERR_FUSE_PROPERTIES_REQUIRES_T, "--ldc", "--fuse-properties", "-f", "tmp.ttl");
+        }
+        @Test
+        void correctFuseProperties() {
+            expectCorrect("--ldc", "--fuse-properties", "-t=2", "-f", "tmp.ttl");
+        }
+    }
+
+    @Nested
+    class CacheArgument {
+        @Test
+        void tooManyResultFlags() {
+            expectUsageError(ValidateAIFCli.ERR_TOO_MANY_RESULT_FLAGS,
+                    "--ldc", "--cache", "target/cache", "--stream", "-t=2", "-f", "tmp.ttl");
+        }
+        @Test
+        void correctCache() {
+            expectCorrect("--ldc", "--cache", "target/cache", "-f", "tmp.ttl");
+        }
+
+        @TempDir
+        Path directory;
+
+        private String write(String name, Model kb) throws IOException {
+            File file = directory.resolve(name).toFile();
+            try (OutputStream out = Files.newOutputStream(file.toPath())) {
+                RDFDataMgr.write(out, kb, RDFFormat.TURTLE_PRETTY);
+            }
+            return file.toString();
+        }
+
+        private long countEntries() throws IOException {
+            try (Stream<Path> files = Files.list(directory.resolve("cache"))) {
+                return files.filter(file -> file.toString().endsWith(".properties")).count();
+            }
+        }
+
+        // Validates a KB with the cache, and returns whether the result was replayed from the cache
+        private boolean validate(ValidateAIFCli.ReturnCode code, String... args) throws IOException {
+            String[] cacheArgs = Arrays.copyOf(args, args.length + 2);
+            cacheArgs[args.length] = "--cache";
+            cacheArgs[args.length + 1] = directory.resolve("cache").toString();
+            baos.reset();
+            expect(ValidateAIFCli.START_MSG, code, cacheArgs);
+            return baos.toString().contains("Replaying cached result");
+        }
+
+        @Test
+        void replayCachedResult() throws IOException {
+            Model model = ScalingTest.generateModel(20, 8, false, 2);
+            int violations = ValidateAIF.createForLDCOntology(ValidateAIF.Restriction.NIST)
+                    .validateKBAndReturnReport(model).getModel()
+                    .listStatements(null, SH.resultSeverity, SH.Violation).toList().size();
+            String kb = write("invalid.ttl", model);
+            assertFalse(validate(ValidateAIFCli.ReturnCode.VALIDATION_ERROR, "--ldc", "--nist", "-f", kb));
+            assertEquals(1, countEntries());
+            assertTrue(validate(ValidateAIFCli.ReturnCode.VALIDATION_ERROR, "--ldc", "--nist", "-f", kb));
+            assertTrue(baos.toString().contains("Replaying cached result (" + violations + " SHACL violation(s))"),
+                    baos::toString);
+            // the threads do not change the result
+            assertTrue(validate(ValidateAIFCli.ReturnCode.VALIDATION_ERROR, "--ldc", "--nist", "-t=2", "-f", kb));
+
+            String valid = write("valid.ttl", ScalingTest.generateModel(20, 8, true, 1));
+            assertFalse(validate(ValidateAIFCli.ReturnCode.SUCCESS, "--ldc", "--nist", "-f", valid));
+            assertTrue(validate(ValidateAIFCli.ReturnCode.SUCCESS, "--ldc", "--nist", "-f", valid));
+            assertTrue(baos.toString().contains("Replaying cached result (valid)"), baos::toString);
+            assertEquals(2, countEntries());
+        }
+
+        @Test
+        void changedSettingsMissCache() throws IOException {
+            Model model = ScalingTest.generateModel(20, 8, false, 2);
+            String kb = write("kb.ttl", model);
+            assertFalse(validate(ValidateAIFCli.ReturnCode.VALIDATION_ERROR, "--ldc", "--nist", "-f", kb));
+
+            // KB, ontology, restriction, abort threshold and depth
+            model.add(model.createResource("http://example.org/test#thing"), SH.name, "Thing");
+            String changed = write("changed.ttl", model);
+            List<String[]> settings = Arrays.asList(
+                    new String[] { "--ldc", "--nist", "-f", changed },
+                    new String[] { "--program", "--nist", "-f", kb },
+                    new String[] { "--ldc", "-f", kb },
+                    new String[] { "--ldc", "--nist", "--abort", "3", "-f", kb },
+                    new String[] { "--ldc", "--nist", "--depth", "1", "-t=2", "-f", kb });
+            for (int i = 0; i < settings.size(); i++) {
+                String[] args = settings.get(i);
+                ValidateAIFCli.ReturnCode code = ValidateAIFCli.execute(args) == 0 ?
+                        ValidateAIFCli.ReturnCode.SUCCESS : ValidateAIFCli.ReturnCode.VALIDATION_ERROR;
+                assertFalse(validate(code, args), String.join(" ", args));
+                assertEquals(i + 2, countEntries(), String.join(" ", args));
+            }
+        }
+    }
+
     @Nested
     class HypothesisMaxSizeArgument {
         @Test
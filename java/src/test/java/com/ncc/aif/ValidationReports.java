@@ -0,0 +1,80 @@
+package com.ncc.aif;
+
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.Statement;
+import org.topbraid.shacl.arq.SHACLPaths;
+import org.topbraid.shacl.vocabulary.SH;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares validation reports by their results, for tests that validate the same KB in different ways.
+ */
+final class ValidationReports {
+    private ValidationReports() {
+    }
+
+    /**
+     * Describes each result of <code>report</code> by its focus node, result path, value, source shape, source
+     * constraint, constraint component, severity and messages. Shapes are the same nodes in reports of validators that share SHACL.
+     *
+     * @return the sorted descriptions, including one for each duplicate result
+     */
+    static List<String> describeResults(Resource report) {
+        List<String> results = new ArrayList<>();
+        for (Statement s : report.listProperties(SH.result).toList()) {
+            Resource result = s.getResource();
+            Statement path = result.getProperty(SH.resultPath);
+            List<String> messages = result.listProperties(SH.resultMessage).toList().stream()
+                    .map(message -> message.getObject().toString()).sorted().collect(Collectors.toList());
+            results.add(String.join(" | ",
+                    describe(result, SH.focusNode),
+                    path == null ? "no path" : path.getObject().isURIResource() ?
+                            path.getObject().toString() : SHACLPaths.getPathString(path.getResource()),
+                    describe(result, SH.value),
+                    describe(result, SH.sourceShape),
+                    describe(result, SH.sourceConstraint),
+                    describe(result, SH.sourceConstraintComponent),
+                    describe(result, SH.resultSeverity),
+                    messages.toString()));
+        }
+        Collections.sort(results);
+        return results;
+    }
+
+    /**
+     * Describes the results of all <code>reports</code>, such as those of a multi-threaded validation.
+     *
+     * @return the sorted descriptions of the results of all reports
+     */
+    static List<String> describeResults(Collection<Resource> reports) {
+        List<String> results = new ArrayList<>();
+        for (Resource report : reports) {
+            results.addAll(describeResults(report));
+        }
+        Collections.sort(results);
+        return results;
+    }
+
+    private static String describe(Resource result, Property property) {
+        Statement s = result.getProperty(property);
+        RDFNode object = s == null ? null : s.getObject();
+        return object == null ? "none" : object.toString();
+    }
+
+    /**
+     * Asserts that both reports have the same results and conformance.
+     */
+    static void assertSameResults(Resource expected, Resource actual, String description) {
+        assertEquals(ValidateAIF.isValidReport(expected), ValidateAIF.isValidReport(actual), description);
+        assertEquals(describeResults(expected), describeResults(actual), description);
+    }
+}
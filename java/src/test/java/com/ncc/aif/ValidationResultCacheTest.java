@@ -0,0 +1,143 @@
+package com.ncc.aif;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFFormat;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.junit.jupiter.api.io.TempDir;
+import org.topbraid.shacl.vocabulary.SH;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that {@link ValidationResultCache} replays the stored results of a validation, and that its keys change with
+ * the KB and the settings.
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class ValidationResultCacheTest {
+    private static final String VERSION = "1.0";
+    private static final List<String> SETTINGS = Arrays.asList("ontology=LDC", "restriction=NIST", "abort=-1",
+            "depth=0", "sample=null");
+
+    @TempDir
+    Path directory;
+
+    @BeforeAll
+    void initTest() {
+        // prevent too much logging from the validations
+        ((Logger) org.slf4j.LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.INFO);
+    }
+
+    private File write(String name, Model kb) throws IOException {
+        File file = directory.resolve(name).toFile();
+        try (OutputStream out = Files.newOutputStream(file.toPath())) {
+            RDFDataMgr.write(out, kb, RDFFormat.TURTLE_PRETTY);
+        }
+        return file;
+    }
+
+    private static int countViolations(Set<Resource> reports) {
+        return reports.stream()
+                .mapToInt(report -> report.getModel().listStatements(null, SH.resultSeverity, SH.Violation).toList()
+                        .size())
+                .sum();
+    }
+
+    @Test
+    void replay() throws IOException {
+        ValidateAIF validator = ValidateAIF.createForLDCOntology(ValidateAIF.Restriction.NIST);
+        ValidationResultCache cache = new ValidationResultCache(directory.resolve("replay"), VERSION);
+        List<Model> kbs = Arrays.asList(ScalingTest.generateModel(20, 8, true, 1),
+                ScalingTest.generateModel(20, 8, false, 2));
+        for (int threads : new int[] { 1, 4 }) {
+            validator.setThreadCount(threads);
+            for (int i = 0; i < kbs.size(); i++) {
+                File kb = write("kb-" + i + ".ttl", kbs.get(i));
+                String key = cache.createKey(kb, SETTINGS);
+                Set<Resource> reports = validator.validateKBAndReturnMultipleReports(kbs.get(i), null);
+                cache.put(key, reports);
+
+                // read by another cache in the same directory
+                ValidationResultCache.Entry entry =
+                        new ValidationResultCache(directory.resolve("replay"), VERSION).get(key);
+                String description = "KB " + i + " with " + threads + " threads";
+                assertEquals(ValidateAIF.isValidSetOfReports(reports), entry.isValid(), description);
+                assertEquals(i == 0, entry.isValid(), description);
+                assertEquals(countViolations(reports), entry.getViolationCount(), description);
+                assertEquals(reports.size(), entry.getReports().size(), description);
+                for (Resource cached : entry.getReports()) {
+                    assertTrue(reports.stream().anyMatch(report -> report.getModel().isIsomorphicWith(
+                            cached.getModel())), description);
+                }
+            }
+        }
+        validator.setThreadCount(1);
+    }
+
+    @Test
+    void keys() throws IOException {
+        ValidationResultCache cache = new ValidationResultCache(directory.resolve("keys"), VERSION);
+        Model model = ScalingTest.generateModel(20, 8, false, 2);
+        File kb = write("kb.ttl", model);
+        String key = cache.createKey(kb, SETTINGS);
+        assertEquals(key, cache.createKey(write("same-kb.ttl", model), SETTINGS));
+        List<String> reordered = new ArrayList<>(SETTINGS);
+        Collections.reverse(reordered);
+        assertEquals(key, cache.createKey(kb, reordered));
+
+        model.add(model.createResource("http://example.org/test#thing"), SH.name, "Thing");
+        assertNotEquals(key, cache.createKey(write("changed-kb.ttl", model), SETTINGS));
+        assertNotEquals(key, new ValidationResultCache(directory.resolve("keys"), "2.0").createKey(kb, SETTINGS));
+        for (int i = 0; i < SETTINGS.size(); i++) {
+            List<String> changed = new ArrayList<>(SETTINGS);
+            changed.set(i, SETTINGS.get(i) + "0");
+            assertNotEquals(key, cache.createKey(kb, changed), changed.get(i));
+        }
+    }
+
+    @Test
+    void missingEntry() throws IOException {
+        ValidationResultCache cache = new ValidationResultCache(directory.resolve("missing"), VERSION);
+        File kb = write("kb.ttl", ScalingTest.generateModel(20, 8, true, 1));
+        assertNull(cache.get(cache.createKey(kb, SETTINGS)));
+    }
+
+    @Test
+    void timedOutNotStored() throws IOException {
+        ValidationResultCache cache = new ValidationResultCache(directory.resolve("timed-out"), VERSION);
+        Model model = ScalingTest.generateModel(20, 8, false, 2);
+        String key = cache.createKey(write("kb.ttl", model), SETTINGS);
+        Set<Resource> reports = ValidateAIF.createForLDCOntology(ValidateAIF.Restriction.NIST)
+                .validateKBAndReturnMultipleReports(model, null);
+        Resource report = reports.iterator().next();
+        report.addProperty(ThreadedValidationEngine.SH_TIMED_OUT,
+                report.getModel().createResource().addProperty(SH.sourceShape, ShaclShapes.EntityShape));
+
+        assertNull(cache.put(key, reports));
+        assertNull(cache.get(key));
+        try (Stream<Path> files = Files.list(directory.resolve("timed-out"))) {
+            assertEquals(0, files.count());
+        }
+    }
+}